@@ -0,0 +1,38 @@
+package org.rostore.entity;
+
+import java.util.List;
+
+/**
+ * The load of the executor and of the shards of the opened containers.
+ */
+public class ExecutorMetrics {
+
+    private int queuedOperationNumber;
+    private List<ShardMetrics> shards;
+
+    public ExecutorMetrics() {
+    }
+
+    public ExecutorMetrics(final int queuedOperationNumber, final List<ShardMetrics> shards) {
+        this.queuedOperationNumber = queuedOperationNumber;
+        this.shards = shards;
+    }
+
+    /**
+     * The number of the operations that wait for a thread of the executor
+     *
+     * @return the number of operations
+     */
+    public int getQueuedOperationNumber() {
+        return queuedOperationNumber;
+    }
+
+    /**
+     * The metrics of the shards of all the opened containers
+     *
+     * @return the list of the shard metrics
+     */
+    public List<ShardMetrics> getShards() {
+        return shards;
+    }
+}
@@ -0,0 +1,93 @@
+package org.rostore.entity;
+
+/**
+ * The distribution of the durations recorded for a kind of operations.
+ * <p>The percentiles are the upper bounds of the histogram buckets the durations have been counted in,
+ * so they are a few percent above the exact values.</p>
+ */
+public class LatencyMetrics {
+
+    private long count, meanNanos, maxNanos, p50Nanos, p90Nanos, p99Nanos, p999Nanos;
+
+    public LatencyMetrics() {
+    }
+
+    public LatencyMetrics(final long count,
+                          final long meanNanos,
+                          final long maxNanos,
+                          final long p50Nanos,
+                          final long p90Nanos,
+                          final long p99Nanos,
+                          final long p999Nanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.maxNanos = maxNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    /**
+     * The number of the recorded durations
+     *
+     * @return the number of operations
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The average duration
+     *
+     * @return the duration in nanoseconds, {@code 0} if nothing has been recorded
+     */
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    /**
+     * The longest duration
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * The median duration
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    /**
+     * The duration 90% of the operations have not exceeded
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    /**
+     * The duration 99% of the operations have not exceeded
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    /**
+     * The duration 99.9% of the operations have not exceeded
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+}
@@ -0,0 +1,66 @@
+package org.rostore.entity;
+
+import org.rostore.v2.container.async.OperationTarget;
+import org.rostore.v2.container.async.OperationType;
+
+/**
+ * The durations of the operations of one kind executed on a shard.
+ */
+public class OperationMetrics {
+
+    private OperationTarget target;
+    private OperationType type;
+    private LatencyMetrics queueTime;
+    private LatencyMetrics executionTime;
+
+    public OperationMetrics() {
+    }
+
+    public OperationMetrics(final OperationTarget target,
+                            final OperationType type,
+                            final LatencyMetrics queueTime,
+                            final LatencyMetrics executionTime) {
+        this.target = target;
+        this.type = type;
+        this.queueTime = queueTime;
+        this.executionTime = executionTime;
+    }
+
+    /**
+     * The part of the shard the operations are executed on
+     *
+     * @return the keys or the values
+     */
+    public OperationTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * The type of the operations
+     *
+     * @return read, write or delete
+     */
+    public OperationType getType() {
+        return type;
+    }
+
+    /**
+     * The time from the request of the operation until it has been started in a thread,
+     * it includes waiting for the other operations on the shard and for a thread of the executor
+     *
+     * @return the distribution of the waiting time
+     */
+    public LatencyMetrics getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * The time the operation has been executed in its thread.
+     * <p>The key writes and deletes executed in a group are counted with the time of the whole group.</p>
+     *
+     * @return the distribution of the execution time
+     */
+    public LatencyMetrics getExecutionTime() {
+        return executionTime;
+    }
+}
@@ -0,0 +1,92 @@
+package org.rostore.entity;
+
+/**
+ * The counters of the read cache of the container.
+ * <p>The counters are collected since the container has been opened.</p>
+ */
+public class ReadCacheStatistics {
+
+    private long maxSize, size, entryNumber, hitNumber, missNumber, evictionNumber, invalidationNumber;
+
+    public ReadCacheStatistics() {
+    }
+
+    public ReadCacheStatistics(final long maxSize,
+                               final long size,
+                               final long entryNumber,
+                               final long hitNumber,
+                               final long missNumber,
+                               final long evictionNumber,
+                               final long invalidationNumber) {
+        this.maxSize = maxSize;
+        this.size = size;
+        this.entryNumber = entryNumber;
+        this.hitNumber = hitNumber;
+        this.missNumber = missNumber;
+        this.evictionNumber = evictionNumber;
+        this.invalidationNumber = invalidationNumber;
+    }
+
+    /**
+     * The maximum size of the cache, {@code 0} if the cache is disabled
+     *
+     * @return the size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The size of the cached entries, including the keys and the per-entry overhead
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * The number of cached entries
+     *
+     * @return the number of entries
+     */
+    public long getEntryNumber() {
+        return entryNumber;
+    }
+
+    /**
+     * The number of reads served from the cache
+     *
+     * @return the number of hits
+     */
+    public long getHitNumber() {
+        return hitNumber;
+    }
+
+    /**
+     * The number of reads that have been served from the shard
+     *
+     * @return the number of misses
+     */
+    public long getMissNumber() {
+        return missNumber;
+    }
+
+    /**
+     * The number of entries that have been dropped or not admitted to free the space for the others
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionNumber() {
+        return evictionNumber;
+    }
+
+    /**
+     * The number of entries that have been dropped as their keys have been changed or removed
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidationNumber() {
+        return invalidationNumber;
+    }
+}
@@ -0,0 +1,124 @@
+package org.rostore.entity;
+
+import java.util.List;
+
+/**
+ * The load and the durations of the operations of a container's shard.
+ * <p>The counters are collected since the shard has been opened.</p>
+ */
+public class ShardMetrics {
+
+    private String containerName;
+    private int shardIndex;
+    private boolean resharding;
+    private int keyOperationNumber;
+    private int valueOperationNumber;
+    private int waitingValueDeleteNumber;
+    private long cancelledValueReadNumber;
+    private long expiredOperationNumber;
+    private List<OperationMetrics> operations;
+
+    public ShardMetrics() {
+    }
+
+    public ShardMetrics(final String containerName,
+                        final int shardIndex,
+                        final boolean resharding,
+                        final int keyOperationNumber,
+                        final int valueOperationNumber,
+                        final int waitingValueDeleteNumber,
+                        final long cancelledValueReadNumber,
+                        final long expiredOperationNumber,
+                        final List<OperationMetrics> operations) {
+        this.containerName = containerName;
+        this.shardIndex = shardIndex;
+        this.resharding = resharding;
+        this.keyOperationNumber = keyOperationNumber;
+        this.valueOperationNumber = valueOperationNumber;
+        this.waitingValueDeleteNumber = waitingValueDeleteNumber;
+        this.cancelledValueReadNumber = cancelledValueReadNumber;
+        this.expiredOperationNumber = expiredOperationNumber;
+        this.operations = operations;
+    }
+
+    /**
+     * The name of the container the shard belongs to
+     *
+     * @return the container name
+     */
+    public String getContainerName() {
+        return containerName;
+    }
+
+    /**
+     * The index of the shard in its shard set
+     *
+     * @return the shard index
+     */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * Specifies if the shard belongs to the new shard set the container is being resharded to
+     *
+     * @return {@code true} for a shard of the new shard set
+     */
+    public boolean isResharding() {
+        return resharding;
+    }
+
+    /**
+     * The number of the key operations that are queued or running
+     *
+     * @return the number of operations
+     */
+    public int getKeyOperationNumber() {
+        return keyOperationNumber;
+    }
+
+    /**
+     * The number of the value operations that are waiting for a thread or running
+     *
+     * @return the number of operations
+     */
+    public int getValueOperationNumber() {
+        return valueOperationNumber;
+    }
+
+    /**
+     * The number of the value deletes waiting for the reads of the same value to complete
+     *
+     * @return the number of operations
+     */
+    public int getWaitingValueDeleteNumber() {
+        return waitingValueDeleteNumber;
+    }
+
+    /**
+     * The number of the value reads that have not been executed as the value was being deleted
+     *
+     * @return the number of cancelled reads
+     */
+    public long getCancelledValueReadNumber() {
+        return cancelledValueReadNumber;
+    }
+
+    /**
+     * The number of the operations that have not been executed as their deadline has passed
+     *
+     * @return the number of expired operations
+     */
+    public long getExpiredOperationNumber() {
+        return expiredOperationNumber;
+    }
+
+    /**
+     * The durations of the operations for every {@link OperationMetrics#getTarget()} and {@link OperationMetrics#getType()}
+     *
+     * @return the list of the operation metrics
+     */
+    public List<OperationMetrics> getOperations() {
+        return operations;
+    }
+}
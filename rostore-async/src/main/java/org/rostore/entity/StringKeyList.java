@@ -1,5 +1,6 @@
 package org.rostore.entity;
 
+import org.rostore.v2.container.async.OrderedKeyList;
 import org.rostore.v2.keys.KeyList;
 
 import java.nio.charset.StandardCharsets;
@@ -11,6 +12,7 @@ public class StringKeyList {
 
     private List<String> keys = new ArrayList<>();
     private boolean more = false;
+    private String continuationToken;
 
     public StringKeyList() {
     }
@@ -25,6 +27,19 @@ public class StringKeyList {
         }
     }
 
+    /**
+     * Creates the list of the keys in the order they have been listed
+     *
+     * @param orderedKeyList the keys merged from all the shards
+     */
+    public StringKeyList(final OrderedKeyList orderedKeyList) {
+        for(byte[] key : orderedKeyList.getKeys()) {
+            keys.add(new String(key, StandardCharsets.UTF_8));
+        }
+        more = orderedKeyList.isMore();
+        continuationToken = orderedKeyList.getContinuationToken();
+    }
+
     public List<String> getKeys() {
         return keys;
     }
@@ -40,4 +55,17 @@ public class StringKeyList {
     public void setMore(boolean more) {
         this.more = more;
     }
+
+    /**
+     * Provides the token to request the next page of the ordered listing
+     *
+     * @return the token or {@code null} if there are no more keys or the keys are not ordered
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
 }
@@ -1,23 +1,47 @@
 package org.rostore.v2.container.async;
 
 import org.rostore.Utils;
+import org.rostore.entity.ContainerStatistics;
+import org.rostore.entity.ReadCacheStatistics;
 import org.rostore.entity.Record;
 import org.rostore.entity.RoStoreException;
+import org.rostore.entity.ShardMetrics;
+import org.rostore.entity.StreamProcessingException;
 import org.rostore.entity.StringKeyList;
+import org.rostore.entity.OptionMismatchException;
+import org.rostore.entity.ValueFormatException;
+import org.rostore.entity.media.ContainerMeta;
+import org.rostore.entity.media.RecordOption;
+import org.rostore.entity.media.ShardRouting;
 import org.rostore.v2.container.DataWithRecord;
+import org.rostore.v2.keys.KeyBatchResult;
+import org.rostore.v2.keys.KeyBlockLatchException;
 import org.rostore.v2.keys.KeyList;
 import org.rostore.v2.container.*;
+import org.rostore.v2.container.Properties;
 import org.rostore.mapper.BinaryMapper;
 import org.rostore.v2.media.Closeable;
 import org.rostore.v2.media.block.container.Status;
+import org.rostore.v2.data.DataTransferException;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * A representation of the rostore container.
@@ -27,13 +51,23 @@ import java.util.function.Function;
  * and should not be reused.</p>
  * <p>This class manages asynchronous operations on the shards and can only be closed if
  * all the operations are over.</p>
+ * <p>While the container is being resharded (see {@link #reshard(int, int, ShardRouting)}) the
+ * new entries are written to the new shards, the keys are looked up in both of the shard sets.</p>
+ * <p>If the container has a read cache (see {@link AsyncContainersProperties#getReadCacheSize()}), the small values are
+ * served from it without the operations on the shards, every write and removal of a key drops its cached value.</p>
+ * <p>The changes of several keys can be committed together, see {@link #commit(int, Transaction)}.</p>
+ * <p>The requests are checked by {@link ContainerShardExecutor#admit()} before their first operation is started,
+ * and rejected with {@link OperationRejectedException} if the shard or the executor is overloaded.</p>
  */
 public class AsyncContainer implements Closeable {
     private final Container container;
-    private final List<ContainerShardExecutor> containerShardExecutors;
+    private List<ContainerShardExecutor> containerShardExecutors;
+    private List<ContainerShardExecutor> reshardingShardExecutors;
+    private CompletableFuture<Long> reshardingFuture;
     private long lastExecutorWentIdleTimestamp;
     private boolean shutdown;
     private AsyncContainers asyncContainers;
+    private final ReadCache readCache;
 
     /**
      * Will close the instance in case no active key operation has been observed
@@ -72,10 +106,8 @@ public class AsyncContainer implements Closeable {
 
     private synchronized void shutdown() {
         shutdown =  true;
-        for (int i = 0; i < containerShardExecutors.size(); i++) {
-            if (containerShardExecutors.get(i) != null) {
-                containerShardExecutors.get(i).shutdown();
-            }
+        for (final ContainerShardExecutor containerShardExecutor : getAllShardExecutors()) {
+            containerShardExecutor.shutdown();
         }
     }
 
@@ -88,20 +120,40 @@ public class AsyncContainer implements Closeable {
         if (!shutdown) {
             throw new AsyncContainerAccessException("Can't wait for an active async container.");
         }
-        for (int i = 0; i < containerShardExecutors.size(); i++) {
-            if (containerShardExecutors.get(i) != null) {
-                containerShardExecutors.get(i).shutdownAndWait();
+        for (final ContainerShardExecutor containerShardExecutor : getAllShardExecutors()) {
+            containerShardExecutor.shutdownAndWait();
+        }
+    }
+
+    /**
+     * All the created executors of the current shards and of the shards the container is being resharded to
+     */
+    private synchronized List<ContainerShardExecutor> getAllShardExecutors() {
+        final List<ContainerShardExecutor> all = new ArrayList<>();
+        for (final ContainerShardExecutor containerShardExecutor : containerShardExecutors) {
+            if (containerShardExecutor != null) {
+                all.add(containerShardExecutor);
             }
         }
+        if (reshardingShardExecutors != null) {
+            for (final ContainerShardExecutor containerShardExecutor : reshardingShardExecutors) {
+                if (containerShardExecutor != null) {
+                    all.add(containerShardExecutor);
+                }
+            }
+        }
+        return all;
     }
 
 
+    private synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
     public synchronized boolean isIdle() {
-        boolean atLeastOneIsStillRunning = false;
-        for (int i = 0; i < containerShardExecutors.size(); i++) {
-            if (containerShardExecutors.get(i) != null) {
-                atLeastOneIsStillRunning = atLeastOneIsStillRunning || !containerShardExecutors.get(i).isIdle();
-            }
+        boolean atLeastOneIsStillRunning = reshardingFuture != null && !reshardingFuture.isDone();
+        for (final ContainerShardExecutor containerShardExecutor : getAllShardExecutors()) {
+            atLeastOneIsStillRunning = atLeastOneIsStillRunning || !containerShardExecutor.isIdle();
         }
         return atLeastOneIsStillRunning == false;
     }
@@ -123,6 +175,12 @@ public class AsyncContainer implements Closeable {
         }
         shutdown = false;
         lastExecutorWentIdleTimestamp = System.currentTimeMillis();
+        final long readCacheSize = asyncContainers.getProperties().getReadCacheSize();
+        readCache = readCacheSize > 0 ? new ReadCache(readCacheSize) : null;
+        if (container.isResharding()) {
+            // the resharding has been interrupted when the container was closed
+            startResharding(0);
+        }
     }
 
     private static <T> T resolveFuture(final Future<T> future) {
@@ -133,10 +191,23 @@ public class AsyncContainer implements Closeable {
         } catch(final OperationExecutionException e) {
             throw new OperationExecutionRuntimeException(e);
         } catch (final ExecutionException e) {
-            throw new RoStoreException("Unknown execution failure", e);
+            // the composed stages fail with the exception of the failed operation
+            throw new OperationExecutionRuntimeException(new OperationExecutionException(AsyncStream.unwrap(e.getCause())));
         }
     }
 
+    /**
+     * Provides the stage of the operation started on the shard.
+     * <p>The stage of the operation that has not been started as the shard is being shut down
+     * fails with {@link AsyncContainerAccessException}.</p>
+     */
+    private static <T> CompletableFuture<T> toCompletableFuture(final Future<T> future) {
+        if (future instanceof Operation) {
+            return ((Operation<T>) future).toCompletableFuture();
+        }
+        return CompletableFuture.failedFuture(new AsyncContainerAccessException("Shard is shutdown, operation has been interrupted."));
+    }
+
     /**
      * Puts a key-value pair to the container
      *
@@ -223,20 +294,43 @@ public class AsyncContainer implements Closeable {
     /**
      * Puts a key-value pair to container.
      *
+     * <p>The consumer writes the value directly to the blocks of the shard,
+     * the method returns when the key is stored.</p>
+     *
      * @param sessionId the id of the session
      * @param key the key data
      * @param valueOutputStream a consumer that should provide an OutputStream with the value
      * @param record the properties of the key-value pair (ttl, options, versions)
      */
     public void put(final int sessionId, final byte[] key, Consumer<OutputStream> valueOutputStream, Record record) {
-        try (final PipedOutputStream pipedOutputStream = new PipedOutputStream()) {
-            final PipedInputStream pipedInputStream = new PipedInputStream(pipedOutputStream);
-            final AsyncStream<PipedInputStream> asyncStream = AsyncStream.wrap(pipedInputStream);
-            putAsync(sessionId, key, asyncStream, record);
-            valueOutputStream.accept(pipedOutputStream);
-        } catch (final IOException e) {
-            throw new RoStoreException("Problem in the piped output", e);
-        }
+        resolveFuture(putAsync(sessionId, key, valueOutputStream, record));
+    }
+
+    /**
+     * Puts a key-value pair to container.
+     *
+     * <p>The consumer writes the value directly to the blocks of the shard. The key is stored
+     * in a key operation that is started as soon as the value is written, no thread waits for it.</p>
+     *
+     * @param sessionId the id of the session
+     * @param key the key data
+     * @param valueOutputStream a consumer that should provide an OutputStream with the value
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return the future of the stored record, it is complete when the key is stored
+     */
+    public CompletableFuture<Record> putAsync(final int sessionId, final byte[] key, final Consumer<OutputStream> valueOutputStream, final Record record) {
+        final ContainerShardExecutor shardExecutor = getShardExecutorByKey(key);
+        shardExecutor.admit();
+        return toCompletableFuture(shardExecutor.executeValue(sessionId, OperationType.WRITE, 0, true,
+            () -> {
+                if (isConditional(record)) {
+                    moveKeyIfResharding(sessionId, key);
+                }
+                // the value is written directly to the shard's blocks
+                record.id(shardExecutor.getShard().putValue(valueOutputStream));
+                return putKey(sessionId, shardExecutor, key, record, null);
+            }
+        )).thenCompose(Function.identity());
     }
 
     /**
@@ -248,96 +342,309 @@ public class AsyncContainer implements Closeable {
      * @param key the key data
      * @param asyncStream an async stream on the basis of InputStream to read from
      * @param <T> the subtype of the InputStream to read value
+     * @return the future of the stored record, see {@link #putAsync(int, byte[], AsyncStream, Record)}
      */
-    public <T extends InputStream> void putAsync(final int sessionId, final byte[] key, final AsyncStream<T> asyncStream) {
-        putAsync(sessionId, key, asyncStream, new Record());
+    public <T extends InputStream> CompletableFuture<Record> putAsync(final int sessionId, final byte[] key, final AsyncStream<T> asyncStream) {
+        return putAsync(sessionId, key, asyncStream, new Record());
     }
 
     /**
      * Puts a key-value pair to container.
      *
+     * <p>The value is written in a value operation, which starts the key operation as soon as the value
+     * is read from the stream, and the old value is freed in a further value operation once the key is replaced.
+     * The operations are chained without waiting for each other, the stream is marked as done when the key is stored.</p>
+     * <p>If the deadline of the stream (see {@link AsyncStream#deadline(long)}) passes before the value write is started,
+     * or while the value is read from the stream, nothing is stored and the stream fails with {@link OperationExpiredException}.
+     * Once the value is written, the key is stored regardless of the deadline.</p>
+     *
      * @param sessionId the id of the session
      * @param key the key data
      * @param asyncStream an async stream on the basis of InputStream to read from
      * @param record the properties of the key-value pair (ttl, options, versions)
      * @param <T> the subtype of the InputStream to read value
+     * @return the future of the stored record, it is complete when the key is stored
      */
-    public <T extends InputStream> void putAsync(final int sessionId, final byte[] key, final AsyncStream<T> asyncStream, final Record record) {
+    public <T extends InputStream> CompletableFuture<Record> putAsync(final int sessionId, final byte[] key, final AsyncStream<T> asyncStream, final Record record) {
         final ContainerShardExecutor shardExecutor = getShardExecutorByKey(key);
-        shardExecutor.executeValue(sessionId, OperationType.WRITE, 0, true,
+        shardExecutor.admit();
+        final CompletableFuture<Record> stored = toCompletableFuture(shardExecutor.executeValue(sessionId, OperationType.WRITE, 0, true,
+            asyncStream.getDeadline(),
             () -> {
-                asyncStream.processFunction((inputStream) -> {
+                if (isConditional(record)) {
+                    moveKeyIfResharding(sessionId, key);
+                }
+                return asyncStream.processStage((inputStream) -> {
                     // Start copying the data
-                    final long id = shardExecutor.getShard().putValue(inputStream);
-                    record.id(id);
-                    shardExecutor.executeKey(sessionId, OperationType.WRITE, false, (ops) -> {
-                        long prevId;
-                        try {
-                            prevId = ops.putKey(key, record);
-                            asyncStream.notifyRecord(record);
-                        } catch (final Exception e) {
-                            // clean up of the value if the key can't be created
-                            if (record.getId() != Utils.ID_UNDEFINED) {
-                                // if the record has been created, it needs to be removed
-                                shardExecutor.executeAutonomousValue(sessionId,
-                                        OperationType.DELETE,
-                                        record.getId(),
-                                        false,
-                                        () -> shardExecutor.getShard().removeValue(record.getId())
-                                );
-                            }
-                            throw e;
+                    final long id;
+                    try {
+                        id = shardExecutor.getShard().putValue(asyncStream.checked(inputStream));
+                    } catch (final DataTransferException e) {
+                        if (e.getCause() instanceof OperationExpiredException || e.getCause() instanceof CancellationException) {
+                            // the value has been unwound as the stream has been stopped
+                            throw (RuntimeException) e.getCause();
                         }
-                        // clean up of the previous value if the key has been created
-                        if (prevId != Utils.ID_UNDEFINED) {
-                            shardExecutor.executeAutonomousValue(sessionId, OperationType.DELETE, prevId, false, () ->
-                                    shardExecutor.getShard().removeValue(prevId)
-                            );
-                        }
-                        return record;
-                    }).get();
+                        throw e;
+                    }
+                    record.id(id);
+                    return putKey(sessionId, shardExecutor, key, record, asyncStream);
                 });
-                return true;
             }
-        );
+        )).thenCompose(Function.identity());
+        return stored.whenComplete((storedRecord, e) -> {
+            if (e != null && !asyncStream.isDone()) {
+                // the stream has not been processed at all
+                asyncStream.fail(AsyncStream.unwrap(e));
+            }
+        });
+    }
+
+    /**
+     * Starts the key operation that stores the key of the value that has just been written
+     *
+     * @return the future of the stored record
+     */
+    private CompletableFuture<Record> putKey(final int sessionId,
+                                             final ContainerShardExecutor shardExecutor,
+                                             final byte[] key,
+                                             final Record record,
+                                             final AsyncStream<?> asyncStream) {
+        // the value write is over as soon as the key operation is queued, the shard stays busy with the latter
+        if (record.getEol() == Utils.EOL_FOREVER && container.getDescriptor().getContainerMeta().getMaxTTL() == 0) {
+            // the update of the key that does not expire is done in place, in parallel with the other ones
+            return toCompletableFuture(shardExecutor.executeLatchedKey(sessionId, false,
+                    (ops) -> putKey(ops, sessionId, shardExecutor, key, record, asyncStream)));
+        }
+        return toCompletableFuture(shardExecutor.executeKey(sessionId, OperationType.WRITE, false,
+                (ops) -> putKey(ops, sessionId, shardExecutor, key, record, asyncStream)));
+    }
+
+    /**
+     * Stores the key of the value that has just been written and frees the value it replaces.
+     * <p>If the key can't be stored, the new value is freed.</p>
+     *
+     * @param asyncStream the stream to notify with the stored record, can be {@code null}
+     * @return the stored record
+     */
+    private Record putKey(final ContainerShardKeyOperations ops,
+                                 final int sessionId,
+                                 final ContainerShardExecutor shardExecutor,
+                                 final byte[] key,
+                                 final Record record,
+                                 final AsyncStream<?> asyncStream) {
+        long prevId;
+        try {
+            prevId = ops.putKey(key, record);
+            invalidateReadCache(ops, key);
+            if (asyncStream != null) {
+                asyncStream.notifyRecord(record);
+            }
+        } catch (final KeyBlockLatchException e) {
+            // the key is stored by the regular write, the value is still needed
+            throw e;
+        } catch (final Exception e) {
+            // clean up of the value if the key can't be created
+            if (record.getId() != Utils.ID_UNDEFINED) {
+                // if the record has been created, it needs to be removed
+                shardExecutor.executeAutonomousValue(sessionId,
+                        OperationType.DELETE,
+                        record.getId(),
+                        false,
+                        () -> shardExecutor.getShard().removeValue(record.getId())
+                );
+            }
+            throw e;
+        }
+        // clean up of the previous value once the key is committed
+        removeValueAfterCommit(ops, sessionId, shardExecutor, prevId);
+        return record;
     }
 
     /**
      * Gets a value based on key from container.
      *
+     * <p>The key lookup and the value read are chained without waiting for each other.</p>
+     * <p>If the deadline of the stream (see {@link AsyncStream#deadline(long)}) passes before the operations are started,
+     * or while the value is written to the stream, the stream fails with {@link OperationExpiredException}.</p>
+     *
      * @param sessionId the id of the session
      * @param key the key data
      * @param asyncStream an async stream on the basis of OutputStream to read the value from
      * @param <T> the subtype of the OutputStream to read value
+     * @return the future of the record of the key, {@code null} if the key is not found,
+     * it is complete when the value is written to the stream
+     */
+    public <T extends OutputStream> CompletableFuture<Record> getAsync(final int sessionId, final byte[] key, final AsyncStream<T> asyncStream) {
+        long readCacheStamp = 0;
+        if (readCache != null) {
+            readCacheStamp = readCache.startRead(key);
+            final ReadCache.Entry entry = readCache.get(key);
+            if (entry != null) {
+                return getCached(entry, asyncStream);
+            }
+        }
+        final ContainerShardExecutor[] shardExecutors = getReadShardExecutorsByKey(key);
+        shardExecutors[0].admit();
+        final CompletableFuture<Record> result = new CompletableFuture<>();
+        getAsync(sessionId, key, asyncStream, shardExecutors, 0, readCacheStamp, result);
+        return result;
+    }
+
+    /**
+     * Serves the value from the read cache in the caller's thread
+     */
+    private static <T extends OutputStream> CompletableFuture<Record> getCached(final ReadCache.Entry entry, final AsyncStream<T> asyncStream) {
+        final Record record = entry.toRecord();
+        asyncStream.notifyRecord(record);
+        final byte[] value = entry.getValue();
+        if (value == null) {
+            asyncStream.empty();
+            return CompletableFuture.completedFuture(record);
+        }
+        try {
+            asyncStream.processFunction((outputStream) -> outputStream.write(value));
+        } catch (final StreamProcessingException e) {
+            // the failure is reported to the stream
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+        return CompletableFuture.completedFuture(record);
+    }
+
+    /**
+     * Looks the key up in the given shards one after another until it is found.
+     *
+     * @param shardExecutors the shards to look the key up in, see {@link #getReadShardExecutorsByKey(byte[])}
+     * @param step the index of the shard to look the key up in
+     * @param readCacheStamp the stamp of the key taken before the lookup, see {@link ReadCache#startRead(byte[])}
+     * @param result the future to complete when the value is written to the stream
      */
-    public <T extends OutputStream> void getAsync(final int sessionId, final byte[] key, final AsyncStream<T> asyncStream) {
-        ContainerShardExecutor shardExecutor = getShardExecutorByKey(key);
-        shardExecutor.executeKey(sessionId, OperationType.READ, true, (ops) -> {
+    private <T extends OutputStream> void getAsync(final int sessionId,
+                                                   final byte[] key,
+                                                   final AsyncStream<T> asyncStream,
+                                                   final ContainerShardExecutor[] shardExecutors,
+                                                   final int step,
+                                                   final long readCacheStamp,
+                                                   final CompletableFuture<Record> result) {
+        final ContainerShardExecutor shardExecutor = shardExecutors[step];
+        final Future<Record> future = shardExecutor.executeKey(sessionId, OperationType.READ, true, asyncStream.getDeadline(), (ops) -> {
             // first store the data in unsync manner
             try {
                 final Record record = ops.getKey(key);
-                if (record != null) {
+                if (record == null && step + 1 < shardExecutors.length) {
+                    getAsync(sessionId, key, asyncStream, shardExecutors, step + 1, readCacheStamp, result);
+                } else if (record != null) {
                     asyncStream.notifyRecord(record);
                     if (record.getId() != Utils.ID_UNDEFINED) {
-                        shardExecutor.executeAutonomousValue(sessionId,
-                                OperationType.READ,
-                                record.getId(),
-                                false,
-                                () -> asyncStream.processFunction((outputStream) ->
-                                    shardExecutor.getShard().getValue(record, outputStream)
-                                ));
+                        getValueAsync(sessionId, key, asyncStream, shardExecutors, shardExecutor, record, readCacheStamp, result);
                     } else {
                         asyncStream.empty();
+                        if (readCache != null) {
+                            readCache.put(key, record, new byte[0], readCacheStamp);
+                        }
+                        result.complete(record);
                     }
                 } else {
                     asyncStream.cancel(true);
+                    result.complete(null);
                 }
                 return record;
             } catch (final Exception e) {
                 asyncStream.fail(e);
+                result.completeExceptionally(e);
                 throw e;
             }
         });
+        if (future == InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION) {
+            if (step != 0 && step + 1 < shardExecutors.length) {
+                // the previous shard has been removed as the resharding is over
+                getAsync(sessionId, key, asyncStream, shardExecutors, step + 1, readCacheStamp, result);
+            } else {
+                final AsyncContainerAccessException e = new AsyncContainerAccessException("Shard is shutdown, operation has been interrupted.");
+                asyncStream.fail(e);
+                result.completeExceptionally(e);
+            }
+        } else {
+            toCompletableFuture(future).whenComplete((record, e) -> {
+                if (e != null && !result.isDone()) {
+                    // the lookup has not been executed, e.g. it has expired
+                    failRead(asyncStream, result, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reports the failure of the read to the stream, unless the stream has already been finished
+     */
+    private static void failRead(final AsyncStream<?> asyncStream, final CompletableFuture<Record> result, final Throwable e) {
+        final Exception exception = AsyncStream.unwrap(e);
+        if (!asyncStream.isDone()) {
+            asyncStream.fail(exception);
+        }
+        result.completeExceptionally(exception);
+    }
+
+    /**
+     * Starts the value read of the record that has just been looked up.
+     * <p>If the value is being removed, as the key has been replaced or removed meanwhile, the key is looked up again.</p>
+     */
+    private <T extends OutputStream> void getValueAsync(final int sessionId,
+                                                        final byte[] key,
+                                                        final AsyncStream<T> asyncStream,
+                                                        final ContainerShardExecutor[] shardExecutors,
+                                                        final ContainerShardExecutor shardExecutor,
+                                                        final Record record,
+                                                        final long readCacheStamp,
+                                                        final CompletableFuture<Record> result) {
+        toCompletableFuture(shardExecutor.executeValue(sessionId,
+                OperationType.READ,
+                record.getId(),
+                false,
+                asyncStream.getDeadline(),
+                () -> {
+                    asyncStream.processFunction((outputStream) ->
+                            getValue(shardExecutor, key, record, asyncStream.checked(outputStream), readCacheStamp));
+                    return true;
+                })).whenComplete((processed, e) -> {
+                    if (e != null) {
+                        // the failure has been reported to the stream, unless the read has not been executed
+                        failRead(asyncStream, result, e instanceof StreamProcessingException && e.getCause() != null ? e.getCause() : e);
+                    } else if (processed == null) {
+                        getAsync(sessionId, key, asyncStream, shardExecutors, 0, readCacheStamp, result);
+                    } else {
+                        result.complete(record);
+                    }
+                });
+    }
+
+    /**
+     * Reads the value from the shard and offers it to the read cache
+     */
+    private void getValue(final ContainerShardExecutor shardExecutor,
+                          final byte[] key,
+                          final Record record,
+                          final OutputStream outputStream,
+                          final long readCacheStamp) {
+        if (readCache == null) {
+            shardExecutor.getShard().getValue(record, outputStream);
+            return;
+        }
+        final ReadCache.CapturingOutputStream capturingOutputStream = readCache.capture(outputStream);
+        shardExecutor.getShard().getValue(record, capturingOutputStream);
+        final byte[] value = capturingOutputStream.toByteArray();
+        if (value != null) {
+            readCache.put(key, record, value, readCacheStamp);
+        }
+    }
+
+    /**
+     * Drops the key from the read cache once the change of the key is published to the reads,
+     * see {@link ContainerShardKeyOperations#afterPublish(Runnable)}
+     */
+    private void invalidateReadCache(final ContainerShardKeyOperations ops, final byte[] key) {
+        if (readCache != null) {
+            ops.afterPublish(() -> readCache.invalidate(key));
+        }
     }
 
     /**
@@ -369,6 +676,9 @@ public class AsyncContainer implements Closeable {
     /**
      * Gets a value based on key from container.
      *
+     * <p>The value is read to the memory completely before it is given to the deserializer,
+     * as it can be written in the caller's thread if it is served from the read cache.</p>
+     *
      * @param sessionId the id of the session
      * @param key the key data
      * @param valueDeserializer a function that transforms the value input stream to the java object
@@ -377,31 +687,27 @@ public class AsyncContainer implements Closeable {
      */
     public <T> DataWithRecord<T> get(final int sessionId, final byte[] key, final Function<InputStream,T> valueDeserializer) {
         final T data;
-        try (final PipedOutputStream pos = new PipedOutputStream()) {
-            final PipedInputStream pipedInputStream = new PipedInputStream(pos);
-            Record[] storedRecord = new Record[1];
-            final AsyncStream<PipedOutputStream> pipedOutputStreamAsyncStream = AsyncStream.wrapBlocking(pos, new AsyncListener() {
-                @Override
-                public void record(Record record) {
-                    storedRecord[0] = record;
-                }
-                @Override
-                public void error(Exception e) {
-                }
-                @Override
-                public void status(AsyncStatus asyncStatus) {
-                }
-            });
-            getAsync(sessionId, key, pipedOutputStreamAsyncStream);
-            pipedOutputStreamAsyncStream.get();
-            if (storedRecord[0] == null) {
-                return null;
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Record[] storedRecord = new Record[1];
+        final AsyncStream<ByteArrayOutputStream> outputStreamAsyncStream = AsyncStream.wrapBlocking(outputStream, new AsyncListener() {
+            @Override
+            public void record(Record record) {
+                storedRecord[0] = record;
             }
-            data = valueDeserializer.apply(pipedInputStream);
-            return new DataWithRecord(storedRecord[0], data);
-        } catch (final IOException ioException) {
-            throw new RoStoreException("Can't create a piped outputStream");
+            @Override
+            public void error(Exception e) {
+            }
+            @Override
+            public void status(AsyncStatus asyncStatus) {
+            }
+        });
+        getAsync(sessionId, key, outputStreamAsyncStream);
+        outputStreamAsyncStream.get();
+        if (storedRecord[0] == null) {
+            return null;
         }
+        data = valueDeserializer.apply(new ByteArrayInputStream(outputStream.toByteArray()));
+        return new DataWithRecord(storedRecord[0], data);
     }
 
     /**
@@ -439,6 +745,9 @@ public class AsyncContainer implements Closeable {
     /**
      * List the keys in the container
      *
+     * <p>While the container is being resharded, the current shards are listed first and the new shards afterwards.
+     * The keys that are moved between the shards in the meantime can be listed twice or missed on the pagination.</p>
+     *
      * @param sessionId the session id
      * @param startWithKey prefix of the keys to return
      * @param continuationKey the key to start with (used for pagination)
@@ -446,41 +755,137 @@ public class AsyncContainer implements Closeable {
      * @param maxSize the maximum size of the returned list
      * @return a future to return the list of keys
      */
-    public Future<KeyList> listAsync(final int sessionId, final byte[] startWithKey, final byte[] continuationKey, int maxNumber, int maxSize) {
-        return asyncContainers.getExecutorService().submit(() -> {
-             KeyList result = new KeyList();
-             int shardIndex = continuationKey == null ? 0 : getShardIndexByKey(continuationKey);
-             byte[] iterationKey = continuationKey;
-             int[] iterationParams = { maxNumber, maxSize };
-             while(true) {
-                 final byte[] finalIterationKey = iterationKey;
-                 final ContainerShardExecutor shardExecutor = getShardExecutorByIndex(shardIndex);
-                 final KeyList iteration = shardExecutor.executeKey(sessionId,
-                         OperationType.READ,
-                         true,
-                         (ops) -> ops.listKeys(startWithKey, finalIterationKey, iterationParams[0], iterationParams[1])).
-                         get();
-                 result.getKeys().addAll(iteration.getKeys());
-                 result.setSize(result.getSize() + iteration.getSize());
-                 if (iteration.isMore()) {
-                     result.setMore(true);
-                     return result;
-                 } else {
-                     iterationParams[0] -= iteration.getKeys().size();
-                     iterationParams[1] -= iteration.getSize();
-                     if (iterationParams[0] <= 0 || iterationParams[1] <= 0) {
-                         result.setMore(true);
-                         return result;
-                     }
-                     shardIndex ++;
-                     if (shardIndex >= getContainer().getDescriptor().getContainerMeta().getShardNumber()) {
-                         // no more shards
-                         return result;
-                     }
-                     iterationKey = null;
-                 }
-             }
-        });
+    public CompletableFuture<KeyList> listAsync(final int sessionId, final byte[] startWithKey, final byte[] continuationKey, int maxNumber, int maxSize) {
+        asyncContainers.admit();
+        final List<ContainerShardExecutor> shardExecutors = getListShardExecutors();
+        final CompletableFuture<Integer> shardIndex = continuationKey == null ?
+                CompletableFuture.completedFuture(0) :
+                getListShardIndexByKey(sessionId, continuationKey, shardExecutors);
+        return shardIndex.thenCompose((index) ->
+                listAsync(sessionId, startWithKey, continuationKey, shardExecutors, index, new KeyList(), maxNumber, maxSize));
+    }
+
+    /**
+     * List the keys in the container in the order of the keys
+     *
+     * @param sessionId the session id
+     * @param startWithKey prefix of the keys to return
+     * @param continuationToken the token of the previous page (used for pagination)
+     * @param maxNumber the maximum number of entries to return
+     * @param maxSize the maximum size of the returned list
+     * @return the ordered list of keys with the token to request the next page
+     * @see #listOrderedAsync(int, byte[], String, int, int)
+     */
+    public OrderedKeyList listOrdered(final int sessionId, final byte[] startWithKey, final String continuationToken, final int maxNumber, final int maxSize) {
+        return resolveFuture(listOrderedAsync(sessionId, startWithKey, continuationToken, maxNumber, maxSize));
+    }
+
+    /**
+     * List the keys in the container in the ascending or descending order of the keys
+     *
+     * @param sessionId the session id
+     * @param startWithKey prefix of the keys to return
+     * @param continuationToken the token of the previous page in the same order (used for pagination)
+     * @param maxNumber the maximum number of entries to return
+     * @param maxSize the maximum size of the returned list
+     * @param descending {@code true} to start from the greatest key
+     * @return the ordered list of keys with the token to request the next page
+     * @see #listOrderedAsync(int, byte[], String, int, int, boolean)
+     */
+    public OrderedKeyList listOrdered(final int sessionId, final byte[] startWithKey, final String continuationToken, final int maxNumber, final int maxSize, final boolean descending) {
+        return resolveFuture(listOrderedAsync(sessionId, startWithKey, continuationToken, maxNumber, maxSize, descending));
+    }
+
+    /**
+     * List the keys in the container in the order of the keys
+     *
+     * <p>All the shards are listed in parallel and their keys are merged, see {@link OrderedKeyListing}.
+     * The pages continue after the last listed key, so the keys are listed once even if the shards are changed
+     * by the resharding between the pages. The shards that had no more keys are not listed again,
+     * so the keys inserted to them after the previous page can be missed.</p>
+     *
+     * @param sessionId the session id
+     * @param startWithKey prefix of the keys to return
+     * @param continuationToken the token of the previous page (used for pagination), see {@link OrderedKeyList#getContinuationToken()}
+     * @param maxNumber the maximum number of entries to return
+     * @param maxSize the maximum size of the returned list
+     * @return a future to return the ordered list of keys
+     */
+    public CompletableFuture<OrderedKeyList> listOrderedAsync(final int sessionId, final byte[] startWithKey, final String continuationToken, final int maxNumber, final int maxSize) {
+        return listOrderedAsync(sessionId, startWithKey, continuationToken, maxNumber, maxSize, false);
+    }
+
+    /**
+     * List the keys in the container in the ascending or descending order of the keys
+     *
+     * <p>The listing is executed as in {@link #listOrderedAsync(int, byte[], String, int, int)}. In the descending order
+     * every shard is listed backwards from its greatest key (see {@link ContainerShardKeyOperations#listKeysDescending(byte[], byte[], int, int)}),
+     * so the first page of the greatest keys only reads as many keys as the page needs.</p>
+     *
+     * @param sessionId the session id
+     * @param startWithKey prefix of the keys to return
+     * @param continuationToken the token of the previous page in the same order (used for pagination), see {@link OrderedKeyList#getContinuationToken()}
+     * @param maxNumber the maximum number of entries to return
+     * @param maxSize the maximum size of the returned list
+     * @param descending {@code true} to start from the greatest key
+     * @return a future to return the ordered list of keys
+     */
+    public CompletableFuture<OrderedKeyList> listOrderedAsync(final int sessionId, final byte[] startWithKey, final String continuationToken, final int maxNumber, final int maxSize, final boolean descending) {
+        asyncContainers.admit();
+        final List<ContainerShardExecutor> shardExecutors = getListShardExecutors();
+        return new OrderedKeyListing(shardExecutors.size(), continuationToken, maxNumber, maxSize, descending, (shardIndex, afterKey, pageSize) -> {
+            final Future<KeyList> future = shardExecutors.get(shardIndex).executeKey(sessionId, OperationType.READ, true, (ops) ->
+                    descending ?
+                            ops.listKeysDescending(startWithKey, afterKey, pageSize, maxSize) :
+                            ops.listKeys(startWithKey, afterKey, pageSize, maxSize));
+            if (future == InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION && !isShutdown()) {
+                // the previous shard has been removed as the resharding is over, all its keys are in the new shards
+                return CompletableFuture.completedFuture(new KeyList());
+            }
+            return toCompletableFuture(future);
+        }).list();
+    }
+
+    /**
+     * Lists the keys of the shard and continues with the next shard once the listing of the shard is complete
+     *
+     * @param iterationKey the key to start with in the shard, {@code null} to start from the first key
+     * @param result the list to add the keys to
+     * @param maxNumber the remaining number of the entries to return
+     * @param maxSize the remaining size of the returned list
+     */
+    private CompletableFuture<KeyList> listAsync(final int sessionId,
+                                                 final byte[] startWithKey,
+                                                 final byte[] iterationKey,
+                                                 final List<ContainerShardExecutor> shardExecutors,
+                                                 final int shardIndex,
+                                                 final KeyList result,
+                                                 final int maxNumber,
+                                                 final int maxSize) {
+        final ContainerShardExecutor shardExecutor = shardExecutors.get(shardIndex);
+        return toCompletableFuture(shardExecutor.executeKey(sessionId,
+                OperationType.READ,
+                true,
+                (ops) -> ops.listKeys(startWithKey, iterationKey, maxNumber, maxSize))).
+                thenCompose((iteration) -> {
+                    result.getKeys().addAll(iteration.getKeys());
+                    result.setSize(result.getSize() + iteration.getSize());
+                    if (iteration.isMore()) {
+                        result.setMore(true);
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    final int remainingNumber = maxNumber - iteration.getKeys().size();
+                    final int remainingSize = (int) (maxSize - iteration.getSize());
+                    if (remainingNumber <= 0 || remainingSize <= 0) {
+                        result.setMore(true);
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    if (shardIndex + 1 >= shardExecutors.size()) {
+                        // no more shards
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    return listAsync(sessionId, startWithKey, null, shardExecutors, shardIndex + 1, result, remainingNumber, remainingSize);
+                });
     }
 
     /**
@@ -524,58 +929,1182 @@ public class AsyncContainer implements Closeable {
      * @param key the key's binary
      * @return a future for boolean, {@code true} if deletion has been successfully executed
      */
-    public Future<Boolean> removeAsync(final int sessionId, final byte[] key, final Record record) {
-        final ContainerShardExecutor shardExecutor = getShardExecutorByKey(key);
+    public CompletableFuture<Boolean> removeAsync(final int sessionId, final byte[] key, final Record record) {
+        final ContainerShardExecutor[] shardExecutors = getReadShardExecutorsByKey(key);
+        shardExecutors[0].admit();
+        if (shardExecutors.length == 1) {
+            return toCompletableFuture(removeAsync(sessionId, key, record, shardExecutors[0]));
+        }
+        // the key is removed from the new shard first, so the resharding can't move it there afterwards
+        return toCompletableFuture(removeAsync(sessionId, key, record, shardExecutors[0])).thenCompose((removed) -> {
+            // the previous shard can keep the key if it is not moved yet, or its older entry if it has been written to the new shard
+            final Record previousRecord = new Record().version(record.getVersion());
+            if (removed || record.hasOption(RecordOption.OVERRIDE_VERSION)) {
+                previousRecord.addOption(RecordOption.OVERRIDE_VERSION);
+            }
+            final Future<Boolean> previousRemoved = removeAsync(sessionId, key, previousRecord, shardExecutors[1]);
+            if (previousRemoved == InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION) {
+                // the previous shard has been removed as the resharding is over
+                return CompletableFuture.completedFuture(removed);
+            }
+            return toCompletableFuture(previousRemoved).thenApply((previous) -> previous || removed);
+        });
+    }
+
+    private Future<Boolean> removeAsync(final int sessionId, final byte[] key, final Record record, final ContainerShardExecutor shardExecutor) {
         return shardExecutor.executeKey(sessionId, OperationType.DELETE, true, (ops) -> {
             final boolean result = ops.removeKey(key, record);
-            if (record.getId() == Utils.ID_UNDEFINED) {
-                return result;
-            } else {
-                // deletion of the value happens in parallel
-                shardExecutor.executeAutonomousValue(sessionId,
-                        OperationType.DELETE,
-                        record.getId(),
-                        false,
-                        () -> shardExecutor.getShard().removeValue(record.getId())
-                    );
-                return result;
-            }
+            invalidateReadCache(ops, key);
+            // deletion of the value happens in parallel, once the removal is committed
+            removeValueAfterCommit(ops, sessionId, shardExecutor, record.getId());
+            return result;
         });
     }
 
-    private int getShardIndexByKey(final byte[] key) {
-        int hashcode = computeHashCode(key);
-        int shardIndex = (hashcode * container.getDescriptor().getContainerMeta().getShardNumber()) >> 8;
-        return shardIndex;
+    /**
+     * Adds the delta to the number stored with the key
+     *
+     * @param sessionId the session id
+     * @param key the key binary
+     * @param delta the value to add, a negative one decrements the number
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return the new number
+     * @see #incrementAsync(int, byte[], long, Record)
+     */
+    public long increment(final int sessionId, final byte[] key, final long delta, final Record record) {
+        return resolveFuture(incrementAsync(sessionId, key, delta, record));
     }
 
-    public ContainerShardExecutor getShardExecutorByKey(final byte[] key) {
-        final int shardIndex = getShardIndexByKey(key);
-        return getShardExecutorByIndex(shardIndex);
+    /**
+     * Adds the delta to the number stored with the key
+     *
+     * <p>The number is stored as a decimal string in the value, the missing key starts with 0.
+     * The value is read, replaced and its key is updated in one exclusive key operation,
+     * so the concurrent increments of the same key are never lost.</p>
+     *
+     * @param sessionId the session id
+     * @param key the key binary
+     * @param delta the value to add, a negative one decrements the number
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return the future of the new number, it fails with {@link ValueFormatException} if the stored value is not a number
+     */
+    public CompletableFuture<Long> incrementAsync(final int sessionId, final byte[] key, final long delta, final Record record) {
+        return modifyAsync(sessionId, key, record, (value) -> {
+            final long number = parseNumber(value);
+            try {
+                return Long.toString(Math.addExact(number, delta)).getBytes(StandardCharsets.UTF_8);
+            } catch (final ArithmeticException e) {
+                throw new ValueFormatException("The increment of " + number + " by " + delta + " overflows", e);
+            }
+        }).thenApply(AsyncContainer::parseNumber);
     }
 
-    public synchronized ContainerShardExecutor getShardExecutorByIndex(final int shardIndex) {
-        if (shutdown) {
-            throw new AsyncContainerAccessException("Container is in shutdown mode.");
+    private static long parseNumber(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return 0;
         }
-        ContainerShardExecutor containerShardExecutor = containerShardExecutors.get(shardIndex);
-        if (containerShardExecutor == null) {
-            containerShardExecutor = new ContainerShardExecutor(this, container.getShard(shardIndex));
-            containerShardExecutors.set(shardIndex, containerShardExecutor);
+        final String number = new String(value, StandardCharsets.UTF_8);
+        try {
+            return Long.parseLong(number.trim());
+        } catch (final NumberFormatException e) {
+            throw new ValueFormatException("The value \"" + number + "\" is not a number", e);
         }
-        return containerShardExecutor;
     }
 
-    private int computeHashCode(final byte[] key) {
-        int every = key.length / 10;
-        if (every < 1) {
-            every = 1;
-        }
-        int sum = 0;
-        for(int i=0; i<key.length; i+=every) {
-            sum += key[i];
-        }
-        return sum & 0xff;
+    /**
+     * Appends the data to the value stored with the key
+     *
+     * @param sessionId the session id
+     * @param key the key binary
+     * @param data the data to append
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return the stored record
+     * @see #appendAsync(int, byte[], byte[], Record)
+     */
+    public Record append(final int sessionId, final byte[] key, final byte[] data, final Record record) {
+        return resolveFuture(appendAsync(sessionId, key, data, record));
+    }
+
+    /**
+     * Appends the data to the value stored with the key
+     *
+     * <p>The value is created if the key does not exist. The value is read, replaced
+     * and its key is updated in one exclusive key operation. The value is copied in memory,
+     * so the operation is meant for the small values.</p>
+     *
+     * @param sessionId the session id
+     * @param key the key binary
+     * @param data the data to append
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return the future of the stored record
+     */
+    public CompletableFuture<Record> appendAsync(final int sessionId, final byte[] key, final byte[] data, final Record record) {
+        return modifyAsync(sessionId, key, record, (value) -> {
+            if (value == null) {
+                return data;
+            }
+            final byte[] appended = Arrays.copyOf(value, value.length + data.length);
+            System.arraycopy(data, 0, appended, value.length, data.length);
+            return appended;
+        }).thenApply((value) -> record);
+    }
+
+    /**
+     * Replaces the value stored with the key if the current value has the expected hash
+     *
+     * @param sessionId the session id
+     * @param key the key binary
+     * @param expectedHash the hash of the current value (see {@link Utils#valueHash(byte[])}), {@code null} if the key must not exist
+     * @param value the new value
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return {@code true} if the value has been replaced
+     * @see #compareAndSetAsync(int, byte[], String, byte[], Record)
+     */
+    public boolean compareAndSet(final int sessionId, final byte[] key, final String expectedHash, final byte[] value, final Record record) {
+        return resolveFuture(compareAndSetAsync(sessionId, key, expectedHash, value, record));
+    }
+
+    /**
+     * Replaces the value stored with the key if the current value has the expected hash
+     *
+     * <p>The current value is read and compared, and the new one is stored in one exclusive key operation.</p>
+     *
+     * @param sessionId the session id
+     * @param key the key binary
+     * @param expectedHash the hash of the current value (see {@link Utils#valueHash(byte[])}), {@code null} if the key must not exist
+     * @param value the new value
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return the future of the result, {@code true} if the value has been replaced
+     */
+    public CompletableFuture<Boolean> compareAndSetAsync(final int sessionId, final byte[] key, final String expectedHash, final byte[] value, final Record record) {
+        return modifyAsync(sessionId, key, record, (current) -> {
+            if (current == null ? expectedHash == null : Utils.valueHash(current).equals(expectedHash)) {
+                return value;
+            }
+            return null;
+        }).thenApply((stored) -> stored != null);
+    }
+
+    /**
+     * Replaces the value of the key with its modification in one exclusive key operation.
+     *
+     * <p>The current value is read directly in the key operation: the value can only be freed
+     * when its key is replaced or removed, which can't happen until the operation is over.
+     * The new value is written and the key is updated in the same operation, the previous value
+     * is freed afterwards.</p>
+     *
+     * @param modification gets the current value or {@code null} if the key does not exist,
+     *                     returns the new value or {@code null} if the key should stay untouched
+     * @return the future of the stored value, {@code null} if the key has not been modified
+     */
+    private CompletableFuture<byte[]> modifyAsync(final int sessionId,
+                                                  final byte[] key,
+                                                  final Record record,
+                                                  final UnaryOperator<byte[]> modification) {
+        final ContainerShardExecutor shardExecutor = getShardExecutorByKey(key);
+        shardExecutor.admit();
+        // the current value must be in the shard of the key to be modified
+        moveKeyIfResharding(sessionId, key);
+        return toCompletableFuture(shardExecutor.executeKey(sessionId, OperationType.WRITE, true, (ops) -> {
+            final Record current = ops.getKey(key);
+            byte[] value = null;
+            if (current != null) {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                if (current.getId() != Utils.ID_UNDEFINED) {
+                    shardExecutor.getShard().getValue(current, outputStream);
+                }
+                value = outputStream.toByteArray();
+            }
+            final byte[] modified = modification.apply(value);
+            if (modified == null) {
+                return null;
+            }
+            record.id(shardExecutor.getShard().putValue(new ByteArrayInputStream(modified)));
+            final long prevId;
+            try {
+                prevId = ops.putKey(key, record);
+            } catch (final RuntimeException e) {
+                removeValue(sessionId, shardExecutor, record.getId());
+                throw e;
+            }
+            invalidateReadCache(ops, key);
+            removeValueAfterCommit(ops, sessionId, shardExecutor, prevId);
+            return modified;
+        }));
+    }
+
+    /**
+     * Commits the puts and removes of the transaction all together or not at all
+     *
+     * @param sessionId the session id
+     * @param transaction the changes of the keys
+     * @see #commitAsync(int, Transaction)
+     */
+    public void commit(final int sessionId, final Transaction transaction) {
+        resolveFuture(commitAsync(sessionId, transaction));
+    }
+
+    /**
+     * Commits the puts and removes of the transaction all together or not at all
+     *
+     * <p>The values of the puts are written first. Then the exclusive key slots of all the affected shards
+     * are reserved one after another in the order of the shard index, so two transactions never wait for each other
+     * in a cycle. While all the slots are held, the changes are applied (see {@link TransactionIntent}):
+     * if any of them fails, e.g. as the version of the key does not match, the applied ones are rolled back
+     * and the future fails with the exception of the failed change.</p>
+     * <p>The transaction is atomic only while the process keeps running: the intent of the transaction is kept in memory
+     * and is not recovered when the media is opened again. If the process stops while the key blocks of the shards
+     * are flushed, only the changes of some shards can be found on the media afterwards, and the values
+     * written for the transaction or replaced by it can stay allocated without a key.</p>
+     *
+     * @param sessionId the session id
+     * @param transaction the changes of the keys
+     * @return the future that is complete when the transaction is over
+     */
+    public CompletableFuture<Void> commitAsync(final int sessionId, final Transaction transaction) {
+        if (transaction.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final TransactionIntent intent;
+        synchronized (this) {
+            // the shards are taken from the same shard set, so their indices give the same order to every transaction
+            intent = new TransactionIntent(transaction, this::getShardExecutorByKey);
+        }
+        final List<ContainerShardExecutor> shardExecutors = intent.getShardExecutors();
+        for (final ContainerShardExecutor shardExecutor : shardExecutors) {
+            shardExecutor.admit();
+        }
+        for (final byte[] key : transaction.getRecords().keySet()) {
+            moveKeyIfResharding(sessionId, key);
+        }
+        final CompletableFuture<?>[] written = new CompletableFuture[shardExecutors.size()];
+        for (int i = 0; i < shardExecutors.size(); i++) {
+            final int shardIndex = i;
+            written[i] = toCompletableFuture(shardExecutors.get(i).executeValue(sessionId, OperationType.WRITE, 0, true, () -> {
+                intent.writeValues(shardIndex);
+                return true;
+            }));
+        }
+        final List<Future<Void>> reservations = new ArrayList<>();
+        return CompletableFuture.allOf(written).
+                thenCompose((v) -> reserveKeys(sessionId, shardExecutors, reservations)).
+                thenRun(() -> intent.apply(this::invalidateReadCache)).
+                whenComplete((v, e) -> {
+                    for (int i = reservations.size() - 1; i >= 0; i--) {
+                        shardExecutors.get(i).release(reservations.get(i));
+                    }
+                    intent.freeValues(e == null, (shardExecutor, id) -> removeValue(sessionId, shardExecutor, id));
+                });
+    }
+
+    /**
+     * Reserves the exclusive key slots of the shards one after another, every granted reservation is added to the list
+     */
+    private static CompletableFuture<Void> reserveKeys(final int sessionId,
+                                                       final List<ContainerShardExecutor> shardExecutors,
+                                                       final List<Future<Void>> reservations) {
+        if (reservations.size() == shardExecutors.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final Future<Void> reservation = shardExecutors.get(reservations.size()).reserveKey(sessionId, true);
+        return toCompletableFuture(reservation).thenCompose((v) -> {
+            reservations.add(reservation);
+            return reserveKeys(sessionId, shardExecutors, reservations);
+        });
+    }
+
+    /**
+     * Deletes all the keys in the range
+     *
+     * @param sessionId the session id
+     * @param fromKey the first key of the range (inclusive), {@code null} to start from the first key
+     * @param toKey the end of the range (exclusive), {@code null} to remove up to the last key
+     * @return the number of deleted keys
+     * @see #removeRangeAsync(int, byte[], byte[])
+     */
+    public long removeRange(final int sessionId, final byte[] fromKey, final byte[] toKey) {
+        return resolveFuture(removeRangeAsync(sessionId, fromKey, toKey));
+    }
+
+    /**
+     * Deletes all the keys in the range
+     *
+     * <p>The range is removed from every shard in one exclusive key operation with one sweep over the key blocks
+     * (see {@link ContainerShardKeyOperations#removeRange(byte[], byte[], BiConsumer)}).
+     * The shards are processed in parallel. The values are removed in the background once the removal is committed,
+     * at most {@link Properties#RANGE_REMOVE_VALUE_BATCH_SIZE} of a shard at once.</p>
+     * <p>The versions of the keys are not validated. The removal is not atomic across the shards:
+     * the keys written to the range meanwhile can stay in some of them.</p>
+     * <p>While the container is being resharded the range is removed from the new shards first
+     * and then from the current ones, as in {@link #removeAsync(int, byte[], Record)}.</p>
+     *
+     * @param sessionId the session id
+     * @param fromKey the first key of the range (inclusive), {@code null} to start from the first key
+     * @param toKey the end of the range (exclusive), {@code null} to remove up to the last key
+     * @return a future to return the number of deleted keys
+     */
+    public CompletableFuture<Long> removeRangeAsync(final int sessionId, final byte[] fromKey, final byte[] toKey) {
+        return removeRangeAsync(sessionId, (ops, removedConsumer) -> ops.removeRange(fromKey, toKey, removedConsumer));
+    }
+
+    /**
+     * Deletes all the keys that start with the prefix
+     *
+     * @param sessionId the session id
+     * @param prefix the prefix of the keys to delete
+     * @return the number of deleted keys
+     * @see #removePrefixAsync(int, byte[])
+     */
+    public long removePrefix(final int sessionId, final byte[] prefix) {
+        return resolveFuture(removePrefixAsync(sessionId, prefix));
+    }
+
+    /**
+     * Deletes all the keys that start with the prefix, as in {@link #removeRangeAsync(int, byte[], byte[])}
+     *
+     * @param sessionId the session id
+     * @param prefix the prefix of the keys to delete, an empty prefix deletes all the keys
+     * @return a future to return the number of deleted keys
+     */
+    public CompletableFuture<Long> removePrefixAsync(final int sessionId, final byte[] prefix) {
+        return removeRangeAsync(sessionId, (ops, removedConsumer) -> ops.removePrefix(prefix, removedConsumer));
+    }
+
+    private CompletableFuture<Long> removeRangeAsync(final int sessionId,
+                                                     final BiFunction<ContainerShardKeyOperations, BiConsumer<byte[], Long>, Long> removal) {
+        final List<List<ContainerShardExecutor>> phases = getRemoveRangeShardExecutors();
+        for (final List<ContainerShardExecutor> shardExecutors : phases) {
+            for (final ContainerShardExecutor shardExecutor : shardExecutors) {
+                shardExecutor.admit();
+            }
+        }
+        CompletableFuture<Long> result = CompletableFuture.completedFuture(0L);
+        for (final List<ContainerShardExecutor> shardExecutors : phases) {
+            result = result.thenCompose((removed) -> removeRangeAsync(sessionId, shardExecutors, removal).
+                    thenApply((phaseRemoved) -> removed + phaseRemoved));
+        }
+        return result;
+    }
+
+    /**
+     * Removes the range from all the shards in parallel, with {@link OperationPriority#BATCH}
+     */
+    private CompletableFuture<Long> removeRangeAsync(final int sessionId,
+                                                     final List<ContainerShardExecutor> shardExecutors,
+                                                     final BiFunction<ContainerShardKeyOperations, BiConsumer<byte[], Long>, Long> removal) {
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (final ContainerShardExecutor shardExecutor : shardExecutors) {
+            final Future<Long> future = shardExecutor.executeKey(sessionId, OperationType.DELETE, OperationPriority.BATCH, true, (ops) -> {
+                final List<Long> ids = new ArrayList<>();
+                final long removed = removal.apply(ops, (key, id) -> {
+                    invalidateReadCache(ops, key);
+                    if (id != Utils.ID_UNDEFINED) {
+                        ids.add(id);
+                    }
+                });
+                // the values are only freed once the keys that refer to them are removed from the media
+                ops.afterCommit(() -> removeValues(sessionId, shardExecutor, ids.iterator()));
+                return removed;
+            });
+            if (future == InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION && !isShutdown()) {
+                // the previous shard has been removed as the resharding is over, all its keys are in the new shards
+                futures.add(CompletableFuture.completedFuture(0L));
+            } else {
+                futures.add(toCompletableFuture(future));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply((done) -> {
+            long removed = 0;
+            for (final CompletableFuture<Long> future : futures) {
+                removed += future.join();
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * Provides the executors of the shards to remove the range from, grouped in the order of the removal:
+     * the shards the container is being resharded to, if any, followed by the current shards
+     */
+    private synchronized List<List<ContainerShardExecutor>> getRemoveRangeShardExecutors() {
+        final List<List<ContainerShardExecutor>> phases = new ArrayList<>();
+        if (reshardingShardExecutors != null) {
+            final List<ContainerShardExecutor> shardExecutors = new ArrayList<>();
+            for (int i = 0; i < reshardingShardExecutors.size(); i++) {
+                shardExecutors.add(getReshardingShardExecutorByIndex(i));
+            }
+            phases.add(shardExecutors);
+        }
+        final List<ContainerShardExecutor> shardExecutors = new ArrayList<>();
+        for (int i = 0; i < containerShardExecutors.size(); i++) {
+            shardExecutors.add(getShardExecutorByIndex(i));
+        }
+        phases.add(shardExecutors);
+        return phases;
+    }
+
+    /**
+     * Starts the removal of the values, at most {@link Properties#RANGE_REMOVE_VALUE_BATCH_SIZE} at once.
+     * <p>Every removal starts the next one before it is over, so the shard stays busy until all the values are removed.</p>
+     */
+    private static void removeValues(final int sessionId, final ContainerShardExecutor shardExecutor, final Iterator<Long> ids) {
+        for (int i = 0; i < Properties.RANGE_REMOVE_VALUE_BATCH_SIZE; i++) {
+            removeNextValue(sessionId, shardExecutor, ids);
+        }
+    }
+
+    private static void removeNextValue(final int sessionId, final ContainerShardExecutor shardExecutor, final Iterator<Long> ids) {
+        final long id;
+        synchronized (ids) {
+            if (!ids.hasNext()) {
+                return;
+            }
+            id = ids.next();
+        }
+        shardExecutor.executeAutonomousValue(sessionId, OperationType.DELETE, id, false, () -> {
+            try {
+                shardExecutor.getShard().removeValue(id);
+            } finally {
+                removeNextValue(sessionId, shardExecutor, ids);
+            }
+        });
+    }
+
+    /**
+     * Puts a batch of key-value pairs to the container.
+     *
+     * <p>The batch is grouped by shards. In every shard the values are written in one value operation
+     * and then all the keys are stored in one exclusive key operation with one forward pass over the key blocks
+     * (see {@link ContainerShardKeyOperations#putKeys(SortedMap)}). The shards are processed in parallel.</p>
+     * <p>Every key is processed independently. The values of the failed keys and the values that have been
+     * replaced are removed.</p>
+     * <p>The operations are executed with {@link OperationPriority#BATCH}, so they do not hold back the single key operations.</p>
+     *
+     * @param sessionId the session id
+     * @param entries the values with the properties of the key-value pairs (ttl, options, versions)
+     * @return the stored record for every successfully processed key and the failures
+     */
+    public KeyBatchResult<Record> putBatch(final int sessionId, final SortedMap<byte[], DataWithRecord<InputStream>> entries) {
+        final KeyBatchResult<Record> result = new KeyBatchResult<>();
+        final Map<ContainerShardExecutor, SortedMap<byte[], DataWithRecord<InputStream>>> byShard = groupByShard(entries);
+        for (final ContainerShardExecutor shardExecutor : byShard.keySet()) {
+            shardExecutor.admit();
+        }
+        for (final Map.Entry<byte[], DataWithRecord<InputStream>> entry : entries.entrySet()) {
+            if (isConditional(entry.getValue().getRecord())) {
+                moveKeyIfResharding(sessionId, entry.getKey());
+            }
+        }
+        final Map<ContainerShardExecutor, Future<KeyBatchResult<Record>>> valueFutures = new LinkedHashMap<>();
+        for (final Map.Entry<ContainerShardExecutor, SortedMap<byte[], DataWithRecord<InputStream>>> shardEntries : byShard.entrySet()) {
+            final ContainerShardExecutor shardExecutor = shardEntries.getKey();
+            valueFutures.put(shardExecutor, shardExecutor.executeValue(sessionId, OperationType.WRITE, OperationPriority.BATCH, 0, true, () -> {
+                final KeyBatchResult<Record> written = new KeyBatchResult<>();
+                for (final Map.Entry<byte[], DataWithRecord<InputStream>> entry : shardEntries.getValue().entrySet()) {
+                    try {
+                        final Record record = entry.getValue().getRecord();
+                        record.id(shardExecutor.getShard().putValue(entry.getValue().getData()));
+                        written.addResult(entry.getKey(), record);
+                    } catch (final RuntimeException e) {
+                        written.addFailure(entry.getKey(), e);
+                    }
+                }
+                return written;
+            }));
+        }
+        final Map<ContainerShardExecutor, Future<KeyBatchResult<Long>>> keyFutures = new LinkedHashMap<>();
+        final Map<ContainerShardExecutor, SortedMap<byte[], Record>> writtenByShard = new HashMap<>();
+        for (final Map.Entry<ContainerShardExecutor, Future<KeyBatchResult<Record>>> valueFuture : valueFutures.entrySet()) {
+            final KeyBatchResult<Record> written = resolveFuture(valueFuture.getValue());
+            result.getFailures().putAll(written.getFailures());
+            writtenByShard.put(valueFuture.getKey(), written.getResults());
+            final ContainerShardExecutor shardExecutor = valueFuture.getKey();
+            keyFutures.put(shardExecutor, shardExecutor.executeKey(sessionId, OperationType.WRITE, OperationPriority.BATCH, true, (ops) -> {
+                final KeyBatchResult<Long> stored;
+                try {
+                    stored = ops.putKeys(written.getResults());
+                } catch (final RuntimeException e) {
+                    // clean up of all the values as none of the keys could be stored
+                    for (final Record record : written.getResults().values()) {
+                        removeValueAfterCommit(ops, sessionId, shardExecutor, record.getId());
+                    }
+                    throw e;
+                }
+                for (final byte[] key : stored.getResults().keySet()) {
+                    invalidateReadCache(ops, key);
+                }
+                for (final long prevId : stored.getResults().values()) {
+                    removeValueAfterCommit(ops, sessionId, shardExecutor, prevId);
+                }
+                for (final byte[] failedKey : stored.getFailures().keySet()) {
+                    removeValueAfterCommit(ops, sessionId, shardExecutor, written.getResults().get(failedKey).getId());
+                }
+                return stored;
+            }));
+        }
+        for (final Map.Entry<ContainerShardExecutor, Future<KeyBatchResult<Long>>> keyFuture : keyFutures.entrySet()) {
+            final KeyBatchResult<Long> stored = resolveFuture(keyFuture.getValue());
+            final SortedMap<byte[], Record> written = writtenByShard.get(keyFuture.getKey());
+            for (final byte[] key : stored.getResults().keySet()) {
+                result.addResult(key, written.get(key));
+            }
+            result.getFailures().putAll(stored.getFailures());
+        }
+        return result;
+    }
+
+    /**
+     * Deletes a batch of keys from the container.
+     *
+     * <p>The batch is grouped by shards. In every shard all the keys are removed in one exclusive key operation
+     * with one forward pass over the key blocks (see {@link ContainerShardKeyOperations#removeKeys(SortedMap)}).
+     * The shards are processed in parallel, the values are removed afterwards.</p>
+     * <p>While the container is being resharded the keys are removed one by one
+     * as in {@link #remove(int, byte[], Record)}.</p>
+     *
+     * @param sessionId the session id
+     * @param records the metadata of the keys to remove, mainly for options and version
+     * @return for every key {@code true} if deletion has been successfully executed, and the failures
+     */
+    public KeyBatchResult<Boolean> removeBatch(final int sessionId, final SortedMap<byte[], Record> records) {
+        if (isResharding()) {
+            final KeyBatchResult<Boolean> result = new KeyBatchResult<>();
+            for (final Map.Entry<byte[], Record> entry : records.entrySet()) {
+                try {
+                    result.addResult(entry.getKey(), remove(sessionId, entry.getKey(), entry.getValue()));
+                } catch (final RuntimeException e) {
+                    result.addFailure(entry.getKey(), e);
+                }
+            }
+            return result;
+        }
+        final Map<ContainerShardExecutor, SortedMap<byte[], Record>> byShard = groupByShard(records);
+        for (final ContainerShardExecutor shardExecutor : byShard.keySet()) {
+            shardExecutor.admit();
+        }
+        final List<Future<KeyBatchResult<Boolean>>> futures = new ArrayList<>();
+        for (final Map.Entry<ContainerShardExecutor, SortedMap<byte[], Record>> shardRecords : byShard.entrySet()) {
+            final ContainerShardExecutor shardExecutor = shardRecords.getKey();
+            futures.add(shardExecutor.executeKey(sessionId, OperationType.DELETE, OperationPriority.BATCH, true, (ops) -> {
+                final KeyBatchResult<Boolean> removed = ops.removeKeys(shardRecords.getValue());
+                for (final byte[] key : removed.getResults().keySet()) {
+                    invalidateReadCache(ops, key);
+                    // deletion of the value happens in parallel, once the removal is committed
+                    removeValueAfterCommit(ops, sessionId, shardExecutor, shardRecords.getValue().get(key).getId());
+                }
+                return removed;
+            }));
+        }
+        final KeyBatchResult<Boolean> result = new KeyBatchResult<>();
+        for (final Future<KeyBatchResult<Boolean>> future : futures) {
+            result.addAll(resolveFuture(future));
+        }
+        return result;
+    }
+
+    /**
+     * Splits the batch by the shards the entries are written to, the entries of every shard are sorted in the order of the key blocks
+     */
+    private <T> Map<ContainerShardExecutor, SortedMap<byte[], T>> groupByShard(final SortedMap<byte[], T> entries) {
+        final Map<ContainerShardExecutor, SortedMap<byte[], T>> byShard = new LinkedHashMap<>();
+        for (final Map.Entry<byte[], T> entry : entries.entrySet()) {
+            byShard.computeIfAbsent(getShardExecutorByKey(entry.getKey()), (shardExecutor) -> new TreeMap<>(Arrays::compare)).
+                    put(entry.getKey(), entry.getValue());
+        }
+        return byShard;
+    }
+
+    /**
+     * Loads the sorted stream of key-value pairs to the container
+     * with {@link Properties#BULK_LOAD_DEFAULT_FILL_FACTOR}.
+     *
+     * @param sessionId the session id
+     * @param entries the entries sorted by key
+     * @return the number of loaded entries
+     * @see #bulkLoad(int, Iterator, double)
+     */
+    public long bulkLoad(final int sessionId, final Iterator<BulkLoadEntry> entries) {
+        return bulkLoad(sessionId, entries, Properties.BULK_LOAD_DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Loads the sorted stream of key-value pairs to the container.
+     *
+     * <p>The entries are routed to their shards and collected there in batches of
+     * {@link Properties#BULK_LOAD_BATCH_SIZE}. The values of every batch are written in a value operation,
+     * which starts one exclusive key operation for the keys of the batch
+     * (see {@link ContainerShardKeyOperations#bulkLoad(Iterator, double, boolean, java.util.function.LongConsumer)}),
+     * so that the key operation does not wait for the value streams.
+     * The shards are loaded in parallel, but every shard has at most one batch in flight, so
+     * that the number of buffered entries stays limited.</p>
+     * <p>If the shard is empty at the start of the load, the keys are appended to its key blocks
+     * without search and validation.</p>
+     * <p>If the load fails, the batches still in flight are finished before the failure is thrown.
+     * The entries loaded by then stay in the container, the values of the entries that have not been stored are removed.</p>
+     *
+     * @param sessionId the session id
+     * @param entries the entries sorted by key
+     * @param fillFactor the share of the block capacity to use, in the range (0, 1]
+     * @return the number of loaded entries
+     */
+    public long bulkLoad(final int sessionId, final Iterator<BulkLoadEntry> entries, final double fillFactor) {
+        if (isResharding()) {
+            throw new RoStoreException("The container \"" + container.getName() + "\" can't be bulk loaded while it is being resharded.");
+        }
+        asyncContainers.admit();
+        final int shardNumber = container.getDescriptor().getContainerMeta().getShardNumber();
+        final int batchSize = Properties.BULK_LOAD_BATCH_SIZE;
+        final List<List<BulkLoadEntry>> batches = new ArrayList<>(shardNumber);
+        final List<Future<Long>> inFlight = new ArrayList<>(shardNumber);
+        final Boolean[] validate = new Boolean[shardNumber];
+        for (int i = 0; i < shardNumber; i++) {
+            batches.add(new ArrayList<>(batchSize));
+            inFlight.add(null);
+        }
+        long loaded = 0;
+        try {
+            while (entries.hasNext()) {
+                final BulkLoadEntry entry = entries.next();
+                final int shardIndex = getShardIndexByKey(entry.getKey());
+                batches.get(shardIndex).add(entry);
+                if (batches.get(shardIndex).size() >= batchSize) {
+                    loaded += waitForBulkLoadBatch(inFlight, shardIndex);
+                    inFlight.set(shardIndex, submitBulkLoadBatch(sessionId, shardIndex, batches.get(shardIndex), fillFactor, validate));
+                    batches.set(shardIndex, new ArrayList<>(batchSize));
+                }
+            }
+            for (int i = 0; i < shardNumber; i++) {
+                loaded += waitForBulkLoadBatch(inFlight, i);
+                if (!batches.get(i).isEmpty()) {
+                    inFlight.set(i, submitBulkLoadBatch(sessionId, i, batches.get(i), fillFactor, validate));
+                    loaded += waitForBulkLoadBatch(inFlight, i);
+                }
+            }
+            return loaded;
+        } catch (final RuntimeException e) {
+            // no batch of the load should still be running when the load is reported as failed
+            for (int i = 0; i < shardNumber; i++) {
+                try {
+                    waitForBulkLoadBatch(inFlight, i);
+                } catch (final RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private long waitForBulkLoadBatch(final List<Future<Long>> inFlight, final int shardIndex) {
+        final Future<Long> future = inFlight.set(shardIndex, null);
+        return future == null ? 0 : resolveFuture(future);
+    }
+
+    /**
+     * Provides the statistics of the container's keys and values.
+     *
+     * <p>The maintained counters are taken from all the shards, in addition the expired keys
+     * waiting for the clean-up are counted in every shard in a read key operation,
+     * up to {@link Properties#STATISTICS_MAX_EXPIRED_COUNT} per shard.</p>
+     *
+     * @param sessionId the session id
+     * @return the statistics of the container
+     */
+    public ContainerStatistics getStatistics(final int sessionId) {
+        final List<Future<Long>> futures = new ArrayList<>();
+        for (final ContainerShardExecutor shardExecutor : getListShardExecutors()) {
+            futures.add(shardExecutor.executeKey(sessionId, OperationType.READ, true, (ops) ->
+                    ops.countExpiredKeys(Properties.STATISTICS_MAX_EXPIRED_COUNT)));
+        }
+        long expiredKeyNumber = 0;
+        for (final Future<Long> future : futures) {
+            expiredKeyNumber += resolveFuture(future);
+        }
+        final ContainerStatistics containerStatistics = container.getStatistics();
+        containerStatistics.setExpiredKeyNumber(Math.min(expiredKeyNumber, containerStatistics.getKeyNumber()));
+        return containerStatistics;
+    }
+
+    /**
+     * Provides the counters of the read cache of the container
+     *
+     * @return the statistics of the read cache, all the counters are {@code 0} if the container has no read cache
+     */
+    public ReadCacheStatistics getReadCacheStatistics() {
+        return readCache != null ? readCache.getStatistics() : new ReadCacheStatistics();
+    }
+
+    /**
+     * Provides the load and the durations of the operations of the shards that have been accessed
+     *
+     * @return the metrics of the current shards followed by the shards the container is being resharded to
+     */
+    public synchronized List<ShardMetrics> getShardMetrics() {
+        final List<ShardMetrics> shardMetrics = new ArrayList<>();
+        for (final ContainerShardExecutor containerShardExecutor : containerShardExecutors) {
+            if (containerShardExecutor != null) {
+                shardMetrics.add(containerShardExecutor.getMetrics(false));
+            }
+        }
+        if (reshardingShardExecutors != null) {
+            for (final ContainerShardExecutor containerShardExecutor : reshardingShardExecutors) {
+                if (containerShardExecutor != null) {
+                    shardMetrics.add(containerShardExecutor.getMetrics(true));
+                }
+            }
+        }
+        return shardMetrics;
+    }
+
+    private Future<Long> submitBulkLoadBatch(final int sessionId,
+                                             final int shardIndex,
+                                             final List<BulkLoadEntry> batch,
+                                             final double fillFactor,
+                                             final Boolean[] validate) {
+        final ContainerShardExecutor shardExecutor = getShardExecutorByIndex(shardIndex);
+        return toCompletableFuture(shardExecutor.executeValue(sessionId, OperationType.WRITE, OperationPriority.BATCH, 0, true, () -> {
+            final List<BulkLoadEntry> written = writeBulkLoadValues(shardExecutor, batch);
+            return toCompletableFuture(shardExecutor.executeKey(sessionId, OperationType.WRITE, OperationPriority.BATCH, false, (ops) -> {
+                if (validate[shardIndex] == null) {
+                    // only the state at the start of the load defines if the validation can be skipped
+                    validate[shardIndex] = !ops.isEmpty();
+                }
+                final ListIterator<BulkLoadEntry> iterator = written.listIterator();
+                final long loaded;
+                try {
+                    loaded = ops.bulkLoad(iterator, fillFactor, validate[shardIndex], (prevId) ->
+                            removeValueAfterCommit(ops, sessionId, shardExecutor, prevId));
+                } catch (final RuntimeException e) {
+                    // the entries before the failed one have been stored, the values of the others are not referenced
+                    for (int i = Math.max(iterator.nextIndex() - 1, 0); i < written.size(); i++) {
+                        final BulkLoadEntry entry = written.get(i);
+                        final long id = entry.getRecord().getId();
+                        if (batch.get(i).getValue() != null && !isStoredWithId(ops, entry.getKey(), id)) {
+                            removeValueAfterCommit(ops, sessionId, shardExecutor, id);
+                        }
+                    }
+                    throw e;
+                } finally {
+                    for (final BulkLoadEntry entry : written) {
+                        invalidateReadCache(ops, entry.getKey());
+                    }
+                }
+                return loaded;
+            }));
+        })).thenCompose(Function.identity());
+    }
+
+    private static boolean isStoredWithId(final ContainerShardKeyOperations ops, final byte[] key, final long id) {
+        try {
+            final Record record = ops.getKey(key);
+            return record != null && record.getId() == id;
+        } catch (final RuntimeException e) {
+            // the key blocks can't be read, the value is kept as it might be referenced
+            return true;
+        }
+    }
+
+    /**
+     * Writes the values of the bulk load batch to the shard
+     * <p>If some value can't be written, the values written so far are removed.</p>
+     *
+     * @return the entries of the batch with the ids of the written values
+     */
+    private static List<BulkLoadEntry> writeBulkLoadValues(final ContainerShardExecutor shardExecutor, final List<BulkLoadEntry> batch) {
+        final List<BulkLoadEntry> written = new ArrayList<>(batch.size());
+        try {
+            for (final BulkLoadEntry entry : batch) {
+                if (entry.getValue() != null) {
+                    entry.getRecord().id(shardExecutor.getShard().putValue(entry.getValue()));
+                }
+                written.add(new BulkLoadEntry(entry.getKey(), entry.getRecord(), null));
+            }
+        } catch (final RuntimeException e) {
+            for (int i = 0; i < written.size(); i++) {
+                if (batch.get(i).getValue() != null) {
+                    shardExecutor.getShard().removeValue(written.get(i).getRecord().getId());
+                }
+            }
+            throw e;
+        }
+        return written;
+    }
+
+    private synchronized int getShardIndexByKey(final byte[] key) {
+        final ContainerMeta containerMeta = container.getDescriptor().getContainerMeta();
+        return containerMeta.getShardRouting().getShardIndex(key, containerMeta.getShardNumber());
+    }
+
+    private synchronized int getReshardingShardIndexByKey(final byte[] key) {
+        final ContainerDescriptor descriptor = container.getDescriptor();
+        return descriptor.getReshardingShardRouting().getShardIndex(key, descriptor.getReshardingShardNumber());
+    }
+
+    /**
+     * Provides the executor of the shard the key is written to.
+     * <p>While the container is being resharded, it is the shard of the new shard set.</p>
+     *
+     * @param key the key
+     * @return the shard's executor
+     */
+    public synchronized ContainerShardExecutor getShardExecutorByKey(final byte[] key) {
+        if (isResharding()) {
+            return getReshardingShardExecutorByIndex(getReshardingShardIndexByKey(key));
+        }
+        final int shardIndex = getShardIndexByKey(key);
+        return getShardExecutorByIndex(shardIndex);
+    }
+
+    /**
+     * Provides the executors of the shards to look the key up in.
+     * <p>While the container is being resharded, the key is looked up in the new shard, then in the current one
+     * and then in the new one again, as it can be moved between the first two lookups.
+     * The key is always inserted to the new shard before it is removed from the current one.</p>
+     *
+     * @param key the key
+     * @return the shard executors in the order of the lookups
+     */
+    private synchronized ContainerShardExecutor[] getReadShardExecutorsByKey(final byte[] key) {
+        final ContainerShardExecutor current = getShardExecutorByIndex(getShardIndexByKey(key));
+        if (isResharding()) {
+            final ContainerShardExecutor resharding = getReshardingShardExecutorByIndex(getReshardingShardIndexByKey(key));
+            return new ContainerShardExecutor[] { resharding, current, resharding };
+        }
+        return new ContainerShardExecutor[] { current };
+    }
+
+    /**
+     * Provides the executors of all the shards in the listing order: the current shards followed by the shards the container is being resharded to
+     */
+    private synchronized List<ContainerShardExecutor> getListShardExecutors() {
+        final List<ContainerShardExecutor> shardExecutors = new ArrayList<>();
+        for (int i = 0; i < containerShardExecutors.size(); i++) {
+            shardExecutors.add(getShardExecutorByIndex(i));
+        }
+        if (reshardingShardExecutors != null) {
+            for (int i = 0; i < reshardingShardExecutors.size(); i++) {
+                shardExecutors.add(getReshardingShardExecutorByIndex(i));
+            }
+        }
+        return shardExecutors;
+    }
+
+    /**
+     * Finds the position of the key in the listing order of the shards, see {@link #getListShardExecutors()}
+     */
+    private CompletableFuture<Integer> getListShardIndexByKey(final int sessionId, final byte[] key, final List<ContainerShardExecutor> shardExecutors) {
+        final int shardIndex = getShardIndexByKey(key);
+        if (shardExecutors.size() == containerShardExecutors.size()) {
+            return CompletableFuture.completedFuture(shardIndex);
+        }
+        final int reshardingShardIndex = containerShardExecutors.size() + getReshardingShardIndexByKey(key);
+        return toCompletableFuture(shardExecutors.get(reshardingShardIndex).executeKey(sessionId, OperationType.READ, true, (ops) ->
+                ops.getKey(key))).thenApply((record) -> record != null ? reshardingShardIndex : shardIndex);
+    }
+
+    public synchronized ContainerShardExecutor getShardExecutorByIndex(final int shardIndex) {
+        if (shutdown) {
+            throw new AsyncContainerAccessException("Container is in shutdown mode.");
+        }
+        ContainerShardExecutor containerShardExecutor = containerShardExecutors.get(shardIndex);
+        if (containerShardExecutor == null) {
+            containerShardExecutor = new ContainerShardExecutor(this, container.getShard(shardIndex));
+            containerShardExecutors.set(shardIndex, containerShardExecutor);
+        }
+        return containerShardExecutor;
+    }
+
+    private synchronized ContainerShardExecutor getReshardingShardExecutorByIndex(final int shardIndex) {
+        if (shutdown) {
+            throw new AsyncContainerAccessException("Container is in shutdown mode.");
+        }
+        ContainerShardExecutor containerShardExecutor = reshardingShardExecutors.get(shardIndex);
+        if (containerShardExecutor == null) {
+            containerShardExecutor = new ContainerShardExecutor(this, container.getReshardingShard(shardIndex));
+            reshardingShardExecutors.set(shardIndex, containerShardExecutor);
+        }
+        return containerShardExecutor;
+    }
+
+    /**
+     * Checks if the keys of the container are being moved to a new set of shards
+     *
+     * @return {@code true} if the resharding is in progress
+     */
+    public synchronized boolean isResharding() {
+        return reshardingShardExecutors != null;
+    }
+
+    /**
+     * Starts moving the keys of the container to a new set of shards.
+     *
+     * <p>The new shards are created and persisted at once, and all the new entries are written to them from now on.
+     * The keys with their values are moved in the background from the current shards, while the container
+     * stays available for all the operations (see {@link #moveKey(int, byte[], ContainerShardExecutor, ContainerShardExecutor, OperationPriority)}).
+     * As soon as the current shards are empty, the new shards replace them in the container's descriptor
+     * and the previous shards are removed.</p>
+     * <p>The values are copied, as every shard keeps its values with its own allocator.</p>
+     * <p>If the container is closed before the resharding is complete, it is continued when the container is opened again.
+     * Calling this function during the resharding to the same shards returns the future of the running one.</p>
+     *
+     * @param sessionId the session id
+     * @param shardNumber the number of the new shards
+     * @param shardRouting the routing of the keys to the new shards
+     * @return the future with the number of moved keys, it is complete when the new shards have replaced the current ones
+     */
+    public synchronized Future<Long> reshard(final int sessionId, final int shardNumber, final ShardRouting shardRouting) {
+        if (shutdown) {
+            throw new AsyncContainerAccessException("Container is in shutdown mode.");
+        }
+        if (isResharding()) {
+            final ContainerDescriptor descriptor = container.getDescriptor();
+            if (descriptor.getReshardingShardNumber() != shardNumber || descriptor.getReshardingShardRouting() != shardRouting) {
+                throw new RoStoreException("The container \"" + container.getName() + "\" is already being resharded to " +
+                        descriptor.getReshardingShardNumber() + " shards with " + descriptor.getReshardingShardRouting() + " routing.");
+            }
+            return reshardingFuture;
+        }
+        container.startResharding(shardNumber, shardRouting);
+        startResharding(sessionId);
+        return reshardingFuture;
+    }
+
+    /**
+     * Starts the background migration of the keys.
+     * <p>The migration is executed with {@link OperationPriority#MAINTENANCE}: every page of the keys is started as
+     * a task of the executor (see {@link AsyncContainers#submit(int, OperationPriority, Runnable)}), and the operations
+     * it executes on the shards are chained, so no thread waits for them.</p>
+     */
+    private synchronized void startResharding(final int sessionId) {
+        reshardingShardExecutors = new ArrayList<>(container.getDescriptor().getReshardingShardNumber());
+        for (int i = 0; i < container.getDescriptor().getReshardingShardNumber(); i++) {
+            reshardingShardExecutors.add(null);
+        }
+        final CompletableFuture<Long> moved = new CompletableFuture<>();
+        reshardingFuture = moved.thenCompose((movedNumber) -> completeResharding().thenApply((v) -> movedNumber));
+        moveKeys(sessionId, 0, null, 0, moved);
+    }
+
+    /**
+     * Executes the step of the resharding as a task with {@link OperationPriority#MAINTENANCE}
+     */
+    private void submitMaintenance(final Runnable step) {
+        asyncContainers.submit(-1, OperationPriority.MAINTENANCE, step);
+    }
+
+    /**
+     * Moves the keys from the current shards to the new ones, shard by shard, one page after another.
+     * <p>The pages are listed after the last key of the previous one, so the keys that can't be moved, e.g. as their
+     * values are being removed together with them, are skipped. They are removed with the current shard.
+     * The keys of a page are moved in parallel.</p>
+     *
+     * @param shardIndex the index of the current shard to move the keys from
+     * @param continuationKey the last key of the previous page, {@code null} to start with the first key of the shard
+     * @param moved the number of the keys moved so far
+     * @param result completed with the number of the moved keys once all the shards are empty
+     */
+    private void moveKeys(final int sessionId,
+                          final int shardIndex,
+                          final byte[] continuationKey,
+                          final long moved,
+                          final CompletableFuture<Long> result) {
+        if (shardIndex == container.getDescriptor().getContainerMeta().getShardNumber()) {
+            result.complete(moved);
+            return;
+        }
+        try {
+            submitMaintenance(() -> {
+                final ContainerShardExecutor shardExecutor = getShardExecutorByIndex(shardIndex);
+                toCompletableFuture(shardExecutor.executeKey(sessionId, OperationType.READ, OperationPriority.MAINTENANCE, true, (ops) ->
+                        ops.listKeys(null, continuationKey, Properties.RESHARDING_BATCH_SIZE, Integer.MAX_VALUE))).
+                        thenCompose((keyList) -> {
+                            final List<CompletableFuture<Boolean>> futures = new ArrayList<>(keyList.getKeys().size());
+                            for (final byte[] key : keyList.getKeys()) {
+                                futures.add(moveKey(sessionId, key, shardExecutor, getShardExecutorByKey(key), OperationPriority.MAINTENANCE));
+                            }
+                            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply((v) -> {
+                                long pageMoved = 0;
+                                for (final CompletableFuture<Boolean> future : futures) {
+                                    if (future.join()) {
+                                        pageMoved++;
+                                    }
+                                }
+                                return pageMoved;
+                            }).whenComplete((pageMoved, e) -> {
+                                if (e != null) {
+                                    result.completeExceptionally(e);
+                                    return;
+                                }
+                                final List<byte[]> keys = keyList.getKeys();
+                                if (keyList.isMore() && !keys.isEmpty()) {
+                                    moveKeys(sessionId, shardIndex, keys.get(keys.size() - 1), moved + pageMoved, result);
+                                } else {
+                                    moveKeys(sessionId, shardIndex + 1, null, moved + pageMoved, result);
+                                }
+                            });
+                        }).exceptionally((e) -> {
+                            result.completeExceptionally(e);
+                            return null;
+                        });
+            });
+        } catch (final RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Moves the key before the conditional write, so that its options and version are validated against the current entry.
+     */
+    private void moveKeyIfResharding(final int sessionId, final byte[] key) {
+        final ContainerShardExecutor[] shardExecutors = getReadShardExecutorsByKey(key);
+        if (shardExecutors.length != 1) {
+            resolveFuture(moveKey(sessionId, key, shardExecutors[1], shardExecutors[0], OperationPriority.INTERACTIVE));
+        }
+    }
+
+    private static boolean isConditional(final Record record) {
+        return record.getVersion() != Utils.VERSION_UNDEFINED ||
+                record.hasOption(RecordOption.ONLY_INSERT) ||
+                record.hasOption(RecordOption.ONLY_REPLACE);
+    }
+
+    /**
+     * Moves the key with its value from the current shard to the new one.
+     *
+     * <p>The key is inserted to the new shard first and only then removed from the current one,
+     * so the lookups of {@link #getReadShardExecutorsByKey(byte[])} always find it. If the key has been
+     * written to the new shard meanwhile, the newer entry is kept. If the key has been removed from the
+     * current shard meanwhile, its copy is removed from the new shard as well.</p>
+     * <p>The values are only freed once the change of the key that referred to them is committed,
+     * the value of the current shard only after the key is committed in both shards.</p>
+     *
+     * @param priority the priority class of the operations
+     * @return the future that is {@code true} if the key has been moved
+     */
+    private CompletableFuture<Boolean> moveKey(final int sessionId,
+                                               final byte[] key,
+                                               final ContainerShardExecutor from,
+                                               final ContainerShardExecutor to,
+                                               final OperationPriority priority) {
+        return toCompletableFuture(from.executeKey(sessionId, OperationType.READ, priority, true, (ops) -> ops.getKey(key))).
+                thenCompose((record) -> {
+                    if (record == null) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    if (record.getId() == Utils.ID_UNDEFINED) {
+                        return moveKey(sessionId, key, record, Utils.ID_UNDEFINED, from, to, priority);
+                    }
+                    return toCompletableFuture(from.executeValue(sessionId, OperationType.READ, priority, record.getId(), true, () -> {
+                        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        from.getShard().getValue(record, outputStream);
+                        return outputStream.toByteArray();
+                    })).thenCompose((value) -> {
+                        if (value == null) {
+                            // the value is being removed together with the key
+                            return CompletableFuture.completedFuture(false);
+                        }
+                        return toCompletableFuture(to.executeValue(sessionId, OperationType.WRITE, priority, 0, true, () ->
+                                to.getShard().putValue(new ByteArrayInputStream(value)))).
+                                thenCompose((id) -> moveKey(sessionId, key, record, id, from, to, priority));
+                    });
+                });
+    }
+
+    /**
+     * Inserts the key with the copied value to the new shard and removes it from the current one
+     *
+     * @param record the entry of the key in the current shard
+     * @param id the id of the copied value in the new shard
+     */
+    private CompletableFuture<Boolean> moveKey(final int sessionId,
+                                               final byte[] key,
+                                               final Record record,
+                                               final long id,
+                                               final ContainerShardExecutor from,
+                                               final ContainerShardExecutor to,
+                                               final OperationPriority priority) {
+        return toCompletableFuture(to.executeKey(sessionId, OperationType.WRITE, priority, true, (ops) -> {
+            try {
+                final long prevId = ops.putKey(key, new Record().id(id).
+                        eol(record.getEol()).
+                        version(record.getVersion()).
+                        addOption(RecordOption.ONLY_INSERT).
+                        addOption(RecordOption.OVERRIDE_VERSION));
+                // an expired entry could have been replaced
+                removeValueAfterCommit(ops, sessionId, to, prevId);
+                return true;
+            } catch (final OptionMismatchException e) {
+                // the key has been written to the new shard meanwhile
+                removeValueAfterCommit(ops, sessionId, to, id);
+                return false;
+            }
+        })).thenCompose((inserted) -> toCompletableFuture(from.executeKey(sessionId, OperationType.DELETE, priority, true, (ops) -> {
+            if (ops.removeKeyWithId(key, record.getId())) {
+                removeValueAfterCommit(ops, sessionId, from, record.getId());
+                return true;
+            }
+            return false;
+        })).thenCompose((removed) -> {
+            if (inserted && !removed) {
+                // the key has been removed from the current shard meanwhile
+                return toCompletableFuture(to.executeKey(sessionId, OperationType.DELETE, priority, true, (ops) -> {
+                    if (ops.removeKeyWithId(key, id)) {
+                        removeValueAfterCommit(ops, sessionId, to, id);
+                    }
+                    return false;
+                }));
+            }
+            return CompletableFuture.completedFuture(inserted && removed);
+        }));
+    }
+
+    private static void removeValue(final int sessionId, final ContainerShardExecutor shardExecutor, final long id) {
+        if (id != Utils.ID_UNDEFINED) {
+            shardExecutor.executeAutonomousValue(sessionId, OperationType.DELETE, id, false, () ->
+                    shardExecutor.getShard().removeValue(id));
+        }
+    }
+
+    /**
+     * Removes the value once the changes of the key operation are committed,
+     * so the value is kept if the key that refers to it stays on the media, see {@link ContainerShardKeyOperations#afterCommit(Runnable)}
+     */
+    private static void removeValueAfterCommit(final ContainerShardKeyOperations ops,
+                                               final int sessionId,
+                                               final ContainerShardExecutor shardExecutor,
+                                               final long id) {
+        if (id != Utils.ID_UNDEFINED) {
+            ops.afterCommit(() -> removeValue(sessionId, shardExecutor, id));
+        }
+    }
+
+    /**
+     * Replaces the current shards with the new ones, the current shards are removed as soon as the running operations on them are over
+     *
+     * @return the future that is complete once the current shards are removed
+     */
+    private CompletableFuture<Void> completeResharding() {
+        final List<ContainerShardExecutor> previousShardExecutors;
+        final ContainerShard[] previousShards;
+        synchronized (this) {
+            if (shutdown) {
+                throw new AsyncContainerAccessException("Container is in shutdown mode.");
+            }
+            previousShards = container.completeResharding();
+            previousShardExecutors = containerShardExecutors;
+            containerShardExecutors = reshardingShardExecutors;
+            reshardingShardExecutors = null;
+        }
+        final List<CompletableFuture<Void>> terminated = new ArrayList<>();
+        for (final ContainerShardExecutor previousShardExecutor : previousShardExecutors) {
+            if (previousShardExecutor != null) {
+                terminated.add(previousShardExecutor.shutdownAsync());
+            }
+        }
+        return CompletableFuture.allOf(terminated.toArray(new CompletableFuture[0])).thenRunAsync(() -> {
+            for (final ContainerShard previousShard : previousShards) {
+                previousShard.remove();
+            }
+        }, this::submitMaintenance);
     }
 
     @Override
@@ -32,33 +32,49 @@ public class AsyncContainerMedia implements Closeable {
     public static AsyncContainerMedia create(final File file, final ExecutorService executorService, final AsyncContainerMediaProperties asyncContainerMediaProperties) {
         AsyncContainers[] asyncContainers = new AsyncContainers[1];
         Media media = Media.create(file, asyncContainerMediaProperties.getMediaProperties(), (m) -> {
-            asyncContainers[0] = AsyncContainers.create(m, asyncContainerMediaProperties.getContainerListProperties(), executorService);
+            asyncContainers[0] = AsyncContainers.create(m, asyncContainerMediaProperties.getContainerListProperties(), executorService, asyncContainerMediaProperties.getAsyncContainersProperties());
             return asyncContainers[0].getContainerListHeader();
         });
         return new AsyncContainerMedia(media, asyncContainers[0]);
     }
 
     public static AsyncContainerMedia load(final File file, final ExecutorService executorService) {
+        return load(file, executorService, new AsyncContainersProperties());
+    }
+
+    public static AsyncContainerMedia load(final File file, final ExecutorService executorService, final AsyncContainersProperties asyncContainersProperties) {
         AsyncContainers[] asyncContainers = new AsyncContainers[1];
         final Media media = Media.open(file, ContainerListHeader.class, (m, containerListHeader) -> {
-            asyncContainers[0] = AsyncContainers.load(m, executorService, containerListHeader);
+            asyncContainers[0] = AsyncContainers.load(m, executorService, containerListHeader, asyncContainersProperties);
         });
         return new AsyncContainerMedia(media, asyncContainers[0]);
     }
 
     public static AsyncContainerMedia create(final File file, final AsyncContainerMediaProperties asyncContainerMediaProperties) {
+        return create(file, asyncContainerMediaProperties, ExecutionMode.PLATFORM_THREADS);
+    }
+
+    public static AsyncContainerMedia load(final File file) {
+        return load(file, ExecutionMode.PLATFORM_THREADS);
+    }
+
+    public static AsyncContainerMedia create(final File file, final AsyncContainerMediaProperties asyncContainerMediaProperties, final ExecutionMode executionMode) {
         AsyncContainers[] asyncContainers = new AsyncContainers[1];
         final Media media = Media.create(file, asyncContainerMediaProperties.getMediaProperties(), (m) -> {
-            asyncContainers[0] = AsyncContainers.create(m, asyncContainerMediaProperties.getContainerListProperties());
+            asyncContainers[0] = AsyncContainers.create(m, asyncContainerMediaProperties.getContainerListProperties(), executionMode, asyncContainerMediaProperties.getAsyncContainersProperties());
             return asyncContainers[0].getContainerListHeader();
         });
         return new AsyncContainerMedia(media, asyncContainers[0]);
     }
 
-    public static AsyncContainerMedia load(final File file) {
+    public static AsyncContainerMedia load(final File file, final ExecutionMode executionMode) {
+        return load(file, executionMode, new AsyncContainersProperties());
+    }
+
+    public static AsyncContainerMedia load(final File file, final ExecutionMode executionMode, final AsyncContainersProperties asyncContainersProperties) {
         AsyncContainers[] asyncContainers = new AsyncContainers[1];
         final Media media = Media.open(file, ContainerListHeader.class, (m, containerListHeader) ->
-            asyncContainers[0] = AsyncContainers.load(m, containerListHeader)
+            asyncContainers[0] = AsyncContainers.load(m, containerListHeader, executionMode, asyncContainersProperties)
         );
         return new AsyncContainerMedia(media, asyncContainers[0]);
     }
@@ -11,6 +11,8 @@ public class AsyncContainerMediaProperties {
 
     private ContainerListProperties containerListProperties = new ContainerListProperties();
 
+    private AsyncContainersProperties asyncContainersProperties = new AsyncContainersProperties();
+
     public MediaProperties getMediaProperties() {
         return mediaProperties;
     }
@@ -27,6 +29,19 @@ public class AsyncContainerMediaProperties {
         this.containerListProperties = containerListProperties;
     }
 
+    /**
+     * The properties that apply to the newly created media as long as it is opened, they are not stored in the media
+     *
+     * @return the runtime properties
+     */
+    public AsyncContainersProperties getAsyncContainersProperties() {
+        return asyncContainersProperties;
+    }
+
+    public void setAsyncContainersProperties(AsyncContainersProperties asyncContainersProperties) {
+        this.asyncContainersProperties = asyncContainersProperties;
+    }
+
     public static AsyncContainerMediaProperties defaultContainerProperties(final MediaPropertiesBuilder mediaPropertiesBuilder) {
         AsyncContainerMediaProperties r = new AsyncContainerMediaProperties();
         r.setMediaProperties(MediaProperties.from(mediaPropertiesBuilder));
@@ -1,6 +1,8 @@
 package org.rostore.v2.container.async;
 
+import org.rostore.entity.ExecutorMetrics;
 import org.rostore.entity.RoStoreException;
+import org.rostore.entity.ShardMetrics;
 import org.rostore.entity.media.ContainerListProperties;
 import org.rostore.entity.media.ContainerMeta;
 import org.rostore.v2.container.*;
@@ -11,9 +13,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -31,6 +35,41 @@ public class AsyncContainers extends RootClosableImpl {
 
     private final Media media;
 
+    private final AsyncContainersProperties properties;
+
+    /**
+     * The number of the shard operations submitted to the executor that have not been started yet
+     */
+    private final AtomicInteger queuedOperations = new AtomicInteger();
+
+    private final QueueDelayMonitor queueDelayMonitor;
+
+    /**
+     * Distributes the shards over the threads of {@link ShardThreads}
+     */
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    /**
+     * The operations of every {@link OperationPriority} class that are submitted to the executor and not over yet
+     */
+    private final AtomicInteger[] runningByPriority = new AtomicInteger[OperationPriority.values().length];
+
+    /**
+     * The operations of every {@link OperationPriority} class that wait for the budget of their class
+     */
+    @SuppressWarnings("unchecked")
+    private final Queue<Runnable>[] pendingByPriority = new Queue[OperationPriority.values().length];
+
+    private final int[] budgets = new int[OperationPriority.values().length];
+
+    {
+        for (final OperationPriority priority : OperationPriority.values()) {
+            runningByPriority[priority.ordinal()] = new AtomicInteger();
+            pendingByPriority[priority.ordinal()] = new ConcurrentLinkedQueue<>();
+            budgets[priority.ordinal()] = priority.getExecutorBudget();
+        }
+    }
+
     public synchronized List<String> listAllContainers() {
         return containerListOperations.listAllContainers();
     }
@@ -39,60 +78,215 @@ public class AsyncContainers extends RootClosableImpl {
         return cleanupManager;
     }
 
+    /**
+     * Provides the properties that only apply while the media is opened
+     *
+     * @return the runtime properties
+     */
+    public AsyncContainersProperties getProperties() {
+        return properties;
+    }
+
     public ExecutorService getExecutorService() {
         return executorService;
     }
 
+    /**
+     * Submits the operation of a shard to the executor.
+     * <p>The operations waiting for a thread are counted and their waiting time is observed,
+     * see {@link #admit()}.</p>
+     *
+     * @param operation the operation to execute
+     */
+    public void submit(final Runnable operation) {
+        submit(-1, operation);
+    }
+
+    /**
+     * Submits the operation of a shard to the executor, see {@link #submit(Runnable)}.
+     * <p>If the executor is {@link ShardThreads}, the operation is executed in the given lane.</p>
+     *
+     * @param lane the lane of the shard, see {@link #nextLane()}
+     * @param operation the operation to execute
+     */
+    public void submit(final int lane, final Runnable operation) {
+        submit(lane, OperationPriority.INTERACTIVE, operation);
+    }
+
+    /**
+     * Submits the operation of a shard to the executor, see {@link #submit(int, Runnable)}.
+     * <p>If the class of the operation has a budget (see {@link OperationPriority#getExecutorBudget()}) and
+     * it is exhausted, the operation waits until an operation of the same class is over.
+     * The waiting operations are counted as the ones waiting for a thread.</p>
+     *
+     * @param lane the lane of the shard, see {@link #nextLane()}
+     * @param priority the priority class of the operation
+     * @param operation the operation to execute
+     */
+    public void submit(final int lane, final OperationPriority priority, final Runnable operation) {
+        final long queuedNanos = queueDelayMonitor.queued();
+        queuedOperations.incrementAndGet();
+        final int index = priority.ordinal();
+        final Runnable queued = () -> {
+            queuedOperations.decrementAndGet();
+            queueDelayMonitor.sample(queuedNanos);
+            if (budgets[index] == 0) {
+                operation.run();
+                return;
+            }
+            try {
+                operation.run();
+            } finally {
+                runningByPriority[index].decrementAndGet();
+                startPending(index);
+            }
+        };
+        if (budgets[index] == 0) {
+            execute(lane, queued);
+            return;
+        }
+        pendingByPriority[index].offer(() -> execute(lane, queued));
+        startPending(index);
+    }
+
+    /**
+     * Starts the waiting operations of the class as long as its budget allows
+     */
+    private void startPending(final int index) {
+        while (!pendingByPriority[index].isEmpty()) {
+            final int running = runningByPriority[index].get();
+            if (running >= budgets[index]) {
+                // the operation that is over starts the next one
+                return;
+            }
+            if (!runningByPriority[index].compareAndSet(running, running + 1)) {
+                continue;
+            }
+            final Runnable pending = pendingByPriority[index].poll();
+            if (pending == null) {
+                runningByPriority[index].decrementAndGet();
+                continue;
+            }
+            pending.run();
+        }
+    }
+
+    private void execute(final int lane, final Runnable queued) {
+        if (lane >= 0 && executorService instanceof ShardThreads) {
+            ((ShardThreads) executorService).execute(lane, queued);
+        } else {
+            executorService.submit(queued);
+        }
+    }
+
+    /**
+     * Assigns a lane to a new shard, the shards are distributed evenly over the lanes
+     *
+     * @return the lane all the operations of the shard should be submitted to
+     */
+    int nextLane() {
+        return nextLane.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Checks if a new request can be accepted by the executor.
+     * <p>The request is rejected if {@link AsyncContainersProperties#getMaxQueuedOperations()} operations are waiting
+     * for a thread, or if the waiting operations are not worked off (see {@link AsyncContainersProperties#getQueueTargetDelayMillis()}).</p>
+     *
+     * @throws OperationRejectedException if the request should be rejected
+     */
+    public void admit() {
+        final int queued = queuedOperations.get();
+        if (properties.getMaxQueuedOperations() != 0 && queued >= properties.getMaxQueuedOperations()) {
+            throw new OperationRejectedException("There are " + queued + " operations waiting to be executed.", properties.getQueueIntervalMillis());
+        }
+        if (queued != 0 && queueDelayMonitor.isOverloaded()) {
+            throw new OperationRejectedException("The operations wait longer than " + properties.getQueueTargetDelayMillis() + "ms to be executed.", properties.getQueueIntervalMillis());
+        }
+    }
+
     public static AsyncContainers load(final Media media, final ExecutorService executorService, final ContainerListHeader header) {
-        return new AsyncContainers(media, executorService, header);
+        return load(media, executorService, header, new AsyncContainersProperties());
+    }
+
+    public static AsyncContainers load(final Media media, final ExecutorService executorService, final ContainerListHeader header, final AsyncContainersProperties properties) {
+        return new AsyncContainers(media, executorService, header, properties);
     }
 
     public static AsyncContainers create(final Media media, final ContainerListProperties containerListProperties, final ExecutorService executorService) {
-        return new AsyncContainers(media, containerListProperties, executorService);
+        return create(media, containerListProperties, executorService, new AsyncContainersProperties());
+    }
+
+    public static AsyncContainers create(final Media media, final ContainerListProperties containerListProperties, final ExecutorService executorService, final AsyncContainersProperties properties) {
+        return new AsyncContainers(media, containerListProperties, executorService, properties);
     }
 
     public static AsyncContainers load(final Media media, final ContainerListHeader header) {
-        return new AsyncContainers(media, header);
+        return load(media, header, ExecutionMode.PLATFORM_THREADS);
     }
 
     public static AsyncContainers create(final Media media, final ContainerListProperties containerListProperties) {
-        return new AsyncContainers(media, containerListProperties);
+        return create(media, containerListProperties, ExecutionMode.PLATFORM_THREADS);
     }
 
-    private AsyncContainers(final Media media, final ExecutorService executorService, final ContainerListHeader header) {
+    public static AsyncContainers load(final Media media, final ContainerListHeader header, final ExecutionMode executionMode) {
+        return load(media, header, executionMode, new AsyncContainersProperties());
+    }
+
+    public static AsyncContainers load(final Media media, final ContainerListHeader header, final ExecutionMode executionMode, final AsyncContainersProperties properties) {
+        return new AsyncContainers(media, header, executionMode, properties);
+    }
+
+    public static AsyncContainers create(final Media media, final ContainerListProperties containerListProperties, final ExecutionMode executionMode) {
+        return create(media, containerListProperties, executionMode, new AsyncContainersProperties());
+    }
+
+    public static AsyncContainers create(final Media media, final ContainerListProperties containerListProperties, final ExecutionMode executionMode, final AsyncContainersProperties properties) {
+        return new AsyncContainers(media, containerListProperties, executionMode, properties);
+    }
+
+    private AsyncContainers(final Media media, final ExecutorService executorService, final ContainerListHeader header, final AsyncContainersProperties properties) {
         this.media = media;
         this.executorService = executorService;
         this.privateExecutorService = false;
+        this.properties = properties;
         containerListOperations = new ContainerListOperations(media, header);
         cleanupManager = createCleanupManager();
+        queueDelayMonitor = createQueueDelayMonitor();
     }
 
-    private AsyncContainers(final Media media, final ContainerListHeader header) {
+    private AsyncContainers(final Media media, final ContainerListHeader header, final ExecutionMode executionMode, final AsyncContainersProperties properties) {
         this.media = media;
-        this.executorService = createPrivateExecutorService();
+        this.executorService = executionMode.createExecutorService();
         this.privateExecutorService = true;
+        this.properties = properties;
         containerListOperations = new ContainerListOperations(media, header);
         cleanupManager = createCleanupManager();
+        queueDelayMonitor = createQueueDelayMonitor();
     }
 
-    private static ExecutorService createPrivateExecutorService() {
-        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1);
-    }
-
-    private AsyncContainers(final Media media, final ContainerListProperties containerListProperties, final ExecutorService executorService) {
+    private AsyncContainers(final Media media, final ContainerListProperties containerListProperties, final ExecutorService executorService, final AsyncContainersProperties properties) {
         this.media = media;
         this.executorService = executorService;
         this.privateExecutorService = false;
+        this.properties = properties;
         containerListOperations = new ContainerListOperations(media, containerListProperties);
         cleanupManager = createCleanupManager();
+        queueDelayMonitor = createQueueDelayMonitor();
     }
 
-    private AsyncContainers(final Media media, final ContainerListProperties containerListProperties) {
+    private AsyncContainers(final Media media, final ContainerListProperties containerListProperties, final ExecutionMode executionMode, final AsyncContainersProperties properties) {
         this.media = media;
-        this.executorService = createPrivateExecutorService();
+        this.executorService = executionMode.createExecutorService();
         privateExecutorService = true;
+        this.properties = properties;
         containerListOperations = new ContainerListOperations(media, containerListProperties);
         cleanupManager = createCleanupManager();
+        queueDelayMonitor = createQueueDelayMonitor();
+    }
+
+    private QueueDelayMonitor createQueueDelayMonitor() {
+        return new QueueDelayMonitor(properties.getQueueTargetDelayMillis(), properties.getQueueIntervalMillis());
     }
 
     private CleanupManager createCleanupManager() {
@@ -109,6 +303,24 @@ public class AsyncContainers extends RootClosableImpl {
         };
     }
 
+    /**
+     * Provides the load of the executor and the durations of the operations on the shards of the opened containers.
+     * <p>The shards that have not been accessed since their container has been opened are not listed.</p>
+     *
+     * @return the metrics of the executor and the shards
+     */
+    public ExecutorMetrics getMetrics() {
+        final List<AsyncContainer> opened;
+        synchronized (this) {
+            opened = new ArrayList<>(asyncContainers.values());
+        }
+        final List<ShardMetrics> shards = new ArrayList<>();
+        for (final AsyncContainer asyncContainer : opened) {
+            shards.addAll(asyncContainer.getShardMetrics());
+        }
+        return new ExecutorMetrics(queuedOperations.get(), shards);
+    }
+
     public ContainerListHeader getContainerListHeader() {
         return containerListOperations.getContainerListHeader();
     }
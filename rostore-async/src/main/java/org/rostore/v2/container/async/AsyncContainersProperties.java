@@ -0,0 +1,122 @@
+package org.rostore.v2.container.async;
+
+/**
+ * The properties of the {@link AsyncContainers} that only apply while the media is opened.
+ * <p>In contrast to {@link org.rostore.entity.media.ContainerListProperties} they are not stored
+ * in the media header, and can be given anew every time the media is opened.</p>
+ */
+public class AsyncContainersProperties {
+
+    public static final int MAX_QUEUED_KEY_OPERATIONS_PER_SHARD_DEFAULT = 100000;
+    public static final int MAX_QUEUED_OPERATIONS_DEFAULT = 100000;
+    public static final long QUEUE_TARGET_DELAY_MILLIS_DEFAULT = 0;
+    public static final long QUEUE_INTERVAL_MILLIS_DEFAULT = 100;
+    public static final long READ_CACHE_SIZE_DEFAULT = 0;
+
+    private int maxQueuedKeyOperationsPerShard = MAX_QUEUED_KEY_OPERATIONS_PER_SHARD_DEFAULT;
+
+    private int maxQueuedOperations = MAX_QUEUED_OPERATIONS_DEFAULT;
+
+    private long queueTargetDelayMillis = QUEUE_TARGET_DELAY_MILLIS_DEFAULT;
+
+    private long queueIntervalMillis = QUEUE_INTERVAL_MILLIS_DEFAULT;
+
+    private long readCacheSize = READ_CACHE_SIZE_DEFAULT;
+
+    /**
+     * The maximum number of key operations that can be queued or running in a shard.
+     * <p>The new requests to the shard are rejected as long as the limit is reached.</p>
+     *
+     * @return the maximum number of key operations per shard, {@code 0} if not limited
+     */
+    public int getMaxQueuedKeyOperationsPerShard() {
+        return maxQueuedKeyOperationsPerShard;
+    }
+
+    /**
+     * Sets the maximum number of key operations that can be queued or running in a shard.
+     *
+     * @param maxQueuedKeyOperationsPerShard the maximum number of key operations per shard, {@code 0} if not limited
+     */
+    public void setMaxQueuedKeyOperationsPerShard(int maxQueuedKeyOperationsPerShard) {
+        this.maxQueuedKeyOperationsPerShard = maxQueuedKeyOperationsPerShard;
+    }
+
+    /**
+     * The maximum number of operations of all the containers that wait for a thread to be executed in.
+     * <p>The new requests are rejected as long as the limit is reached.</p>
+     *
+     * @return the maximum number of waiting operations, {@code 0} if not limited
+     */
+    public int getMaxQueuedOperations() {
+        return maxQueuedOperations;
+    }
+
+    /**
+     * Sets the maximum number of operations of all the containers that wait for a thread to be executed in.
+     *
+     * @param maxQueuedOperations the maximum number of waiting operations, {@code 0} if not limited
+     */
+    public void setMaxQueuedOperations(int maxQueuedOperations) {
+        this.maxQueuedOperations = maxQueuedOperations;
+    }
+
+    /**
+     * The time the operations may stay in a queue before the queue is considered overloaded.
+     * <p>If every operation started within {@link #getQueueIntervalMillis()} has been queued for longer than
+     * this, the queue does not drain by itself, and the new requests are rejected until it does.
+     * Short bursts that are worked off within the interval are not affected.</p>
+     *
+     * @return the target queueing delay in milliseconds, {@code 0} if the requests are not rejected because of the delay
+     */
+    public long getQueueTargetDelayMillis() {
+        return queueTargetDelayMillis;
+    }
+
+    /**
+     * Sets the time the operations may stay in a queue before the queue is considered overloaded.
+     *
+     * @param queueTargetDelayMillis the target queueing delay in milliseconds, {@code 0} disables the rejection
+     */
+    public void setQueueTargetDelayMillis(long queueTargetDelayMillis) {
+        this.queueTargetDelayMillis = queueTargetDelayMillis;
+    }
+
+    /**
+     * The time the queueing delay must stay above {@link #getQueueTargetDelayMillis()} before the new requests are rejected.
+     * <p>It is also suggested to the rejected clients as the time to wait before the retry.</p>
+     *
+     * @return the interval in milliseconds
+     */
+    public long getQueueIntervalMillis() {
+        return queueIntervalMillis;
+    }
+
+    /**
+     * Sets the time the queueing delay must stay above the target before the new requests are rejected.
+     *
+     * @param queueIntervalMillis the interval in milliseconds
+     */
+    public void setQueueIntervalMillis(long queueIntervalMillis) {
+        this.queueIntervalMillis = queueIntervalMillis;
+    }
+
+    /**
+     * The maximum size of the cache that keeps the small values of every opened container in memory to serve the repeated reads.
+     * <p>The cache is filled again every time the container is opened.</p>
+     *
+     * @return the size in bytes per container, {@code 0} if the values are not cached
+     */
+    public long getReadCacheSize() {
+        return readCacheSize;
+    }
+
+    /**
+     * Sets the maximum size of the read cache of every opened container.
+     *
+     * @param readCacheSize the size in bytes per container, {@code 0} disables the cache
+     */
+    public void setReadCacheSize(long readCacheSize) {
+        this.readCacheSize = readCacheSize;
+    }
+}
@@ -0,0 +1,7 @@
+package org.rostore.v2.container.async;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncStageFunction<I, R> {
+    CompletableFuture<R> process(final I stream) throws Exception;
+}
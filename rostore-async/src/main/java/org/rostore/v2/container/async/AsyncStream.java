@@ -4,6 +4,11 @@ import org.rostore.entity.Record;
 import org.rostore.entity.RoStoreException;
 import org.rostore.entity.StreamProcessingException;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.concurrent.*;
 
 /**
@@ -15,18 +20,21 @@ import java.util.concurrent.*;
  * that will be notified on different events around the stream processing: status transition
  * and {@link Record} updates during processing of the stream.</p>
  * <p>The client can wait of the blocking variant of this stream (e.g. {@link #wrapBlocking(AutoCloseable)}).</p>
- * <p>The stream processing can also be canceled (see {@link #cancel(boolean)}).</p>
+ * <p>The stream processing can also be canceled (see {@link #cancel(boolean)}), or limited by
+ * a deadline (see {@link #deadline(long)}). The operations of the stream are not started after the deadline, and
+ * the value being streamed is not read or written any further once the stream is canceled or expired.</p>
  *
  * @param <S> the stream that this object is wrapped around.
  */
 public class AsyncStream<S extends AutoCloseable> implements AutoCloseable, Future<S> {
 
     private final S stream;
-    private Exception exception;
+    private volatile Exception exception;
 
-    private AsyncStatus status;
+    private volatile AsyncStatus status;
     private CountDownLatch countDownLatch;
     private AsyncListener asyncListener;
+    private volatile long deadlineMillis;
 
     public static <S extends AutoCloseable> AsyncStream<S> wrap(final S s) {
         return wrap(s, null);
@@ -44,6 +52,101 @@ public class AsyncStream<S extends AutoCloseable> implements AutoCloseable, Futu
         return new AsyncStream<>(s, true, asyncListener);
     }
 
+    /**
+     * Sets the deadline of the stream processing
+     *
+     * @param deadlineMillis the time in millis since epoch, {@code 0} if there is no deadline
+     * @return this stream
+     */
+    public AsyncStream<S> deadline(final long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * Provides the deadline of the stream processing
+     *
+     * @return the time in millis since epoch, {@code 0} if there is no deadline
+     */
+    public long getDeadline() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Checks if the deadline of the stream processing has passed
+     *
+     * @return {@code true} if the stream should not be processed anymore
+     */
+    public boolean isExpired() {
+        return deadlineMillis != 0 && System.currentTimeMillis() >= deadlineMillis;
+    }
+
+    /**
+     * Stops the processing if the stream is canceled or expired
+     *
+     * @throws CancellationException if the stream is canceled
+     * @throws OperationExpiredException if the deadline has passed
+     */
+    private void checkActive() {
+        if (isCancelled()) {
+            throw new CancellationException("The stream processing has been canceled.");
+        }
+        if (isExpired()) {
+            throw new OperationExpiredException("The deadline of the stream processing has passed.");
+        }
+    }
+
+    /**
+     * Wraps the stream the value is read from, so that the reading stops when
+     * the stream processing is canceled or expired
+     *
+     * @param inputStream the stream to read the value from
+     * @return the stream that checks the state of the processing before every read
+     */
+    InputStream checked(final InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                checkActive();
+                return super.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                checkActive();
+                return super.read(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Wraps the stream the value is written to, so that the writing stops when
+     * the stream processing is canceled or expired
+     *
+     * @param outputStream the stream to write the value to
+     * @return the stream that checks the state of the processing before every write
+     */
+    OutputStream checked(final OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(final int b) throws IOException {
+                checkActive();
+                out.write(b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                checkActive();
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                // the wrapped stream is closed with this async stream
+            }
+        };
+    }
+
     public Exception getException() {
         return exception;
     }
@@ -65,20 +168,54 @@ public class AsyncStream<S extends AutoCloseable> implements AutoCloseable, Futu
     public final void processFunction(final AsyncFunction<S> runnable) {
         start();
         try {
+            checkActive();
             runnable.process(stream);
-            status = AsyncStatus.SUCCESS;
-            if (asyncListener != null) {
-                asyncListener.status(status);
-            }
         } catch (final Exception e) {
-            status = AsyncStatus.ERROR;
-            this.exception = e;
-            final StreamProcessingException streamProcessingException = new StreamProcessingException(e);
-            if (asyncListener != null) {
-                asyncListener.error(e);
-                asyncListener.status(status);
+            finish(e);
+            throw new StreamProcessingException(e);
+        }
+        finish(null);
+    }
+
+    /**
+     * This function is called from the async process to process the entity,
+     * when the processing is only over once the stage returned by the callback is complete,
+     * e.g. when the key of the value read from the stream has been stored.
+     * <p>The async process is marked as done when the stage completes, the thread that
+     * has read the stream is not held until then.</p>
+     *
+     * @param function the callback the async process implements
+     * @return the stage that completes after the async process has been marked as done
+     * @param <R> the result of the processing
+     */
+    public final <R> CompletableFuture<R> processStage(final AsyncStageFunction<S, R> function) {
+        start();
+        final CompletableFuture<R> stage;
+        try {
+            checkActive();
+            stage = function.process(stream);
+        } catch (final Exception e) {
+            finish(e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return stage.whenComplete((result, e) -> finish(e == null ? null : unwrap(e)));
+    }
+
+    private void finish(final Exception e) {
+        try {
+            if (e == null) {
+                status = AsyncStatus.SUCCESS;
+                if (asyncListener != null) {
+                    asyncListener.status(status);
+                }
+            } else {
+                status = AsyncStatus.ERROR;
+                this.exception = e;
+                if (asyncListener != null) {
+                    asyncListener.error(e);
+                    asyncListener.status(status);
+                }
             }
-            throw streamProcessingException;
         } finally {
             if (countDownLatch != null) {
                 countDownLatch.countDown();
@@ -86,17 +223,36 @@ public class AsyncStream<S extends AutoCloseable> implements AutoCloseable, Futu
         }
     }
 
+    /**
+     * Provides the exception a stage has failed with
+     *
+     * @param thr the failure reported to the dependent stage
+     * @return the original exception
+     */
+    static Exception unwrap(final Throwable thr) {
+        final Throwable cause = thr instanceof CompletionException && thr.getCause() != null ? thr.getCause() : thr;
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return new RoStoreException("Unknown execution failure", cause);
+    }
+
     /**
      * Called by the internal processing logic in case any error occurs during processing
+     * <p>The client waiting for the stream is released, see {@link #get()}.</p>
      *
      * @param e the exception experienced
      */
     public void fail(final Exception e) {
         status = AsyncStatus.ERROR;
+        exception = e;
         if (asyncListener != null) {
             asyncListener.error(e);
             asyncListener.status(status);
         }
+        if (countDownLatch != null) {
+            countDownLatch.countDown();
+        }
     }
 
     private AsyncStream(final S s, final boolean blocking, final AsyncListener asyncListener) {
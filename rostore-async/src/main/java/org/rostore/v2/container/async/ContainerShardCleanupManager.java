@@ -2,9 +2,13 @@ package org.rostore.v2.container.async;
 
 import org.rostore.Utils;
 import org.rostore.v2.container.ContainerShardKeyOperations;
+import org.rostore.v2.container.Properties;
 
 /**
  * This is a manager to clean up if needed
+ * <p>The clean-up is executed with {@link OperationPriority#MAINTENANCE}, the number of entries it removes
+ * in a cycle follows the load of the shard: it shrinks while the clients' key operations are waiting,
+ * and grows by {@link Properties#CLEANUP_IDLE_FACTOR} if the shard is idle.</p>
  */
 public class ContainerShardCleanupManager extends CleanupManager {
 
@@ -20,38 +24,67 @@ public class ContainerShardCleanupManager extends CleanupManager {
     }
 
     protected void execute() {
-        containerShardExecutor.executeKey(0, OperationType.WRITE, true, this::queue);
+        containerShardExecutor.executeKey(0, OperationType.WRITE, OperationPriority.MAINTENANCE, true, this::queue);
     }
 
     protected void finalized() {
-        containerShardExecutor.shutdownIfHasTo();
+        try {
+            containerShardExecutor.getShard().persistStatistics();
+        } finally {
+            containerShardExecutor.shutdownIfHasTo();
+        }
+    }
+
+    /**
+     * Provides the number of entries to remove in this cycle
+     *
+     * @return the maximum number of clean-ups adapted to the current load of the shard
+     */
+    private int cleanupsPerCycle() {
+        final int load = containerShardExecutor.getForegroundLoad();
+        if (load <= 0) {
+            return maxNumberOfCleans * Properties.CLEANUP_IDLE_FACTOR;
+        }
+        return Math.max(1, maxNumberOfCleans / (1 + load));
     }
 
     public boolean queue(final ContainerShardKeyOperations ops) {
-            if (nextRunBlockIndex >= ops.getBlockSequence().length()) {
-                nextRunBlockIndex = 0;
+        final int cleanups = cleanupsPerCycle();
+        if (ops.removeExpiredKeys(cleanups, (id) -> removeValueAfterCommit(ops, id))) {
+            return true;
+        }
+        // the keys not in the expiry index (too long, or the shard has no index) are only found by visiting the key blocks
+        if (nextRunBlockIndex >= ops.getBlockSequence().length()) {
+            nextRunBlockIndex = 0;
+        }
+        boolean ret = false;
+        int cleanNumber = 0;
+        do {
+            long id = ops.removeKeyIfExpired(nextRunBlockIndex);
+            if (id == Utils.ID_UNDEFINED) {
+                break;
             }
-            boolean ret = false;
-            int cleanNumber = 0;
-            do {
-                long id = ops.removeKeyIfExpired(nextRunBlockIndex);
-                if (id == Utils.ID_UNDEFINED) {
-                    break;
-                }
-                containerShardExecutor.executeAutonomousValue(0,
-                        OperationType.DELETE,
-                        id,
-                        false,
-                        () -> containerShardExecutor.getShard().removeValue(id));
-                cleanNumber++;
-                if (cleanNumber > maxNumberOfCleans) {
-                    ret = true;
-                    break;
-                }
-            } while (true);
-            if (!ret) {
-                nextRunBlockIndex++;
+            removeValueAfterCommit(ops, id);
+            cleanNumber++;
+            if (cleanNumber > cleanups) {
+                ret = true;
+                break;
             }
-            return ret;
+        } while (true);
+        if (!ret) {
+            nextRunBlockIndex++;
+        }
+        return ret;
+    }
+
+    /**
+     * Removes the value of the expired key once its removal is committed
+     */
+    private void removeValueAfterCommit(final ContainerShardKeyOperations ops, final long id) {
+        ops.afterCommit(() -> containerShardExecutor.executeAutonomousValue(0,
+                OperationType.DELETE,
+                id,
+                false,
+                () -> containerShardExecutor.getShard().removeValue(id)));
     }
 }
@@ -1,29 +1,117 @@
 package org.rostore.v2.container.async;
 
 import org.rostore.entity.RoStoreException;
+import org.rostore.entity.ShardMetrics;
 import org.rostore.v2.container.ContainerShard;
 import org.rostore.v2.container.ContainerShardKeyOperations;
+import org.rostore.v2.container.Properties;
 
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Schedules the operations on the keys and values of a single {@link ContainerShard}.
+ * <p>The key operations are admitted without locking: the reads read the snapshot of the keys published by the
+ * last write (see {@link ContainerShard#readKeyFunction(Function)}), so they are started at once, even if a write
+ * is running. The writes and deletes run one at a time, in the order they have been queued. The number of the
+ * running reads is kept in {@link #keyState}, the queued operations in a lock-free {@link OperationQueue}, and only
+ * one thread at a time dispatches them, see {@link #dispatchKeyOperations()}.</p>
+ * <p>The writes and deletes waiting for the running one are executed as one group on the same
+ * {@link ContainerShardKeyOperations}, so the key blocks are committed and published once for the whole group.
+ * Every operation of the group still completes on its own. The next write starts as soon as the changes of the group
+ * are published, while the group still flushes its key blocks.</p>
+ * <p>The writes that are expected to update the existing keys in place (see {@link #executeLatchedKey(int, boolean, Function)})
+ * run in parallel with each other while no other write runs or waits, every one latches the key blocks it changes.
+ * A latched write that has to change the structure of the keys, or hits a block latched by another one,
+ * is escalated: it is queued again and executed as a regular write.</p>
+ * <p>A value can only be removed once no read can see the key that refers to it. That's why the value deletes
+ * requested while a key write is running wait until its changes are published.</p>
+ * <p>The bookkeeping of the value operations is guarded by a {@link ReentrantLock} rather than by the monitor,
+ * so a virtual thread waiting for it (see {@link ExecutionMode#VIRTUAL_THREADS}) does not pin its carrier thread.
+ * The lock is never held while an operation is executed.</p>
+ * <p>The exclusive key slot can be reserved and held without a thread, see {@link #reserveKey(int, boolean)},
+ * so that the keys of several shards can be changed together.</p>
+ * <p>The new requests are rejected at once if the shard is overloaded, see {@link #admit()}.</p>
+ * <p>The waiting writes and deletes are started in the proportion of the weights of their {@link OperationPriority}
+ * classes, see {@link PriorityOperationQueue}. The other operations of the background classes are limited by
+ * the budgets of their classes in the executor. The key writes are never limited by the budget, as they hold
+ * the exclusive key slot of the shard while they wait.</p>
+ * <p>The operations whose deadline has passed are dropped before they are started,
+ * they fail with {@link OperationExpiredException}.</p>
+ * <p>All the operations of the shard are submitted to the same lane, so with {@link ExecutionMode#SHARD_THREADS}
+ * they are executed one after another by the same thread.</p>
+ * <p>The time every operation waits and runs is recorded, see {@link #getMetrics(boolean)}.</p>
+ */
 public class ContainerShardExecutor {
 
     private static final Logger logger = Logger.getLogger(ContainerShardExecutor.class.getName());
     private final AsyncContainer asyncContainer;
     private final ContainerShardCleanupManager cleanupManager;
     private final ContainerShard shard;
-    private KeyExecutionState keyExecutionState;
-    private int keyReadCount;
+
+    /**
+     * The number of the running key reads
+     */
+    private final AtomicInteger keyState = new AtomicInteger();
+
+    /**
+     * Set while a key write, delete or reservation is running, changed under {@link #lock}
+     */
+    private volatile boolean keyWriteRunning;
+
+    /**
+     * The number of the running latched key writes, only incremented by the dispatching thread,
+     * see {@link #runLatched(Operation)}
+     */
+    private final AtomicInteger latchedKeyWriteNumber = new AtomicInteger();
+
+    /**
+     * The writes and deletes that wait for the running one, only accessed by the dispatching thread
+     */
+    private final PriorityOperationQueue waitingKeyWrites = new PriorityOperationQueue();
+
+    /**
+     * The size of {@link #waitingKeyWrites}, only changed by the dispatching thread
+     */
+    private volatile int waitingKeyWriteNumber;
+
+    /**
+     * The number of the key operations that are queued or running
+     */
+    private final AtomicInteger keyOperationNumber = new AtomicInteger();
+
+    /**
+     * The number of the requests to dispatch the key operations, the thread that makes the first one dispatches
+     */
+    private final AtomicInteger keyDispatchRequests = new AtomicInteger();
+
+    private final OperationQueue keyOperations = new OperationQueue();
+
+    /**
+     * Observes the time the key operations wait in {@link #keyOperations}, only sampled by the dispatching thread
+     */
+    private final QueueDelayMonitor keyQueueDelayMonitor;
+
+    private final int maxQueuedKeyOperations;
+
+    private final long retryAfterMillis;
+
     private int valueWriteCount;
-    private boolean shutdown;
-    private CountDownLatch shutdownLatch;
-    private final Queue<Operation> keyOperations = new LinkedList<>();
+    private volatile boolean shutdown;
+    /**
+     * Completed once the executor is shut down and all its operations are over
+     */
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    private final ReentrantLock lock = new ReentrantLock();
 
     /**
      * These are executed as soon as all currently executing read value operations for this valueId are done
@@ -35,8 +123,26 @@ public class ContainerShardExecutor {
      */
     private final Set<Long> runningDeleteValueOperations = new HashSet<>();
 
+    /**
+     * The delete operations requested while a key write is running, see {@link #keyWriteRunning}
+     */
+    private final Map<Long, Operation> deferredDeleteValueOperations = new LinkedHashMap<>();
+
+    /**
+     * The delete operations of the values whose id is reused while the delete that has freed it is still running,
+     * these are executed once it is done
+     */
+    private final Map<Long, Operation> reusedDeleteValueOperations = new HashMap<>();
+
     private final Map<Long, Integer> readValueOperations = new HashMap<>();
 
+    private final ShardMetricsRecorder metrics = new ShardMetricsRecorder();
+
+    /**
+     * The lane all the operations of the shard are executed in, see {@link ExecutionMode#SHARD_THREADS}
+     */
+    private final int lane;
+
     public ContainerShard getShard() {
         return shard;
     }
@@ -48,33 +154,173 @@ public class ContainerShardExecutor {
     protected ContainerShardExecutor(final AsyncContainer asyncContainer, final ContainerShard shard) {
         this.asyncContainer = asyncContainer;
         this.shard = shard;
-        keyExecutionState = KeyExecutionState.IDLE;
         shutdown = false;
-        shutdownLatch = new CountDownLatch(1);
-        keyReadCount = 0;
         valueWriteCount = 0;
         cleanupManager = new ContainerShardCleanupManager(this);
+        final AsyncContainersProperties properties = getAsyncContainers().getProperties();
+        keyQueueDelayMonitor = new QueueDelayMonitor(properties.getQueueTargetDelayMillis(), properties.getQueueIntervalMillis());
+        maxQueuedKeyOperations = properties.getMaxQueuedKeyOperationsPerShard();
+        retryAfterMillis = properties.getQueueIntervalMillis();
+        lane = getAsyncContainers().nextLane();
+    }
+
+    /**
+     * Provides the load of the shard and the durations of its operations
+     *
+     * @param resharding {@code true} if the shard belongs to the shard set the container is being resharded to
+     * @return the metrics of the shard
+     */
+    public ShardMetrics getMetrics(final boolean resharding) {
+        final int valueOperationNumber;
+        final int waitingValueDeleteNumber;
+        lock.lock();
+        try {
+            int number = valueWriteCount + runningDeleteValueOperations.size();
+            for (final int readNumber : readValueOperations.values()) {
+                number += readNumber;
+            }
+            valueOperationNumber = number;
+            waitingValueDeleteNumber = waitingDeleteValueOperations.size() + deferredDeleteValueOperations.size() +
+                    reusedDeleteValueOperations.size();
+        } finally {
+            lock.unlock();
+        }
+        return new ShardMetrics(asyncContainer.getContainer().getName(),
+                shard.getIndex(),
+                resharding,
+                keyOperationNumber.get(),
+                valueOperationNumber,
+                waitingValueDeleteNumber,
+                metrics.getCancelledValueReadNumber(),
+                metrics.getExpiredOperationNumber(),
+                metrics.snapshot());
+    }
+
+    /**
+     * Provides the number of the key operations that run or wait for the exclusive key slot,
+     * the clean-up adapts its work to it, see {@link ContainerShardCleanupManager}
+     *
+     * @return the number of the running reads and the waiting writes
+     */
+    int getForegroundLoad() {
+        return keyState.get() + latchedKeyWriteNumber.get() + waitingKeyWriteNumber;
     }
 
-    public synchronized void shutdown() {
+    public void shutdown() {
         shutdown = true;
         shutdownIfHasTo();
     }
 
-    public synchronized boolean isIdle() {
-        return keyExecutionState == KeyExecutionState.IDLE &&
-                keyOperations.isEmpty() &&
-                waitingDeleteValueOperations.isEmpty() &&
-                runningDeleteValueOperations.isEmpty() &&
-                readValueOperations.isEmpty() &&
-                valueWriteCount == 0 &&
-                !cleanupManager.isQueued();
+    public boolean isIdle() {
+        if (keyOperationNumber.get() != 0 || cleanupManager.isQueued()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return waitingDeleteValueOperations.isEmpty() &&
+                    deferredDeleteValueOperations.isEmpty() &&
+                    reusedDeleteValueOperations.isEmpty() &&
+                    runningDeleteValueOperations.isEmpty() &&
+                    readValueOperations.isEmpty() &&
+                    valueWriteCount == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if a new request to the shard can be accepted.
+     * <p>The request is rejected if {@link AsyncContainersProperties#getMaxQueuedKeyOperationsPerShard()} key operations
+     * are queued or running, if the queued key operations are not worked off
+     * (see {@link AsyncContainersProperties#getQueueTargetDelayMillis()}), or if the executor is overloaded
+     * (see {@link AsyncContainers#admit()}).</p>
+     * <p>Only the first operation of a request should be checked, the operations it starts afterwards are
+     * never rejected, so that a request is not interrupted halfway.</p>
+     *
+     * @throws OperationRejectedException if the request should be rejected
+     */
+    public void admit() {
+        final int number = keyOperationNumber.get();
+        if (maxQueuedKeyOperations != 0 && number >= maxQueuedKeyOperations) {
+            throw new OperationRejectedException("The shard " + shard.getIndex() + " of the container \"" +
+                    asyncContainer.getContainer().getName() + "\" has " + number + " key operations queued.", retryAfterMillis);
+        }
+        // the first waiting write is not counted, it is the next one to start
+        if (keyQueueDelayMonitor.isOverloaded() && (!keyOperations.isEmpty() || waitingKeyWriteNumber > 1)) {
+            throw new OperationRejectedException("The key operations of the shard " + shard.getIndex() + " of the container \"" +
+                    asyncContainer.getContainer().getName() + "\" are not worked off in time.", retryAfterMillis);
+        }
+        getAsyncContainers().admit();
     }
 
     public <R> Future<R> executeKey(final int sessionId, final OperationType opsType, final boolean failInShutdown, final Function<ContainerShardKeyOperations, R> opsConsumer) {
+        return executeKey(sessionId, opsType, failInShutdown, 0, opsConsumer);
+    }
+
+    /**
+     * Executes the key operation, unless its deadline passes before it is started
+     *
+     * @param deadlineMillis the time in millis since epoch the operation should be started by, {@code 0} if there is no deadline
+     * @return the operation, it fails with {@link OperationExpiredException} if it has been dropped
+     */
+    public <R> Future<R> executeKey(final int sessionId, final OperationType opsType, final boolean failInShutdown, final long deadlineMillis, final Function<ContainerShardKeyOperations, R> opsConsumer) {
         return execute(Operation.key(sessionId,
                 opsType,
-                () -> shard.keyFunction(opsConsumer)), failInShutdown);
+                shard,
+                opsConsumer).deadline(deadlineMillis), failInShutdown);
+    }
+
+    /**
+     * Executes the key operation of the given priority class
+     *
+     * @param priority the priority class of the operation
+     * @return the operation
+     */
+    public <R> Future<R> executeKey(final int sessionId, final OperationType opsType, final OperationPriority priority, final boolean failInShutdown, final Function<ContainerShardKeyOperations, R> opsConsumer) {
+        return execute(Operation.key(sessionId,
+                opsType,
+                shard,
+                opsConsumer).priority(priority), failInShutdown);
+    }
+
+    /**
+     * Executes the key write that is expected to update the record of an existing key in place.
+     * <p>It runs in parallel with the other such writes of the shard, see {@link ContainerShard#latchedKeyFunction(Function)}.
+     * If it has to insert or remove a key, or its key block is latched by another write, it is executed
+     * once again as the regular write, so the function should have no side effects before it changes the keys.</p>
+     *
+     * @return the operation
+     */
+    public <R> Future<R> executeLatchedKey(final int sessionId, final boolean failInShutdown, final Function<ContainerShardKeyOperations, R> opsConsumer) {
+        return execute(Operation.key(sessionId,
+                OperationType.WRITE,
+                shard,
+                opsConsumer).latched(), failInShutdown);
+    }
+
+    /**
+     * Reserves the exclusive key slot of the shard.
+     * <p>The reservation is queued as a key write. Once it is granted, its stage is completed in a thread of the executor
+     * and no other key write is started until {@link #release(Future)} is called. The caller changes the keys meanwhile
+     * directly with {@link ContainerShard#keyFunction(Function)}, the reads keep running on the published keys.</p>
+     *
+     * @param sessionId the session id
+     * @param failInShutdown if the reservation should not be granted in the shutdown
+     * @return the reservation to be released
+     */
+    public Future<Void> reserveKey(final int sessionId, final boolean failInShutdown) {
+        return execute(Operation.keyReservation(sessionId), failInShutdown);
+    }
+
+    /**
+     * Releases the exclusive key slot, see {@link #reserveKey(int, boolean)}
+     *
+     * @param reservation the granted reservation
+     */
+    public void release(final Future<Void> reservation) {
+        final Operation operation = (Operation) reservation;
+        metrics.executed(operation, operation.startedNanos);
+        done(operation);
     }
 
     public <R> Future<R> executeAutonomousValue(final int sessionId,
@@ -93,77 +339,263 @@ public class ContainerShardExecutor {
                                                              final long valueId,
                                                              final boolean failInShutdown,
                                                              final Supplier<R> supplier) {
+        return executeValue(sessionId, opsType, valueId, failInShutdown, 0, supplier);
+    }
+
+    /**
+     * Executes the value operation, unless its deadline passes before it is started
+     *
+     * @param deadlineMillis the time in millis since epoch the operation should be started by, {@code 0} if there is no deadline
+     * @return the operation, it fails with {@link OperationExpiredException} if it has been dropped
+     */
+    public <R> Future<R> executeValue(final int sessionId,
+                                      final OperationType opsType,
+                                      final long valueId,
+                                      final boolean failInShutdown,
+                                      final long deadlineMillis,
+                                      final Supplier<R> supplier) {
         return execute(Operation.value(sessionId,
                 opsType,
                 valueId,
-                supplier),
+                supplier).deadline(deadlineMillis),
                 failInShutdown);
     }
 
-    public synchronized <R> Future<R> execute(final Operation<R> operation, final boolean failInShutdown) {
-        if (failInShutdown && shutdown) {
-            return InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION;
-        }
+    /**
+     * Executes the value operation of the given priority class
+     *
+     * @param priority the priority class of the operation
+     * @return the operation
+     */
+    public <R> Future<R> executeValue(final int sessionId,
+                                      final OperationType opsType,
+                                      final OperationPriority priority,
+                                      final long valueId,
+                                      final boolean failInShutdown,
+                                      final Supplier<R> supplier) {
+        return execute(Operation.value(sessionId,
+                opsType,
+                valueId,
+                supplier).priority(priority),
+                failInShutdown);
+    }
+
+    public <R> Future<R> execute(final Operation<R> operation, final boolean failInShutdown) {
+        operation.queuedNanos = System.nanoTime();
         if (operation.getTarget() == OperationTarget.KEY) {
-             keyOperations.offer(operation);
-             processKeyOperations();
-             return operation;
+            // counted before the shutdown is checked, so the shutdown either sees it or it sees the shutdown
+            keyOperationNumber.incrementAndGet();
+            if (failInShutdown && shutdown) {
+                keyOperationDone();
+                return InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION;
+            }
+            keyOperations.offer(operation);
+            dispatchKeyOperations();
+            return operation;
         }
-        // VALUE
-        switch(operation.getType()) {
-            case READ:
-                if (runningDeleteValueOperations.contains(operation.getValueId()) || waitingDeleteValueOperations.containsKey(operation.getValueId())) {
-                    // try to read a value that is going to be removed soon
-                    operation.cancel(null);
-                    return operation;
-                }
-                // this one will not be deleted
-                submit(operation);
-                return operation;
-            case WRITE:
-                submit(operation);
-                return operation;
-            case DELETE:
-                if (waitingDeleteValueOperations.containsKey(operation.getValueId()) || runningDeleteValueOperations.contains(operation.getValueId())) {
-                    throw new RoStoreException("Secondary delete operation!");
-                }
-                if (readValueOperations.containsKey(operation.getValueId())) {
-                    // there are read operations
-                    waitingDeleteValueOperations.put(operation.getValueId(), operation);
+        lock.lock();
+        try {
+            if (failInShutdown && shutdown) {
+                return InterruptedShardOperation.INTERRUPTED_SHARD_OPERATION;
+            }
+            // VALUE
+            switch(operation.getType()) {
+                case READ:
+                    if (runningDeleteValueOperations.contains(operation.getValueId()) || waitingDeleteValueOperations.containsKey(operation.getValueId())) {
+                        // try to read a value that is going to be removed soon
+                        metrics.cancelledValueRead();
+                        operation.cancel(null);
+                        return operation;
+                    }
+                    // this one will not be deleted
+                    submit(operation);
                     return operation;
-                } else {
+                case WRITE:
                     submit(operation);
                     return operation;
-                }
+                case DELETE:
+                    if (waitingDeleteValueOperations.containsKey(operation.getValueId()) ||
+                            reusedDeleteValueOperations.containsKey(operation.getValueId()) ||
+                            deferredDeleteValueOperations.containsKey(operation.getValueId())) {
+                        throw new RoStoreException("Secondary delete operation!");
+                    }
+                    if (runningDeleteValueOperations.contains(operation.getValueId())) {
+                        // the running delete has already freed the value and a new value has got its id
+                        reusedDeleteValueOperations.put(operation.getValueId(), operation);
+                        return operation;
+                    }
+                    if (keyWriteRunning) {
+                        // the key that refers to the value can still be seen by the reads
+                        deferredDeleteValueOperations.put(operation.getValueId(), operation);
+                        return operation;
+                    }
+                    submitDelete(operation);
+                    return operation;
+            }
+            throw new RoStoreException("Unknown operation mode");
+        } finally {
+            lock.unlock();
         }
-        throw new RoStoreException("Unknown operation mode");
     }
 
-    private boolean processKeyOperations() {
-        if (keyOperations.isEmpty()) {
+    /**
+     * Starts the queued key operations as long as the state allows it.
+     * <p>Only the thread that makes the first request dispatches. The other threads only
+     * register their request, so that the dispatching thread makes one more round before it stops.
+     * This way a state change or a new operation is never missed.</p>
+     */
+    private void dispatchKeyOperations() {
+        if (keyDispatchRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            while (startNextKeyOperation()) {
+            }
+            requests = keyDispatchRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private boolean startNextKeyOperation() {
+        if (!keyWriteRunning && latchedKeyWriteNumber.get() == 0 && !waitingKeyWrites.isEmpty()) {
+            startKeyWrites();
+            return true;
+        }
+        final Operation operation = keyOperations.poll();
+        if (operation == null) {
             return false;
         }
-        switch (keyExecutionState) {
-            case IDLE:
-                submit(keyOperations.poll());
-                return true;
-            case EXCLUSIVE:
-                return false;
-            case MULTIPLE:
-                if (keyOperations.peek().getType() == OperationType.READ) {
-                    submit(keyOperations.poll());
-                    return true;
+        if (operation.isExpired()) {
+            dropExpired(operation);
+            return true;
+        }
+        if (operation.getType() == OperationType.READ) {
+            keyQueueDelayMonitor.sample(operation.queuedNanos);
+            keyState.incrementAndGet();
+            run(operation);
+            return true;
+        }
+        if (operation.isLatched() && !keyWriteRunning && waitingKeyWrites.isEmpty()) {
+            keyQueueDelayMonitor.sample(operation.queuedNanos);
+            latchedKeyWriteNumber.incrementAndGet();
+            runLatched(operation);
+            return true;
+        }
+        waitingKeyWrites.add(operation);
+        waitingKeyWriteNumber = waitingKeyWrites.size();
+        return true;
+    }
+
+    /**
+     * Starts the first waiting write, and if it can be grouped, the writes and deletes that wait after it.
+     */
+    private void startKeyWrites() {
+        final Operation first = pollWaitingKeyWrite();
+        if (first == null) {
+            waitingKeyWriteNumber = 0;
+            return;
+        }
+        lock.lock();
+        try {
+            keyWriteRunning = true;
+        } finally {
+            lock.unlock();
+        }
+        keyQueueDelayMonitor.sample(first.queuedNanos);
+        if (first.isReservation()) {
+            waitingKeyWriteNumber = waitingKeyWrites.size();
+            grant(first);
+            return;
+        }
+        if (!first.canBeGrouped()) {
+            waitingKeyWriteNumber = waitingKeyWrites.size();
+            run(first);
+            return;
+        }
+        final List<Operation> group = new ArrayList<>();
+        group.add(first);
+        while (!waitingKeyWrites.isEmpty() && waitingKeyWrites.peek().canBeGrouped() && group.size() < Properties.KEY_WRITE_GROUP_SIZE) {
+            final Operation operation = waitingKeyWrites.poll();
+            if (operation.isExpired()) {
+                dropExpired(operation);
+                continue;
+            }
+            keyQueueDelayMonitor.sample(operation.queuedNanos);
+            group.add(operation);
+        }
+        waitingKeyWriteNumber = waitingKeyWrites.size();
+        runGroup(group);
+    }
+
+    /**
+     * Takes the first waiting write, the expired ones are dropped
+     *
+     * @return the write or {@code null} if all the waiting ones have expired
+     */
+    private Operation pollWaitingKeyWrite() {
+        Operation operation = waitingKeyWrites.poll();
+        while (operation != null && operation.isExpired()) {
+            dropExpired(operation);
+            operation = waitingKeyWrites.poll();
+        }
+        return operation;
+    }
+
+    /**
+     * Fails the queued key operation that has not been started before its deadline
+     */
+    private void dropExpired(final Operation operation) {
+        metrics.expiredOperation();
+        operation.setException(expired(operation));
+        operation.done();
+        keyOperationDone();
+        operation.complete();
+    }
+
+    private static OperationExpiredException expired(final Operation operation) {
+        return new OperationExpiredException("The deadline of the " + operation + " has passed before it could be started.");
+    }
+
+    /**
+     * Called once the changes of the running key write are published, starts the value deletes
+     * that have been deferred meanwhile
+     */
+    private void keyWriteDone() {
+        lock.lock();
+        try {
+            keyWriteRunning = false;
+            if (!deferredDeleteValueOperations.isEmpty()) {
+                for (final Operation operation : deferredDeleteValueOperations.values()) {
+                    submitDelete(operation);
                 }
-                return false;
+                deferredDeleteValueOperations.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatchKeyOperations();
+    }
+
+    /**
+     * Starts the value delete, or if the value is being read, lets it wait for the reads
+     */
+    private void submitDelete(final Operation operation) {
+        if (readValueOperations.containsKey(operation.getValueId())) {
+            // there are read operations
+            waitingDeleteValueOperations.put(operation.getValueId(), operation);
+        } else {
+            submit(operation);
         }
-        return false;
     }
 
-    private void processAllKeyOperations() {
-        while(processKeyOperations()) {};
+    private void keyOperationDone() {
+        if (keyOperationNumber.decrementAndGet() == 0) {
+            shutdownIfHasTo();
+        }
     }
 
-    private synchronized void done(final Operation operation) {
+
+    private void done(final Operation operation) {
         // System.out.println("Done " + getShard().getIndex() + ": " + operation + ", totalRunning: " + runningTasks + ", queuedKeys: " + keyOperations.size());
         operation.done();
         if (operation.isAutonomous() && operation.getException()!=null) {
@@ -171,20 +603,16 @@ public class ContainerShardExecutor {
         }
         if (OperationTarget.KEY.equals(operation.getTarget())) {
             // KEY
-            switch (operation.getType()) {
-                case READ:
-                    keyReadCount--;
-                    if (keyReadCount == 0) {
-                        keyExecutionState = KeyExecutionState.IDLE;
-                    }
-                    break;
-                case WRITE:
-                case DELETE:
-                    keyExecutionState = KeyExecutionState.IDLE;
-                    break;
+            if (operation.getType() == OperationType.READ) {
+                keyState.decrementAndGet();
+            } else {
+                keyWriteDone();
             }
-            processAllKeyOperations();
-        } else {
+            keyOperationDone();
+            return;
+        }
+        lock.lock();
+        try {
             // VALUE
             switch (operation.getType()) {
                 case READ:
@@ -199,23 +627,32 @@ public class ContainerShardExecutor {
                     break;
                 case DELETE:
                     runningDeleteValueOperations.remove(operation.getValueId());
+                    final Operation reusedDeleteOperation = reusedDeleteValueOperations.remove(operation.getValueId());
+                    if (reusedDeleteOperation != null) {
+                        if (keyWriteRunning) {
+                            deferredDeleteValueOperations.put(operation.getValueId(), reusedDeleteOperation);
+                        } else {
+                            submitDelete(reusedDeleteOperation);
+                        }
+                    }
                     break;
                 case WRITE:
                     valueWriteCount--;
                     break;
             }
+        } finally {
+            lock.unlock();
         }
         shutdownIfHasTo();
     }
 
     public void shutdownIfHasTo() {
         if (isIdle()) {
-            if (shutdown && shutdownLatch.getCount() != 0) {
-                shutdownLatch.countDown();
+            if (shutdown && !terminated.isDone()) {
+                terminated.complete(null);
             }
             asyncContainer.notifyIdle(this);
         }
-        this.notify();
     }
 
     public void shutdownAndWait() {
@@ -223,46 +660,60 @@ public class ContainerShardExecutor {
         waitForShutdown();
     }
 
+    /**
+     * Shuts the executor down without waiting for the running operations
+     *
+     * @return the future that is complete once all the operations of the executor are over
+     */
+    public CompletableFuture<Void> shutdownAsync() {
+        shutdown();
+        return terminated;
+    }
+
     public void waitForShutdown() {
         if (!shutdown) {
             throw new RoStoreException("Trying to wait for shutdown on active shard.");
         }
         try {
-            shutdownLatch.await();
+            terminated.get();
         } catch (final InterruptedException e) {
             throw new RoStoreException("Interrupted while waiting for shutdown of container shard", e);
+        } catch (final ExecutionException e) {
+            throw new RoStoreException("Failed while waiting for shutdown of container shard", e);
         }
     }
 
     private void submit(final Operation operation) {
-        //System.out.println("Submit " + getShard().getIndex() + ": " + operation + ", totalRunning: " + runningTasks + ", queuedKeys: " + keyOperations.size());
-        if (OperationTarget.KEY.equals(operation.getTarget())) {
-            switch (operation.getType()) {
-                case WRITE:
-                case DELETE:
-                    keyExecutionState = KeyExecutionState.EXCLUSIVE;
-                    break;
-                case READ:
-                    keyExecutionState = KeyExecutionState.MULTIPLE;
-                    keyReadCount++;
-                    break;
-            }
-        } else {
-            // VALUE
-            switch (operation.getType()) {
-                case DELETE:
-                    runningDeleteValueOperations.add(operation.getValueId());
-                    break;
-                case READ:
-                    incrementReadValueCounter(operation);
-                    break;
-                case WRITE:
-                    valueWriteCount++;
-                    break;
-            }
+        // VALUE
+        switch (operation.getType()) {
+            case DELETE:
+                runningDeleteValueOperations.add(operation.getValueId());
+                break;
+            case READ:
+                incrementReadValueCounter(operation);
+                break;
+            case WRITE:
+                valueWriteCount++;
+                break;
         }
-        asyncContainer.getAsyncContainers().getExecutorService().submit(() -> {
+        run(operation);
+    }
+
+    private void run(final Operation operation) {
+        //System.out.println("Submit " + getShard().getIndex() + ": " + operation + ", totalRunning: " + runningTasks + ", queuedKeys: " + keyOperations.size());
+        // the key writes hold the exclusive key slot, they should not wait for the budget
+        final OperationPriority priority = OperationTarget.KEY.equals(operation.getTarget()) && operation.getType() != OperationType.READ ?
+                OperationPriority.INTERACTIVE : operation.getPriority();
+        getAsyncContainers().submit(lane, priority, () -> {
+            final long startNanos = System.nanoTime();
+            metrics.started(operation, startNanos);
             try {
+                if (operation.isExpired()) {
+                    // it has waited for a thread too long
+                    metrics.expiredOperation();
+                    operation.setException(expired(operation));
+                    return;
+                }
                 operation.execute();
                 if (!shutdown) {
                     cleanupManager.scheduleCleanup();
@@ -272,11 +723,128 @@ public class ContainerShardExecutor {
                 operation.setException(e);
             }
             finally {
+                metrics.executed(operation, startNanos);
                 done(operation);
+                operation.complete();
             }
         });
     }
 
+    /**
+     * Passes the exclusive key slot to the holder of the reservation, the slot is released by {@link #release(Future)}
+     */
+    private void grant(final Operation operation) {
+        getAsyncContainers().submit(lane, () -> {
+            operation.startedNanos = System.nanoTime();
+            metrics.started(operation, operation.startedNanos);
+            operation.complete();
+        });
+    }
+
+    /**
+     * Executes the key writes one after another on the same {@link ContainerShardKeyOperations},
+     * so the key blocks are committed once for all of them.
+     * <p>The exclusive key slot is released as soon as the changes are published, the key blocks
+     * are flushed while the next write already runs.</p>
+     * <p>The values replaced or removed by the group are only freed once the whole group is committed,
+     * see {@link ContainerShardKeyOperations#afterCommit(Runnable)}, if the commit fails they are kept.</p>
+     */
+    private void runGroup(final List<Operation> group) {
+        getAsyncContainers().submit(lane, () -> {
+            final long startNanos = System.nanoTime();
+            for (final Operation operation : group) {
+                metrics.started(operation, startNanos);
+            }
+            final AtomicBoolean released = new AtomicBoolean();
+            try {
+                shard.keyFunction((ops) -> {
+                    for (final Operation operation : group) {
+                        if (operation.isExpired()) {
+                            metrics.expiredOperation();
+                            operation.setException(expired(operation));
+                            continue;
+                        }
+                        operation.execute(ops);
+                    }
+                    return null;
+                }, () -> releaseKeyWrite(released));
+                if (!shutdown) {
+                    cleanupManager.scheduleCleanup();
+                    asyncContainer.getAsyncContainers().getCleanupManager().scheduleCleanup();
+                }
+            } catch (final Exception e) {
+                // the commit has failed, none of the operations can be trusted
+                for (final Operation operation : group) {
+                    operation.setException(e);
+                }
+            } finally {
+                for (final Operation operation : group) {
+                    metrics.executed(operation, startNanos);
+                }
+                doneGroup(group, released);
+                for (final Operation operation : group) {
+                    operation.complete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the write under the latches of the key blocks, in parallel with the other latched writes.
+     * <p>If the write needs the exclusive key slot, it is queued again, and the dispatching thread
+     * adds it to the waiting writes. The exclusive writes only start once no latched write runs.</p>
+     */
+    private void runLatched(final Operation operation) {
+        getAsyncContainers().submit(lane, OperationPriority.INTERACTIVE, () -> {
+            final long startNanos = System.nanoTime();
+            boolean executed = true;
+            try {
+                if (operation.isExpired()) {
+                    metrics.started(operation, startNanos);
+                    metrics.expiredOperation();
+                    operation.setException(expired(operation));
+                    return;
+                }
+                executed = operation.executeLatched(shard);
+                if (executed) {
+                    metrics.started(operation, startNanos);
+                    if (!shutdown) {
+                        cleanupManager.scheduleCleanup();
+                        asyncContainer.getAsyncContainers().getCleanupManager().scheduleCleanup();
+                    }
+                }
+            } finally {
+                latchedKeyWriteNumber.decrementAndGet();
+                if (executed) {
+                    metrics.executed(operation, startNanos);
+                    operation.done();
+                    keyOperationDone();
+                    dispatchKeyOperations();
+                    operation.complete();
+                } else {
+                    keyOperations.offer(operation);
+                    dispatchKeyOperations();
+                }
+            }
+        });
+    }
+
+    private void releaseKeyWrite(final AtomicBoolean released) {
+        if (released.compareAndSet(false, true)) {
+            keyWriteDone();
+        }
+    }
+
+    private void doneGroup(final List<Operation> group, final AtomicBoolean released) {
+        for (final Operation operation : group) {
+            operation.done();
+        }
+        releaseKeyWrite(released);
+        if (keyOperationNumber.addAndGet(-group.size()) == 0) {
+            shutdownIfHasTo();
+        }
+    }
+
     private void incrementReadValueCounter(Operation operation) {
         Integer counter = readValueOperations.get(operation.getValueId());
         if (counter == null) {
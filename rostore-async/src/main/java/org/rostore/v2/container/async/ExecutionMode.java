@@ -0,0 +1,56 @@
+package org.rostore.v2.container.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Specifies the threads {@link AsyncContainers} executes the operations of the shards in,
+ * if no external {@link ExecutorService} is provided.
+ */
+public enum ExecutionMode {
+
+    /**
+     * A fixed pool of platform threads, one more than the number of processors.
+     * <p>The value write operations hold their thread while the client's stream is being read,
+     * a few slow producers can occupy the whole pool and stall the operations on the other shards.</p>
+     */
+    PLATFORM_THREADS {
+        @Override
+        public ExecutorService createExecutorService() {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1);
+        }
+    },
+
+    /**
+     * A new virtual thread for every operation.
+     * <p>The operations blocked on the client's stream
+     * release their carrier thread, so the number of concurrent operations is not limited by the pool.</p>
+     */
+    VIRTUAL_THREADS {
+        @Override
+        public ExecutorService createExecutorService() {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+    },
+
+    /**
+     * One platform thread per processor, every shard is bound to one of them, see {@link ShardThreads}.
+     * <p>All the operations of a shard are executed one after another in the same thread, so the shard's
+     * structures stay in one core's cache and its locks are not contended. The operations of a shard do not
+     * run in parallel though, and a value write waiting for the client's stream stalls all the other
+     * operations of the shards bound to the same thread.</p>
+     */
+    SHARD_THREADS {
+        @Override
+        public ExecutorService createExecutorService() {
+            return new ShardThreads(Runtime.getRuntime().availableProcessors());
+        }
+    };
+
+    /**
+     * Creates the executor service owned by the {@link AsyncContainers}
+     *
+     * @return the executor service that should be shut down when the containers are closed
+     */
+    public abstract ExecutorService createExecutorService();
+}
@@ -1,7 +0,0 @@
-package org.rostore.v2.container.async;
-
-public enum KeyExecutionState {
-    MULTIPLE,
-    EXCLUSIVE,
-    IDLE
-}
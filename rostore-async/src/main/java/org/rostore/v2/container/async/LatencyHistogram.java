@@ -0,0 +1,102 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.entity.LatencyMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of the durations with buckets of a constant relative width, similar to HdrHistogram.
+ * <p>Every power of two is split into {@link #SUB_BUCKET_COUNT} linear buckets, so a duration is counted
+ * with the precision of about 6%. The durations up to about a minute are distinguished, the longer ones
+ * are counted in the last bucket.</p>
+ * <p>The durations are recorded without locking from any thread. A snapshot taken while the durations
+ * are being recorded can miss some of them.</p>
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 35;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Counts the duration
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(final long nanos) {
+        final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * The largest duration that is counted in the bucket
+     */
+    private static long bucketUpperBound(final int index) {
+        final int group = index / SUB_BUCKET_COUNT;
+        final int subBucket = index % SUB_BUCKET_COUNT;
+        if (group == 0) {
+            return subBucket;
+        }
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (group - 1)) - 1;
+    }
+
+    /**
+     * Provides the distribution of the recorded durations
+     *
+     * @return the count, mean, maximum and percentiles of the durations
+     */
+    LatencyMetrics snapshot() {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return new LatencyMetrics();
+        }
+        final long max = maxNanos.get();
+        return new LatencyMetrics(total,
+                totalNanos.get() / Math.max(count.get(), 1),
+                max,
+                percentile(snapshot, total, 0.5, max),
+                percentile(snapshot, total, 0.9, max),
+                percentile(snapshot, total, 0.99, max),
+                percentile(snapshot, total, 0.999, max));
+    }
+
+    private static long percentile(final long[] snapshot, final long total, final double percentile, final long max) {
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+}
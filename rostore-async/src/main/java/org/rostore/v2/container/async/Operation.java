@@ -1,25 +1,66 @@
 package org.rostore.v2.container.async;
 
 import org.rostore.entity.RoStoreException;
+import org.rostore.v2.container.ContainerShard;
+import org.rostore.v2.container.ContainerShardKeyOperations;
+import org.rostore.v2.keys.KeyBlockLatchException;
 
 import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * An operation on the keys or values of a shard, see {@link ContainerShardExecutor#execute(Operation, boolean)}.
+ * <p>Besides being waited for as a {@link Future}, the operation can be composed with the other ones
+ * through {@link #toCompletableFuture()} without blocking a thread.</p>
+ */
 public class Operation<R> implements Future<R> {
 
     private final int sessionId;
     private final OperationType operationType;
     private final OperationTarget operationTarget;
     private final Supplier<R> function;
+    // only available for the key ops that can be executed in a group
+    private final Function<ContainerShardKeyOperations, R> keyFunction;
     private R result;
     private Exception exception;
     private final CountDownLatch countDownLatch;
+    private final CompletableFuture<R> completion = new CompletableFuture<>();
     private boolean done;
+    // the key slot is held by the caller, see ContainerShardExecutor#reserveKey
+    private final boolean reservation;
 
     // only available for value ops
     private final long valueId;
     // if no-body waits for the ops
 
+    /**
+     * The link to the next operation in the {@link OperationQueue}
+     */
+    volatile Operation next;
+
+    /**
+     * The time the operation has been requested from the executor of the shard, see {@link System#nanoTime()}
+     */
+    long queuedNanos;
+
+    /**
+     * The time the reservation has been granted, see {@link System#nanoTime()}
+     */
+    long startedNanos;
+
+    /**
+     * The time the operation should be started by, see {@link System#currentTimeMillis()}, {@code 0} if there is no deadline
+     */
+    private long deadlineMillis;
+
+    private OperationPriority priority = OperationPriority.INTERACTIVE;
+
+    /**
+     * Set if the key write is tried under the latches of the key blocks first, see {@link #executeLatched(ContainerShard)}
+     */
+    private boolean latched;
+
     public String toString() {
         return "Operation " + operationTarget + " " + operationType + (valueId != -1 ? " valueId="+valueId : "");
     }
@@ -32,37 +73,116 @@ public class Operation<R> implements Future<R> {
     }
 
     public static <R> Operation<R> value(final int sessionId, final OperationType operationType, final long valueId, final Supplier<R> function) {
-        return new Operation<>(sessionId, OperationTarget.VALUE, operationType, valueId, false, function);
+        return new Operation<>(sessionId, OperationTarget.VALUE, operationType, valueId, false, function, null, false);
     }
 
     public static Operation autonomousValue(final int sessionId, final OperationType operationType, final long valueId, final Runnable runnable) {
         return new Operation<>(sessionId, OperationTarget.VALUE, operationType, valueId, true, () -> {
             runnable.run();
             return true;
-        });
+        }, null, false).priority(OperationPriority.MAINTENANCE);
     }
 
     public static <R> Operation<R> key(final int sessionId, final OperationType operationType, final Supplier<R> function) {
-        return new Operation<>(sessionId, OperationTarget.KEY, operationType, -1, false, function);
+        return new Operation<>(sessionId, OperationTarget.KEY, operationType, -1, false, function, null, false);
+    }
+
+    /**
+     * Creates a key operation, which, if it is a write or delete, can be executed in a group
+     * with other ones on the same {@link ContainerShardKeyOperations}, see {@link #execute(ContainerShardKeyOperations)}.
+     * <p>A read is executed on the published keys of the shard, see {@link ContainerShard#readKeyFunction(Function)}.</p>
+     */
+    public static <R> Operation<R> key(final int sessionId, final OperationType operationType, final ContainerShard shard, final Function<ContainerShardKeyOperations, R> keyFunction) {
+        final Supplier<R> function = operationType == OperationType.READ ?
+                () -> shard.readKeyFunction(keyFunction) :
+                () -> shard.keyFunction(keyFunction);
+        return new Operation<>(sessionId, OperationTarget.KEY, operationType, -1, false, function, keyFunction, false);
+    }
+
+    /**
+     * Creates a reservation of the exclusive key slot, which is held until it is released
+     * by the caller, see {@link ContainerShardExecutor#reserveKey(int, boolean)}.
+     */
+    public static Operation<Void> keyReservation(final int sessionId) {
+        return new Operation<>(sessionId, OperationTarget.KEY, OperationType.WRITE, -1, false, null, null, true);
     }
 
     public static Operation autonomousKey(final int sessionId, final OperationType operationType, final Runnable runnable) {
         return new Operation<>(sessionId, OperationTarget.KEY, operationType, -1, true, () -> {
             runnable.run();
             return true;
-        });
+        }, null, false).priority(OperationPriority.MAINTENANCE);
     }
 
-    private Operation(final int sessionId, final OperationTarget target, final OperationType operationType, final long valueId, final boolean autonomous, final Supplier<R> function) {
+    private Operation(final int sessionId, final OperationTarget target, final OperationType operationType, final long valueId, final boolean autonomous, final Supplier<R> function, final Function<ContainerShardKeyOperations, R> keyFunction, final boolean reservation) {
         this.sessionId = sessionId;
+        this.reservation = reservation;
         this.operationType = operationType;
         this.function = function;
+        this.keyFunction = keyFunction;
         countDownLatch = autonomous ? null : new CountDownLatch(1);
         done = false;
         this.valueId = valueId;
         this.operationTarget = target;
     }
 
+    /**
+     * Sets the deadline of the operation, it is dropped if it can't be started by then,
+     * see {@link ContainerShardExecutor}
+     *
+     * @param deadlineMillis the time in millis since epoch, {@code 0} if there is no deadline
+     * @return this operation
+     */
+    Operation<R> deadline(final long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * Sets the priority class of the operation, the operations are {@link OperationPriority#INTERACTIVE} by default,
+     * the autonomous ones {@link OperationPriority#MAINTENANCE}
+     *
+     * @param priority the priority class
+     * @return this operation
+     */
+    Operation<R> priority(final OperationPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public OperationPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Lets the key write run under the latches of the key blocks, in parallel with the other such writes,
+     * see {@link ContainerShardExecutor#executeLatchedKey(int, boolean, Function)}
+     *
+     * @return this operation
+     */
+    Operation<R> latched() {
+        this.latched = canBeGrouped();
+        return this;
+    }
+
+    /**
+     * Checks if the key write should be tried under the latches of the key blocks
+     *
+     * @return {@code true} if it has not been executed as the exclusive write yet
+     */
+    boolean isLatched() {
+        return latched;
+    }
+
+    /**
+     * Checks if the deadline of the operation has passed
+     *
+     * @return {@code true} if the operation should not be started anymore
+     */
+    boolean isExpired() {
+        return deadlineMillis != 0 && System.currentTimeMillis() >= deadlineMillis;
+    }
+
     public int getSessionId() {
         return sessionId;
     }
@@ -89,6 +209,56 @@ public class Operation<R> implements Future<R> {
         }
     }
 
+    /**
+     * Checks if the operation can be executed in a group with other writes and deletes
+     *
+     * @return {@code true} if it is a key write or delete created with the key function
+     */
+    public boolean canBeGrouped() {
+        return keyFunction != null && operationType != OperationType.READ;
+    }
+
+    /**
+     * Executes the operation on the key operations shared by the group
+     *
+     * @param ops the key operations of the shard, committed by the caller after the whole group is executed
+     */
+    public void execute(final ContainerShardKeyOperations ops) {
+        try {
+            result = keyFunction.apply(ops);
+        } catch(final Exception e) {
+            exception = e;
+        }
+    }
+
+    /**
+     * Executes the key write under the latches of the key blocks, see {@link ContainerShard#latchedKeyFunction(Function)}
+     *
+     * @param shard the shard of the operation
+     * @return {@code false} if the write needs the exclusive key slot, it is not latched anymore
+     * and should be executed again as the regular write
+     */
+    boolean executeLatched(final ContainerShard shard) {
+        try {
+            result = shard.latchedKeyFunction(keyFunction);
+        } catch (final KeyBlockLatchException e) {
+            latched = false;
+            return false;
+        } catch (final Exception e) {
+            exception = e;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the operation only reserves the exclusive key slot
+     *
+     * @return {@code true} if the slot is held until the reservation is released
+     */
+    public boolean isReservation() {
+        return reservation;
+    }
+
     public Exception getException() {
         return exception;
     }
@@ -119,6 +289,31 @@ public class Operation<R> implements Future<R> {
         }
     }
 
+    /**
+     * Completes the stage of the operation, see {@link #toCompletableFuture()}.
+     * <p>It is called after the executor has released the operation, so the dependent stages
+     * can start the next operations on the same shard right away.</p>
+     */
+    void complete() {
+        if (exception != null) {
+            completion.completeExceptionally(exception);
+        } else {
+            completion.complete(result);
+        }
+    }
+
+    /**
+     * Provides the stage of the operation
+     * <p>The stage fails with the exception the operation has failed with.
+     * The dependent stages are executed in the thread that has executed the operation,
+     * so they should not block.</p>
+     *
+     * @return the future that is completed together with the operation
+     */
+    public CompletableFuture<R> toCompletableFuture() {
+        return completion;
+    }
+
     public boolean isAutonomous() {
         return countDownLatch == null;
     }
@@ -126,7 +321,10 @@ public class Operation<R> implements Future<R> {
     public void cancel(final R result) {
         this.result = result;
         done = true;
-        countDownLatch.countDown();
+        if (countDownLatch != null) {
+            countDownLatch.countDown();
+        }
+        completion.complete(result);
     }
 
     @Override
@@ -0,0 +1,15 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.entity.RoStoreException;
+
+/**
+ * Exception is thrown when the deadline of the request has passed before its operations are over,
+ * see {@link AsyncStream#deadline(long)}.
+ * <p>The operations that have not been started are dropped, the value streams are stopped.</p>
+ */
+public class OperationExpiredException extends RoStoreException {
+
+    public OperationExpiredException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,57 @@
+package org.rostore.v2.container.async;
+
+/**
+ * The priority class of an {@link Operation}.
+ * <p>The waiting key writes of a shard are started in the proportion of the weights of their classes
+ * (see {@link ContainerShardExecutor}), so that the background work neither delays the client requests
+ * much nor starves under their load. The operations of the background classes also take at most their budget
+ * of the executor's threads at a time, see {@link AsyncContainers#submit(int, OperationPriority, Runnable)}.</p>
+ * <p>The order of the operations is only kept within the same class.</p>
+ */
+public enum OperationPriority {
+
+    /**
+     * The single key requests of the clients
+     */
+    INTERACTIVE(8, 0),
+
+    /**
+     * The requests of the clients that change or read many keys at once, e.g. the range removal or the bulk load
+     */
+    BATCH(2, 2),
+
+    /**
+     * The work the store does on its own, e.g. the clean-up of the expired keys or the removal of the replaced values
+     */
+    MAINTENANCE(1, 4);
+
+    private final int weight;
+
+    private final int threadShare;
+
+    OperationPriority(final int weight, final int threadShare) {
+        this.weight = weight;
+        this.threadShare = threadShare;
+    }
+
+    /**
+     * The share of the key writes started for the class, relative to the other classes
+     *
+     * @return the weight of the class
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * The number of the operations of the class that may run in the executor at the same time
+     *
+     * @return the budget, or {@code 0} if it is not limited
+     */
+    public int getExecutorBudget() {
+        if (threadShare == 0) {
+            return 0;
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / threadShare);
+    }
+}
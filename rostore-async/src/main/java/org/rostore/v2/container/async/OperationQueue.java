@@ -0,0 +1,81 @@
+package org.rostore.v2.container.async;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free multiple-producer single-consumer queue of the {@link Operation}s.
+ * <p>The queue is intrusive: the operations are linked through their {@link Operation#next} field,
+ * so neither {@link #offer(Operation)} nor {@link #poll()} allocate.</p>
+ * <p>Any thread can offer an operation, but only one thread at a time may poll them.
+ * An operation can only be in one queue at a time.</p>
+ */
+class OperationQueue {
+
+    /**
+     * A placeholder that is kept in the queue so that the producers never see it empty
+     */
+    private final Operation stub = Operation.key(0, OperationType.READ, () -> null);
+
+    private final AtomicReference<Operation> tail = new AtomicReference<>(stub);
+
+    /**
+     * Only changed by the consumer
+     */
+    private volatile Operation head = stub;
+
+    /**
+     * Adds the operation to the end of the queue
+     *
+     * @param operation the operation to add
+     */
+    public void offer(final Operation operation) {
+        operation.next = null;
+        final Operation prev = tail.getAndSet(operation);
+        prev.next = operation;
+    }
+
+    /**
+     * Takes the operation from the start of the queue
+     * <p>Can return {@code null} while a producer is in the middle of the {@link #offer(Operation)},
+     * the producer has to notify the consumer afterwards.</p>
+     *
+     * @return the operation or {@code null} if there are none
+     */
+    public Operation poll() {
+        Operation first = head;
+        Operation next = first.next;
+        if (first == stub) {
+            if (next == null) {
+                return null;
+            }
+            head = next;
+            first = next;
+            next = next.next;
+        }
+        if (next != null) {
+            head = next;
+            return first;
+        }
+        if (first != tail.get()) {
+            // a producer has taken the tail, but has not linked it yet
+            return null;
+        }
+        offer(stub);
+        next = first.next;
+        if (next != null) {
+            head = next;
+            return first;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if there are operations in the queue
+     *
+     * @return {@code true} if the queue has no operations
+     */
+    public boolean isEmpty() {
+        final Operation first = head;
+        return first == stub && first.next == null;
+    }
+}
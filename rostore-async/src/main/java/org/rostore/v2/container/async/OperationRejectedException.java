@@ -0,0 +1,27 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.entity.RoStoreException;
+
+/**
+ * Exception is thrown when a new request is rejected at once, because the queues of the shard
+ * or of the executor are full or do not drain (see {@link AsyncContainersProperties}).
+ * <p>Nothing has been executed for the request, so it can safely be retried later.</p>
+ */
+public class OperationRejectedException extends RoStoreException {
+
+    private final long retryAfterMillis;
+
+    public OperationRejectedException(final String message, final long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * The time the client should wait before the request is retried
+     *
+     * @return the time in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,30 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.v2.keys.KeyList;
+
+/**
+ * A list of keys merged from all the shards of a container in the order of the keys,
+ * see {@link AsyncContainer#listOrderedAsync(int, byte[], String, int, int)}.
+ */
+public class OrderedKeyList extends KeyList {
+
+    private String continuationToken;
+
+    /**
+     * Provides the token to request the next page of the listing
+     *
+     * @return the token or {@code null} if there are no more keys
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * Sets the token to request the next page of the listing
+     *
+     * @param continuationToken the token or {@code null} if there are no more keys
+     */
+    public void setContinuationToken(final String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+}
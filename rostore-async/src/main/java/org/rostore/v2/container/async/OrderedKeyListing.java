@@ -0,0 +1,246 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.entity.RoStoreException;
+import org.rostore.v2.container.Properties;
+import org.rostore.v2.keys.KeyList;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Merges the sorted keys of all the shards into one ordered list, in the ascending or descending order.
+ * <p>All the shards are requested in parallel. Every shard is read in pages of a bounded size and holds at most
+ * one page at a time. The shards are kept in a heap ordered by their next key. When the page of a shard
+ * is worked off, its next page is requested before the merge continues, as its next key can be the smallest one.</p>
+ * <p>The same key found in several shards, as it is being moved by the resharding, is listed once.</p>
+ * <p>The continuation token carries the cursors of the shards: the last listed key, which all the shards continue after,
+ * and the shards that have no more keys, which are not requested again. The latter are only taken into account
+ * if the number of the shards has not changed since the token has been issued.</p>
+ */
+class OrderedKeyListing {
+
+    /**
+     * Lists the keys of a shard
+     */
+    interface PageLoader {
+        /**
+         * Lists the keys of a shard
+         *
+         * @param shardIndex the index of the shard in the listing order
+         * @param afterKey the key to continue after in the listing order, {@code null} to start from the first key
+         * @param pageSize the maximum number of keys to return
+         * @return the future of the listed keys in the listing order
+         */
+        CompletableFuture<KeyList> load(int shardIndex, byte[] afterKey, int pageSize);
+    }
+
+    private static class ShardCursor {
+        private final int shardIndex;
+        private List<byte[]> keys;
+        private int position;
+        private boolean more;
+
+        private ShardCursor(final int shardIndex) {
+            this.shardIndex = shardIndex;
+        }
+
+        private boolean hasCurrent() {
+            return position < keys.size();
+        }
+
+        private byte[] current() {
+            return keys.get(position);
+        }
+
+        private byte[] lastKey() {
+            return keys.get(keys.size() - 1);
+        }
+    }
+
+    private final PageLoader pageLoader;
+    private final int shardNumber;
+    private final int maxNumber;
+    private final int maxSize;
+    private final int pageSize;
+    private final boolean[] exhausted;
+    private final boolean descending;
+    private final PriorityQueue<ShardCursor> heap = new PriorityQueue<>((cursor1, cursor2) -> compare(cursor1.current(), cursor2.current()));
+    private final OrderedKeyList result = new OrderedKeyList();
+    private byte[] lastKey;
+
+    /**
+     * Prepares the listing
+     *
+     * @param shardNumber the number of shards to list
+     * @param continuationToken the token of the previous page or {@code null} to start from the first key
+     * @param maxNumber the maximum number of entries to return
+     * @param maxSize the maximum size of the returned list
+     * @param descending {@code true} to list the keys in the descending order, the token must be of the listing in the same order
+     * @param pageLoader the function to list the keys of a shard
+     */
+    OrderedKeyListing(final int shardNumber,
+                      final String continuationToken,
+                      final int maxNumber,
+                      final int maxSize,
+                      final boolean descending,
+                      final PageLoader pageLoader) {
+        this.pageLoader = pageLoader;
+        this.descending = descending;
+        this.shardNumber = shardNumber;
+        this.maxNumber = maxNumber;
+        this.maxSize = maxSize;
+        final long evenShare = (2L * maxNumber + shardNumber - 1) / shardNumber;
+        this.pageSize = (int) Math.max(1, Math.min(maxNumber, Math.max(Properties.ORDERED_LIST_MIN_PAGE_SIZE, evenShare)));
+        this.exhausted = new boolean[shardNumber];
+        if (continuationToken != null) {
+            decode(continuationToken);
+        }
+    }
+
+    /**
+     * Lists the next page of the keys
+     *
+     * @return the future of the ordered keys with the continuation token if there are more keys
+     */
+    CompletableFuture<OrderedKeyList> list() {
+        final List<ShardCursor> cursors = new ArrayList<>();
+        final List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (int i = 0; i < shardNumber; i++) {
+            if (!exhausted[i]) {
+                final ShardCursor cursor = new ShardCursor(i);
+                cursors.add(cursor);
+                loads.add(load(cursor, lastKey));
+            }
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).thenCompose((loaded) -> {
+            for (final ShardCursor cursor : cursors) {
+                loaded(cursor);
+            }
+            return merge();
+        });
+    }
+
+    /**
+     * Loads the next page of the shard, the keys that are not after the given one are skipped
+     */
+    private CompletableFuture<Void> load(final ShardCursor cursor, final byte[] afterKey) {
+        return pageLoader.load(cursor.shardIndex, afterKey, pageSize).thenCompose((page) -> {
+            final List<byte[]> keys = page.getKeys();
+            int position = 0;
+            // the shard can start the page with the last key before the requested one
+            while (afterKey != null && position < keys.size() && compare(keys.get(position), afterKey) <= 0) {
+                position++;
+            }
+            cursor.keys = keys;
+            cursor.position = position;
+            cursor.more = page.isMore() && !keys.isEmpty();
+            if (!cursor.hasCurrent() && cursor.more) {
+                return load(cursor, cursor.lastKey());
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private void loaded(final ShardCursor cursor) {
+        if (cursor.hasCurrent()) {
+            heap.add(cursor);
+        } else {
+            exhausted[cursor.shardIndex] = true;
+        }
+    }
+
+    private CompletableFuture<OrderedKeyList> merge() {
+        while (!heap.isEmpty()) {
+            final ShardCursor cursor = heap.peek();
+            final byte[] key = cursor.current();
+            if (lastKey == null || compare(key, lastKey) > 0) {
+                if (result.getKeys().size() >= maxNumber || result.getSize() >= maxSize) {
+                    return CompletableFuture.completedFuture(finish(true));
+                }
+                result.addKey(key);
+                lastKey = key;
+            }
+            heap.poll();
+            cursor.position++;
+            if (cursor.hasCurrent()) {
+                heap.add(cursor);
+            } else if (cursor.more) {
+                return load(cursor, cursor.lastKey()).thenCompose((loaded) -> {
+                    loaded(cursor);
+                    return merge();
+                });
+            } else {
+                exhausted[cursor.shardIndex] = true;
+            }
+        }
+        return CompletableFuture.completedFuture(finish(false));
+    }
+
+    /**
+     * Compares the keys in the listing order
+     */
+    private int compare(final byte[] key1, final byte[] key2) {
+        return descending ? Arrays.compare(key2, key1) : Arrays.compare(key1, key2);
+    }
+
+    private OrderedKeyList finish(final boolean more) {
+        result.setMore(more);
+        if (more) {
+            result.setContinuationToken(encode());
+        }
+        return result;
+    }
+
+    private String encode() {
+        final byte[] bitmap = new byte[(shardNumber + 7) / 8];
+        for (int i = 0; i < shardNumber; i++) {
+            if (exhausted[i]) {
+                bitmap[i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + bitmap.length + 4 + (lastKey != null ? lastKey.length : 0));
+        buffer.putInt(shardNumber);
+        buffer.put(bitmap);
+        if (lastKey != null) {
+            buffer.putInt(lastKey.length);
+            buffer.put(lastKey);
+        } else {
+            buffer.putInt(-1);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    private void decode(final String continuationToken) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(continuationToken));
+            final int tokenShardNumber = buffer.getInt();
+            if (tokenShardNumber < 0 || (tokenShardNumber + 7) / 8 > buffer.remaining()) {
+                throw new IllegalArgumentException("Wrong number of shards");
+            }
+            final byte[] bitmap = new byte[(tokenShardNumber + 7) / 8];
+            buffer.get(bitmap);
+            final int lastKeyLength = buffer.getInt();
+            if (lastKeyLength > buffer.remaining()) {
+                throw new IllegalArgumentException("Wrong key length");
+            }
+            if (lastKeyLength >= 0) {
+                lastKey = new byte[lastKeyLength];
+                buffer.get(lastKey);
+            }
+            if (tokenShardNumber == shardNumber) {
+                // the shards have not been changed by the resharding meanwhile
+                for (int i = 0; i < shardNumber; i++) {
+                    exhausted[i] = (bitmap[i / 8] & (1 << (i % 8))) != 0;
+                }
+            }
+        } catch (final IllegalArgumentException | BufferUnderflowException e) {
+            throw new RoStoreException("The continuation token \"" + continuationToken + "\" is invalid.", e);
+        }
+    }
+}
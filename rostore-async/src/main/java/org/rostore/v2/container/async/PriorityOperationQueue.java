@@ -0,0 +1,100 @@
+package org.rostore.v2.container.async;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A queue of the {@link Operation}s that takes them from the {@link OperationPriority} classes in the proportion
+ * of their weights, the operations of the same class are taken in the order they have been added.
+ * <p>Every class has a virtual time that advances by the inverse of its weight with every operation taken,
+ * the class with the earliest virtual time goes next. A class that has been empty starts at the current virtual time,
+ * so it gets no credit for the time it has been idle.</p>
+ * <p>The queue is not thread-safe.</p>
+ */
+class PriorityOperationQueue {
+
+    private static final OperationPriority[] PRIORITIES = OperationPriority.values();
+
+    private static final int MAX_WEIGHT = maxWeight();
+
+    @SuppressWarnings("unchecked")
+    private final Deque<Operation>[] queues = new Deque[PRIORITIES.length];
+
+    private final long[] virtualTimes = new long[PRIORITIES.length];
+
+    private long virtualTime;
+
+    private int size;
+
+    PriorityOperationQueue() {
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    private static int maxWeight() {
+        int max = 1;
+        for (final OperationPriority priority : PRIORITIES) {
+            max = Math.max(max, priority.getWeight());
+        }
+        return max;
+    }
+
+    /**
+     * Adds the operation to the end of its class
+     *
+     * @param operation the operation to add
+     */
+    public void add(final Operation operation) {
+        final int index = operation.getPriority().ordinal();
+        if (queues[index].isEmpty()) {
+            virtualTimes[index] = Math.max(virtualTimes[index], virtualTime);
+        }
+        queues[index].add(operation);
+        size++;
+    }
+
+    /**
+     * Provides the operation that is taken next, see {@link #poll()}
+     *
+     * @return the operation or {@code null} if the queue is empty
+     */
+    public Operation peek() {
+        final int index = next();
+        return index == -1 ? null : queues[index].peek();
+    }
+
+    /**
+     * Takes the first operation of the class that is due
+     *
+     * @return the operation or {@code null} if the queue is empty
+     */
+    public Operation poll() {
+        final int index = next();
+        if (index == -1) {
+            return null;
+        }
+        virtualTime = virtualTimes[index];
+        virtualTimes[index] += MAX_WEIGHT / PRIORITIES[index].getWeight();
+        size--;
+        return queues[index].poll();
+    }
+
+    private int next() {
+        int next = -1;
+        for (int i = 0; i < queues.length; i++) {
+            if (!queues[i].isEmpty() && (next == -1 || virtualTimes[i] < virtualTimes[next])) {
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
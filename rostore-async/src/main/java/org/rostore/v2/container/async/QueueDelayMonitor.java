@@ -0,0 +1,81 @@
+package org.rostore.v2.container.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects a queue that does not drain by itself from the time its operations have been waiting, similar to CoDel.
+ * <p>The waiting time of every started operation is reported by {@link #sample(long)}. If it stays above the target
+ * for the whole interval, the queue is considered overloaded until an operation is started within the target again.
+ * A burst that is worked off within the interval is not considered an overload.</p>
+ * <p>The samples can be reported from any thread, the shared state is only written when it changes.</p>
+ */
+class QueueDelayMonitor {
+
+    private static final long NOT_ABOVE = Long.MIN_VALUE;
+
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    /**
+     * The time since all the started operations have been waiting for longer than the target
+     */
+    private final AtomicLong aboveTargetSince = new AtomicLong(NOT_ABOVE);
+
+    private volatile boolean overloaded;
+
+    /**
+     * Creates the monitor
+     *
+     * @param targetMillis the acceptable waiting time, {@code 0} disables the monitor
+     * @param intervalMillis the time the waiting time must stay above the target
+     */
+    QueueDelayMonitor(final long targetMillis, final long intervalMillis) {
+        this.targetNanos = targetMillis * 1_000_000L;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Takes the time to be given to {@link #sample(long)} when the operation is queued
+     *
+     * @return the current time in nanoseconds, or {@code 0} if the monitor is disabled
+     */
+    long queued() {
+        return targetNanos == 0 ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Reports the start of the operation
+     *
+     * @param queuedNanos the time taken by {@link #queued()} or by {@link System#nanoTime()} when the operation has been queued
+     */
+    void sample(final long queuedNanos) {
+        if (targetNanos == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (now - queuedNanos < targetNanos) {
+            if (aboveTargetSince.get() != NOT_ABOVE) {
+                aboveTargetSince.set(NOT_ABOVE);
+            }
+            if (overloaded) {
+                overloaded = false;
+            }
+            return;
+        }
+        final long since = aboveTargetSince.get();
+        if (since == NOT_ABOVE) {
+            aboveTargetSince.compareAndSet(NOT_ABOVE, now);
+        } else if (!overloaded && now - since >= intervalNanos) {
+            overloaded = true;
+        }
+    }
+
+    /**
+     * Checks if the waiting time has stayed above the target for the whole interval
+     *
+     * @return {@code true} if the new operations should be rejected
+     */
+    boolean isOverloaded() {
+        return overloaded;
+    }
+}
@@ -0,0 +1,425 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.Utils;
+import org.rostore.entity.ReadCacheStatistics;
+import org.rostore.entity.Record;
+import org.rostore.v2.container.Properties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A size-bounded cache of the small values of the container, that serves the repeated reads
+ * of the hot keys without any operation on the shards.
+ *
+ * <p>The admission follows W-TinyLFU: a new entry is placed to a small LRU window, the entries leaving the window
+ * only replace the entries of the main cache if their keys have been accessed more often. The access frequency
+ * is estimated by a count-min sketch, which is halved periodically so that the old popularity fades out.
+ * The main cache is a segmented LRU: the entries accessed again are protected from the eviction.
+ * This way a scan over many keys does not flush the hot keys out of the cache.</p>
+ * <p>The entries are dropped by {@link AsyncContainer} on every change of their keys. The changes are also counted
+ * in the stripes of the keys, and a read only caches its value if the stripe of its key has not changed since
+ * the read has started (see {@link #startRead(byte[])}), so a value replaced during the read is never cached.</p>
+ * <p>The expired entries are never served, so the clean-up of the expired keys does not need to drop them.</p>
+ */
+class ReadCache {
+
+    /**
+     * The estimated memory used by one entry in addition to its key and value
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * The entry size the frequency sketch is dimensioned for
+     */
+    private static final int SKETCH_ENTRY_SIZE = 256;
+
+    private static final int CHANGE_STRIPES = 1024;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long maxSize;
+    private final long windowMaxSize;
+    private final long mainMaxSize;
+    private final long protectedMaxSize;
+    private final int maxValueSize;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final Entry[] queues = new Entry[3];
+    private final long[] queueSizes = new long[3];
+    private final FrequencySketch sketch;
+    private final AtomicLongArray changes = new AtomicLongArray(CHANGE_STRIPES);
+
+    private long hitNumber, missNumber, evictionNumber, invalidationNumber;
+
+    /**
+     * Creates the cache
+     *
+     * @param maxSize the maximum size of the cached entries in bytes
+     */
+    ReadCache(final long maxSize) {
+        this.maxSize = maxSize;
+        windowMaxSize = Math.max(1, maxSize / 100);
+        mainMaxSize = maxSize - windowMaxSize;
+        protectedMaxSize = mainMaxSize * 4 / 5;
+        maxValueSize = (int) Math.min(Properties.READ_CACHE_MAX_VALUE_SIZE, mainMaxSize / 8);
+        for (int i = 0; i < queues.length; i++) {
+            final Entry sentinel = new Entry(null, null, null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            queues[i] = sentinel;
+        }
+        sketch = new FrequencySketch(maxSize / SKETCH_ENTRY_SIZE);
+    }
+
+    /**
+     * Takes the stamp of the key that should be given to {@link #put(byte[], Record, byte[], long)}.
+     * <p>It must be taken before the key is read from the shard.</p>
+     *
+     * @param key the key to read
+     * @return the stamp of the key
+     */
+    long startRead(final byte[] key) {
+        return changes.get(stripe(hash(key)));
+    }
+
+    /**
+     * Looks the value up in the cache and counts the access to the key.
+     *
+     * @param key the key
+     * @return the cached entry or {@code null} if there is no valid entry for the key
+     */
+    synchronized Entry get(final byte[] key) {
+        final Key cacheKey = new Key(key);
+        sketch.increment(cacheKey.hash);
+        final Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            missNumber++;
+            return null;
+        }
+        if (Utils.isExpiredEOL(entry.eol)) {
+            remove(entry);
+            missNumber++;
+            return null;
+        }
+        hitNumber++;
+        unlink(entry);
+        if (entry.queue == PROBATION || entry.queue == PROTECTED) {
+            link(entry, PROTECTED);
+            while (queueSizes[PROTECTED] > protectedMaxSize) {
+                final Entry demoted = head(PROTECTED);
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else {
+            link(entry, WINDOW);
+        }
+        return entry;
+    }
+
+    /**
+     * Offers the value that has just been read from the shard to the cache.
+     * <p>The value is not cached if the key has been changed since the read has started.</p>
+     *
+     * @param key the key
+     * @param record the record of the key
+     * @param value the value, should not be modified afterwards
+     * @param stamp the stamp taken by {@link #startRead(byte[])} before the key has been read
+     */
+    void put(final byte[] key, final Record record, final byte[] value, final long stamp) {
+        if (value.length > maxValueSize) {
+            return;
+        }
+        final Key cacheKey = new Key(key);
+        synchronized (this) {
+            if (changes.get(stripe(cacheKey.hash)) != stamp) {
+                return;
+            }
+            final Entry previous = entries.remove(cacheKey);
+            if (previous != null) {
+                unlink(previous);
+            }
+            final Entry entry = new Entry(cacheKey, record, value);
+            entries.put(cacheKey, entry);
+            link(entry, WINDOW);
+            while (queueSizes[WINDOW] > windowMaxSize) {
+                final Entry candidate = head(WINDOW);
+                unlink(candidate);
+                admit(candidate);
+            }
+        }
+    }
+
+    /**
+     * Moves the entry leaving the window to the main cache, if it is accessed more often than the entries it would evict
+     */
+    private void admit(final Entry candidate) {
+        while (queueSizes[PROBATION] + queueSizes[PROTECTED] + candidate.weight > mainMaxSize) {
+            Entry victim = head(PROBATION);
+            if (victim == null) {
+                victim = head(PROTECTED);
+            }
+            evictionNumber++;
+            if (victim != null && sketch.frequency(candidate.key.hash) > sketch.frequency(victim.key.hash)) {
+                unlink(victim);
+                entries.remove(victim.key);
+            } else {
+                entries.remove(candidate.key);
+                return;
+            }
+        }
+        link(candidate, PROBATION);
+    }
+
+    /**
+     * Drops the entry of the key, must be called after the key has been changed in the shard
+     *
+     * @param key the key
+     */
+    void invalidate(final byte[] key) {
+        final Key cacheKey = new Key(key);
+        changes.incrementAndGet(stripe(cacheKey.hash));
+        synchronized (this) {
+            final Entry entry = entries.get(cacheKey);
+            if (entry != null) {
+                remove(entry);
+                invalidationNumber++;
+            }
+        }
+    }
+
+    synchronized ReadCacheStatistics getStatistics() {
+        return new ReadCacheStatistics(maxSize,
+                queueSizes[WINDOW] + queueSizes[PROBATION] + queueSizes[PROTECTED],
+                entries.size(),
+                hitNumber,
+                missNumber,
+                evictionNumber,
+                invalidationNumber);
+    }
+
+    /**
+     * Creates the stream that copies the value that is being read from the shard,
+     * see {@link CapturingOutputStream#toByteArray()}
+     *
+     * @param outputStream the stream the value is read to
+     * @return the stream to read the value to instead
+     */
+    CapturingOutputStream capture(final OutputStream outputStream) {
+        return new CapturingOutputStream(outputStream, maxValueSize);
+    }
+
+    private void remove(final Entry entry) {
+        unlink(entry);
+        entries.remove(entry.key);
+    }
+
+    private Entry head(final int queue) {
+        final Entry first = queues[queue].next;
+        return first == queues[queue] ? null : first;
+    }
+
+    private void link(final Entry entry, final int queue) {
+        final Entry sentinel = queues[queue];
+        entry.prev = sentinel.prev;
+        entry.next = sentinel;
+        sentinel.prev.next = entry;
+        sentinel.prev = entry;
+        entry.queue = queue;
+        queueSizes[queue] += entry.weight;
+    }
+
+    private void unlink(final Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        queueSizes[entry.queue] -= entry.weight;
+    }
+
+    private static int hash(final byte[] key) {
+        final int hash = Arrays.hashCode(key) * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int stripe(final int hash) {
+        return hash & (CHANGE_STRIPES - 1);
+    }
+
+    /**
+     * The cached value with the properties of its key
+     */
+    static final class Entry {
+        private final Key key;
+        private final long id;
+        private final long eol;
+        private final long version;
+        private final byte[] value;
+        private final int weight;
+        private int queue;
+        private Entry prev, next;
+
+        private Entry(final Key key, final Record record, final byte[] value) {
+            this.key = key;
+            this.value = value;
+            if (record != null) {
+                id = record.getId();
+                eol = record.getEol();
+                version = record.getVersion();
+                weight = ENTRY_OVERHEAD + key.data.length + value.length;
+            } else {
+                id = Utils.ID_UNDEFINED;
+                eol = Utils.EOL_FOREVER;
+                version = Utils.VERSION_UNDEFINED;
+                weight = 0;
+            }
+        }
+
+        /**
+         * Creates a new record of the key, as it has been read from the shard
+         *
+         * @return the record
+         */
+        Record toRecord() {
+            return new Record().id(id).eol(eol).version(version);
+        }
+
+        /**
+         * The value, should not be modified
+         *
+         * @return the value or {@code null} if the key has been stored without a value
+         */
+        byte[] getValue() {
+            return id == Utils.ID_UNDEFINED ? null : value;
+        }
+    }
+
+    private static final class Key {
+        private final byte[] data;
+        private final int hash;
+
+        private Key(final byte[] data) {
+            this.data = data;
+            this.hash = ReadCache.hash(data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && Arrays.equals(data, ((Key) o).data);
+        }
+    }
+
+    /**
+     * Passes the value through and keeps its copy, unless the value is too big to be cached
+     */
+    static final class CapturingOutputStream extends FilterOutputStream {
+
+        private final int maxSize;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private CapturingOutputStream(final OutputStream outputStream, final int maxSize) {
+            super(outputStream);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        private void checkSize() {
+            if (copy.size() > maxSize) {
+                copy = null;
+            }
+        }
+
+        /**
+         * The copy of the value
+         *
+         * @return the value or {@code null} if it is too big to be cached
+         */
+        byte[] toByteArray() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+
+    /**
+     * A count-min sketch of the access frequencies with 4-bit counters, halved after every {@code 10 * width} increments
+     */
+    private static final class FrequencySketch {
+
+        private static final int[] SEEDS = { 0x9e3779b1, 0x85ebca77, 0xc2b2ae3d, 0x27d4eb2f };
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int shift;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(final long expectedEntries) {
+            final int width = Integer.highestOneBit((int) Math.max(256, Math.min(1 << 20, expectedEntries)) * 2 - 1);
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new byte[width];
+            }
+            shift = 32 - Integer.numberOfTrailingZeros(width);
+            sampleSize = 10 * width;
+        }
+
+        private int index(final int hash, final int row) {
+            return (hash * SEEDS[row]) >>> shift;
+        }
+
+        private void increment(final int hash) {
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                final int index = index(hash, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (final byte[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        private int frequency(final int hash) {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                frequency = Math.min(frequency, rows[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.entity.OperationMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the time the operations of a shard wait and run, for every {@link OperationTarget} and {@link OperationType}.
+ * <p>The recording is lock-free and can happen from any thread, see {@link LatencyHistogram}.</p>
+ */
+class ShardMetricsRecorder {
+
+    private static final OperationTarget[] TARGETS = OperationTarget.values();
+    private static final OperationType[] TYPES = OperationType.values();
+
+    private final LatencyHistogram[] queueTimes = new LatencyHistogram[TARGETS.length * TYPES.length];
+    private final LatencyHistogram[] executionTimes = new LatencyHistogram[TARGETS.length * TYPES.length];
+    private final LongAdder cancelledValueReads = new LongAdder();
+    private final LongAdder expiredOperations = new LongAdder();
+
+    ShardMetricsRecorder() {
+        for (int i = 0; i < queueTimes.length; i++) {
+            queueTimes[i] = new LatencyHistogram();
+            executionTimes[i] = new LatencyHistogram();
+        }
+    }
+
+    private static int index(final Operation operation) {
+        return operation.getTarget().ordinal() * TYPES.length + operation.getType().ordinal();
+    }
+
+    /**
+     * Records the start of the operation in its thread
+     *
+     * @param operation the operation with its {@link Operation#queuedNanos}
+     * @param startNanos the time the operation has been started
+     */
+    void started(final Operation operation, final long startNanos) {
+        queueTimes[index(operation)].record(startNanos - operation.queuedNanos);
+    }
+
+    /**
+     * Records the end of the operation
+     *
+     * @param operation the operation
+     * @param startNanos the time the operation has been started
+     */
+    void executed(final Operation operation, final long startNanos) {
+        executionTimes[index(operation)].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a value read that has not been executed as the value is being deleted
+     */
+    void cancelledValueRead() {
+        cancelledValueReads.increment();
+    }
+
+    long getCancelledValueReadNumber() {
+        return cancelledValueReads.sum();
+    }
+
+    /**
+     * Counts an operation that has not been executed as its deadline has passed
+     */
+    void expiredOperation() {
+        expiredOperations.increment();
+    }
+
+    long getExpiredOperationNumber() {
+        return expiredOperations.sum();
+    }
+
+    /**
+     * Provides the metrics of the kinds of operations that have been executed at least once
+     *
+     * @return the list of the operation metrics
+     */
+    List<OperationMetrics> snapshot() {
+        final List<OperationMetrics> operations = new ArrayList<>();
+        for (final OperationTarget target : TARGETS) {
+            for (final OperationType type : TYPES) {
+                final int index = target.ordinal() * TYPES.length + type.ordinal();
+                final OperationMetrics operationMetrics = new OperationMetrics(target, type,
+                        queueTimes[index].snapshot(),
+                        executionTimes[index].snapshot());
+                if (operationMetrics.getQueueTime().getCount() != 0 || operationMetrics.getExecutionTime().getCount() != 0) {
+                    operations.add(operationMetrics);
+                }
+            }
+        }
+        return operations;
+    }
+}
@@ -0,0 +1,188 @@
+package org.rostore.v2.container.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The executor of {@link ExecutionMode#SHARD_THREADS}: a fixed set of lanes, each one a single
+ * platform thread that executes its tasks one after another in the order they are submitted.
+ * <p>The tasks of a shard are always submitted to the same lane (see {@link #execute(int, Runnable)}),
+ * so the structures of the shard stay in the caches of one core and its locks are never contended
+ * by the other threads of the store.</p>
+ * <p>Every lane takes its tasks from a lock-free queue, and parks only if the queue is empty.</p>
+ */
+public class ShardThreads extends AbstractExecutorService {
+
+    private static final Logger logger = Logger.getLogger(ShardThreads.class.getName());
+
+    private class Lane implements Runnable {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private final Thread thread;
+
+        /**
+         * Set by the lane's thread just before it parks
+         */
+        private volatile boolean parked;
+
+        private Lane(final int index) {
+            thread = new Thread(this, "rostore-shard-" + index);
+        }
+
+        private void offer(final Runnable task) {
+            tasks.offer(task);
+            wakeUp();
+        }
+
+        private void wakeUp() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Runnable task = tasks.poll();
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (final RuntimeException e) {
+                        logger.log(Level.WARNING, "The task has failed in " + thread.getName(), e);
+                    }
+                    continue;
+                }
+                if (shutdown) {
+                    return;
+                }
+                parked = true;
+                // the producer either sees the flag, or has offered the task before it is checked here
+                if (tasks.isEmpty() && !shutdown) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+    }
+
+    private final Lane[] lanes;
+
+    /**
+     * Distributes the tasks that do not belong to a shard
+     */
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    private volatile boolean shutdown;
+
+    /**
+     * Creates the lanes and starts their threads
+     *
+     * @param laneNumber the number of lanes
+     */
+    public ShardThreads(final int laneNumber) {
+        lanes = new Lane[laneNumber];
+        for (int i = 0; i < laneNumber; i++) {
+            lanes[i] = new Lane(i);
+        }
+        for (final Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * Provides the number of the lanes
+     *
+     * @return the number of the threads that execute the tasks
+     */
+    public int getLaneNumber() {
+        return lanes.length;
+    }
+
+    /**
+     * Executes the task in the given lane, after all the tasks submitted to it before
+     *
+     * @param lane the lane, taken modulo the number of the lanes
+     * @param task the task to execute
+     */
+    public void execute(final int lane, final Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("The shard threads are shut down");
+        }
+        lanes[Math.floorMod(lane, lanes.length)].offer(task);
+    }
+
+    /**
+     * Executes the task in the lanes one after another
+     *
+     * @param task the task to execute
+     */
+    @Override
+    public void execute(final Runnable task) {
+        execute(nextLane.getAndIncrement(), task);
+    }
+
+    /**
+     * Stops accepting the new tasks, the lanes are stopped once the tasks submitted before are executed
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (final Lane lane : lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> notExecuted = new ArrayList<>();
+        for (final Lane lane : lanes) {
+            Runnable task;
+            while ((task = lane.tasks.poll()) != null) {
+                notExecuted.add(task);
+            }
+        }
+        shutdown();
+        return notExecuted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        if (!shutdown) {
+            return false;
+        }
+        for (final Lane lane : lanes) {
+            if (lane.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (final Lane lane : lanes) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return isTerminated();
+            }
+            lane.thread.join(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+        }
+        return isTerminated();
+    }
+}
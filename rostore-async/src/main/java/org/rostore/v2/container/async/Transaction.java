@@ -0,0 +1,92 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.entity.Record;
+import org.rostore.entity.RoStoreException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The puts and removes of several keys that are committed all together or not at all,
+ * see {@link AsyncContainer#commit(int, Transaction)}.
+ * <p>Every change is conditional as the single key operation is: the version and the options
+ * of its {@link Record} are validated against the current entry of the key.</p>
+ * <p>A key can only be changed once in a transaction. The records of the puts get the stored versions
+ * once the transaction is committed.</p>
+ */
+public class Transaction {
+
+    private final SortedMap<byte[], InputStream> values = new TreeMap<>(Arrays::compare);
+    private final SortedMap<byte[], Record> records = new TreeMap<>(Arrays::compare);
+
+    /**
+     * Adds a put of the key-value pair
+     *
+     * @param key the key data
+     * @param value the stream with the value data
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return this transaction
+     */
+    public Transaction put(final byte[] key, final InputStream value, final Record record) {
+        add(key, record);
+        values.put(key, value);
+        return this;
+    }
+
+    /**
+     * Adds a put of the key-value pair
+     *
+     * @param key the key data
+     * @param value the value data
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @return this transaction
+     */
+    public Transaction put(final byte[] key, final byte[] value, final Record record) {
+        return put(key, new ByteArrayInputStream(value), record);
+    }
+
+    /**
+     * Adds a removal of the key, it is skipped if the key does not exist
+     *
+     * @param key the key data
+     * @param record metadata, mainly for options and version
+     * @return this transaction
+     */
+    public Transaction remove(final byte[] key, final Record record) {
+        add(key, record);
+        return this;
+    }
+
+    private void add(final byte[] key, final Record record) {
+        if (records.containsKey(key)) {
+            throw new RoStoreException("The key \"" + new String(key) + "\" is changed twice in the transaction");
+        }
+        records.put(key, record);
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * Provides the records of all the changed keys
+     *
+     * @return the records sorted by key
+     */
+    SortedMap<byte[], Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Provides the value of the put
+     *
+     * @param key the key data
+     * @return the stream with the value data or {@code null} if the key is removed
+     */
+    InputStream getValue(final byte[] key) {
+        return values.get(key);
+    }
+}
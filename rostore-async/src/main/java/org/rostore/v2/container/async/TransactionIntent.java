@@ -0,0 +1,195 @@
+package org.rostore.v2.container.async;
+
+import org.rostore.Utils;
+import org.rostore.entity.Record;
+import org.rostore.entity.media.RecordOption;
+import org.rostore.v2.container.ContainerShard;
+import org.rostore.v2.container.ContainerShardKeyOperations;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The intent record of a {@link Transaction} that is being committed, see {@link AsyncContainer#commitAsync(int, Transaction)}.
+ * <p>The changes are grouped by shard, the shards are ordered by their index, which is the order their exclusive
+ * key slots are reserved in. Every change keeps the entry it replaces as soon as it is applied. If any change fails,
+ * the applied ones are rolled back in the reverse order from the kept entries, so the keys are left as they were.</p>
+ * <p>Once the transaction is over, the values that are not referenced anymore are freed: the replaced ones
+ * if the transaction is committed, the new ones otherwise.</p>
+ * <p>The intent is only kept in memory, it is not stored on the media and can't be recovered after a crash,
+ * so the transaction is atomic only while the process keeps running.</p>
+ */
+class TransactionIntent {
+
+    private static class Change {
+        private final byte[] key;
+        private final Record record;
+        private final InputStream value;
+        private Record previous;
+        private long replacedId = Utils.ID_UNDEFINED;
+        private boolean applied;
+
+        private Change(final byte[] key, final Record record, final InputStream value) {
+            this.key = key;
+            this.record = record;
+            this.value = value;
+            record.id(Utils.ID_UNDEFINED);
+        }
+
+        private boolean isPut() {
+            return value != null;
+        }
+    }
+
+    private static class ShardChanges {
+        private final ContainerShardExecutor shardExecutor;
+        private final List<Change> changes = new ArrayList<>();
+
+        private ShardChanges(final ContainerShardExecutor shardExecutor) {
+            this.shardExecutor = shardExecutor;
+        }
+    }
+
+    private final List<ShardChanges> shards;
+
+    /**
+     * Groups the changes of the transaction by shard
+     *
+     * @param transaction the transaction
+     * @param shardExecutorByKey provides the shard of the key, all the shards should belong to the same shard set
+     */
+    TransactionIntent(final Transaction transaction, final Function<byte[], ContainerShardExecutor> shardExecutorByKey) {
+        final Map<ContainerShardExecutor, ShardChanges> byShard = new LinkedHashMap<>();
+        for (final Map.Entry<byte[], Record> entry : transaction.getRecords().entrySet()) {
+            byShard.computeIfAbsent(shardExecutorByKey.apply(entry.getKey()), ShardChanges::new).changes.
+                    add(new Change(entry.getKey(), entry.getValue(), transaction.getValue(entry.getKey())));
+        }
+        shards = new ArrayList<>(byShard.values());
+        shards.sort(Comparator.comparingInt((shard) -> shard.shardExecutor.getShard().getIndex()));
+    }
+
+    /**
+     * Provides the shards of the transaction
+     *
+     * @return the executors of the shards in the order their key slots should be reserved
+     */
+    List<ContainerShardExecutor> getShardExecutors() {
+        final List<ContainerShardExecutor> shardExecutors = new ArrayList<>(shards.size());
+        for (final ShardChanges shard : shards) {
+            shardExecutors.add(shard.shardExecutor);
+        }
+        return shardExecutors;
+    }
+
+    /**
+     * Writes the values of the puts to the shard, should be executed in a value operation
+     *
+     * @param shardIndex the index of the shard in {@link #getShardExecutors()}
+     */
+    void writeValues(final int shardIndex) {
+        final ShardChanges shard = shards.get(shardIndex);
+        for (final Change change : shard.changes) {
+            if (change.isPut()) {
+                change.record.id(shard.shardExecutor.getShard().putValue(change.value));
+            }
+        }
+    }
+
+    /**
+     * Applies all the changes to the keys, the exclusive key slots of all the shards should be held by the caller.
+     * <p>The changes of all the shards are published together, so the reads see either all or none of them.
+     * If a change fails, the applied changes are rolled back before anything is published and the exception is thrown.</p>
+     *
+     * @param keyChanged called with every changed key and the key operations of its shard, e.g. to act once the change is published
+     */
+    void apply(final BiConsumer<ContainerShardKeyOperations, byte[]> keyChanged) {
+        final List<ContainerShard> containerShards = new ArrayList<>(shards.size());
+        for (final ShardChanges shard : shards) {
+            containerShards.add(shard.shardExecutor.getShard());
+        }
+        ContainerShard.keyFunction(containerShards, (opsList) -> {
+            try {
+                for (int i = 0; i < shards.size(); i++) {
+                    for (final Change change : shards.get(i).changes) {
+                        apply(opsList.get(i), change);
+                        keyChanged.accept(opsList.get(i), change.key);
+                    }
+                }
+            } catch (final RuntimeException e) {
+                try {
+                    rollback(opsList);
+                } catch (final RuntimeException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    private static void apply(final ContainerShardKeyOperations ops, final Change change) {
+        change.previous = ops.getKey(change.key);
+        if (change.isPut()) {
+            change.replacedId = ops.putKey(change.key, change.record);
+        } else {
+            ops.removeKey(change.key, change.record);
+            // the id of the removed entry, it can be an expired one
+            change.replacedId = change.record.getId();
+        }
+        change.applied = true;
+    }
+
+    private void rollback(final List<ContainerShardKeyOperations> opsList) {
+        for (int i = shards.size() - 1; i >= 0; i--) {
+            final ShardChanges shard = shards.get(i);
+            for (int j = shard.changes.size() - 1; j >= 0; j--) {
+                final Change change = shard.changes.get(j);
+                if (change.applied) {
+                    rollback(opsList.get(i), change);
+                    change.applied = false;
+                }
+            }
+        }
+    }
+
+    private static void rollback(final ContainerShardKeyOperations ops, final Change change) {
+        if (change.previous != null) {
+            ops.putKey(change.key, new Record().id(change.previous.getId()).
+                    eol(change.previous.getEol()).
+                    version(change.previous.getVersion()).
+                    addOption(RecordOption.OVERRIDE_VERSION));
+        } else if (change.isPut()) {
+            ops.removeKeyWithId(change.key, change.record.getId());
+        }
+    }
+
+    /**
+     * Frees the values that are not referenced anymore
+     *
+     * @param committed {@code true} if all the changes have been applied
+     * @param valueRemover removes the value with the id from the shard
+     */
+    void freeValues(final boolean committed, final BiConsumer<ContainerShardExecutor, Long> valueRemover) {
+        for (final ShardChanges shard : shards) {
+            for (final Change change : shard.changes) {
+                if (committed) {
+                    valueRemover.accept(shard.shardExecutor, change.replacedId);
+                    continue;
+                }
+                if (change.isPut()) {
+                    valueRemover.accept(shard.shardExecutor, change.record.getId());
+                }
+                if (change.previous == null) {
+                    // the expired entry that has been replaced is not restored
+                    valueRemover.accept(shard.shardExecutor, change.replacedId);
+                }
+            }
+        }
+    }
+}
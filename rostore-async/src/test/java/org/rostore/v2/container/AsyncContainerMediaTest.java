@@ -4,28 +4,73 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.rostore.TestFile;
+import org.rostore.Utils;
+import org.rostore.entity.ExecutorMetrics;
+import org.rostore.entity.LatencyMetrics;
+import org.rostore.entity.OperationMetrics;
+import org.rostore.entity.OptionMismatchException;
+import org.rostore.entity.ReadCacheStatistics;
 import org.rostore.entity.Record;
+import org.rostore.entity.RoStoreException;
+import org.rostore.entity.ShardMetrics;
+import org.rostore.entity.ValueFormatException;
+import org.rostore.entity.VersionMismatchException;
+import org.rostore.entity.media.RecordOption;
 import org.rostore.entity.media.ContainerMeta;
 import org.rostore.v2.catalog.CatalogBlockIndices;
 import org.rostore.v2.container.async.AsyncContainerMedia;
+import org.rostore.v2.container.async.AsyncException;
 import org.rostore.v2.container.async.AsyncContainerMediaProperties;
 import org.rostore.v2.container.async.AsyncStream;
 import org.rostore.v2.container.async.AsyncContainer;
+import org.rostore.v2.container.async.ContainerShardExecutor;
+import org.rostore.v2.container.async.OperationType;
+import org.rostore.v2.container.async.OperationPriority;
+import org.rostore.v2.container.async.ExecutionMode;
+import org.rostore.v2.container.async.OperationExecutionRuntimeException;
+import org.rostore.v2.container.async.Operation;
+import org.rostore.v2.container.async.OrderedKeyList;
+import org.rostore.v2.container.async.OperationExpiredException;
+import org.rostore.v2.container.async.OperationRejectedException;
+import org.rostore.v2.container.async.Transaction;
 import org.rostore.entity.media.MediaPropertiesBuilder;
+import org.rostore.entity.media.ShardRouting;
 import org.rostore.v2.media.block.BlockType;
 import org.rostore.v2.media.block.allocator.BlockVerifierListener;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 public class AsyncContainerMediaTest {
 
+    private static final int SLOW_VALUE_SIZE = 50;
+
+    private static final long SLOW_UPLOAD_DELAY_MILLIS = 10;
+
+    /**
+     * The time a single upload from the slow producer takes
+     */
+    private static final long SLOW_UPLOAD_MILLIS = SLOW_VALUE_SIZE * SLOW_UPLOAD_DELAY_MILLIS;
+
     @Test
     public void test() throws ExecutionException, InterruptedException {
         MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
@@ -429,6 +474,100 @@ public class AsyncContainerMediaTest {
         }
     }
 
+    @Test
+    public void directPut() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(256L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(256);
+        File file = TestFile.createNewFile("media-async-direct-put.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(2);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                // spans several blocks
+                final String value = getRandomString(1000, 1000);
+                final Record record = asyncContainer.put(1, "key", (outputStream) -> {
+                    try {
+                        outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+                        outputStream.close();
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                Assertions.assertNotEquals(Utils.ID_UNDEFINED, record.getId());
+                assertValue(asyncContainer, "key", value);
+                Assertions.assertEquals(value.length(), asyncContainer.getStatistics(1).getValueSize());
+                final Record insert = new Record().addOption(RecordOption.ONLY_INSERT);
+                final OperationExecutionRuntimeException e = Assertions.assertThrows(OperationExecutionRuntimeException.class,
+                        () -> asyncContainer.put(1, "key".getBytes(StandardCharsets.UTF_8), "other", insert));
+                Assertions.assertInstanceOf(OptionMismatchException.class, e.getCause().getCause());
+                assertValue(asyncContainer, "key", value);
+            }
+        }
+    }
+
+    @Test
+    public void readCache() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-read-cache.blck");
+        final AsyncContainerMediaProperties properties = AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder);
+        properties.getAsyncContainersProperties().setReadCacheSize(1024L * 1024L);
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, properties)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(2);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final Map<String, String> hot = new HashMap<>();
+                for (int i = 0; i < 100; i++) {
+                    hot.put("hot-" + i, getRandomString(2000, 2000));
+                    putValue(asyncContainer, "hot-" + i, hot.get("hot-" + i));
+                }
+                for (int i = 0; i < 3; i++) {
+                    for (final Map.Entry<String, String> entry : hot.entrySet()) {
+                        assertValue(asyncContainer, entry.getKey(), entry.getValue());
+                    }
+                }
+                ReadCacheStatistics statistics = asyncContainer.getReadCacheStatistics();
+                Assertions.assertEquals(200, statistics.getHitNumber());
+                Assertions.assertEquals(100, statistics.getMissNumber());
+                Assertions.assertEquals(100, statistics.getEntryNumber());
+                // a scan over the keys read only once does not replace the hot ones
+                for (int i = 0; i < 5000; i++) {
+                    putValue(asyncContainer, "cold-" + i, ("cold value " + i).repeat(20));
+                }
+                for (int i = 0; i < 5000; i++) {
+                    assertValue(asyncContainer, "cold-" + i, ("cold value " + i).repeat(20));
+                }
+                statistics = asyncContainer.getReadCacheStatistics();
+                Assertions.assertTrue(statistics.getEvictionNumber() > 0);
+                Assertions.assertTrue(statistics.getSize() <= statistics.getMaxSize());
+                final long hits = statistics.getHitNumber();
+                for (final Map.Entry<String, String> entry : hot.entrySet()) {
+                    assertValue(asyncContainer, entry.getKey(), entry.getValue());
+                }
+                Assertions.assertEquals(hits + 100, asyncContainer.getReadCacheStatistics().getHitNumber());
+                // the changes drop the cached values
+                putValue(asyncContainer, "hot-0", "changed");
+                assertValue(asyncContainer, "hot-0", "changed");
+                Assertions.assertTrue(asyncContainer.remove(1, "hot-1"));
+                Assertions.assertNull(asyncContainer.get(1, "hot-1", String.class));
+                Assertions.assertEquals(2, asyncContainer.getReadCacheStatistics().getInvalidationNumber());
+            }
+        }
+    }
+
+    private static void putValue(final AsyncContainer asyncContainer, final String key, final String value) {
+        asyncContainer.put(1, key, (outputStream) -> {
+            try {
+                outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+                outputStream.close();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     @Test
     public void syncOpsOpenClose() {
         MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
@@ -456,6 +595,832 @@ public class AsyncContainerMediaTest {
 
     }
 
+    /**
+     * The media has been created by the version that stored the container descriptors without the format version,
+     * its container "legacy" has 2 shards with the keys key-0..199 and the keys ttl-0..19 that expire in a second.
+     */
+    @Test
+    public void openLegacyMedia() throws IOException, ExecutionException, InterruptedException {
+        File file = TestFile.createNewFile("media-async-legacy.blck");
+        try (final InputStream inputStream = new GZIPInputStream(getClass().getResourceAsStream("/legacy-media.blck.gz"));
+             final OutputStream outputStream = new FileOutputStream(file)) {
+            inputStream.transferTo(outputStream);
+        }
+        try (final AsyncContainerMedia media = AsyncContainerMedia.load(file)) {
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().get("legacy")) {
+                Assertions.assertEquals(2, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardNumber());
+                Assertions.assertFalse(asyncContainer.getContainer().getDescriptor().isLegacy());
+                // the keys are found in the shards they have been stored in
+                Assertions.assertEquals(ShardRouting.LEGACY, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardRouting());
+                // the statistics are collected from the keys and values of the old layout
+                Assertions.assertEquals(220, asyncContainer.getStatistics(1).getKeyNumber());
+                Assertions.assertEquals(220, asyncContainer.getStatistics(1).getValueNumber());
+                for (int i = 0; i < 200; i++) {
+                    Assertions.assertEquals("value-" + i, asyncContainer.get(1, "key-" + i, String.class).getData());
+                }
+                for (int i = 0; i < 20; i++) {
+                    Assertions.assertNull(asyncContainer.get(1, "ttl-" + i, String.class));
+                }
+                asyncContainer.put(1, "key-200", "value-200");
+                Assertions.assertTrue(asyncContainer.remove(1, "key-0"));
+            }
+        }
+        try (final AsyncContainerMedia media = AsyncContainerMedia.load(file)) {
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().get("legacy")) {
+                Assertions.assertNull(asyncContainer.get(1, "key-0", String.class));
+                for (int i = 1; i < 201; i++) {
+                    Assertions.assertEquals("value-" + i, asyncContainer.get(1, "key-" + i, String.class).getData());
+                }
+                // the expired keys may have been cleaned up meanwhile
+                final long keyNumber = asyncContainer.getStatistics(1).getKeyNumber();
+                Assertions.assertTrue(keyNumber >= 200 && keyNumber <= 220);
+                Assertions.assertEquals(keyNumber, asyncContainer.getStatistics(1).getValueNumber());
+                // the upgraded container can be resharded to the new routing
+                asyncContainer.reshard(1, 4, ShardRouting.MURMUR3).get();
+            }
+        }
+        try (final AsyncContainerMedia media = AsyncContainerMedia.load(file)) {
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().get("legacy")) {
+                Assertions.assertFalse(asyncContainer.isResharding());
+                Assertions.assertEquals(4, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardNumber());
+                Assertions.assertEquals(ShardRouting.MURMUR3, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardRouting());
+                Assertions.assertNull(asyncContainer.get(1, "key-0", String.class));
+                for (int i = 1; i < 201; i++) {
+                    Assertions.assertEquals("value-" + i, asyncContainer.get(1, "key-" + i, String.class).getData());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reshard() throws ExecutionException, InterruptedException {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 100000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        mediaPropertiesBuilder.setCloseUnusedBlocksAfterMillis(100);
+        File file = TestFile.createNewFile("media-async-reshard.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(2);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                Assertions.assertTrue(asyncContainer.putBatch(1, entries(0, 500, "value-")).getFailures().isEmpty());
+                final Future<Long> resharding = asyncContainer.reshard(1, 5, ShardRouting.MURMUR3);
+                // the container is used while the keys are moved
+                for (int i = 0; i < 100; i++) {
+                    Assertions.assertTrue(asyncContainer.remove(1, "key-" + i));
+                }
+                Assertions.assertTrue(asyncContainer.putBatch(1, entries(100, 200, "new-value-")).getFailures().isEmpty());
+                Assertions.assertTrue(asyncContainer.putBatch(1, entries(500, 600, "value-")).getFailures().isEmpty());
+                for (int i = 200; i < 600; i += 10) {
+                    assertValue(asyncContainer, "key-" + i, "value-" + i);
+                }
+                Assertions.assertTrue(resharding.get() <= 500);
+                Assertions.assertFalse(asyncContainer.isResharding());
+                Assertions.assertEquals(5, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardNumber());
+                Assertions.assertEquals(ShardRouting.MURMUR3, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardRouting());
+                Assertions.assertEquals(500, asyncContainer.list(1, (byte[]) null, null, 1000, 1000000).getKeys().size());
+                Assertions.assertEquals(500, asyncContainer.getStatistics(1).getKeyNumber());
+            }
+        }
+        try (final AsyncContainerMedia media = AsyncContainerMedia.load(file)) {
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().get("central")) {
+                Assertions.assertEquals(5, asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardNumber());
+                for (int i = 0; i < 600; i++) {
+                    assertValue(asyncContainer, "key-" + i, i < 100 ? null : (i < 200 ? "new-value-" : "value-") + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void slowProducers() throws ExecutionException, InterruptedException {
+        final int poolSize = Runtime.getRuntime().availableProcessors() + 1;
+        // every upload holds a thread of the pool, at least one thread is left for the key operations
+        slowProducers(ExecutionMode.PLATFORM_THREADS, poolSize - 1);
+        slowProducers(ExecutionMode.VIRTUAL_THREADS, poolSize - 1);
+        // the virtual threads do not hold the pool, so many more uploads can go on at once
+        final long millis = slowProducers(ExecutionMode.VIRTUAL_THREADS, poolSize * 8);
+        Assertions.assertTrue(millis < 4 * SLOW_UPLOAD_MILLIS, "The uploads have not been executed in parallel: " + millis + " ms");
+    }
+
+    /**
+     * Uploads the values from slow producers in parallel and checks that the small values can be read meanwhile.
+     *
+     * @return the time in milliseconds all the uploads took
+     */
+    private long slowProducers(final ExecutionMode executionMode, final int slowNumber) throws ExecutionException, InterruptedException {
+        final int fastNumber = 100;
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-slow-" + executionMode + "-" + slowNumber + ".blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder), executionMode)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(4);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                for (int i = 0; i < fastNumber; i++) {
+                    put(asyncContainer, "fast-" + i, "value-" + i).get();
+                }
+                final long start = System.currentTimeMillis();
+                final List<Future<?>> slowPuts = new ArrayList<>();
+                for (int i = 0; i < slowNumber; i++) {
+                    final AsyncStream<InputStream> asyncStream = AsyncStream.wrapBlocking(new SlowInputStream(SLOW_VALUE_SIZE, SLOW_UPLOAD_DELAY_MILLIS));
+                    asyncContainer.putAsync(1, ("slow-" + i).getBytes(StandardCharsets.UTF_8), asyncStream);
+                    slowPuts.add(asyncStream);
+                }
+                for (int i = 0; i < fastNumber; i++) {
+                    Assertions.assertEquals("value-" + i, getAndWait(asyncContainer, "fast-" + i));
+                }
+                // the reads do not wait for the uploads that go on in the same shards
+                Assertions.assertTrue(slowPuts.stream().noneMatch(Future::isDone), executionMode + ": the reads have waited for the uploads");
+                for (final Future<?> slowPut : slowPuts) {
+                    slowPut.get();
+                }
+                final long millis = System.currentTimeMillis() - start;
+                for (int i = 0; i < slowNumber; i++) {
+                    assertValue(asyncContainer, "slow-" + i, "x".repeat(SLOW_VALUE_SIZE));
+                }
+                return millis;
+            }
+        }
+    }
+
+    @Test
+    public void writeStorm() throws ExecutionException, InterruptedException {
+        final int keyNumber = 20000;
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 100000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-write-storm.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder), ExecutionMode.VIRTUAL_THREADS)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(1);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final ContainerShardExecutor shardExecutor = asyncContainer.getShardExecutorByIndex(0);
+                final List<Future<Long>> puts = new ArrayList<>(keyNumber);
+                for (int i = 0; i < keyNumber; i++) {
+                    final byte[] key = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+                    // the keys with an empty value
+                    puts.add(shardExecutor.executeKey(1, OperationType.WRITE, true, (ops) -> ops.putKey(key, new Record())));
+                }
+                for (final Future<Long> future : puts) {
+                    future.get();
+                }
+                Assertions.assertEquals(keyNumber, asyncContainer.getStatistics(1).getKeyNumber());
+                for (int i = 0; i < keyNumber; i += 1000) {
+                    assertValue(asyncContainer, "key-" + i, "");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void composedOperations() throws Exception {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-composed.blck");
+        // the fixed pool is stalled by any operation that waits for another one
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder), ExecutionMode.PLATFORM_THREADS)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(4);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final List<CompletableFuture<Boolean>> chains = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    final byte[] key = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+                    final String value = "value-" + i;
+                    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    chains.add(asyncContainer.putAsync(1, key, (stream) -> {
+                        try {
+                            stream.write(value.getBytes(StandardCharsets.UTF_8));
+                            stream.close();
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, new Record()).
+                            thenCompose((record) -> asyncContainer.getAsync(1, key, AsyncStream.wrap(outputStream))).
+                            thenCompose((record) -> {
+                                Assertions.assertNotNull(record);
+                                Assertions.assertEquals(value, outputStream.toString(StandardCharsets.UTF_8));
+                                return asyncContainer.removeAsync(1, key, new Record());
+                            }));
+                }
+                for (final CompletableFuture<Boolean> chain : chains) {
+                    Assertions.assertTrue(chain.get(30, TimeUnit.SECONDS));
+                }
+                Assertions.assertTrue(asyncContainer.listAsync(1, null, null, 100, 10000).get(30, TimeUnit.SECONDS).getKeys().isEmpty());
+                // the failure of the key operation fails the whole chain
+                asyncContainer.put(1, "key", "value");
+                final CompletableFuture<Record> insert = asyncContainer.putAsync(1, "key".getBytes(StandardCharsets.UTF_8),
+                        AsyncStream.wrap(new ByteArrayInputStream("other".getBytes(StandardCharsets.UTF_8))),
+                        new Record().addOption(RecordOption.ONLY_INSERT));
+                final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> insert.get(30, TimeUnit.SECONDS));
+                Assertions.assertInstanceOf(OptionMismatchException.class, e.getCause());
+                Assertions.assertEquals("value", asyncContainer.get(1, "key", String.class).getData());
+            }
+        }
+    }
+
+    @Test
+    public void shardThreads() throws Exception {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-shard-threads.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder), ExecutionMode.SHARD_THREADS)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(4);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final List<Future<?>> puts = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    puts.add(put(asyncContainer, "key-" + i, "value-" + i));
+                }
+                for (final Future<?> put : puts) {
+                    put.get(30, TimeUnit.SECONDS);
+                }
+                for (int i = 0; i < 500; i++) {
+                    assertValue(asyncContainer, "key-" + i, "value-" + i);
+                }
+                // all the operations of a shard are executed by the same thread
+                final ContainerShardExecutor shardExecutor = asyncContainer.getShardExecutorByIndex(0);
+                final List<Future<String>> threads = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    final byte[] key = ("shard-" + i).getBytes(StandardCharsets.UTF_8);
+                    final OperationType operationType = i % 2 == 0 ? OperationType.READ : OperationType.WRITE;
+                    threads.add(shardExecutor.executeKey(1, operationType, true, (ops) -> {
+                        if (operationType == OperationType.WRITE) {
+                            ops.putKey(key, new Record());
+                        } else {
+                            ops.getKey(key);
+                        }
+                        return Thread.currentThread().getName();
+                    }));
+                }
+                final Set<String> threadNames = new HashSet<>();
+                for (final Future<String> thread : threads) {
+                    threadNames.add(thread.get(30, TimeUnit.SECONDS));
+                }
+                Assertions.assertEquals(1, threadNames.size());
+            }
+        }
+    }
+
+    @Test
+    public void deadlines() throws Exception {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-deadlines.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(1);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                asyncContainer.put(1, "key", "value");
+                // the read is dropped before it is started
+                final AsyncStream<ByteArrayOutputStream> expiredGet = AsyncStream.wrapBlocking(new ByteArrayOutputStream()).
+                        deadline(System.currentTimeMillis() - 1);
+                ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                        () -> asyncContainer.getAsync(1, "key".getBytes(StandardCharsets.UTF_8), expiredGet).get(30, TimeUnit.SECONDS));
+                Assertions.assertInstanceOf(OperationExpiredException.class, e.getCause());
+                Assertions.assertThrows(AsyncException.class, expiredGet::get);
+                // the value stream is stopped once the deadline passes
+                final AsyncStream<InputStream> slowPut = AsyncStream.<InputStream>wrapBlocking(new SlowInputStream(1000, 10)).
+                        deadline(System.currentTimeMillis() + 200);
+                e = Assertions.assertThrows(ExecutionException.class,
+                        () -> asyncContainer.putAsync(1, "slow".getBytes(StandardCharsets.UTF_8), slowPut).get(30, TimeUnit.SECONDS));
+                Assertions.assertInstanceOf(OperationExpiredException.class, e.getCause());
+                Assertions.assertNull(asyncContainer.get(1, "slow", String.class));
+                // the executor drops the queued operation
+                final ContainerShardExecutor shardExecutor = asyncContainer.getShardExecutorByIndex(0);
+                final Future<Long> expiredPut = shardExecutor.executeKey(1, OperationType.WRITE, true, System.currentTimeMillis() - 1,
+                        (ops) -> ops.putKey("expired".getBytes(StandardCharsets.UTF_8), new Record()));
+                e = Assertions.assertThrows(ExecutionException.class, () -> expiredPut.get(30, TimeUnit.SECONDS));
+                Assertions.assertInstanceOf(OperationExpiredException.class, e.getCause());
+                Assertions.assertNull(asyncContainer.get(1, "expired", String.class));
+                Assertions.assertEquals(2, asyncContainer.getShardMetrics().get(0).getExpiredOperationNumber());
+                Assertions.assertEquals("value", asyncContainer.get(1, "key", String.class).getData());
+            }
+        }
+    }
+
+    @Test
+    public void priorities() throws Exception {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-priorities.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(1);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final ContainerShardExecutor shardExecutor = asyncContainer.getShardExecutorByIndex(0);
+                final List<String> started = Collections.synchronizedList(new ArrayList<>());
+                final List<Future<Boolean>> futures = new ArrayList<>();
+                // the writes wait for the reserved key slot
+                final Future<Void> reservation = shardExecutor.reserveKey(1, true);
+                ((Operation<Void>) reservation).toCompletableFuture().get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < 2; i++) {
+                    final String key = "maintenance-" + i;
+                    futures.add(shardExecutor.executeKey(1, OperationType.WRITE, OperationPriority.MAINTENANCE, true, (ops) -> {
+                        started.add(key);
+                        return true;
+                    }));
+                }
+                final List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    final String key = "interactive-" + i;
+                    futures.add(shardExecutor.executeKey(1, OperationType.WRITE, true, (ops) -> {
+                        started.add(key);
+                        return true;
+                    }));
+                    expected.add(key);
+                }
+                shardExecutor.release(reservation);
+                for (final Future<Boolean> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+                // the reservation has taken the turn of the interactive class, the second maintenance write
+                // waits for the eight interactive ones its weight is worth
+                expected.add(0, "maintenance-0");
+                expected.add(9, "maintenance-1");
+                Assertions.assertEquals(expected, started);
+                // the batch operations are limited by their budget, but all of them complete
+                final SortedMap<byte[], Record> records = new TreeMap<>(Arrays::compare);
+                for (final String key : started) {
+                    asyncContainer.put(1, key, "value");
+                    if (key.startsWith("interactive-")) {
+                        records.put(key.getBytes(StandardCharsets.UTF_8), new Record());
+                    }
+                }
+                Assertions.assertTrue(asyncContainer.removeBatch(1, records).getFailures().isEmpty());
+                Assertions.assertEquals(2, asyncContainer.removePrefix(1, "maintenance-".getBytes(StandardCharsets.UTF_8)));
+                Assertions.assertNull(asyncContainer.get(1, "interactive-0", String.class));
+            }
+        }
+    }
+
+    @Test
+    public void metrics() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-metrics.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(1);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                for (int i = 0; i < 100; i++) {
+                    asyncContainer.put(1, "key-" + i, "value-" + i);
+                }
+                for (int i = 0; i < 100; i++) {
+                    Assertions.assertEquals("value-" + i, asyncContainer.get(1, "key-" + i, String.class).getData());
+                }
+                final ExecutorMetrics metrics = media.getAsyncContainers().getMetrics();
+                Assertions.assertEquals(1, metrics.getShards().size());
+                final ShardMetrics shardMetrics = metrics.getShards().get(0);
+                Assertions.assertEquals("central", shardMetrics.getContainerName());
+                Assertions.assertEquals(0, shardMetrics.getShardIndex());
+                Assertions.assertFalse(shardMetrics.isResharding());
+                final Map<String, OperationMetrics> byKind = new HashMap<>();
+                for (final OperationMetrics operationMetrics : shardMetrics.getOperations()) {
+                    byKind.put(operationMetrics.getTarget() + " " + operationMetrics.getType(), operationMetrics);
+                }
+                Assertions.assertEquals(100, byKind.get("VALUE WRITE").getExecutionTime().getCount());
+                Assertions.assertEquals(100, byKind.get("VALUE READ").getQueueTime().getCount());
+                Assertions.assertEquals(100, byKind.get("KEY READ").getExecutionTime().getCount());
+                // the cleanup can add its own key writes
+                Assertions.assertTrue(byKind.get("KEY WRITE").getExecutionTime().getCount() >= 100);
+                final LatencyMetrics executionTime = byKind.get("KEY WRITE").getExecutionTime();
+                Assertions.assertTrue(executionTime.getP50Nanos() > 0);
+                Assertions.assertTrue(executionTime.getP50Nanos() <= executionTime.getP99Nanos());
+                Assertions.assertTrue(executionTime.getP99Nanos() <= executionTime.getMaxNanos());
+                Assertions.assertTrue(executionTime.getMeanNanos() <= executionTime.getMaxNanos());
+            }
+        }
+    }
+
+    @Test
+    public void listOrdered() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-list-ordered.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(8);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final TreeMap<byte[], Boolean> expected = new TreeMap<>(Arrays::compare);
+                for (int i = 0; i < 1000; i++) {
+                    final String key = (i % 3 == 0 ? "a-" : "b-") + getRandomString(1, 20) + "-" + i;
+                    asyncContainer.put(1, key, "value");
+                    expected.put(key.getBytes(StandardCharsets.UTF_8), true);
+                }
+                final List<byte[]> listed = new ArrayList<>();
+                String continuationToken = null;
+                int pages = 0;
+                do {
+                    final OrderedKeyList keyList = asyncContainer.listOrdered(1, null, continuationToken, 70, 100000);
+                    Assertions.assertTrue(keyList.getKeys().size() <= 70);
+                    listed.addAll(keyList.getKeys());
+                    continuationToken = keyList.getContinuationToken();
+                    Assertions.assertEquals(keyList.isMore(), continuationToken != null);
+                    pages++;
+                } while (continuationToken != null);
+                Assertions.assertEquals(15, pages);
+                Assertions.assertEquals(new ArrayList<>(expected.keySet()).size(), listed.size());
+                final Iterator<byte[]> expectedKeys = expected.keySet().iterator();
+                for (final byte[] key : listed) {
+                    Assertions.assertArrayEquals(expectedKeys.next(), key);
+                }
+                // the prefix limits the merged keys
+                final OrderedKeyList prefixed = asyncContainer.listOrdered(1, "a-".getBytes(StandardCharsets.UTF_8), null, 1000, 100000);
+                Assertions.assertFalse(prefixed.isMore());
+                Assertions.assertEquals(334, prefixed.getKeys().size());
+                Assertions.assertArrayEquals(expected.keySet().iterator().next(), prefixed.getKeys().get(0));
+                // the descending pages start from the greatest key
+                final Iterator<byte[]> descendingKeys = expected.descendingKeySet().iterator();
+                continuationToken = null;
+                do {
+                    final OrderedKeyList keyList = asyncContainer.listOrdered(1, null, continuationToken, 70, 100000, true);
+                    for (final byte[] key : keyList.getKeys()) {
+                        Assertions.assertArrayEquals(descendingKeys.next(), key);
+                    }
+                    continuationToken = keyList.getContinuationToken();
+                } while (continuationToken != null);
+                Assertions.assertFalse(descendingKeys.hasNext());
+                final OrderedKeyList latest = asyncContainer.listOrdered(1, "a-".getBytes(StandardCharsets.UTF_8), null, 5, 100000, true);
+                Assertions.assertArrayEquals(expected.headMap("b-".getBytes(StandardCharsets.UTF_8)).lastKey(), latest.getKeys().get(0));
+                Assertions.assertThrows(RoStoreException.class, () -> asyncContainer.listOrdered(1, null, "%%%", 10, 100000));
+            }
+        }
+    }
+
+    @Test
+    public void removeRange() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-remove-range.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(2);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final TreeMap<byte[], Boolean> expected = new TreeMap<>(Arrays::compare);
+                for (int i = 0; i < 3000; i++) {
+                    final String key = (i % 3 == 0 ? "a-" : "b-") + getRandomString(1, 20) + "-" + i;
+                    asyncContainer.put(1, key, "value-" + i);
+                    expected.put(key.getBytes(StandardCharsets.UTF_8), true);
+                }
+                Assertions.assertEquals(1000, asyncContainer.removePrefix(1, "a-".getBytes(StandardCharsets.UTF_8)));
+                expected.headMap("b-".getBytes(StandardCharsets.UTF_8)).clear();
+                final byte[] fromKey = "b-G".getBytes(StandardCharsets.UTF_8);
+                final byte[] toKey = "b-Q".getBytes(StandardCharsets.UTF_8);
+                final int inRange = expected.subMap(fromKey, toKey).size();
+                Assertions.assertEquals(inRange, asyncContainer.removeRange(1, fromKey, toKey));
+                expected.subMap(fromKey, toKey).clear();
+                Assertions.assertEquals(0, asyncContainer.removeRange(1, fromKey, toKey));
+                final OrderedKeyList keyList = asyncContainer.listOrdered(1, null, null, 3000, 1000000);
+                Assertions.assertEquals(expected.size(), keyList.getKeys().size());
+                final Iterator<byte[]> expectedKeys = expected.keySet().iterator();
+                for (final byte[] key : keyList.getKeys()) {
+                    Assertions.assertArrayEquals(expectedKeys.next(), key);
+                }
+                for (final byte[] key : expected.keySet()) {
+                    Assertions.assertNotNull(asyncContainer.get(1, key, String.class));
+                }
+                Assertions.assertEquals(expected.size(), asyncContainer.removePrefix(1, new byte[0]));
+                Assertions.assertEquals(0, asyncContainer.listOrdered(1, null, null, 10, 100000).getKeys().size());
+            }
+        }
+    }
+
+    @Test
+    public void bulkLoadFailure() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 100000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-bulk-load-failure.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder))) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(2);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final List<BulkLoadEntry> entries = new ArrayList<>();
+                for (int i = 0; i < 30000; i++) {
+                    final InputStream value = i == 25000 ? new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw new IOException("The value can't be read");
+                        }
+                    } : new ByteArrayInputStream(("value-" + i).getBytes(StandardCharsets.UTF_8));
+                    entries.add(new BulkLoadEntry(String.format("key-%05d", i).getBytes(StandardCharsets.UTF_8), new Record(), value));
+                }
+                Assertions.assertThrows(RuntimeException.class, () -> asyncContainer.bulkLoad(1, entries.iterator()));
+                // the values of the entries that have not been stored are removed
+                final long keyNumber = asyncContainer.list(1, (byte[]) null, null, 30000, 10000000).getKeys().size();
+                Assertions.assertTrue(keyNumber > 0 && keyNumber < 30000);
+                Assertions.assertEquals(keyNumber, asyncContainer.getStatistics(1).getKeyNumber());
+                Assertions.assertEquals(keyNumber, asyncContainer.getStatistics(1).getValueNumber());
+            }
+        }
+    }
+
+    @Test
+    public void readModifyWrite() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-read-modify-write.blck");
+        final AsyncContainerMediaProperties properties = AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder);
+        properties.getAsyncContainersProperties().setReadCacheSize(1024L * 1024L);
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, properties)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(2);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final byte[] counter = "counter".getBytes(StandardCharsets.UTF_8);
+                final List<CompletableFuture<Long>> increments = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    increments.add(asyncContainer.incrementAsync(1, counter, i % 5 == 0 ? -1 : 2, new Record()));
+                }
+                CompletableFuture.allOf(increments.toArray(new CompletableFuture[0])).join();
+                assertValue(asyncContainer, "counter", "700");
+                Assertions.assertEquals(690, asyncContainer.increment(1, counter, -10, new Record()));
+                assertValue(asyncContainer, "counter", "690");
+
+                final byte[] log = "log".getBytes(StandardCharsets.UTF_8);
+                asyncContainer.append(1, log, "a".getBytes(StandardCharsets.UTF_8), new Record());
+                asyncContainer.append(1, log, "bc".getBytes(StandardCharsets.UTF_8), new Record());
+                assertValue(asyncContainer, "log", "abc");
+                final OperationExecutionRuntimeException notNumber = Assertions.assertThrows(OperationExecutionRuntimeException.class,
+                        () -> asyncContainer.increment(1, log, 1, new Record()));
+                Assertions.assertInstanceOf(ValueFormatException.class, notNumber.getRootCause());
+
+                final byte[] cas = "cas".getBytes(StandardCharsets.UTF_8);
+                final byte[] first = "first".getBytes(StandardCharsets.UTF_8);
+                Assertions.assertTrue(asyncContainer.compareAndSet(1, cas, null, first, new Record()));
+                Assertions.assertFalse(asyncContainer.compareAndSet(1, cas, null, "other".getBytes(StandardCharsets.UTF_8), new Record()));
+                Assertions.assertFalse(asyncContainer.compareAndSet(1, cas, Utils.valueHash("other".getBytes(StandardCharsets.UTF_8)),
+                        "other".getBytes(StandardCharsets.UTF_8), new Record()));
+                Assertions.assertTrue(asyncContainer.compareAndSet(1, cas, Utils.valueHash(first), "second".getBytes(StandardCharsets.UTF_8), new Record()));
+                assertValue(asyncContainer, "cas", "second");
+            }
+        }
+    }
+
+    @Test
+    public void transactions() {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-transactions.blck");
+        final AsyncContainerMediaProperties properties = AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder);
+        properties.getAsyncContainersProperties().setReadCacheSize(1024L * 1024L);
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, properties)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(4);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final Record[] records = new Record[10];
+                Transaction transaction = new Transaction();
+                for (int i = 0; i < records.length; i++) {
+                    records[i] = new Record().version(Utils.VERSION_START);
+                    transaction.put(("account-" + i).getBytes(StandardCharsets.UTF_8), "100".getBytes(StandardCharsets.UTF_8), records[i]);
+                }
+                transaction.put("other".getBytes(StandardCharsets.UTF_8), "other".getBytes(StandardCharsets.UTF_8), new Record());
+                asyncContainer.commit(1, transaction);
+                for (int i = 0; i < records.length; i++) {
+                    assertValue(asyncContainer, "account-" + i, "100");
+                }
+
+                // the last change has a stale version, none of the changes is applied
+                transaction = new Transaction();
+                for (int i = 0; i < records.length; i++) {
+                    final long version = i == records.length - 1 ? records[i].getVersion() - 1 : records[i].getVersion();
+                    transaction.put(("account-" + i).getBytes(StandardCharsets.UTF_8), "0".getBytes(StandardCharsets.UTF_8), new Record().version(version));
+                }
+                transaction.remove("other".getBytes(StandardCharsets.UTF_8), new Record());
+                final Transaction stale = transaction;
+                final OperationExecutionRuntimeException mismatch = Assertions.assertThrows(OperationExecutionRuntimeException.class,
+                        () -> asyncContainer.commit(1, stale));
+                Assertions.assertInstanceOf(VersionMismatchException.class, mismatch.getRootCause());
+                for (int i = 0; i < records.length; i++) {
+                    assertValue(asyncContainer, "account-" + i, "100");
+                    Assertions.assertEquals(records[i].getVersion(), asyncContainer.get(1, ("account-" + i).getBytes(StandardCharsets.UTF_8), (inputStream) -> "").getRecord().getVersion());
+                }
+                assertValue(asyncContainer, "other", "other");
+
+                transaction = new Transaction();
+                transaction.put("account-0".getBytes(StandardCharsets.UTF_8), "50".getBytes(StandardCharsets.UTF_8), new Record().version(records[0].getVersion()));
+                transaction.put("account-1".getBytes(StandardCharsets.UTF_8), "150".getBytes(StandardCharsets.UTF_8), new Record().version(records[1].getVersion()));
+                transaction.remove("other".getBytes(StandardCharsets.UTF_8), new Record());
+                asyncContainer.commit(1, transaction);
+                assertValue(asyncContainer, "account-0", "50");
+                assertValue(asyncContainer, "account-1", "150");
+                assertValue(asyncContainer, "other", null);
+
+                // the transactions over the same shards in different orders do not block each other
+                final List<CompletableFuture<Void>> commits = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    final int from = i % records.length;
+                    final int to = (i * 7 + 3) % records.length;
+                    if (from == to) {
+                        continue;
+                    }
+                    commits.add(asyncContainer.commitAsync(1, new Transaction().
+                            put(("account-" + from).getBytes(StandardCharsets.UTF_8), ("" + i).getBytes(StandardCharsets.UTF_8), new Record()).
+                            put(("account-" + to).getBytes(StandardCharsets.UTF_8), ("" + i).getBytes(StandardCharsets.UTF_8), new Record())));
+                }
+                CompletableFuture.allOf(commits.toArray(new CompletableFuture[0])).join();
+                Assertions.assertTrue(asyncContainer.getShardMetrics().stream().allMatch((metrics) -> metrics.getKeyOperationNumber() == 0));
+            }
+        }
+    }
+
+    @Test
+    public void snapshotReads() throws Exception {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        File file = TestFile.createNewFile("media-async-snapshot-reads.blck");
+        final AsyncContainerMediaProperties properties = AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder);
+        properties.getAsyncContainersProperties().setReadCacheSize(1024L * 1024L);
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, properties)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(1);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                putValue(asyncContainer, "key", "published");
+                final ContainerShardExecutor shardExecutor = asyncContainer.getShardExecutorByIndex(0);
+                final CountDownLatch release = new CountDownLatch(1);
+                // the write is held in the middle, the reads do not wait for it
+                final Future<Long> write = shardExecutor.executeKey(1, OperationType.WRITE, true, (ops) -> {
+                    final long prevId = ops.putKey("other".getBytes(StandardCharsets.UTF_8), new Record());
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return prevId;
+                });
+                assertValue(asyncContainer, "key", "published");
+                Assertions.assertNull(asyncContainer.get(1, "other", String.class));
+                release.countDown();
+                write.get();
+                Assertions.assertNotNull(asyncContainer.get(1, "other".getBytes(StandardCharsets.UTF_8), (inputStream) -> "").getRecord());
+
+                // the reads never see a value that has been freed by a concurrent write
+                final ExecutorService readers = Executors.newFixedThreadPool(4);
+                final List<Future<?>> reads = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    reads.add(readers.submit(() -> {
+                        for (int j = 0; j < 500; j++) {
+                            final String value = asyncContainer.get(1, "key".getBytes(StandardCharsets.UTF_8), (inputStream) -> {
+                                try {
+                                    return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+                                } catch (final IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }).getData();
+                            Assertions.assertTrue(value.equals("published") || value.startsWith("value-"), value);
+                        }
+                    }));
+                }
+                final List<CompletableFuture<Record>> writes = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    final byte[] value = ("value-" + i).getBytes(StandardCharsets.UTF_8);
+                    writes.add(asyncContainer.putAsync(1, "key".getBytes(StandardCharsets.UTF_8), (outputStream) -> {
+                        try {
+                            outputStream.write(value);
+                            outputStream.close();
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, new Record()));
+                }
+                CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+                for (final Future<?> read : reads) {
+                    read.get();
+                }
+                readers.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void overload() throws Exception {
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096L * 10000L);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        final AsyncContainerMediaProperties properties = AsyncContainerMediaProperties.defaultContainerProperties(mediaPropertiesBuilder);
+        properties.getAsyncContainersProperties().setMaxQueuedKeyOperationsPerShard(20);
+        properties.getAsyncContainersProperties().setQueueTargetDelayMillis(10);
+        properties.getAsyncContainersProperties().setQueueIntervalMillis(50);
+        File file = TestFile.createNewFile("media-async-overload.blck");
+        try (final AsyncContainerMedia media = AsyncContainerMedia.create(file, properties, ExecutionMode.VIRTUAL_THREADS)) {
+            ContainerMeta containerMeta = new ContainerMeta();
+            containerMeta.setShardNumber(1);
+            try (final AsyncContainer asyncContainer = media.getAsyncContainers().create("central", containerMeta)) {
+                final ContainerShardExecutor shardExecutor = asyncContainer.getShardExecutorByIndex(0);
+                final CountDownLatch release = new CountDownLatch(1);
+                final List<Future<Object>> futures = new ArrayList<>();
+                futures.add(shardExecutor.execute(Operation.key(1, OperationType.WRITE, () -> {
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return null;
+                }), true));
+                for (int i = 1; i < 20; i++) {
+                    futures.add(shardExecutor.execute(Operation.key(1, OperationType.WRITE, () -> {
+                        try {
+                            Thread.sleep(20);
+                        } catch (final InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return null;
+                    }), true));
+                }
+                // the shard's queue is full
+                final OperationRejectedException full = Assertions.assertThrows(OperationRejectedException.class,
+                        () -> asyncContainer.put(1, "key", "value"));
+                Assertions.assertEquals(50, full.getRetryAfterMillis());
+                Thread.sleep(50);
+                release.countDown();
+                // the queue is not full anymore, but it is worked off too slowly
+                Thread.sleep(150);
+                final OperationRejectedException slow = Assertions.assertThrows(OperationRejectedException.class,
+                        () -> asyncContainer.put(1, "key", "value"));
+                Assertions.assertTrue(slow.getMessage().contains("not worked off"));
+                for (final Future<Object> future : futures) {
+                    future.get();
+                }
+                // the empty queue accepts the requests again
+                asyncContainer.put(1, "key", "value");
+                Assertions.assertEquals("value", asyncContainer.get(1, "key", String.class).getData());
+            }
+        }
+    }
+
+    /**
+     * Produces the value byte by byte, waiting before each of them
+     */
+    private static class SlowInputStream extends InputStream {
+
+        private int remaining;
+        private final long delayMillis;
+
+        SlowInputStream(final int size, final long delayMillis) {
+            this.remaining = size;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            remaining--;
+            return 'x';
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int c = read();
+            if (c == -1) {
+                return -1;
+            }
+            b[off] = (byte) c;
+            return 1;
+        }
+    }
+
+    private static SortedMap<byte[], DataWithRecord<InputStream>> entries(final int from, final int to, final String valuePrefix) {
+        final SortedMap<byte[], DataWithRecord<InputStream>> entries = new TreeMap<>(Arrays::compare);
+        for (int i = from; i < to; i++) {
+            entries.put(("key-" + i).getBytes(StandardCharsets.UTF_8),
+                    new DataWithRecord<>(new Record(), new ByteArrayInputStream((valuePrefix + i).getBytes(StandardCharsets.UTF_8))));
+        }
+        return entries;
+    }
+
+    private static void assertValue(final AsyncContainer asyncContainer, final String key, final String expected) {
+        final int length = expected != null ? expected.length() : 0;
+        final DataWithRecord<String> data = asyncContainer.get(1, key.getBytes(StandardCharsets.UTF_8), (inputStream) -> {
+            try {
+                return new String(inputStream.readNBytes(length), StandardCharsets.UTF_8);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Assertions.assertEquals(expected, data != null ? data.getData() : null);
+    }
+
     private static String getRandomString(int lengthMin, int lengthMax) {
         final int length = (int)(Math.random() * (lengthMax - lengthMin + 1) + lengthMin);
         final StringBuilder sb = new StringBuilder();
@@ -6,6 +6,7 @@ import org.rostore.client.*;
 import org.rostore.entity.apikey.ApiKeyPermissions;
 import org.rostore.entity.media.ContainerMeta;
 import org.rostore.entity.media.RecordOption;
+import org.rostore.entity.media.ShardRouting;
 
 import java.io.*;
 import java.text.SimpleDateFormat;
@@ -73,6 +74,7 @@ public class Cli {
         options.addOption("mt", "max-ttl", true, "specify max ttl for container creation in java duration format");
         options.addOption("ms", "max-size", true, "specify max size for container creation");
         options.addOption("sn", "shard-number", true, "specify shard number for container creation");
+        options.addOption("sr", "shard-routing", true, "specify shard routing for container creation (LEGACY or MURMUR3)");
         options.addOption("tp", "target-profile", true, "specify target profile (profile in .store directory or a plain file)");
         options.addOption("c", "container", true, "specify container");
         options.addOption("tc", "target-container", true, "specify container");
@@ -239,6 +241,10 @@ public class Cli {
         if (cmd.hasOption("sn")) {
             shardNumber = Integer.parseInt(cmd.getOptionValue("sn"));
         }
+        ShardRouting shardRouting = ShardRouting.LEGACY;
+        if (cmd.hasOption("sr")) {
+            shardRouting = ShardRouting.valueOf(cmd.getOptionValue("sr"));
+        }
         if (verbose) {
             print("Create container:");
             print(" container:   " + cmd.getOptionValue("c"));
@@ -253,11 +259,13 @@ public class Cli {
                 print(" maxTTL:      unlimited");
             }
             print(" shardNumber: " + shardNumber);
+            print(" shardRouting: " + shardRouting);
         }
         final ContainerMeta containerMeta = new ContainerMeta();
         containerMeta.setShardNumber(shardNumber);
         containerMeta.setMaxTTL(maxTTL);
         containerMeta.setMaxSize(maxSize);
+        containerMeta.setShardRouting(shardRouting);
         final GeneralContainer container = roStoreClient.getGeneralContainer(cmd.getOptionValue("c"));
         container.create(containerMeta);
     }
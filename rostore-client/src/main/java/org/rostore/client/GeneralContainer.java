@@ -64,6 +64,7 @@ public class GeneralContainer<K> {
         containerMeta.setCreationTime(containerMetaCompatibility.getCreationTime());
         containerMeta.setMaxSize(containerMetaCompatibility.getMaxSize());
         containerMeta.setMaxTTL(containerMetaCompatibility.getMaxTTL());
+        containerMeta.setShardRouting(containerMetaCompatibility.getShardRouting());
         if (containerMetaCompatibility.getShardNumber() != 0) {
             containerMeta.setShardNumber(containerMetaCompatibility.getShardNumber());
         } else {
@@ -106,6 +107,40 @@ public class GeneralContainer<K> {
         );
     }
 
+    /**
+     * Lists the keys within the container in the order of the keys.
+     *
+     * <p>The list of keys can be incomplete. Check {@link StringKeyList#isMore()}, it is set to {@code true} if
+     * more entries are available. {@param continuationToken} in the consequent call should be
+     * {@link StringKeyList#getContinuationToken()} from the previous call with the same order.</p>
+     *
+     * @param startWithKey defines the prefix for the keys
+     * @param continuationToken provides the token from the previous call
+     * @param descending {@code true} to list the keys starting from the greatest one
+     *
+     * @return the partial list of the keys in the requested order
+     */
+    public StringKeyList listKeysOrdered(final String startWithKey, final String continuationToken, final boolean descending) {
+        StringBuilder builder = new StringBuilder("/container/");
+        builder.append(name).append("/keys?ordered=true");
+        if (descending) {
+            builder.append("&descending=true");
+        }
+        if (startWithKey != null) {
+            builder.append("&start-with-key=");
+            builder.append(startWithKey);
+        }
+        if (continuationToken != null) {
+            builder.append("&continuation-token=");
+            builder.append(continuationToken);
+        }
+        String path = builder.toString();
+        RequestProperties requestProperties = roStoreClient.create(path).contentType(ContentType.JSON.getMediaType());
+        return roStoreClient.get(requestProperties, (httpResponse) ->
+            roStoreClient.getJsonMapper().toObject(RoStoreClient.getInputStream(httpResponse), StringKeyList.class, "key-list")
+        );
+    }
+
     /**
      * Updates the given entity
      *
@@ -12,12 +12,14 @@ import java.util.List;
  * <p>The sorting of the keys in the list returned is not guaranteed.</p>
  * <p>If {@link #isMore()} is true, there are more keys in the storage, and the pagination
  * is expected to return more results.</p>
- * <p>To continue the listing the {@link #getContinuationKey()} should be used.</p>
+ * <p>To continue the listing the {@link #getContinuationKey()} should be used, or
+ * the {@link #getContinuationToken()} if the keys have been listed in order.</p>
  */
 public class StringKeyList {
 
     private List<String> keys = new ArrayList<>();
     private boolean more = false;
+    private String continuationToken;
 
     public StringKeyList() {
     }
@@ -48,6 +50,20 @@ public class StringKeyList {
         this.more = more;
     }
 
+    /**
+     * Provides the token to request the next page of the ordered listing,
+     * see {@link GeneralContainer#listKeysOrdered(String, String, boolean)}
+     *
+     * @return the token or {@code null} if there are no more keys or the keys are not ordered
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
     /**
      * Provides a continuation key for the next call
      * @return the continuation key or {@code null}
@@ -0,0 +1,55 @@
+package org.rostore.entity;
+
+/**
+ * The space usage of the container, combines the {@link BlockAllocation} of the container's
+ * blocks with the {@link ContainerStatistics} of its keys and values.
+ */
+public class ContainerSpaceState implements BlockAllocation {
+
+    private final BlockAllocationState blockAllocationState;
+    private final ContainerStatistics statistics;
+
+    /**
+     * Creates the space state object
+     *
+     * @param blockAllocationState the allocation of the blocks
+     * @param statistics the statistics of the keys and values
+     */
+    public ContainerSpaceState(final BlockAllocationState blockAllocationState, final ContainerStatistics statistics) {
+        this.blockAllocationState = blockAllocationState;
+        this.statistics = statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPayloadSize() {
+        return blockAllocationState.getPayloadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalLockedSize() {
+        return blockAllocationState.getTotalLockedSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLockedFreeSize() {
+        return blockAllocationState.getLockedFreeSize();
+    }
+
+    /**
+     * The statistics of the keys and values
+     *
+     * @return the statistics
+     */
+    public ContainerStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,198 @@
+package org.rostore.entity;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The counters of the keys and values stored in the container or one of its shards.
+ * <p>The counters are maintained on every put and remove, so no scan is needed to get them.</p>
+ * <p>The keys that have expired, but have not yet been cleaned up are included in {@link #getKeyNumber()},
+ * {@link #getExpiredKeyNumber()} is only estimated on request.</p>
+ */
+public class ContainerStatistics {
+
+    /**
+     * The number of buckets in the value size histogram.
+     * <p>The bucket {@code 0} counts the values smaller than 64 bytes, every next bucket
+     * counts the values up to the double size, the last one counts all the values of 1MB and more.</p>
+     */
+    public static final int VALUE_SIZE_BUCKETS = 16;
+
+    private static final int FIRST_BUCKET_BITS = 6;
+
+    private long keyNumber, keySize, expiredKeyNumber, valueNumber, valueSize;
+
+    private final long[] valueSizeHistogram = new long[VALUE_SIZE_BUCKETS];
+
+    public static ContainerStatistics init() {
+        return new ContainerStatistics();
+    }
+
+    /**
+     * Reads the counters as written by {@link #writeTo(DataOutput)}
+     *
+     * @param dataInput the input to read from
+     * @return the statistics object
+     * @throws IOException if the input can't be read
+     */
+    public static ContainerStatistics readFrom(final DataInput dataInput) throws IOException {
+        final ContainerStatistics containerStatistics = new ContainerStatistics();
+        containerStatistics.keyNumber = dataInput.readLong();
+        containerStatistics.keySize = dataInput.readLong();
+        containerStatistics.valueNumber = dataInput.readLong();
+        containerStatistics.valueSize = dataInput.readLong();
+        for (int i = 0; i < VALUE_SIZE_BUCKETS; i++) {
+            containerStatistics.valueSizeHistogram[i] = dataInput.readLong();
+        }
+        return containerStatistics;
+    }
+
+    /**
+     * Writes the maintained counters, the estimated {@link #getExpiredKeyNumber()} is not written
+     *
+     * @param dataOutput the output to write to
+     * @throws IOException if the output can't be written
+     */
+    public synchronized void writeTo(final DataOutput dataOutput) throws IOException {
+        dataOutput.writeLong(keyNumber);
+        dataOutput.writeLong(keySize);
+        dataOutput.writeLong(valueNumber);
+        dataOutput.writeLong(valueSize);
+        for (int i = 0; i < VALUE_SIZE_BUCKETS; i++) {
+            dataOutput.writeLong(valueSizeHistogram[i]);
+        }
+    }
+
+    private ContainerStatistics() {
+    }
+
+    /**
+     * Computes the histogram bucket for the value size
+     *
+     * @param size the size of the value in bytes
+     * @return the index of the bucket
+     */
+    public static int getValueSizeBucket(final long size) {
+        final int bucket = 64 - Long.numberOfLeadingZeros(size) - FIRST_BUCKET_BITS;
+        return Math.min(VALUE_SIZE_BUCKETS - 1, Math.max(0, bucket));
+    }
+
+    public synchronized void keyAdded(final int keyLength) {
+        keyNumber++;
+        keySize += keyLength;
+    }
+
+    public synchronized void keyRemoved(final int keyLength) {
+        keyNumber--;
+        keySize -= keyLength;
+    }
+
+    public synchronized void valueAdded(final long size) {
+        valueNumber++;
+        valueSize += size;
+        valueSizeHistogram[getValueSizeBucket(size)]++;
+    }
+
+    public synchronized void valueRemoved(final long size) {
+        valueNumber--;
+        valueSize -= size;
+        valueSizeHistogram[getValueSizeBucket(size)]--;
+    }
+
+    public synchronized void setExpiredKeyNumber(final long expiredKeyNumber) {
+        this.expiredKeyNumber = expiredKeyNumber;
+    }
+
+    /**
+     * Adds the counters from the provided object to this object
+     *
+     * @param containerStatistics the provided object
+     */
+    public synchronized void plus(final ContainerStatistics containerStatistics) {
+        synchronized (containerStatistics) {
+            keyNumber += containerStatistics.keyNumber;
+            keySize += containerStatistics.keySize;
+            expiredKeyNumber += containerStatistics.expiredKeyNumber;
+            valueNumber += containerStatistics.valueNumber;
+            valueSize += containerStatistics.valueSize;
+            for (int i = 0; i < VALUE_SIZE_BUCKETS; i++) {
+                valueSizeHistogram[i] += containerStatistics.valueSizeHistogram[i];
+            }
+        }
+    }
+
+    /**
+     * The number of keys stored, including the expired ones that are not yet cleaned up
+     *
+     * @return the number of keys
+     */
+    public synchronized long getKeyNumber() {
+        return keyNumber;
+    }
+
+    /**
+     * The number of keys that are not expired
+     *
+     * @return the number of keys
+     */
+    public synchronized long getLiveKeyNumber() {
+        return keyNumber - expiredKeyNumber;
+    }
+
+    /**
+     * The estimated number of keys that have expired, but are not yet cleaned up
+     *
+     * @return the number of keys
+     */
+    public synchronized long getExpiredKeyNumber() {
+        return expiredKeyNumber;
+    }
+
+    /**
+     * The total size of the stored keys
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getKeySize() {
+        return keySize;
+    }
+
+    /**
+     * The number of values stored
+     *
+     * @return the number of values
+     */
+    public synchronized long getValueNumber() {
+        return valueNumber;
+    }
+
+    /**
+     * The total size of the stored values
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * The number of values by their size, see {@link #VALUE_SIZE_BUCKETS}
+     *
+     * @return the copy of the histogram
+     */
+    public synchronized long[] getValueSizeHistogram() {
+        return valueSizeHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "ContainerStatistics{" +
+                "keys=" + keyNumber +
+                ", expiredKeys=" + expiredKeyNumber +
+                ", keySize=" + keySize +
+                ", values=" + valueNumber +
+                ", valueSize=" + valueSize +
+                '}';
+    }
+}
@@ -25,8 +25,18 @@ public class OptionMismatchException extends RoStoreException {
      * @param record a record with options as it expected to be executed
      */
     public static void checkUpdateRecord(final KeyBlockEntry entry, final Record record) {
+        checkUpdateRecord(entry.isExpired(), record);
+    }
+
+    /**
+     * Checks options when an entry should be updated and throws an exception if the state is invalid (update is not allowed).
+     *
+     * @param expired {@code true} if the entry where the operation should be executed is expired
+     * @param record a record with options as it expected to be executed
+     */
+    public static void checkUpdateRecord(final boolean expired, final Record record) {
         if (record.hasOption(RecordOption.ONLY_INSERT)) {
-            if (!entry.isExpired()) {
+            if (!expired) {
                 throw new OptionMismatchException("Record id=" + record.getId() + " can't be inserted, but replaced.", record);
             }
         }
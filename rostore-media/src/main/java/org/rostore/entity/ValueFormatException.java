@@ -0,0 +1,16 @@
+package org.rostore.entity;
+
+/**
+ * Exception is thrown if the stored value can't be interpreted
+ * as required by the operation, e.g. the value to increment is not a number.
+ */
+public class ValueFormatException extends RoStoreException {
+
+    public ValueFormatException(final String message) {
+        super(message);
+    }
+
+    public ValueFormatException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
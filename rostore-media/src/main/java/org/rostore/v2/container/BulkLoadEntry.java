@@ -0,0 +1,55 @@
+package org.rostore.v2.container;
+
+import org.rostore.entity.Record;
+
+import java.io.InputStream;
+
+/**
+ * Represents one key-value pair of the bulk load, see {@link ContainerShard#bulkLoad(java.util.Iterator, double)}
+ */
+public class BulkLoadEntry {
+
+    private final byte[] key;
+    private final Record record;
+    private final InputStream value;
+
+    /**
+     * Creates an entry
+     *
+     * @param key the key data
+     * @param record the properties of the key-value pair (ttl, options, versions)
+     * @param value the stream with the value data or {@code null} if the id of the record should be stored as is
+     */
+    public BulkLoadEntry(final byte[] key, final Record record, final InputStream value) {
+        this.key = key;
+        this.record = record;
+        this.value = value;
+    }
+
+    /**
+     * Provides the key data
+     *
+     * @return the key
+     */
+    public byte[] getKey() {
+        return key;
+    }
+
+    /**
+     * Provides the metadata of the entry
+     *
+     * @return the record
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * Provides the value data
+     *
+     * @return the stream with the value data or {@code null}
+     */
+    public InputStream getValue() {
+        return value;
+    }
+}
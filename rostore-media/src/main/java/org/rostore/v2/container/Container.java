@@ -1,13 +1,18 @@
 package org.rostore.v2.container;
 
 import org.rostore.entity.BlockAllocationState;
+import org.rostore.entity.ContainerStatistics;
 import org.rostore.entity.RoStoreException;
 import org.rostore.entity.media.ContainerMeta;
+import org.rostore.entity.media.ShardRouting;
 import org.rostore.v2.media.Closeable;
 import org.rostore.v2.media.Media;
 import org.rostore.v2.media.block.allocator.Properties;
 import org.rostore.v2.media.block.container.Status;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,20 +27,42 @@ public class Container implements Closeable {
 
     private final ContainerDescriptor descriptor;
     private final ContainerListOperations containerListOperations;
-    private final ContainerShard[] shards;
+    private volatile ContainerShard[] shards;
+    private ContainerShard[] reshardingShards;
     private final String name;
 
     private Status status = Status.OPENED;
 
-    public BlockAllocationState getBlockAllocation() {
+    public synchronized BlockAllocationState getBlockAllocation() {
         final BlockAllocationState memoryAllocationState = BlockAllocationState.init();
         for(int i = 0; i< descriptor.getContainerMeta().getShardNumber(); i++) {
             final ContainerShard containerShard = getShard(i);
             memoryAllocationState.plus(containerShard.getBlockAllocation());
         }
+        for(int i = 0; i< descriptor.getReshardingShardNumber(); i++) {
+            memoryAllocationState.plus(getReshardingShard(i).getBlockAllocation());
+        }
         return memoryAllocationState;
     }
 
+    /**
+     * Aggregates the statistics of all the shards of the container.
+     * <p>The counters are maintained on every operation, so no keys are visited. The number
+     * of expired keys is not estimated, see {@link ContainerShardKeyOperations#countExpiredKeys(int)}.</p>
+     *
+     * @return the statistics of the container's keys and values
+     */
+    public synchronized ContainerStatistics getStatistics() {
+        final ContainerStatistics containerStatistics = ContainerStatistics.init();
+        for(int i = 0; i< descriptor.getContainerMeta().getShardNumber(); i++) {
+            containerStatistics.plus(getShard(i).getStatistics());
+        }
+        for(int i = 0; i< descriptor.getReshardingShardNumber(); i++) {
+            containerStatistics.plus(getReshardingShard(i).getStatistics());
+        }
+        return containerStatistics;
+    }
+
     /**
      * The name of the container.
      *
@@ -93,6 +120,18 @@ public class Container implements Closeable {
         }
     }
 
+    /**
+     * Upgrades the shards created by the earlier versions and stores the descriptor in the current format.
+     * <p>Every such shard gets its expiry index and its statistics when it is opened.</p>
+     */
+    protected synchronized void upgrade() {
+        for (int i = 0; i < descriptor.getContainerMeta().getShardNumber(); i++) {
+            descriptor.getShardDescriptors().set(i, getShard(i).getDescriptor());
+        }
+        containerListOperations.updateDescriptor(this);
+        logger.info("The container \"" + name + "\" has been upgraded to the descriptor format version " + ContainerDescriptor.FORMAT_VERSION + ".");
+    }
+
     /**
      * This one opens up the container if it has already been created.
      *
@@ -105,6 +144,7 @@ public class Container implements Closeable {
         this.containerListOperations = containerListOperations;
         this.descriptor = descriptor;
         shards = new ContainerShard[descriptor.getContainerMeta().getShardNumber()];
+        reshardingShards = new ContainerShard[descriptor.getReshardingShardNumber()];
     }
 
     protected void remove() {
@@ -115,6 +155,9 @@ public class Container implements Closeable {
             }
             shard.remove();
         }
+        for(int i=0; i<reshardingShards.length; i++) {
+            getReshardingShard(i).remove();
+        }
     }
 
     /**
@@ -133,6 +176,7 @@ public class Container implements Closeable {
         this.containerListOperations = containerListOperations;
         this.descriptor = new ContainerDescriptor(containerMeta);
         shards = new ContainerShard[descriptor.getContainerMeta().getShardNumber()];
+        reshardingShards = new ContainerShard[0];
         try {
             for (int i = 0; i < descriptor.getContainerMeta().getShardNumber(); i++) {
                 final ContainerShard containerShard = ContainerShard.create(this, i);
@@ -176,12 +220,131 @@ public class Container implements Closeable {
         return shard;
     }
 
+    /**
+     * Checks if the keys of the container are being moved to a new set of shards
+     *
+     * @return {@code true} if the resharding has been started and is not completed yet
+     */
+    public synchronized boolean isResharding() {
+        return descriptor.getReshardingShardNumber() != 0;
+    }
+
+    /**
+     * Requests the shard the container is being resharded to by index.
+     *
+     * @param shardIndex the shard's index in the target set of shards
+     * @return the container's target shard
+     */
+    public synchronized ContainerShard getReshardingShard(final int shardIndex) {
+        if (shardIndex < 0 || shardIndex >= reshardingShards.length) {
+            throw new RoStoreException("There is no resharding shard with index=" + shardIndex + ", max=" + reshardingShards.length);
+        }
+        ContainerShard shard = reshardingShards[shardIndex];
+        if (shard == null) {
+            shard = ContainerShard.open(this, shardIndex, descriptor.getReshardingShardDescriptors().get(shardIndex));
+            reshardingShards[shardIndex] = shard;
+        }
+        return shard;
+    }
+
+    /**
+     * Creates a new set of shards the keys of the container will be moved to.
+     *
+     * <p>The new shards are stored in the {@link ContainerDescriptor} together with the current ones,
+     * so that the resharding can be continued after the container has been reopened. Moving
+     * the keys is the responsibility of the caller, see {@link #completeResharding()}.</p>
+     *
+     * @param shardNumber the number of the new shards
+     * @param shardRouting the routing of the keys to the new shards
+     */
+    public synchronized void startResharding(final int shardNumber, final ShardRouting shardRouting) {
+        if (isResharding()) {
+            throw new RoStoreException("The container \"" + name + "\" is already being resharded to " +
+                    descriptor.getReshardingShardNumber() + " shards.");
+        }
+        if (shardNumber <= 0) {
+            throw new RoStoreException("Invalid number of shards " + shardNumber + " for the container \"" + name + "\".");
+        }
+        final ContainerShard[] newShards = new ContainerShard[shardNumber];
+        try {
+            for (int i = 0; i < shardNumber; i++) {
+                newShards[i] = ContainerShard.create(this, i);
+                descriptor.getReshardingShardDescriptors().add(newShards[i].getDescriptor());
+            }
+            descriptor.setReshardingShardNumber(shardNumber);
+            descriptor.setReshardingShardRouting(shardRouting);
+            containerListOperations.updateDescriptor(this);
+        } catch (final Exception e) {
+            descriptor.setReshardingShardNumber(0);
+            descriptor.setReshardingShardRouting(null);
+            descriptor.getReshardingShardDescriptors().clear();
+            for (final ContainerShard shard : newShards) {
+                if (shard != null) {
+                    shard.remove();
+                }
+            }
+            throw e;
+        }
+        reshardingShards = newShards;
+    }
+
+    /**
+     * Makes the shards the container has been resharded to the current ones.
+     *
+     * <p>The updated {@link ContainerDescriptor} is persisted before the previous shards are
+     * returned, so the switch happens at once. The previous shards should already be empty,
+     * the caller should remove them with {@link ContainerShard#remove()} as soon as they are not in use anymore.</p>
+     *
+     * @return the previous shards of the container
+     */
+    public synchronized ContainerShard[] completeResharding() {
+        if (!isResharding()) {
+            throw new RoStoreException("The container \"" + name + "\" is not being resharded.");
+        }
+        final ContainerShard[] previousShards = new ContainerShard[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            previousShards[i] = getShard(i);
+        }
+        final ContainerShard[] newShards = new ContainerShard[reshardingShards.length];
+        for (int i = 0; i < reshardingShards.length; i++) {
+            newShards[i] = getReshardingShard(i);
+        }
+        final ContainerMeta containerMeta = descriptor.getContainerMeta();
+        final List<ContainerShardDescriptor> previousShardDescriptors = new ArrayList<>(descriptor.getShardDescriptors());
+        final int previousShardNumber = containerMeta.getShardNumber();
+        final ShardRouting previousShardRouting = containerMeta.getShardRouting();
+        descriptor.getShardDescriptors().clear();
+        descriptor.getShardDescriptors().addAll(descriptor.getReshardingShardDescriptors());
+        containerMeta.setShardNumber(descriptor.getReshardingShardNumber());
+        containerMeta.setShardRouting(descriptor.getReshardingShardRouting());
+        descriptor.getReshardingShardDescriptors().clear();
+        descriptor.setReshardingShardNumber(0);
+        descriptor.setReshardingShardRouting(null);
+        try {
+            containerListOperations.updateDescriptor(this);
+        } catch (final Exception e) {
+            descriptor.getReshardingShardDescriptors().addAll(descriptor.getShardDescriptors());
+            descriptor.setReshardingShardNumber(containerMeta.getShardNumber());
+            descriptor.setReshardingShardRouting(containerMeta.getShardRouting());
+            descriptor.getShardDescriptors().clear();
+            descriptor.getShardDescriptors().addAll(previousShardDescriptors);
+            containerMeta.setShardNumber(previousShardNumber);
+            containerMeta.setShardRouting(previousShardRouting);
+            throw e;
+        }
+        shards = newShards;
+        reshardingShards = new ContainerShard[0];
+        return previousShards;
+    }
+
     /**
      * Use {@link Container#close()} to close the containers.
      */
     protected void closeInternal() {
         status = Status.CLOSED;
-        for(final ContainerShard shard : shards) {
+        final List<ContainerShard> allShards = new ArrayList<>(Arrays.asList(shards));
+        allShards.addAll(Arrays.asList(reshardingShards));
+        for(final ContainerShard shard : allShards) {
             try {
                 if (shard != null) {
                     shard.close();
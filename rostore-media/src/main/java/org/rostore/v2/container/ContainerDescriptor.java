@@ -1,7 +1,16 @@
 package org.rostore.v2.container;
 
+import org.rostore.entity.RoStoreException;
 import org.rostore.entity.media.ContainerMeta;
+import org.rostore.entity.media.ShardRouting;
+import org.rostore.mapper.BinaryMapper;
+import org.rostore.v2.data.DataReader;
+import org.rostore.v2.data.DataWriter;
+import org.rostore.v2.media.Media;
+import org.rostore.v2.media.block.allocator.BlockAllocator;
 
+import java.io.ByteArrayInputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,15 +20,33 @@ import java.util.List;
  *
  * <p>It contains all the information about he container internal structure,
  * as well as the metadata provided at the creation phase.</p>
- * <p>This class is persisted and should only be changed only on the
- * new storages, as it would change the persistence structure.</p>
+ * <p>This class is persisted with the {@link #FORMAT_VERSION} in front of it. Any change of its
+ * fields changes the persistence structure, so it requires a new version, and the previous one
+ * should still be read, see {@link #read(Media, long)}.</p>
  */
 public class ContainerDescriptor {
 
+    /**
+     * The version of the layout written by {@link #write(BlockAllocator, ContainerDescriptor)}
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * The first byte of the descriptors stored before the version has been introduced,
+     * it is the marker of a non-null object written by {@link BinaryMapper}, see {@link LegacyContainerDescriptor}
+     */
+    private static final int LEGACY_FORMAT_VERSION = 1;
+
     private ContainerMeta containerMeta;
 
     private List<ContainerShardDescriptor> shardDescriptors;
 
+    private int reshardingShardNumber;
+
+    private ShardRouting reshardingShardRouting;
+
+    private List<ContainerShardDescriptor> reshardingShardDescriptors;
+
     public ContainerDescriptor(final ContainerMeta containerMeta) {
         this.containerMeta = containerMeta;
     }
@@ -29,6 +56,60 @@ public class ContainerDescriptor {
      */
     public ContainerDescriptor() {}
 
+    /**
+     * Stores the descriptor in the current format
+     *
+     * @param blockAllocator the allocator to store the descriptor with
+     * @param containerDescriptor the descriptor to store
+     * @return the index of the first block of the stored descriptor
+     */
+    public static long write(final BlockAllocator blockAllocator, final ContainerDescriptor containerDescriptor) {
+        return DataWriter.safeWriter(blockAllocator, (dataWriter) -> {
+            dataWriter.write(FORMAT_VERSION);
+            dataWriter.writeObject(containerDescriptor);
+        });
+    }
+
+    /**
+     * Reads the descriptor stored by {@link #write(BlockAllocator, ContainerDescriptor)} or by the earlier versions
+     * that have had no format version.
+     * <p>The descriptor of the earlier version is converted to the current layout, see {@link LegacyContainerDescriptor#toContainerDescriptor()}.</p>
+     *
+     * @param media the media to read from
+     * @param startIndex the index of the first block of the descriptor
+     * @return the descriptor in the current layout
+     */
+    public static ContainerDescriptor read(final Media media, final long startIndex) {
+        try (final DataReader dataReader = DataReader.open(media, startIndex)) {
+            final int version = dataReader.read();
+            switch (version) {
+                case FORMAT_VERSION:
+                    return dataReader.readObject(ContainerDescriptor.class);
+                case LEGACY_FORMAT_VERSION:
+                    final LegacyContainerDescriptor legacyContainerDescriptor = BinaryMapper.deserialize(media.getMediaProperties().getMapperProperties(),
+                            LegacyContainerDescriptor.class,
+                            new SequenceInputStream(new ByteArrayInputStream(new byte[]{(byte) version}), dataReader));
+                    return legacyContainerDescriptor.toContainerDescriptor();
+                default:
+                    throw new RoStoreException("The container descriptor of the format version " + version + " is not supported.");
+            }
+        }
+    }
+
+    /**
+     * Checks if the descriptor has been read from the layout of the earlier versions and has not been stored again.
+     *
+     * @return {@code true} if any of the shards have been created by the earlier versions
+     */
+    public boolean isLegacy() {
+        for (final ContainerShardDescriptor shardDescriptor : getShardDescriptors()) {
+            if (shardDescriptor.isLegacy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * The metadata provided at the container creation
      * @return the metadata of the container
@@ -52,4 +133,42 @@ public class ContainerDescriptor {
         }
         return shardDescriptors;
     }
+
+    /**
+     * The number of shards the container is being resharded to
+     *
+     * @return the target number of shards or {@code 0} if no resharding is in progress
+     */
+    public int getReshardingShardNumber() {
+        return reshardingShardNumber;
+    }
+
+    public void setReshardingShardNumber(int reshardingShardNumber) {
+        this.reshardingShardNumber = reshardingShardNumber;
+    }
+
+    /**
+     * The routing of the keys to the shards the container is being resharded to
+     *
+     * @return the target shard routing
+     */
+    public ShardRouting getReshardingShardRouting() {
+        return reshardingShardRouting;
+    }
+
+    public void setReshardingShardRouting(ShardRouting reshardingShardRouting) {
+        this.reshardingShardRouting = reshardingShardRouting;
+    }
+
+    /**
+     * A list of shard descriptors of the shards the container is being resharded to
+     *
+     * @return a list of shard descriptors, empty if no resharding is in progress
+     */
+    public List<ContainerShardDescriptor> getReshardingShardDescriptors() {
+        if (reshardingShardDescriptors == null) {
+            reshardingShardDescriptors = new ArrayList<>();
+        }
+        return reshardingShardDescriptors;
+    }
 }
@@ -6,7 +6,6 @@ import org.rostore.entity.media.ContainerListProperties;
 import org.rostore.entity.media.ContainerMeta;
 import org.rostore.entity.media.RecordOption;
 import org.rostore.v2.data.DataReader;
-import org.rostore.v2.data.DataWriter;
 import org.rostore.v2.keys.KeyBlockOperations;
 import org.rostore.v2.keys.KeyList;
 import org.rostore.v2.keys.RecordLengths;
@@ -81,8 +80,12 @@ public class ContainerListOperations implements AutoCloseable {
                 if (record == null) {
                     return null;
                 }
-                final ContainerDescriptor containerDescriptor = DataReader.readObject(getMedia(), record.getId(), ContainerDescriptor.class);
-                return new Container(this, containerName, containerDescriptor);
+                final ContainerDescriptor containerDescriptor = ContainerDescriptor.read(getMedia(), record.getId());
+                final Container container = new Container(this, containerName, containerDescriptor);
+                if (containerDescriptor.isLegacy()) {
+                    container.upgrade();
+                }
+                return container;
             } finally {
                 keyBlockOperations.commit();
             }
@@ -136,7 +139,7 @@ public class ContainerListOperations implements AutoCloseable {
                     try {
                         final Container container = new Container(this, containerName, containerMeta);
                         try {
-                            long id = DataWriter.writeObject(getMedia().getRootBlockAllocator(), container.getDescriptor());
+                            long id = ContainerDescriptor.write(getMedia().getRootBlockAllocator(), container.getDescriptor());
                             record = new Record().id(id).addOption(RecordOption.ONLY_INSERT);
                             keyBlockOperations.put(containerName.getBytes(StandardCharsets.UTF_8), record);
                             return container;
@@ -163,6 +166,34 @@ public class ContainerListOperations implements AutoCloseable {
             });
     }
 
+    /**
+     * Stores the modified {@link ContainerDescriptor} of an existing container.
+     * <p>The new descriptor is written first and then replaces the previous one in the list,
+     * so the container is loaded either with the previous or with the new descriptor.</p>
+     *
+     * @param container the container which descriptor has been changed
+     */
+    protected synchronized void updateDescriptor(final Container container) {
+        try {
+            final long id = ContainerDescriptor.write(getMedia().getRootBlockAllocator(), container.getDescriptor());
+            final long prevId;
+            try {
+                prevId = keyBlockOperations.put(container.getName().getBytes(StandardCharsets.UTF_8),
+                        new Record().id(id).addOption(RecordOption.ONLY_REPLACE));
+            } catch (final Exception e) {
+                try (final DataReader dr = DataReader.open(getMedia().getRootBlockAllocator(), id)) {
+                    dr.free();
+                }
+                throw e;
+            }
+            try (final DataReader dr = DataReader.open(getMedia().getRootBlockAllocator(), prevId)) {
+                dr.free();
+            }
+        } finally {
+            keyBlockOperations.commit();
+        }
+    }
+
     /**
      * Should only be used internally
      * @param name
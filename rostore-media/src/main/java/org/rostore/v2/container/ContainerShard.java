@@ -1,23 +1,38 @@
 package org.rostore.v2.container;
 
+import org.rostore.Utils;
 import org.rostore.entity.BlockAllocation;
+import org.rostore.entity.ContainerStatistics;
 import org.rostore.entity.Record;
 import org.rostore.entity.RoStoreException;
 import org.rostore.v2.data.DataReader;
+import org.rostore.v2.data.DataTransferException;
 import org.rostore.v2.data.DataWriter;
+import org.rostore.v2.keys.ExpiryIndexOperations;
+import org.rostore.v2.keys.KeyBlockLatchException;
+import org.rostore.v2.keys.KeyBlockLatches;
 import org.rostore.v2.keys.KeyBlockOperations;
 import org.rostore.v2.keys.RecordLengths;
 import org.rostore.v2.media.Closeable;
 import org.rostore.v2.media.Media;
+import org.rostore.v2.media.MediaProperties;
 import org.rostore.v2.media.block.allocator.BlockAllocator;
 import org.rostore.v2.media.block.container.Status;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -30,6 +45,10 @@ import java.util.function.Function;
  * <p>The shards are using their own {@link BlockAllocator}, which allows the independent allocation of the
  * blocks and also allows to remove the shard without knowing of its internal structure. Everything
  * stored with this allocator can be removed when the allocator is removed.</p>
+ * <p>The key reads run on a consistent snapshot of the keys: a key write changes the copies of the key blocks,
+ * which are only published once the write is over (see {@link #keyFunction(Function)}). The reads only wait
+ * for the publishing, never for the write itself. The published key blocks are flushed once the reads and the next
+ * write can go on.</p>
  */
 public class ContainerShard implements Closeable {
 
@@ -40,6 +59,16 @@ public class ContainerShard implements Closeable {
 
     private BlockAllocator shardAllocator;
 
+    /**
+     * The counters of the shard's keys and values, persisted on close and in the clean-up cycle
+     */
+    private final ContainerStatistics statistics;
+
+    /**
+     * Set when the shard's blocks have been freed, nothing can be stored afterwards
+     */
+    private boolean removed;
+
     /**
      * A set of currently executed allocated operations
      */
@@ -50,6 +79,16 @@ public class ContainerShard implements Closeable {
      */
     private Queue<ContainerShardKeyOperations> unused = new LinkedList<>();
 
+    /**
+     * Held by the key reads and the latched writes, and exclusively while the changes of a key write are published
+     */
+    private final ReadWriteLock keyLock = new ReentrantReadWriteLock();
+
+    /**
+     * The latches of the key blocks changed by the latched writes, see {@link #latchedKeyFunction(Function)}
+     */
+    private final KeyBlockLatches keyBlockLatches = new KeyBlockLatches();
+
     public BlockAllocator getShardAllocator() {
         return shardAllocator;
     }
@@ -58,6 +97,15 @@ public class ContainerShard implements Closeable {
         return descriptor;
     }
 
+    /**
+     * The counters of the keys and values of the shard
+     *
+     * @return the statistics, updated on every operation
+     */
+    public ContainerStatistics getStatistics() {
+        return statistics;
+    }
+
     public int getIndex() {
         return index;
     }
@@ -97,11 +145,58 @@ public class ContainerShard implements Closeable {
     private ContainerShard(final Container container, final int index, final ContainerShardDescriptor descriptor) {
         this.container = container;
         this.index = index;
-        this.descriptor = descriptor;
         this.shardAllocator = container.getContainerListOperations().getMedia().loadSecondaryBlockAllocator(
                 shardAllocatorName(),
                 descriptor.getAllocatorStartIndex(),
                 maxBlockNumber());
+        if (descriptor.isLegacy()) {
+            this.statistics = ContainerStatistics.init();
+            this.descriptor = upgrade(descriptor);
+            return;
+        }
+        this.descriptor = descriptor;
+        try (final DataReader dataReader = DataReader.open(shardAllocator, descriptor.getStatisticsStartIndex())) {
+            this.statistics = ContainerStatistics.readFrom(new DataInputStream(dataReader));
+        } catch (final IOException e) {
+            throw new RoStoreException("Can't read the statistics of " + this, e);
+        }
+    }
+
+    /**
+     * Creates the expiry index and the statistics of the shard created by the earlier versions.
+     * <p>The index is created empty, the existing keys are found by the clean-up in the key blocks.
+     * The statistics are collected from the existing keys and values, so the upgrade
+     * visits all the keys of the shard once.</p>
+     * <p>The new descriptor should be stored by the container, see {@link Container#upgrade()},
+     * otherwise the upgrade is repeated the next time the shard is opened.</p>
+     *
+     * @param legacyDescriptor the descriptor of the shard as it has been read
+     * @return the descriptor with the new expiry index and statistics
+     */
+    private ContainerShardDescriptor upgrade(final ContainerShardDescriptor legacyDescriptor) {
+        final MediaProperties mediaProperties = container.getContainerListOperations().getMedia().getMediaProperties();
+        final RecordLengths recordLengths = RecordLengths.standardRecordLengths(mediaProperties);
+        try (final KeyBlockOperations keyBlockOperations = KeyBlockOperations.load(shardAllocator,
+                legacyDescriptor.getKeysStartIndex(), recordLengths)) {
+            keyBlockOperations.forEach((key, id) -> {
+                statistics.keyAdded(key.length);
+                if (id != Utils.ID_UNDEFINED) {
+                    try (final DataReader dataReader = DataReader.open(shardAllocator, id)) {
+                        statistics.valueAdded(dataReader.length());
+                    }
+                }
+            });
+        }
+        long expiryStartIndex = 0;
+        if (ExpiryIndexOperations.isSupported(mediaProperties, recordLengths)) {
+            try (final ExpiryIndexOperations expiryIndexOperations = ExpiryIndexOperations.create(shardAllocator, recordLengths)) {
+                expiryStartIndex = expiryIndexOperations.getStartIndex();
+            }
+        }
+        return new ContainerShardDescriptor(legacyDescriptor.getAllocatorStartIndex(),
+                legacyDescriptor.getKeysStartIndex(),
+                expiryStartIndex,
+                DataWriter.safeWriter(shardAllocator, this::writeStatistics));
     }
 
     private String shardAllocatorName() {
@@ -116,10 +211,20 @@ public class ContainerShard implements Closeable {
         this.container = container;
         this.shardAllocator = container.getContainerListOperations().getMedia().createSecondaryBlockAllocator(shardAllocatorName(),
                 maxBlockNumber());
-        try (final KeyBlockOperations keyBlockOperations = KeyBlockOperations.create(shardAllocator,
-                RecordLengths.standardRecordLengths(container.getContainerListOperations().getMedia().getMediaProperties()))) {
+        final MediaProperties mediaProperties = container.getContainerListOperations().getMedia().getMediaProperties();
+        final RecordLengths recordLengths = RecordLengths.standardRecordLengths(mediaProperties);
+        this.statistics = ContainerStatistics.init();
+        try (final KeyBlockOperations keyBlockOperations = KeyBlockOperations.create(shardAllocator, recordLengths)) {
+            long expiryStartIndex = 0;
+            if (ExpiryIndexOperations.isSupported(mediaProperties, recordLengths)) {
+                try (final ExpiryIndexOperations expiryIndexOperations = ExpiryIndexOperations.create(shardAllocator, recordLengths)) {
+                    expiryStartIndex = expiryIndexOperations.getStartIndex();
+                }
+            }
             this.descriptor = new ContainerShardDescriptor(shardAllocator.getStartIndex(),
-                    keyBlockOperations.getStartIndex());
+                    keyBlockOperations.getStartIndex(),
+                    expiryStartIndex,
+                    DataWriter.safeWriter(shardAllocator, this::writeStatistics));
         }
     }
 
@@ -140,7 +245,44 @@ public class ContainerShard implements Closeable {
      * @param <T> the type of the input stream
      */
     public <T extends InputStream> long putValue(final T data) {
-        return DataWriter.fromInputStream(shardAllocator, data);
+        final long[] size = new long[1];
+        final long id = DataWriter.safeWriter(shardAllocator, (dataWriter) -> {
+            try {
+                size[0] = data.transferTo(dataWriter);
+            } catch (final IOException e) {
+                throw new DataTransferException(e);
+            }
+        });
+        statistics.valueAdded(size[0]);
+        return id;
+    }
+
+    /**
+     * Function to store the body of the value produced by the writer, using the shard's allocator
+     * <p>The writer gets the stream that stores the data directly in the blocks of the shard.
+     * Closing the stream is not required, it is finalized when the writer returns.</p>
+     *
+     * @param valueWriter the consumer that writes the value to the provided stream
+     * @return the block index where the data is stored
+     */
+    public long putValue(final Consumer<OutputStream> valueWriter) {
+        final long[] size = new long[1];
+        final long id = DataWriter.safeWriter(shardAllocator, (dataWriter) -> {
+            valueWriter.accept(new FilterOutputStream(dataWriter) {
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // the data writer is closed by the safe writer
+                }
+            });
+            size[0] = dataWriter.length();
+        });
+        statistics.valueAdded(size[0]);
+        return id;
     }
 
     /**
@@ -159,10 +301,57 @@ public class ContainerShard implements Closeable {
      */
     public void removeValue(final long id) {
         try (final DataReader dataReader = DataReader.open(shardAllocator, id)) {
+            final long size = dataReader.length();
             dataReader.free();
+            statistics.valueRemoved(size);
+        }
+    }
+
+    /**
+     * Stores the current statistics of the shard to its statistics blocks.
+     * <p>The first block stays the same, so that the descriptor does not change.</p>
+     */
+    public synchronized void persistStatistics() {
+        if (removed) {
+            return;
+        }
+        final long startIndex = descriptor.getStatisticsStartIndex();
+        try (final DataReader dataReader = DataReader.open(shardAllocator, startIndex)) {
+            dataReader.iterateIndices((indices) -> {
+                indices.remove(startIndex, startIndex);
+                if (!indices.isEmpty()) {
+                    shardAllocator.free(indices);
+                }
+            });
+        }
+        DataWriter.safeWriter(shardAllocator, startIndex, this::writeStatistics);
+    }
+
+    private void writeStatistics(final DataWriter dataWriter) {
+        try {
+            statistics.writeTo(new DataOutputStream(dataWriter));
+        } catch (final IOException e) {
+            throw new DataTransferException(e);
         }
     }
 
+    /**
+     * Loads the sorted sequence of key-value pairs to the shard.
+     *
+     * <p>If the shard is empty, the keys are appended to the key blocks without search and validation
+     * and the blocks are filled up to the given fill factor.</p>
+     * <p>The values replaced by the load are removed once the keys are published. The operation does not do any blocking,
+     * it should be enforced by the caller, as for any other key write operation.</p>
+     *
+     * @param entries the entries sorted by key
+     * @param fillFactor the share of the block capacity to use, in the range (0, 1]
+     * @return the number of loaded entries
+     */
+    public long bulkLoad(final Iterator<BulkLoadEntry> entries, final double fillFactor) {
+        return keyFunction((ops) -> ops.bulkLoad(entries, fillFactor, !ops.isEmpty(),
+                (id) -> ops.afterPublish(() -> removeValue(id))));
+    }
+
     private long maxBlockNumber() {
         return container.getDescriptor().getContainerMeta().getMaxSize() / container.getContainerListOperations().getMedia().getMediaProperties().getBlockSize();
     }
@@ -174,13 +363,14 @@ public class ContainerShard implements Closeable {
     /**
      * Removes all the data associated with the shard
      */
-    public void remove() {
+    public synchronized void remove() {
         if (!used.isEmpty()) {
             throw new RoStoreException("Can't remove the shard as it is in use");
         }
         for(final ContainerShardKeyOperations ops : unused) {
             ops.close();
         }
+        removed = true;
         shardAllocator.remove();
     }
 
@@ -193,6 +383,7 @@ public class ContainerShard implements Closeable {
             for (final ContainerShardKeyOperations ops : unused) {
                 ops.close();
             }
+            persistStatistics();
         } finally {
             shardAllocator.close();
         }
@@ -224,39 +415,212 @@ public class ContainerShard implements Closeable {
         try {
             ops.commit();
         } finally {
-            boolean close = true;
-            synchronized (this) {
-                used.remove(ops);
-                if (unused.size() < container.getContainerListOperations().getContainerListHeader().getContainerListProperties().getMaxKeyOperationsPerShard()) {
-                    unused.offer(ops);
-                    close = false;
-                }
-            }
-            if (close) {
-                ops.close();
+            release(ops);
+        }
+    }
+
+    private void release(final ContainerShardKeyOperations ops) {
+        boolean close = true;
+        synchronized (this) {
+            used.remove(ops);
+            if (unused.size() < container.getContainerListOperations().getContainerListHeader().getContainerListProperties().getMaxKeyOperationsPerShard()) {
+                unused.offer(ops);
+                close = false;
             }
         }
+        if (close) {
+            ops.close();
+        }
     }
 
     /**
-     * Executes an operation on the shard's keys catalog.
+     * Executes a write operation on the shard's keys catalog.
      * <p>The function will provide a cached {@link ContainerShardKeyOperations} if one exists, or
      * create one if cache is depleted.</p>
      * <p>After the operation is over the {@link org.rostore.v2.catalog.CachedCatalogBlockOperations} will be
      * returned to the cache, so it can be reused later.</p>
+     * <p>The changes are made in the copies of the key blocks and published once the function is over,
+     * while no read runs, see {@link #readKeyFunction(Function)}.</p>
      * <p>The operation does not do any blocking, for example for write-operations, it should be
-     * enforced by the caller.</p>
+     * enforced by the caller: only one write can be executed on the shard at a time.</p>
      *
      * @param keyFunction that will receive a {@link ContainerShardKeyOperations} instance to execute the operation
      * @return the result of the function execution
      * @param <T> the result type, e.g. {@link Record}
      */
     public <T> T keyFunction(final Function<ContainerShardKeyOperations, T> keyFunction) {
+        return keyFunction(keyFunction, null);
+    }
+
+    /**
+     * Executes a write operation on the shard's keys catalog, see {@link #keyFunction(Function)}.
+     * <p>The caller is notified as soon as the changes are published, the published key blocks are flushed
+     * afterwards. As from then on the write only flushes its own blocks, the next write can already start.</p>
+     *
+     * @param keyFunction that will receive a {@link ContainerShardKeyOperations} instance to execute the operation
+     * @param published executed once the changes are published and visible to the reads, it is not executed
+     *                  if the publishing fails
+     * @return the result of the function execution
+     * @param <T> the result type, e.g. {@link Record}
+     */
+    public <T> T keyFunction(final Function<ContainerShardKeyOperations, T> keyFunction, final Runnable published) {
+        return keyFunction(List.of(this), (opsList) -> keyFunction.apply(opsList.get(0)), published);
+    }
+
+    /**
+     * Executes a read operation on the shard's keys catalog.
+     * <p>The function sees the keys as they have been published by the last write, it can run together
+     * with the other reads and with a write.</p>
+     *
+     * @param keyFunction that will receive a {@link ContainerShardKeyOperations} instance to execute the operation
+     * @return the result of the function execution
+     * @param <T> the result type, e.g. {@link Record}
+     */
+    public <T> T readKeyFunction(final Function<ContainerShardKeyOperations, T> keyFunction) {
+        keyLock.readLock().lock();
+        try {
+            final ContainerShardKeyOperations ops = poll();
+            try {
+                return keyFunction.apply(ops);
+            } finally {
+                done(ops);
+            }
+        } finally {
+            keyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Executes a write operation that only updates the records of the existing keys in place.
+     * <p>Such writes run in parallel with each other: every one latches the key blocks it changes,
+     * see {@link KeyBlockOperations#beginLatched(KeyBlockLatches)}, and holds the latches until its changes are published.
+     * The blocks are read under the read lock of the shard, so no other write can publish meanwhile.</p>
+     * <p>If the write has to change the structure of the keys, or a block is latched by another write,
+     * the function fails with {@link KeyBlockLatchException} before anything is changed. The write
+     * should then be repeated with {@link #keyFunction(Function)}.</p>
+     * <p>The latches are never waited for, but the function must not block, as it holds the read lock.
+     * The caller should make sure no write of {@link #keyFunction(Function)} runs meanwhile.</p>
+     *
+     * @param keyFunction that will receive a {@link ContainerShardKeyOperations} instance to execute the operation
+     * @return the result of the function execution
+     * @param <T> the result type, e.g. {@link Record}
+     */
+    public <T> T latchedKeyFunction(final Function<ContainerShardKeyOperations, T> keyFunction) {
         final ContainerShardKeyOperations ops = poll();
         try {
-            return keyFunction.apply(ops);
+            ops.beginLatchedWrite(keyBlockLatches);
+            keyLock.readLock().lock();
+            try {
+                return keyFunction.apply(ops);
+            } finally {
+                keyLock.readLock().unlock();
+            }
         } finally {
-            done(ops);
+            try {
+                publish(List.of(this), List.of(ops), null);
+            } finally {
+                ops.endLatchedWrite();
+                release(ops);
+            }
+        }
+    }
+
+    /**
+     * Executes a write operation on the keys catalogs of several shards, the changes of all the shards
+     * are published together, so a read never sees only a part of them.
+     * <p>As for {@link #keyFunction(Function)}, only one write can be executed on every shard at a time.</p>
+     *
+     * @param shards the shards ordered by their index
+     * @param keyFunction that will receive the {@link ContainerShardKeyOperations} of the shards in the same order
+     * @return the result of the function execution
+     * @param <T> the result type
+     */
+    public static <T> T keyFunction(final List<ContainerShard> shards, final Function<List<ContainerShardKeyOperations>, T> keyFunction) {
+        return keyFunction(shards, keyFunction, null);
+    }
+
+    private static <T> T keyFunction(final List<ContainerShard> shards,
+                                     final Function<List<ContainerShardKeyOperations>, T> keyFunction,
+                                     final Runnable published) {
+        final List<ContainerShardKeyOperations> opsList = new ArrayList<>(shards.size());
+        try {
+            for (final ContainerShard shard : shards) {
+                final ContainerShardKeyOperations ops = shard.poll();
+                opsList.add(ops);
+                ops.beginWrite();
+            }
+            return keyFunction.apply(opsList);
+        } finally {
+            try {
+                publish(shards, opsList, published);
+            } finally {
+                for (int i = 0; i < opsList.size(); i++) {
+                    shards.get(i).release(opsList.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the changes of a write that goes on, see {@link ContainerShardKeyOperations#bulkLoad(Iterator, double, boolean, java.util.function.LongConsumer)}
+     *
+     * @param ops the operations of the write
+     */
+    void publish(final ContainerShardKeyOperations ops) {
+        publish(List.of(this), List.of(ops), null);
+        ops.beginWrite();
+    }
+
+    /**
+     * Commits the writes and publishes their changes, the shards are locked in the given order.
+     * <p>Only the copies are written back under the lock, the published blocks are flushed after the lock is released.
+     * The actions registered with {@link ContainerShardKeyOperations#afterCommit(Runnable)} are executed
+     * once all the writes are committed, and dropped if any of them fails.</p>
+     */
+    private static void publish(final List<ContainerShard> shards,
+                                final List<ContainerShardKeyOperations> opsList,
+                                final Runnable published) {
+        try {
+            commitAndPublish(shards, opsList, published);
+        } catch (final RuntimeException e) {
+            for (final ContainerShardKeyOperations ops : opsList) {
+                ops.commitFailed();
+            }
+            throw e;
+        }
+        for (final ContainerShardKeyOperations ops : opsList) {
+            ops.committed();
+        }
+    }
+
+    private static void commitAndPublish(final List<ContainerShard> shards,
+                                         final List<ContainerShardKeyOperations> opsList,
+                                         final Runnable published) {
+        for (final ContainerShardKeyOperations ops : opsList) {
+            ops.commit();
+        }
+        final List<ContainerShard> locked = new ArrayList<>(opsList.size());
+        try {
+            for (int i = 0; i < opsList.size(); i++) {
+                if (opsList.get(i).isPublishPending()) {
+                    final ContainerShard shard = shards.get(i);
+                    shard.keyLock.writeLock().lock();
+                    locked.add(shard);
+                }
+            }
+            for (final ContainerShardKeyOperations ops : opsList) {
+                ops.publish();
+            }
+        } finally {
+            for (int i = locked.size() - 1; i >= 0; i--) {
+                locked.get(i).keyLock.writeLock().unlock();
+            }
+        }
+        if (published != null) {
+            published.run();
+        }
+        for (final ContainerShardKeyOperations ops : opsList) {
+            ops.commit();
         }
     }
 
@@ -14,6 +14,12 @@ public class ContainerShardDescriptor {
     @BlockIndex
     private long keysStartIndex;
 
+    @BlockIndex
+    private long expiryStartIndex;
+
+    @BlockIndex
+    private long statisticsStartIndex;
+
     /**
      * The first block of the allocator's sequence
      * @return the block index
@@ -30,14 +36,42 @@ public class ContainerShardDescriptor {
         return keysStartIndex;
     }
 
+    /**
+     * The first block index of the shard's expiry index
+     * @return the first index or {@code 0} if the blocks are too small to keep the index
+     */
+    public long getExpiryStartIndex() {
+        return expiryStartIndex;
+    }
+
+    /**
+     * The first block index of the shard's persisted statistics
+     * @return the first index
+     */
+    public long getStatisticsStartIndex() {
+        return statisticsStartIndex;
+    }
+
+    /**
+     * Checks if the shard has been created by the earlier versions that kept neither the expiry index nor the statistics
+     * @return {@code true} if the shard should be upgraded when it is opened
+     */
+    public boolean isLegacy() {
+        return statisticsStartIndex == 0;
+    }
+
     /**
      * Creates the descriptor
      * @param allocatorStartIndex the first block in the shard's allocator sequence
      * @param keysStartIndex the first block in the shard's key catalog sequence
+     * @param expiryStartIndex the first block in the shard's expiry index
+     * @param statisticsStartIndex the first block of the shard's statistics
      */
-    public ContainerShardDescriptor(long allocatorStartIndex, long keysStartIndex) {
+    public ContainerShardDescriptor(long allocatorStartIndex, long keysStartIndex, long expiryStartIndex, long statisticsStartIndex) {
         this.allocatorStartIndex = allocatorStartIndex;
         this.keysStartIndex = keysStartIndex;
+        this.expiryStartIndex = expiryStartIndex;
+        this.statisticsStartIndex = statisticsStartIndex;
     }
 
     /**
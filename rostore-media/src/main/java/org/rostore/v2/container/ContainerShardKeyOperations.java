@@ -2,14 +2,30 @@ package org.rostore.v2.container;
 
 import org.rostore.Utils;
 import org.rostore.entity.Record;
+import org.rostore.entity.media.RecordOption;
+import org.rostore.v2.keys.ExpiryIndexOperations;
+import org.rostore.v2.keys.KeyBatchResult;
+import org.rostore.v2.keys.KeyBlockLatchException;
+import org.rostore.v2.keys.KeyBlockLatches;
 import org.rostore.v2.keys.KeyBlockOperations;
 import org.rostore.v2.keys.KeyList;
 import org.rostore.v2.keys.RecordLengths;
 import org.rostore.v2.media.Committable;
+import org.rostore.v2.media.block.container.BlockContainer;
 import org.rostore.v2.media.block.container.Status;
 import org.rostore.v2.container.ContainerShard;
 import org.rostore.v2.seq.BlockSequence;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
 
 /**
  * Encapsulates the operation context on the shard level.
@@ -20,9 +36,13 @@ import org.rostore.v2.seq.BlockSequence;
  * <p>Once the key-access operation is over, the object can be reused in another process,
  * but during the process should be exactly one process waiting for it.</p>
  * <p>The key-read operations can be executed in parallel as many as needed.</p>
- * <p>The key-write or key-delete operations should not be executed in parallel.</p>
+ * <p>The key-write or key-delete operations should not be executed in parallel, only the in-place updates
+ * of the records can run together, see {@link ContainerShard#latchedKeyFunction(java.util.function.Function)}.</p>
  * <p>The mechanism to for separating the blocking write and non-blocking read operation should be
  * implemented on the caller side.</p>
+ * <p>The writes are executed in the copy-on-write mode (see {@link BlockContainer#beginCopyOnWrite()}), so they
+ * can run together with the reads. The reads see the keys as they have been before the write, until the write is
+ * published by {@link ContainerShard}.</p>
  */
 public class ContainerShardKeyOperations implements Committable {
 
@@ -37,6 +57,23 @@ public class ContainerShardKeyOperations implements Committable {
      */
     private final KeyBlockOperations keyBlockOperations;
 
+    /**
+     * The index of the keys by their eol, it is only loaded by the operations that need it.
+     * <p>The shards on the media with too small blocks have no index.</p>
+     * <p>As the key blocks, the index is changed in the copy-on-write mode while a write runs.</p>
+     */
+    private ExpiryIndexOperations expiryIndexOperations;
+
+    /**
+     * Set from {@link #beginWrite()} to {@link #publish()}
+     */
+    private boolean writing;
+
+    /**
+     * The actions that wait for the current write to be committed, see {@link #afterCommit(Runnable)}
+     */
+    private final List<Runnable> commitActions = new ArrayList<>();
+
     /**
      * Creates an instance for the shard's operations.
      */
@@ -44,7 +81,120 @@ public class ContainerShardKeyOperations implements Committable {
         this.containerShard = containerShard;
         this.keyBlockOperations = KeyBlockOperations.load(containerShard.getShardAllocator(),
                 containerShard.getDescriptor().getKeysStartIndex(),
-                RecordLengths.standardRecordLengths(containerShard.getContainer().getContainerListOperations().getMedia().getMediaProperties()));
+                getRecordLengths());
+    }
+
+    private RecordLengths getRecordLengths() {
+        return RecordLengths.standardRecordLengths(containerShard.getContainer().getContainerListOperations().getMedia().getMediaProperties());
+    }
+
+    private ExpiryIndexOperations getExpiryIndexOperations() {
+        if (keyBlockOperations.isLatched()) {
+            throw new KeyBlockLatchException("The change of the expiry index needs the exclusive write.");
+        }
+        if (expiryIndexOperations == null && containerShard.getDescriptor().getExpiryStartIndex() != 0) {
+            expiryIndexOperations = ExpiryIndexOperations.load(containerShard.getShardAllocator(),
+                    containerShard.getDescriptor().getExpiryStartIndex(),
+                    getRecordLengths());
+            if (writing) {
+                expiryIndexOperations.getBlockContainer().beginCopyOnWrite();
+            }
+        }
+        return expiryIndexOperations;
+    }
+
+    private BlockContainer getKeyBlockContainer() {
+        return keyBlockOperations.getBlockSequence().getBlockProvider().getBlockContainer();
+    }
+
+    /**
+     * Starts a write, the changes of the key blocks and of the expiry index stay private until {@link #publish()}
+     */
+    void beginWrite() {
+        writing = true;
+        getKeyBlockContainer().beginCopyOnWrite();
+        if (expiryIndexOperations != null) {
+            expiryIndexOperations.getBlockContainer().beginCopyOnWrite();
+        }
+    }
+
+    /**
+     * Starts a write that only updates the records of the existing keys in place, see {@link ContainerShard#latchedKeyFunction(java.util.function.Function)}
+     *
+     * @param latches the latches of the shard's key blocks
+     */
+    void beginLatchedWrite(final KeyBlockLatches latches) {
+        beginWrite();
+        keyBlockOperations.beginLatched(latches);
+    }
+
+    /**
+     * Releases the latches of the key blocks, called once the latched write is published
+     */
+    void endLatchedWrite() {
+        keyBlockOperations.endLatched();
+    }
+
+    /**
+     * Checks if the write has changed anything that should be published
+     *
+     * @return {@code true} if {@link #publish()} is needed
+     */
+    boolean isPublishPending() {
+        return getKeyBlockContainer().isPublishPending() ||
+                (expiryIndexOperations != null && expiryIndexOperations.getBlockContainer().isPublishPending());
+    }
+
+    /**
+     * Makes the changes of the write visible to the reads, the caller should make sure no read runs meanwhile
+     */
+    void publish() {
+        writing = false;
+        getKeyBlockContainer().publish();
+        if (expiryIndexOperations != null) {
+            expiryIndexOperations.getBlockContainer().publish();
+        }
+    }
+
+    /**
+     * Executes the action once the changes of the current write are visible to the reads,
+     * or at once if no write is executed.
+     * <p>It should be used for anything that relies on the readers seeing the change, e.g. freeing the
+     * value of the replaced key.</p>
+     *
+     * @param action the action to execute
+     */
+    public void afterPublish(final Runnable action) {
+        getKeyBlockContainer().afterPublish(action);
+    }
+
+    /**
+     * Executes the action once the changes of the current write are published and committed.
+     * <p>If the commit fails, the action is not executed. It should be used for anything that can't be
+     * undone if the change is lost, e.g. freeing the value of the replaced key.</p>
+     *
+     * @param action the action to execute
+     */
+    public void afterCommit(final Runnable action) {
+        commitActions.add(action);
+    }
+
+    /**
+     * Executes the actions registered by {@link #afterCommit(Runnable)}, called once the write is committed
+     */
+    void committed() {
+        final List<Runnable> actions = new ArrayList<>(commitActions);
+        commitActions.clear();
+        for (final Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * Drops the actions registered by {@link #afterCommit(Runnable)}, called if the commit of the write has failed
+     */
+    void commitFailed() {
+        commitActions.clear();
     }
 
     /**
@@ -66,17 +216,224 @@ public class ContainerShardKeyOperations implements Committable {
      * @return the id that has been stored before with the key or {@link Utils#ID_UNDEFINED}
      */
     public long putKey(final byte[] key, final Record record) {
+        applyMaxTTL(record);
+        try {
+            final long prevId = keyBlockOperations.put(key, record);
+            if (prevId == Utils.ID_UNDEFINED) {
+                containerShard.getStatistics().keyAdded(key.length);
+            }
+            if (keyBlockOperations.getReplacedEol() != record.getEol()) {
+                // the entry of the key that keeps its eol stays in the index
+                removeFromExpiryIndex(key, keyBlockOperations.getReplacedEol());
+                addToExpiryIndex(key, record);
+            }
+            return prevId;
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Create or update the keys of the sorted batch in one forward pass over the key blocks.
+     *
+     * <p>Every key is validated and stored as in {@link #putKey(byte[], Record)}, but all of them are committed once.</p>
+     *
+     * @param records the records to store, sorted by key
+     * @return for every key the id that has been stored before with the key or {@link Utils#ID_UNDEFINED}, and the failed keys
+     * @see KeyBlockOperations#putAll(SortedMap)
+     */
+    public KeyBatchResult<Long> putKeys(final SortedMap<byte[], Record> records) {
+        for (final Record record : records.values()) {
+            applyMaxTTL(record);
+        }
+        try {
+            final List<Map.Entry<byte[], Long>> replacedEols = new ArrayList<>();
+            final KeyBatchResult<Long> result = keyBlockOperations.putAll(records,
+                    (key, eol) -> replacedEols.add(new AbstractMap.SimpleEntry<>(key, eol)));
+            for (final Map.Entry<byte[], Long> replaced : replacedEols) {
+                removeFromExpiryIndex(replaced.getKey(), replaced.getValue());
+            }
+            for (final Map.Entry<byte[], Long> entry : result.getResults().entrySet()) {
+                if (entry.getValue() == Utils.ID_UNDEFINED) {
+                    containerShard.getStatistics().keyAdded(entry.getKey().length);
+                }
+                addToExpiryIndex(entry.getKey(), records.get(entry.getKey()));
+            }
+            return result;
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Removes the keys of the sorted batch in one forward pass over the key blocks.
+     *
+     * <p>Every key is removed as in {@link #removeKey(byte[], Record)}, but all of them are committed once.</p>
+     *
+     * @param records the keys to remove with the metadata to be used, sorted by key
+     * @return for every key {@code true} if deletion happened or {@code false} otherwise, and the failed keys
+     * @see KeyBlockOperations#removeAll(SortedMap)
+     */
+    public KeyBatchResult<Boolean> removeKeys(final SortedMap<byte[], Record> records) {
+        try {
+            final KeyBatchResult<Boolean> result = keyBlockOperations.removeAll(records);
+            for (final byte[] key : result.getResults().keySet()) {
+                final Record record = records.get(key);
+                if (record.getId() != Utils.ID_UNDEFINED) {
+                    containerShard.getStatistics().keyRemoved(key.length);
+                    removeFromExpiryIndex(key, record.getEol());
+                }
+            }
+            return result;
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Removes all the keys in the range in one sweep over the key blocks.
+     *
+     * <p>The versions are not validated. The entries of the removed keys are dropped from the expiry index
+     * once the sweep is over.</p>
+     *
+     * @param fromKey the first key of the range (inclusive), {@code null} to start from the first key
+     * @param toKey the end of the range (exclusive), {@code null} to remove up to the last key
+     * @param removedConsumer receives the key and the id of every removed entry, the caller is responsible to remove the ids
+     * @return the number of removed keys
+     * @see KeyBlockOperations#removeRange(byte[], byte[], BiConsumer)
+     */
+    public long removeRange(final byte[] fromKey, final byte[] toKey, final BiConsumer<byte[], Long> removedConsumer) {
+        return sweep(consumer -> keyBlockOperations.removeRange(fromKey, toKey, consumer), removedConsumer);
+    }
+
+    /**
+     * Removes all the keys that start with the prefix in one sweep over the key blocks, see {@link #removeRange(byte[], byte[], BiConsumer)}
+     *
+     * @param prefix the prefix of the keys to remove
+     * @param removedConsumer receives the key and the id of every removed entry, the caller is responsible to remove the ids
+     * @return the number of removed keys
+     */
+    public long removePrefix(final byte[] prefix, final BiConsumer<byte[], Long> removedConsumer) {
+        return sweep(consumer -> keyBlockOperations.removePrefix(prefix, consumer), removedConsumer);
+    }
+
+    /**
+     * Executes the sweep over the key blocks, and drops the removed keys from the expiry index once it is over
+     */
+    private long sweep(final ToLongFunction<BiConsumer<byte[], Long>> sweep, final BiConsumer<byte[], Long> removedConsumer) {
+        try {
+            final List<Map.Entry<byte[], Long>> removedEols = new ArrayList<>();
+            final long removed = sweep.applyAsLong((key, id) -> {
+                containerShard.getStatistics().keyRemoved(key.length);
+                removedEols.add(new AbstractMap.SimpleEntry<>(key, keyBlockOperations.getReplacedEol()));
+                removedConsumer.accept(key, id);
+            });
+            for (final Map.Entry<byte[], Long> entry : removedEols) {
+                removeFromExpiryIndex(entry.getKey(), entry.getValue());
+            }
+            return removed;
+        } finally {
+            commit();
+        }
+    }
+
+    private void removeFromExpiryIndex(final byte[] key, final long eol) {
+        final ExpiryIndexOperations expiryIndex = getExpiryIndexOperations();
+        if (expiryIndex != null) {
+            expiryIndex.remove(key, eol);
+        }
+    }
+
+    private void addToExpiryIndex(final byte[] key, final Record record) {
+        final ExpiryIndexOperations expiryIndex = getExpiryIndexOperations();
+        if (expiryIndex != null) {
+            expiryIndex.add(key, record.getEol());
+        }
+    }
+
+    private void applyMaxTTL(final Record record) {
         final long maxTTL = containerShard.getContainer().getDescriptor().getContainerMeta().getMaxTTL();
         if (maxTTL != 0 && (record.getTtl() == 0 || record.getTtl() > maxTTL)) {
             record.ttl(maxTTL);
         }
+    }
+
+    /**
+     * Checks if the shard has no keys
+     *
+     * @return {@code true} if no keys are stored in the shard
+     */
+    public boolean isEmpty() {
         try {
-            return keyBlockOperations.put(key, record);
+            return keyBlockOperations.isEmpty();
         } finally {
             keyBlockOperations.commit();
         }
     }
 
+    /**
+     * Loads the sorted sequence of key-value pairs to the shard.
+     *
+     * <p>The values are written to the shard's allocator one after another and the keys that are greater than all
+     * the keys of the shard are appended to the end of the key blocks at the given fill factor
+     * (see {@link KeyBlockOperations#append(byte[], Record, double)}).</p>
+     * <p>The append without validation is only possible if {@code validate} is {@code false}, which should only
+     * be used if the shard has been empty at the start of the load. Otherwise, or if the entries are not sorted, the
+     * entries are stored one by one as in {@link #putKey(byte[], Record)}.</p>
+     * <p>The key blocks are committed and published every {@link Properties#BULK_LOAD_COMMIT_EVERY} entries.</p>
+     *
+     * @param entries the entries to load, sorted by key
+     * @param fillFactor the share of the block capacity to use, in the range (0, 1]
+     * @param validate {@code true} if every entry should be validated as in regular put
+     * @param replacedIdConsumer receives the ids of the values that has been replaced, the caller is responsible to remove them
+     *                           once the load is committed, see {@link #afterCommit(Runnable)}
+     * @return the number of loaded entries
+     */
+    public long bulkLoad(final Iterator<BulkLoadEntry> entries,
+                         final double fillFactor,
+                         final boolean validate,
+                         final LongConsumer replacedIdConsumer) {
+        long loaded = 0;
+        try {
+            while (entries.hasNext()) {
+                final BulkLoadEntry entry = entries.next();
+                final Record record = entry.getRecord();
+                applyMaxTTL(record);
+                if (entry.getValue() != null) {
+                    record.id(containerShard.putValue(entry.getValue()));
+                }
+                try {
+                    if (validate || !keyBlockOperations.append(entry.getKey(), record, fillFactor)) {
+                        final long prevId = keyBlockOperations.put(entry.getKey(), record);
+                        removeFromExpiryIndex(entry.getKey(), keyBlockOperations.getReplacedEol());
+                        if (prevId != Utils.ID_UNDEFINED) {
+                            replacedIdConsumer.accept(prevId);
+                        } else {
+                            containerShard.getStatistics().keyAdded(entry.getKey().length);
+                        }
+                    } else {
+                        containerShard.getStatistics().keyAdded(entry.getKey().length);
+                    }
+                    addToExpiryIndex(entry.getKey(), record);
+                } catch (final RuntimeException e) {
+                    if (entry.getValue() != null) {
+                        final long id = record.getId();
+                        afterCommit(() -> containerShard.removeValue(id));
+                    }
+                    throw e;
+                }
+                loaded++;
+                if (loaded % Properties.BULK_LOAD_COMMIT_EVERY == 0) {
+                    // the copies of the loaded blocks are not kept for the whole load
+                    containerShard.publish(this);
+                }
+            }
+            return loaded;
+        } finally {
+            commit();
+        }
+    }
+
        public KeyList listKeys(final byte[] startWithKey, final byte[] continuationKey, int maxNumber, int maxSize) {
         try {
             return keyBlockOperations.list(startWithKey, continuationKey, maxNumber, maxSize);
@@ -85,6 +442,24 @@ public class ContainerShardKeyOperations implements Committable {
         }
     }
 
+    /**
+     * Lists the keys of the shard in the descending order
+     *
+     * @param startWithKey the prefix of the keys to list
+     * @param continuationKey the last key of the previous page, the listing continues with the keys lower than it
+     * @param maxNumber the maximum number of keys to return
+     * @param maxSize the maximum size of the returned list
+     * @return the keys in the descending order
+     * @see KeyBlockOperations#listDescending(byte[], byte[], long, long)
+     */
+    public KeyList listKeysDescending(final byte[] startWithKey, final byte[] continuationKey, final int maxNumber, final int maxSize) {
+        try {
+            return keyBlockOperations.listDescending(startWithKey, continuationKey, maxNumber, maxSize);
+        } finally {
+            keyBlockOperations.commit();
+        }
+    }
+
     /**
      * Executes an operation to find a key
      *
@@ -99,6 +474,58 @@ public class ContainerShardKeyOperations implements Committable {
         }
     }
 
+    /**
+     * The operation is executed in the clean-up cycle.
+     *
+     * <p>It takes the keys which eol has passed from the shard's expiry index and removes the ones
+     * that are still expired. Only the keys due are visited, so the cost does not depend on the total number of keys.</p>
+     *
+     * @param maxNumber the maximum number of index entries to process
+     * @param removedIdConsumer receives the ids associated with the deleted entries, the caller is responsible to remove them
+     * @return {@code true} if the limit has been reached and more entries can be due
+     */
+    public boolean removeExpiredKeys(final int maxNumber, final LongConsumer removedIdConsumer) {
+        final ExpiryIndexOperations expiryIndex = getExpiryIndexOperations();
+        if (expiryIndex == null) {
+            return false;
+        }
+        try {
+            final long currentTimeSecs = System.currentTimeMillis() / 1000;
+            final List<byte[]> keys = expiryIndex.pollExpired(currentTimeSecs, maxNumber);
+            for (final byte[] key : keys) {
+                final long id = keyBlockOperations.removeIfExpired(key, currentTimeSecs);
+                if (id != Utils.ID_UNDEFINED) {
+                    containerShard.getStatistics().keyRemoved(key.length);
+                    removedIdConsumer.accept(id);
+                }
+            }
+            return keys.size() >= maxNumber;
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Estimates the number of keys that have expired, but are not yet removed by the clean-up.
+     *
+     * <p>The due entries of the expiry index are counted. The index holds one entry per key,
+     * as the entries of the updated and removed keys are dropped with them.</p>
+     *
+     * @param maxNumber the maximum number of entries to count
+     * @return the number of due entries, at most {@code maxNumber}, or {@code 0} if the shard has no expiry index
+     */
+    public long countExpiredKeys(final int maxNumber) {
+        final ExpiryIndexOperations expiryIndex = getExpiryIndexOperations();
+        if (expiryIndex == null) {
+            return 0;
+        }
+        try {
+            return expiryIndex.countExpired(System.currentTimeMillis() / 1000, maxNumber);
+        } finally {
+            commit();
+        }
+    }
+
     /**
      * The operation is executed in the clean-up cycle.
      *
@@ -111,7 +538,8 @@ public class ContainerShardKeyOperations implements Committable {
      */
     public long removeKeyIfExpired(final int keyBlockSequenceIndex) {
         try {
-            return keyBlockOperations.removeIfExpired(keyBlockSequenceIndex);
+            return keyBlockOperations.removeIfExpired(keyBlockSequenceIndex,
+                    (key) -> containerShard.getStatistics().keyRemoved(key.length));
         } finally {
             keyBlockOperations.commit();
         }
@@ -126,9 +554,39 @@ public class ContainerShardKeyOperations implements Committable {
      */
     public boolean removeKey(final byte[] key, final Record record) {
         try {
-            return keyBlockOperations.remove(key, record);
+            final boolean removed = keyBlockOperations.remove(key, record);
+            if (record.getId() != Utils.ID_UNDEFINED) {
+                containerShard.getStatistics().keyRemoved(key.length);
+                removeFromExpiryIndex(key, record.getEol());
+            }
+            return removed;
         } finally {
-            keyBlockOperations.commit();
+            commit();
+        }
+    }
+
+    /**
+     * Removes a key from the shard if it is still associated with the given id
+     *
+     * <p>The version of the key is not validated.</p>
+     *
+     * @param key a key to remove
+     * @param id the id the key is expected to be associated with
+     * @return {@code true} if deletion happened or {@code false} otherwise
+     */
+    public boolean removeKeyWithId(final byte[] key, final long id) {
+        try {
+            final Record record = keyBlockOperations.getRecord(key);
+            if (record == null || record.getId() != id) {
+                return false;
+            }
+            final Record removedRecord = new Record().addOption(RecordOption.OVERRIDE_VERSION);
+            keyBlockOperations.remove(key, removedRecord);
+            containerShard.getStatistics().keyRemoved(key.length);
+            removeFromExpiryIndex(key, removedRecord.getEol());
+            return true;
+        } finally {
+            commit();
         }
     }
 
@@ -142,7 +600,13 @@ public class ContainerShardKeyOperations implements Committable {
      */
     @Override
     public void close() {
-        keyBlockOperations.close();
+        try {
+            keyBlockOperations.close();
+        } finally {
+            if (expiryIndexOperations != null) {
+                expiryIndexOperations.close();
+            }
+        }
     }
 
     /**
@@ -159,5 +623,8 @@ public class ContainerShardKeyOperations implements Committable {
     @Override
     public void commit() {
         keyBlockOperations.commit();
+        if (expiryIndexOperations != null) {
+            expiryIndexOperations.commit();
+        }
     }
 }
@@ -0,0 +1,61 @@
+package org.rostore.v2.container;
+
+import org.rostore.entity.media.ContainerMeta;
+import org.rostore.entity.media.ShardRouting;
+import org.rostore.mapper.BlockIndex;
+
+import java.util.List;
+
+/**
+ * The layout of the {@link ContainerDescriptor} as it has been stored before the format version was introduced.
+ * <p>It is only used to read the containers created by the earlier versions, see {@link ContainerDescriptor#read(org.rostore.v2.media.Media, long)}.
+ * The fields must not be changed, as they define the persisted structure.</p>
+ */
+public class LegacyContainerDescriptor {
+
+    private Meta containerMeta;
+
+    private List<Shard> shardDescriptors;
+
+    /**
+     * The layout of the {@link ContainerMeta} without the shard routing
+     */
+    public static class Meta {
+        private long creationTime;
+        private long maxSize;
+        private int shardNumber;
+        private long maxTTL;
+    }
+
+    /**
+     * The layout of the {@link ContainerShardDescriptor} without the expiry index and the statistics
+     */
+    public static class Shard {
+        @BlockIndex
+        private long allocatorStartIndex;
+
+        @BlockIndex
+        private long keysStartIndex;
+    }
+
+    /**
+     * Converts the descriptor to the current layout.
+     * <p>The keys are routed with {@link ShardRouting#LEGACY}, the shards have neither the expiry index nor
+     * the statistics, they are created when the shards are opened, see {@link ContainerShardDescriptor#isLegacy()}.</p>
+     *
+     * @return the descriptor in the current layout
+     */
+    public ContainerDescriptor toContainerDescriptor() {
+        final ContainerMeta meta = new ContainerMeta();
+        meta.setCreationTime(containerMeta.creationTime);
+        meta.setMaxSize(containerMeta.maxSize);
+        meta.setShardNumber(containerMeta.shardNumber);
+        meta.setMaxTTL(containerMeta.maxTTL);
+        meta.setShardRouting(ShardRouting.LEGACY);
+        final ContainerDescriptor containerDescriptor = new ContainerDescriptor(meta);
+        for (final Shard shard : shardDescriptors) {
+            containerDescriptor.getShardDescriptors().add(new ContainerShardDescriptor(shard.allocatorStartIndex, shard.keysStartIndex, 0, 0));
+        }
+        return containerDescriptor;
+    }
+}
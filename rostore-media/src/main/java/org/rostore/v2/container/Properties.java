@@ -2,6 +2,63 @@ package org.rostore.v2.container;
 
 public class Properties {
 
+    /**
+     * The default share of the key block capacity used by the bulk load.
+     * <p>Some space is left free so that the later inserts in the loaded range would not cause immediate block splits.</p>
+     */
+    public static final double BULK_LOAD_DEFAULT_FILL_FACTOR = 0.9;
 
+    /**
+     * The number of entries after which the bulk load commits the key blocks,
+     * so that the number of blocks held in memory stays limited.
+     */
+    public static final int BULK_LOAD_COMMIT_EVERY = 1000;
+
+    /**
+     * The number of entries collected for one shard before they are loaded
+     * as one key operation by the asynchronous bulk load.
+     */
+    public static final int BULK_LOAD_BATCH_SIZE = 10000;
+
+    /**
+     * The maximum number of expired keys counted in every shard when the container statistics is requested,
+     * so that a big clean-up backlog does not make the request slow.
+     */
+    public static final int STATISTICS_MAX_EXPIRED_COUNT = 10000;
+
+    /**
+     * The number of keys listed at once in a shard that is being moved to the new shards by the resharding.
+     */
+    public static final int RESHARDING_BATCH_SIZE = 1000;
+
+    /**
+     * The maximum number of queued key writes and deletes of a shard that are executed
+     * together on one key operations instance with a single commit.
+     */
+    public static final int KEY_WRITE_GROUP_SIZE = 64;
+
+    /**
+     * The maximum size of the value that is kept in the read cache of the container,
+     * the bigger values are always read from the shard.
+     */
+    public static final int READ_CACHE_MAX_VALUE_SIZE = 64 * 1024;
+
+    /**
+     * The minimum number of keys requested from a shard at once by the ordered listing,
+     * every shard holds at most one such page while the pages are merged.
+     */
+    public static final int ORDERED_LIST_MIN_PAGE_SIZE = 32;
+
+    /**
+     * The maximum number of values of a shard that are removed in parallel
+     * after the keys have been removed by a range or prefix removal.
+     */
+    public static final int RANGE_REMOVE_VALUE_BATCH_SIZE = 64;
+
+    /**
+     * The factor of the maximum number of clean-ups per cycle that a shard with no other
+     * key operations removes in one cycle, so the expired entries are caught up while it is idle.
+     */
+    public static final int CLEANUP_IDLE_FACTOR = 4;
 
 }
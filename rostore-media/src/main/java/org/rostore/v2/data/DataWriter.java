@@ -182,6 +182,14 @@ public class DataWriter extends OutputStream implements Committable {
         return root;
     }
 
+    /**
+     * Provides the number of bytes written so far
+     * @return the length of the data
+     */
+    public long length() {
+        return length;
+    }
+
     private void stop() {
         if (length == 0) {
             return ;
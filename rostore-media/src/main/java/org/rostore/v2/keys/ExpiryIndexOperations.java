@@ -0,0 +1,200 @@
+package org.rostore.v2.keys;
+
+import org.rostore.Utils;
+import org.rostore.entity.Record;
+import org.rostore.entity.media.RecordOption;
+import org.rostore.v2.media.Committable;
+import org.rostore.v2.media.MediaProperties;
+import org.rostore.v2.media.block.allocator.BlockAllocator;
+import org.rostore.v2.media.block.container.BlockContainer;
+import org.rostore.v2.media.block.container.Status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of the keys ordered by their eol.
+ * <p>Every entry of the index is a pair of eol and key stored in the {@link KeyTreeOperations},
+ * so that the entries that are due are always at the start of the tree. The clean-up
+ * can take them from there without scanning the key blocks, which makes it proportional to the
+ * number of expired keys and not to the number of all the keys.</p>
+ * <p>The caller should remove the entry of the key with {@link #remove(byte[], long)} whenever the key is
+ * removed or updated, so that the index only keeps one entry per key. The key is still checked
+ * to be actually expired when its entry is due.</p>
+ * <p>The keys that together with the eol exceed the {@link KeyTreeOperations#getMaxKeyLength()}
+ * are not indexed.</p>
+ */
+public class ExpiryIndexOperations implements Committable {
+
+    private static final int EOL_BYTES = 8;
+
+    private final KeyTreeOperations keyTreeOperations;
+
+    /**
+     * Creates a new empty index
+     *
+     * @param blockAllocator the allocator to take the index blocks from
+     * @param recordLengths the lengths of the record elements
+     * @return the expiry index operations
+     */
+    public static ExpiryIndexOperations create(final BlockAllocator blockAllocator, final RecordLengths recordLengths) {
+        return new ExpiryIndexOperations(KeyTreeOperations.create(blockAllocator, recordLengths));
+    }
+
+    /**
+     * Loads an existing index
+     *
+     * @param blockAllocator the allocator to take the index blocks from
+     * @param startIndex the index of the first block as provided by {@link #getStartIndex()}
+     * @param recordLengths the lengths of the record elements
+     * @return the expiry index operations
+     */
+    public static ExpiryIndexOperations load(final BlockAllocator blockAllocator, final long startIndex, final RecordLengths recordLengths) {
+        return new ExpiryIndexOperations(KeyTreeOperations.load(blockAllocator, startIndex, recordLengths));
+    }
+
+    /**
+     * Checks if the blocks of the media are big enough to keep the index
+     *
+     * @param mediaProperties the properties of the media
+     * @param recordLengths the lengths of the record elements
+     * @return {@code true} if the index can be created
+     */
+    public static boolean isSupported(final MediaProperties mediaProperties, final RecordLengths recordLengths) {
+        return KeyTreeOperations.computeMaxKeyLength(mediaProperties, recordLengths) > EOL_BYTES;
+    }
+
+    private ExpiryIndexOperations(final KeyTreeOperations keyTreeOperations) {
+        this.keyTreeOperations = keyTreeOperations;
+    }
+
+    /**
+     * The index of the first block of the index
+     *
+     * @return the block index
+     */
+    public long getStartIndex() {
+        return keyTreeOperations.getStartIndex();
+    }
+
+    /**
+     * The container of the index blocks, see {@link KeyTreeOperations#getBlockContainer()}
+     *
+     * @return the block container
+     */
+    public BlockContainer getBlockContainer() {
+        return keyTreeOperations.getBlockContainer();
+    }
+
+    /**
+     * Adds the key with the given eol to the index
+     *
+     * @param key the key
+     * @param eol the eol of the key
+     * @return {@code true} if the key has been indexed, {@code false} if the key does not expire or is too long
+     */
+    public boolean add(final byte[] key, final long eol) {
+        if (eol == Utils.EOL_FOREVER || key.length + EOL_BYTES > keyTreeOperations.getMaxKeyLength()) {
+            return false;
+        }
+        keyTreeOperations.put(toEntry(key, eol), new Record().addOption(RecordOption.OVERRIDE_VERSION));
+        return true;
+    }
+
+    /**
+     * Removes the entry of the key with the given eol from the index
+     *
+     * @param key the key
+     * @param eol the eol the key has been indexed with
+     * @return {@code true} if the entry has been found and removed
+     */
+    public boolean remove(final byte[] key, final long eol) {
+        if (eol == Utils.EOL_FOREVER || key.length + EOL_BYTES > keyTreeOperations.getMaxKeyLength()) {
+            return false;
+        }
+        return keyTreeOperations.remove(toEntry(key, eol), new Record().addOption(RecordOption.OVERRIDE_VERSION));
+    }
+
+    /**
+     * Removes the entries which eol has passed from the index and provides their keys
+     *
+     * @param currentTimeSecs the current time in seconds
+     * @param maxNumber the maximum number of entries to remove
+     * @return the keys of the removed entries, ordered by eol
+     */
+    public List<byte[]> pollExpired(final long currentTimeSecs, final int maxNumber) {
+        final KeyList keyList = keyTreeOperations.list(null, null, maxNumber, Long.MAX_VALUE);
+        final List<byte[]> keys = new ArrayList<>();
+        for (final byte[] entry : keyList.getKeys()) {
+            if (!Utils.isExpiredEOL(getEol(entry), currentTimeSecs)) {
+                break;
+            }
+            keyTreeOperations.remove(entry, new Record().addOption(RecordOption.OVERRIDE_VERSION));
+            keys.add(Arrays.copyOfRange(entry, EOL_BYTES, entry.length));
+        }
+        return keys;
+    }
+
+    /**
+     * Counts the entries which eol has passed
+     *
+     * @param currentTimeSecs the current time in seconds
+     * @param maxNumber the maximum number of entries to count
+     * @return the number of entries, at most {@code maxNumber}
+     */
+    public int countExpired(final long currentTimeSecs, final int maxNumber) {
+        final KeyList keyList = keyTreeOperations.list(null, null, maxNumber, Long.MAX_VALUE);
+        int count = 0;
+        for (final byte[] entry : keyList.getKeys()) {
+            if (!Utils.isExpiredEOL(getEol(entry), currentTimeSecs)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Encodes the eol so that the byte-wise comparison of the entries orders them by eol first.
+     * The sign bit of every byte is flipped as the bytes are compared signed.
+     */
+    private static byte[] toEntry(final byte[] key, final long eol) {
+        final byte[] entry = new byte[EOL_BYTES + key.length];
+        for (int i = 0; i < EOL_BYTES; i++) {
+            entry[i] = (byte) ((eol >>> ((EOL_BYTES - 1 - i) * 8)) ^ 0x80);
+        }
+        System.arraycopy(key, 0, entry, EOL_BYTES, key.length);
+        return entry;
+    }
+
+    private static long getEol(final byte[] entry) {
+        long eol = 0;
+        for (int i = 0; i < EOL_BYTES; i++) {
+            eol = (eol << 8) | ((entry[i] ^ 0x80) & 0xff);
+        }
+        return eol;
+    }
+
+    /**
+     * Frees all the blocks of the index
+     */
+    public void remove() {
+        keyTreeOperations.remove();
+    }
+
+    @Override
+    public void close() {
+        keyTreeOperations.close();
+    }
+
+    @Override
+    public Status getStatus() {
+        return keyTreeOperations.getStatus();
+    }
+
+    @Override
+    public void commit() {
+        keyTreeOperations.commit();
+    }
+}
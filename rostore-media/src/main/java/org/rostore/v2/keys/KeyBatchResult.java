@@ -0,0 +1,65 @@
+package org.rostore.v2.keys;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The outcome of the batch key operation, see {@link KeyBlockOperations#putAll(SortedMap)}.
+ * <p>Every key of the batch is processed independently, so some keys can fail, while the others succeed.</p>
+ *
+ * @param <T> the type of the per-key result
+ */
+public class KeyBatchResult<T> {
+
+    private final SortedMap<byte[], T> results = new TreeMap<>(Arrays::compare);
+    private final SortedMap<byte[], RuntimeException> failures = new TreeMap<>(Arrays::compare);
+
+    /**
+     * Adds the result for the key
+     *
+     * @param key the key
+     * @param result the result of the operation on the key
+     */
+    public void addResult(final byte[] key, final T result) {
+        results.put(key, result);
+    }
+
+    /**
+     * Adds the failure for the key
+     *
+     * @param key the key
+     * @param exception the exception the operation on the key has failed with
+     */
+    public void addFailure(final byte[] key, final RuntimeException exception) {
+        failures.put(key, exception);
+    }
+
+    /**
+     * Adds all the results and failures of the other batch result
+     *
+     * @param other the result to add
+     */
+    public void addAll(final KeyBatchResult<T> other) {
+        results.putAll(other.results);
+        failures.putAll(other.failures);
+    }
+
+    /**
+     * Provides the results of the successfully processed keys
+     *
+     * @return the results sorted by key
+     */
+    public SortedMap<byte[], T> getResults() {
+        return results;
+    }
+
+    /**
+     * Provides the failures of the keys that could not be processed
+     *
+     * @return the exceptions sorted by key
+     */
+    public SortedMap<byte[], RuntimeException> getFailures() {
+        return failures;
+    }
+}
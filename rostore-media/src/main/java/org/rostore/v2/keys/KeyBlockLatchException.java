@@ -0,0 +1,16 @@
+package org.rostore.v2.keys;
+
+import org.rostore.entity.RoStoreException;
+
+/**
+ * Thrown by the write that runs under the latches of the key blocks (see {@link KeyBlockLatches}) if it needs
+ * the exclusive access to the shard: it would change the structure of the keys, e.g. insert or remove a key,
+ * or the key block is latched by another write.
+ * <p>It is thrown before anything is changed, so the write can be repeated as an exclusive one.</p>
+ */
+public class KeyBlockLatchException extends RoStoreException {
+
+    public KeyBlockLatchException(final String message) {
+        super(message);
+    }
+}
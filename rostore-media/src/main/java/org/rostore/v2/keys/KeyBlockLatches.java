@@ -0,0 +1,35 @@
+package org.rostore.v2.keys;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latches of the key blocks of one shard.
+ * <p>A write that only updates the records in place latches every key block it changes, so the writes
+ * that change different blocks can run in parallel, see {@link KeyBlockOperations#beginLatched(KeyBlockLatches)}.</p>
+ * <p>The latches are never waited for: if the block is latched by another write, the write needs the
+ * exclusive access to the shard instead, see {@link KeyBlockLatchException}.</p>
+ */
+public class KeyBlockLatches {
+
+    private final Set<Long> latched = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Latches the key block if no other write holds it
+     *
+     * @param blockIndex the index of the key block
+     * @return {@code true} if the block has been latched
+     */
+    public boolean tryLatch(final long blockIndex) {
+        return latched.add(blockIndex);
+    }
+
+    /**
+     * Releases the latch of the key block, it should only be called once the changes of the block are published
+     *
+     * @param blockIndex the index of the key block
+     */
+    public void release(final long blockIndex) {
+        latched.remove(blockIndex);
+    }
+}
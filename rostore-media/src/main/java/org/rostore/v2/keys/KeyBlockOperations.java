@@ -16,6 +16,13 @@ import org.rostore.v2.media.block.container.Status;
 import org.rostore.v2.seq.BlockSequence;
 import org.rostore.v2.seq.SequenceBlock;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class KeyBlockOperations implements Committable {
@@ -28,14 +35,114 @@ public class KeyBlockOperations implements Committable {
 
     private boolean rebalance = false;
 
+    /**
+     * Set during the batch operations on the sorted keys, see {@link #putAll(SortedMap)}
+     */
+    private boolean forwardPass = false;
+
+    /**
+     * The index of the block in the sequence where the previous key of the forward pass has been found.
+     * <p>All the blocks before it only contain the keys that are lower than the previous key,
+     * so the search of the next key can start from it.</p>
+     */
+    private int searchHint = 0;
+
+    /**
+     * The index of the entry in the block {@link #searchHint} where the previous key of the forward pass has been found.
+     * <p>It is only a hint, as the entries can be moved by the previous operation, it is checked before it is used.</p>
+     */
+    private int entryHint = 0;
+
+    /**
+     * The eol of the entry that has been replaced by the last {@link #put(byte[], Record)}
+     * or removed by the last step of {@link #removeRange(byte[], byte[], BiConsumer)}
+     */
+    private long replacedEol = Utils.EOL_FOREVER;
+
+    /**
+     * The share of the key and var-size block capacity that is used when the entries are appended
+     * at the end of the sequence, see {@link #append(byte[], Record, double)}
+     */
+    private double fillFactor = 1;
+
+    /**
+     * The latches of the shard's key blocks, only set while the write runs latched, see {@link #beginLatched(KeyBlockLatches)}
+     */
+    private KeyBlockLatches latches;
+
+    /**
+     * The key blocks latched by the current write
+     */
+    private final List<Long> latchedBlocks = new ArrayList<>();
+
     public BlockSequence getBlockSequence() {
         return keyBlock.getBlockSequence();
     }
 
+    /**
+     * Starts the write that only updates the records of the existing keys in place.
+     * <p>Every key block is latched before its record is changed, so the latched writes
+     * that change different blocks can run in parallel. Anything else, e.g. an insert, a removal or
+     * the change of the eol, fails with {@link KeyBlockLatchException} before the keys are changed.</p>
+     * <p>The latches are held until {@link #endLatched()}, which should only be called
+     * once the changes are published.</p>
+     *
+     * @param latches the latches of the shard's key blocks
+     */
+    public void beginLatched(final KeyBlockLatches latches) {
+        this.latches = latches;
+    }
+
+    /**
+     * Releases the latches taken since {@link #beginLatched(KeyBlockLatches)}
+     */
+    public void endLatched() {
+        for (final long blockIndex : latchedBlocks) {
+            latches.release(blockIndex);
+        }
+        latchedBlocks.clear();
+        latches = null;
+    }
+
+    /**
+     * Checks if the write runs latched, see {@link #beginLatched(KeyBlockLatches)}
+     *
+     * @return {@code true} if only the in-place updates are allowed
+     */
+    public boolean isLatched() {
+        return latches != null;
+    }
+
+    /**
+     * Must be called before the structure of the keys is changed
+     */
+    private void checkExclusive() {
+        if (latches != null) {
+            throw new KeyBlockLatchException("The change of the key structure needs the exclusive write.");
+        }
+    }
+
+    /**
+     * Latches the current key block, if the write runs latched
+     */
+    private void latchKeyBlock() {
+        if (latches == null) {
+            return;
+        }
+        final long blockIndex = keyBlock.getBlock().getAbsoluteIndex();
+        if (!latchedBlocks.contains(blockIndex)) {
+            if (!latches.tryLatch(blockIndex)) {
+                throw new KeyBlockLatchException("The key block " + blockIndex + " is latched by another write.");
+            }
+            latchedBlocks.add(blockIndex);
+        }
+    }
+
     /**
      * Function calculates how many blocks is used by this key block area
      */
     public void remove() {
+        checkExclusive();
         CatalogBlockIndices toFree = new CatalogBlockIndices();
         for(int i=0; i<keyBlock.getBlockSequence().length(); i++) {
             keyBlock.moveTo(i);
@@ -110,9 +217,11 @@ public class KeyBlockOperations implements Committable {
      * remove them
      *
      * @param blockIndex the key block to lookup in
+     * @param removedKeyConsumer receives the key of the removed entry
      * @return the id of the removed expired entry or {@link Utils#ID_UNDEFINED} if nothing has been deleted
      */
-    public long removeIfExpired(final int blockIndex) {
+    public long removeIfExpired(final int blockIndex, final Consumer<byte[]> removedKeyConsumer) {
+        checkExclusive();
         try {
             keyBlock.moveTo(blockIndex);
             if (keyBlock.invalid()) {
@@ -129,6 +238,28 @@ public class KeyBlockOperations implements Committable {
                 keyBlockEntry.sync(true);
             }
             if (keyBlockEntry.valid() && keyBlockEntry.isExpired(currentTimeSecs)) {
+                long id = keyBlockEntry.getId();
+                removedKeyConsumer.accept(varSizeBlock.get());
+                removeEntryInternally();
+                return id;
+            }
+            return Utils.ID_UNDEFINED;
+        } finally {
+            rebalance();
+        }
+    }
+
+    /**
+     * Removes the key if it is expired
+     *
+     * @param key the key to check
+     * @param currentTimeSecs the current time in seconds
+     * @return the id of the removed entry or {@link Utils#ID_UNDEFINED} if the key is not found or not expired
+     */
+    public long removeIfExpired(final byte[] key, final long currentTimeSecs) {
+        checkExclusive();
+        try {
+            if (findAfter(key) == 0 && keyBlockEntry.isExpired(currentTimeSecs)) {
                 long id = keyBlockEntry.getId();
                 removeEntryInternally();
                 return id;
@@ -145,6 +276,7 @@ public class KeyBlockOperations implements Committable {
      * @return
      */
     public boolean remove(final byte[] key, final Record record) {
+        checkExclusive();
         try {
             keyBlock.root();
             int cmp;
@@ -260,6 +392,7 @@ public class KeyBlockOperations implements Committable {
      * @return the previous id (if one exists) or {@link Utils#ID_UNDEFINED}
      */
     public long put(final byte[] key, final Record record) {
+        replacedEol = Utils.EOL_FOREVER;
         try {
             keyBlock.root();
             int cmp;
@@ -324,6 +457,278 @@ public class KeyBlockOperations implements Committable {
         }
     }
 
+    /**
+     * The eol of the entry that has been replaced by the last {@link #put(byte[], Record)}.
+     * <p>Within the consumer of {@link #removeRange(byte[], byte[], BiConsumer)} it is the eol of the entry just removed.</p>
+     *
+     * @return the eol or {@link Utils#EOL_FOREVER} if no entry has been replaced
+     */
+    public long getReplacedEol() {
+        return replacedEol;
+    }
+
+    /**
+     * Stores the records of the sorted batch in one forward pass.
+     *
+     * <p>Every key is stored as in {@link #put(byte[], Record)}, but the search of the key continues from
+     * the block and the entry of the previous key of the batch: the following blocks and entries are walked with
+     * the doubling steps, so the keys that are close to each other are found with a few comparisons, and
+     * only the range passed by the last step is bisected. The records in the map are updated as in {@link #put(byte[], Record)}.</p>
+     * <p>The keys are processed independently: the failure of one key does not prevent the others from being stored.</p>
+     * <p>The batch is expected to be sorted in the order of the key sequence, if some key is out of order,
+     * its search just falls back to the whole sequence.</p>
+     *
+     * @param records the records to store sorted by key
+     * @return the previous id (or {@link Utils#ID_UNDEFINED}) for every stored key and the failures
+     */
+    public KeyBatchResult<Long> putAll(final SortedMap<byte[], Record> records) {
+        return putAll(records, (key, eol) -> {});
+    }
+
+    /**
+     * Stores the records of the sorted batch in one forward pass, see {@link #putAll(SortedMap)}
+     *
+     * @param records the records to store sorted by key
+     * @param replacedEolConsumer receives the key and the eol of every replaced entry
+     * @return the previous id (or {@link Utils#ID_UNDEFINED}) for every stored key and the failures
+     */
+    public KeyBatchResult<Long> putAll(final SortedMap<byte[], Record> records, final BiConsumer<byte[], Long> replacedEolConsumer) {
+        checkExclusive();
+        final KeyBatchResult<Long> result = new KeyBatchResult<>();
+        forwardPass(records, result, (key, record) -> {
+            result.addResult(key, put(key, record));
+            if (replacedEol != Utils.EOL_FOREVER) {
+                replacedEolConsumer.accept(key, replacedEol);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Removes the keys of the sorted batch in one forward pass.
+     *
+     * <p>Every key is removed as in {@link #remove(byte[], Record)}, the records in the map receive the id and eol of the
+     * removed entries. The search is executed as in {@link #putAll(SortedMap)}.</p>
+     *
+     * @param records the keys to remove sorted by key with the records to validate the version
+     * @return the result of removal for every key and the failures
+     */
+    public KeyBatchResult<Boolean> removeAll(final SortedMap<byte[], Record> records) {
+        checkExclusive();
+        final KeyBatchResult<Boolean> result = new KeyBatchResult<>();
+        forwardPass(records, result, (key, record) -> result.addResult(key, remove(key, record)));
+        return result;
+    }
+
+    /**
+     * Removes all the keys in the range in one forward sweep over the key blocks.
+     *
+     * <p>The first key of the range is searched once, all the following entries are removed one after another
+     * up to the end of the range. The key blocks that get empty are dropped as the sweep passes them,
+     * and the sequence is rebalanced once at the end.</p>
+     * <p>No version is validated. The expired entries are removed as well, but are not counted.</p>
+     *
+     * @param fromKey the first key of the range (inclusive), {@code null} to start from the first key
+     * @param toKey the end of the range (exclusive), {@code null} to remove up to the last key
+     * @param removedConsumer receives the key and the id of every removed entry, the caller is responsible to remove the ids
+     * @return the number of removed keys that have not been expired
+     */
+    public long removeRange(final byte[] fromKey, final byte[] toKey, final BiConsumer<byte[], Long> removedConsumer) {
+        checkExclusive();
+        try {
+            if (!moveToFirstNotBefore(fromKey)) {
+                return 0;
+            }
+            final long currentTimeSecs = System.currentTimeMillis() / 1000;
+            long removed = 0;
+            while (true) {
+                final byte[] key = varSizeBlock.get();
+                if (toKey != null && Arrays.compare(key, toKey) >= 0) {
+                    return removed;
+                }
+                final long id = keyBlockEntry.getId();
+                replacedEol = keyBlockEntry.getRecord().getEol();
+                if (!keyBlockEntry.isExpired(currentTimeSecs)) {
+                    removed++;
+                }
+                final int blockIndex = keyBlock.getIndex();
+                final int entryIndex = keyBlockEntry.getIndex();
+                final boolean blockDropped = keyBlock.getEntriesNumber() == 1 && !keyBlock.isRoot();
+                removeEntryInternally();
+                removedConsumer.accept(key, id);
+                // the next entry takes the place of the removed one, or the next block the place of the dropped one
+                if (!moveToEntry(blockIndex, blockDropped ? 0 : entryIndex)) {
+                    return removed;
+                }
+            }
+        } finally {
+            rebalance();
+        }
+    }
+
+    /**
+     * Removes all the keys that start with the prefix, see {@link #removeRange(byte[], byte[], BiConsumer)}
+     *
+     * @param prefix the prefix of the keys to remove, an empty prefix removes all the keys
+     * @param removedConsumer receives the key and the id of every removed entry, the caller is responsible to remove the ids
+     * @return the number of removed keys that have not been expired
+     */
+    public long removePrefix(final byte[] prefix, final BiConsumer<byte[], Long> removedConsumer) {
+        return removeRange(prefix, prefixEnd(prefix), removedConsumer);
+    }
+
+    /**
+     * Provides the lowest key that is greater than all the keys with the given prefix
+     *
+     * @return the key or {@code null} if no such key exists
+     */
+    private static byte[] prefixEnd(final byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != Byte.MAX_VALUE) {
+                final byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves to the first entry that is not lower than the key
+     *
+     * @return {@code false} if no such entry exists
+     */
+    private boolean moveToFirstNotBefore(final byte[] key) {
+        if (key == null || key.length == 0) {
+            return moveToEntry(0, 0);
+        }
+        final int cmp = findAfter(key);
+        if (keyBlock.invalid() || keyBlockEntry.invalid()) {
+            return false;
+        }
+        if (cmp > 0) {
+            // the entry is lower than the key
+            return moveToEntry(keyBlock.getIndex(), keyBlockEntry.getIndex() + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the entry of the block or to the first entry of the following non-empty block if the block has no such entry
+     *
+     * @return {@code false} if no such entry exists
+     */
+    private boolean moveToEntry(final int blockIndex, final int entryIndex) {
+        int index = blockIndex;
+        int entry = entryIndex;
+        while (index < keyBlock.getBlockSequence().length()) {
+            keyBlock.moveTo(index);
+            if (entry < keyBlock.getEntriesNumber()) {
+                keyBlockEntry.moveTo(entry);
+                return true;
+            }
+            index++;
+            entry = 0;
+        }
+        keyBlock.invalidate();
+        return false;
+    }
+
+    private void forwardPass(final SortedMap<byte[], Record> records,
+                             final KeyBatchResult<?> result,
+                             final BiConsumer<byte[], Record> operation) {
+        byte[] previousKey = null;
+        forwardPass = true;
+        searchHint = 0;
+        entryHint = 0;
+        try {
+            for (final Map.Entry<byte[], Record> entry : records.entrySet()) {
+                if (previousKey != null && Arrays.compare(previousKey, entry.getKey()) >= 0) {
+                    // the batch is not in the order of the sequence
+                    searchHint = 0;
+                    entryHint = 0;
+                }
+                try {
+                    operation.accept(entry.getKey(), entry.getValue());
+                } catch (final RuntimeException e) {
+                    result.addFailure(entry.getKey(), e);
+                }
+                previousKey = entry.getKey();
+            }
+        } finally {
+            forwardPass = false;
+            searchHint = 0;
+            entryHint = 0;
+        }
+    }
+
+    /**
+     * Visits all the entries in the order of the keys, including the expired ones
+     *
+     * @param consumer receives the key and the id of every entry
+     */
+    public void forEach(final BiConsumer<byte[], Long> consumer) {
+        boolean valid = moveToEntry(0, 0);
+        while (valid) {
+            consumer.accept(varSizeBlock.get(), keyBlockEntry.getId());
+            valid = moveToEntry(keyBlock.getIndex(), keyBlockEntry.getIndex() + 1);
+        }
+    }
+
+    /**
+     * Checks if there are no keys stored
+     *
+     * @return {@code true} if no key entry exists
+     */
+    public boolean isEmpty() {
+        keyBlock.root();
+        if (keyBlock.getEntriesNumber() == 0) {
+            keyBlock.next();
+            return keyBlock.invalid();
+        }
+        return false;
+    }
+
+    /**
+     * Appends the record for the key that is strictly greater than all the keys stored.
+     *
+     * <p>This is used in the bulk load of the sorted keys: no search is executed and
+     * as the key is known to be new, no option or version validation is done.</p>
+     * <p>The key blocks and the var-size blocks created by this operation are only filled
+     * up to the given fill factor, so that later inserts in the loaded range would not
+     * cause the immediate block splits.</p>
+     *
+     * @param key the key to store
+     * @param record the record to store
+     * @param fillFactor the share of the block capacity to use, in the range (0, 1]
+     * @return {@code true} if the key has been appended or {@code false} if the key is not greater than the last stored key, in this case nothing is changed
+     */
+    public boolean append(final byte[] key, final Record record, final double fillFactor) {
+        checkExclusive();
+        try {
+            keyBlock.root();
+            if (keyBlock.getEntriesNumber() == 0) {
+                keyBlock.next();
+                if (keyBlock.invalid()) {
+                    keyBlock.root();
+                    insertFirstEntry(key, record);
+                    return true;
+                }
+            }
+            keyBlock.last();
+            keyBlockEntry.last();
+            if (varSizeBlock.compare(key) <= 0) {
+                return false;
+            }
+            this.fillFactor = fillFactor;
+            expandLastEntry(key, record);
+            return true;
+        } finally {
+            this.fillFactor = 1;
+            rebalance();
+        }
+    }
+
     /**
      * Sets the parameters from the record to the current entry
      *
@@ -335,7 +740,12 @@ public class KeyBlockOperations implements Committable {
      * @return the previous value of the id associated with the record
      */
     private long updateRecord(final Record record) {
+        latchKeyBlock();
         final Record previousRecord = keyBlockEntry.getRecord();
+        if (latches != null && previousRecord.getEol() != record.getEol()) {
+            // the key would get another place in the expiry index
+            throw new KeyBlockLatchException("The change of the eol needs the exclusive write.");
+        }
         if (keyBlockEntry.isExpired()) {
             OptionMismatchException.checkInsertRecord(record);
         } else {
@@ -352,10 +762,12 @@ public class KeyBlockOperations implements Committable {
             }
         }
         keyBlockEntry.setRecord(record);
+        replacedEol = previousRecord.getEol();
         return previousRecord.getId();
     }
 
     private void insertFirstEntry(final byte[] key, final Record record) {
+        checkExclusive();
         if (shouldBeMultiBlock(key)) {
             long blockIndex = varSizeMultiBlock.put(key);
             insertKeyEntry(blockIndex, 0, record);
@@ -381,13 +793,14 @@ public class KeyBlockOperations implements Committable {
     }
 
     private void expandLastEntry(final byte[] key, final Record record) {
+        checkExclusive();
         if (shouldBeMultiBlock(key)) {
             long blockIndex = varSizeMultiBlock.put(key);
             expandKeyEntry(blockIndex, 0, record);
         } else {
             if (varSizeBlock.isMultiEntry()) {
                 // we are inserting at the end of multi entry
-                if (varSizeEntry.getFreeSpace() > key.length) {
+                if (varSizeEntry.getFreeSpace() - (int)(varSizeEntry.getDataCapacity() * (1 - fillFactor)) > key.length) {
                     varSizeEntry.expand(key);
                     expandKeyEntry(varSizeBlock.getBlockIndex(), varSizeEntry.getOffset(), record);
                 } else {
@@ -408,6 +821,7 @@ public class KeyBlockOperations implements Committable {
     }
 
     private void insertBeforeEntry(final byte[] key, final Record record) {
+        checkExclusive();
         if (shouldBeMultiBlock(key)) {
             // it is going to be a multi block
             long blockIndex = varSizeMultiBlock.put(key);
@@ -572,7 +986,8 @@ public class KeyBlockOperations implements Committable {
     private void expandKeyEntry(long blockIndex, long offset, Record record) {
         boolean syncBefore = keyBlockEntry.sync(false);
         try {
-            if (keyBlock.hasFreeSpace()) {
+            if (keyBlock.hasFreeSpace() &&
+                    keyBlock.getEntriesNumber() < Math.max(1, (int)(keyBlock.getEntryCapacity() * fillFactor))) {
                 keyBlockEntry.expand();
             } else {
                 keyBlock.createNewAfter();
@@ -621,6 +1036,15 @@ public class KeyBlockOperations implements Committable {
     }
 
     private int findAfter(final byte[] key) {
+        final int cmp = findAfterInternal(key);
+        if (forwardPass && keyBlock.valid()) {
+            searchHint = keyBlock.getIndex();
+            entryHint = keyBlockEntry.valid() ? keyBlockEntry.getIndex() : 0;
+        }
+        return cmp;
+    }
+
+    private int findAfterInternal(final byte[] key) {
         keyBlock.root();
         if (keyBlock.getEntriesNumber()==0) {
             // start with next if root is empty
@@ -629,6 +1053,10 @@ public class KeyBlockOperations implements Committable {
         if (keyBlock.invalid()) {
             return -1;
         }
+        if (forwardPass && searchHint > keyBlock.getIndex() && searchHint < keyBlock.getBlockSequence().length()) {
+            // all the blocks before the hint contain only the keys lower than this one
+            keyBlock.moveTo(searchHint);
+        }
         keyBlockEntry.last();
         int startIndex = keyBlock.getIndex();
         // but should be at least the last one
@@ -644,6 +1072,26 @@ public class KeyBlockOperations implements Committable {
         if (startIndex == stopIndex) {
             return 1;
         }
+        if (forwardPass) {
+            // the next key of the sorted batch is mostly in one of the following blocks,
+            // so the blocks are walked with the growing steps before the range is bisected
+            int step = 1;
+            while (startIndex + step < stopIndex) {
+                final int probe = startIndex + step;
+                keyBlock.moveTo(probe);
+                keyBlockEntry.last();
+                cmp = varSizeBlock.compare(key);
+                if (cmp == 0) {
+                    return 0;
+                }
+                if (cmp < 0) {
+                    stopIndex = probe;
+                    break;
+                }
+                startIndex = probe;
+                step <<= 1;
+            }
+        }
         while (stopIndex - startIndex != 1) {
             int next = (startIndex + stopIndex) / 2;
             keyBlock.moveTo(next);
@@ -663,6 +1111,35 @@ public class KeyBlockOperations implements Committable {
     }
 
     private int searchInBlock(final byte[] key) {
+        final int lastIndex = keyBlockEntry.getEntriesNumber() - 1;
+        if (forwardPass && keyBlock.getIndex() == searchHint && entryHint > 0 && entryHint < lastIndex) {
+            // the previous key of the batch has been found in this block, the search continues from its entry
+            keyBlockEntry.moveTo(entryHint);
+            int cmp = varSizeBlock.compare(key);
+            if (cmp == 0) {
+                return 0;
+            }
+            if (cmp > 0) {
+                int startIndex = entryHint;
+                int stopIndex = lastIndex;
+                int step = 1;
+                while (startIndex + step < stopIndex) {
+                    final int probe = startIndex + step;
+                    keyBlockEntry.moveTo(probe);
+                    cmp = varSizeBlock.compare(key);
+                    if (cmp == 0) {
+                        return 0;
+                    }
+                    if (cmp < 0) {
+                        stopIndex = probe;
+                        break;
+                    }
+                    startIndex = probe;
+                    step <<= 1;
+                }
+                return searchInRange(key, startIndex, stopIndex);
+            }
+        }
         // search a point somewhere in the selected block
         keyBlockEntry.first();
         int cmp = varSizeBlock.compare(key);
@@ -672,15 +1149,20 @@ public class KeyBlockOperations implements Committable {
         if (cmp < 0) {
             return -1;
         }
-        int startIndex = 0;
-        int stopIndex = keyBlockEntry.getEntriesNumber() - 1;
-        if (stopIndex == startIndex) {
+        if (lastIndex == 0) {
             return 1;
         }
+        return searchInRange(key, 0, lastIndex);
+    }
+
+    /**
+     * Bisects the entries of the block between the entry that is lower than the key and the last entry to check
+     */
+    private int searchInRange(final byte[] key, int startIndex, int stopIndex) {
         while (stopIndex - startIndex != 1) {
             int next = (startIndex + stopIndex) / 2;
             keyBlockEntry.moveTo(next);
-            cmp = varSizeBlock.compare(key);
+            final int cmp = varSizeBlock.compare(key);
             if (cmp == 0) {
                 return 0;
             }
@@ -762,6 +1244,103 @@ public class KeyBlockOperations implements Committable {
         }
     }
 
+    /**
+     * Lists the keys in the descending order.
+     *
+     * <p>The listing starts from the last key, or from the last key with the prefix, or right
+     * below the continuation key, and moves backwards over the entries and the key blocks.</p>
+     *
+     * @param startWithKey the prefix of the keys to list, {@code null} to list all the keys
+     * @param continuationKey the last key of the previous page, the listing continues with the keys lower than it
+     * @param maxNumber the maximum number of keys to return
+     * @param maxSize the maximum size of the returned list
+     * @return the keys in the descending order
+     */
+    public KeyList listDescending(final byte[] startWithKey, final byte[] continuationKey, final long maxNumber, final long maxSize) {
+        final KeyList keyList = new KeyList();
+        final boolean prefixed = startWithKey != null && startWithKey.length != 0;
+        final byte[] upperKey;
+        if (continuationKey != null) {
+            upperKey = continuationKey;
+        } else if (prefixed) {
+            upperKey = prefixEnd(startWithKey);
+        } else {
+            upperKey = null;
+        }
+        if (!moveToLastBefore(upperKey)) {
+            return keyList;
+        }
+        final long timeSec = System.currentTimeMillis() / 1000;
+        while (true) {
+            if (!keyBlockEntry.isExpired(timeSec)) {
+                final byte[] key = varSizeBlock.get();
+                if (prefixed && !startsWith(key, startWithKey)) {
+                    return keyList;
+                }
+                keyList.addKey(key);
+            }
+            if (!moveToPreviousEntry()) {
+                return keyList;
+            }
+            if (keyList.getSize() >= maxSize || keyList.getKeys().size() >= maxNumber) {
+                keyList.setMore(true);
+                return keyList;
+            }
+        }
+    }
+
+    private static boolean startsWith(final byte[] key, final byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        return Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * Moves to the last entry that is lower than the key
+     *
+     * @param key the key or {@code null} to move to the last entry
+     * @return {@code false} if no such entry exists
+     */
+    private boolean moveToLastBefore(final byte[] key) {
+        if (key == null) {
+            keyBlock.last();
+            if (keyBlock.invalid()) {
+                return false;
+            }
+            keyBlockEntry.last();
+            return keyBlockEntry.valid() || moveToPreviousEntry();
+        }
+        final int cmp = findAfter(key);
+        if (keyBlock.invalid() || keyBlockEntry.invalid()) {
+            return false;
+        }
+        if (cmp > 0) {
+            // the entry is lower than the key
+            return true;
+        }
+        return moveToPreviousEntry();
+    }
+
+    /**
+     * Moves to the previous entry, or to the last entry of the previous non-empty block
+     *
+     * @return {@code false} if the current entry is the first one
+     */
+    private boolean moveToPreviousEntry() {
+        if (keyBlockEntry.valid()) {
+            keyBlockEntry.previous();
+        }
+        while (keyBlockEntry.invalid()) {
+            keyBlock.previous();
+            if (keyBlock.invalid()) {
+                return false;
+            }
+            keyBlockEntry.last();
+        }
+        return true;
+    }
+
     /**
      * Searches for the provided key and return the {@link Record}
      * associated with it.
@@ -0,0 +1,269 @@
+package org.rostore.v2.keys;
+
+import org.rostore.entity.Record;
+import org.rostore.v2.media.block.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory image of one node of the {@link KeyTreeOperations}.
+ * <p>Every node occupies exactly one block with the following layout:</p>
+ * <pre>
+ * [type: 1 byte][number of keys: 2 bytes][next leaf: block index][previous leaf: block index]
+ * leaf:     ([key length: 2 bytes][key][record])*
+ * internal: [child: block index] ([key length: 2 bytes][key][child: block index])*
+ * </pre>
+ * <p>Sibling links are only maintained on the leaf level and are {@code 0} when absent,
+ * as block 0 is always occupied by the media header.</p>
+ */
+class KeyTreeNode {
+
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+
+    private static final int KEY_LENGTH_BYTES = 2;
+
+    private final long blockIndex;
+    private boolean leaf;
+    private long next;
+    private long previous;
+    private final List<byte[]> keys = new ArrayList<>();
+    private final List<Record> records = new ArrayList<>();
+    private final List<Long> children = new ArrayList<>();
+
+    /**
+     * The size of the node header
+     *
+     * @param bytesPerBlockIndex the number of bytes used to store a block index
+     * @return the size in bytes
+     */
+    static int getHeaderSize(final int bytesPerBlockIndex) {
+        return 1 + KEY_LENGTH_BYTES + 2 * bytesPerBlockIndex;
+    }
+
+    /**
+     * The size of the leaf entry for the given key
+     *
+     * @param key the key
+     * @param recordLengths the record lengths
+     * @return the size in bytes
+     */
+    static int getLeafEntrySize(final byte[] key, final RecordLengths recordLengths) {
+        return KEY_LENGTH_BYTES + key.length + recordLengths.getTotalLength();
+    }
+
+    /**
+     * The size of the internal node entry for the given key
+     *
+     * @param key the key
+     * @param bytesPerBlockIndex the number of bytes used to store a block index
+     * @return the size in bytes
+     */
+    static int getInternalEntrySize(final byte[] key, final int bytesPerBlockIndex) {
+        return KEY_LENGTH_BYTES + key.length + bytesPerBlockIndex;
+    }
+
+    KeyTreeNode(final long blockIndex, final boolean leaf) {
+        this.blockIndex = blockIndex;
+        this.leaf = leaf;
+    }
+
+    /**
+     * Decodes the node from the block
+     *
+     * @param block the block to read the node from
+     * @param recordLengths the lengths of the record in the leaf
+     * @return the node
+     */
+    static KeyTreeNode read(final Block block, final RecordLengths recordLengths) {
+        block.position(0);
+        final KeyTreeNode node = new KeyTreeNode(block.getAbsoluteIndex(), block.getByte() == LEAF);
+        final int number = (int) block.getLong(KEY_LENGTH_BYTES);
+        node.next = block.readBlockIndex();
+        node.previous = block.readBlockIndex();
+        if (!node.leaf) {
+            node.children.add(block.readBlockIndex());
+        }
+        for (int i = 0; i < number; i++) {
+            final byte[] key = new byte[(int) block.getLong(KEY_LENGTH_BYTES)];
+            block.get(key, 0, key.length);
+            node.keys.add(key);
+            if (node.leaf) {
+                final Record record = new Record();
+                record.id(block.getLong(recordLengths.getIdLength()));
+                record.eol(block.getLong(recordLengths.getEolLength()));
+                record.version(block.getLong(recordLengths.getVersionLength()));
+                node.records.add(record);
+            } else {
+                node.children.add(block.readBlockIndex());
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Encodes the node to the block
+     *
+     * @param block the block to write the node to
+     * @param recordLengths the lengths of the record in the leaf
+     */
+    void write(final Block block, final RecordLengths recordLengths) {
+        block.position(0);
+        block.putByte(leaf ? LEAF : INTERNAL);
+        block.putLong(keys.size(), KEY_LENGTH_BYTES);
+        block.writeBlockIndex(next);
+        block.writeBlockIndex(previous);
+        if (!leaf) {
+            block.writeBlockIndex(children.get(0));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            final byte[] key = keys.get(i);
+            block.putLong(key.length, KEY_LENGTH_BYTES);
+            block.put(key, 0, key.length);
+            if (leaf) {
+                final Record record = records.get(i);
+                block.putLong(record.getId(), recordLengths.getIdLength());
+                block.putLong(record.getEol(), recordLengths.getEolLength());
+                block.putLong(record.getVersion(), recordLengths.getVersionLength());
+            } else {
+                block.writeBlockIndex(children.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * Computes the size the node would occupy in the block
+     *
+     * @param recordLengths the lengths of the record in the leaf
+     * @param bytesPerBlockIndex the number of bytes used to store a block index
+     * @return the size in bytes
+     */
+    int getSize(final RecordLengths recordLengths, final int bytesPerBlockIndex) {
+        int size = getHeaderSize(bytesPerBlockIndex);
+        if (!leaf) {
+            size += bytesPerBlockIndex;
+        }
+        for (final byte[] key : keys) {
+            size += getEntrySize(key, recordLengths, bytesPerBlockIndex);
+        }
+        return size;
+    }
+
+    int getEntrySize(final byte[] key, final RecordLengths recordLengths, final int bytesPerBlockIndex) {
+        return leaf ? getLeafEntrySize(key, recordLengths) : getInternalEntrySize(key, bytesPerBlockIndex);
+    }
+
+    /**
+     * Searches the key in the node
+     *
+     * @param key the key to search
+     * @return the index of the key if found, otherwise {@code -(insertion point) - 1}
+     */
+    int search(final byte[] key) {
+        int low = 0;
+        int high = keys.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = Arrays.compare(keys.get(middle), key);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Provides the position of the child in the internal node which subtree can contain the key
+     *
+     * @param key the key to search
+     * @return the index of the child
+     */
+    int getChildPosition(final byte[] key) {
+        int index = search(key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Computes the index of the first entry that is moved to the right node on split,
+     * so that both nodes receive a comparable number of bytes.
+     *
+     * @param recordLengths the lengths of the record in the leaf
+     * @param bytesPerBlockIndex the number of bytes used to store a block index
+     * @return the index of the entry
+     */
+    int getSplitIndex(final RecordLengths recordLengths, final int bytesPerBlockIndex) {
+        int total = 0;
+        for (final byte[] key : keys) {
+            total += getEntrySize(key, recordLengths, bytesPerBlockIndex);
+        }
+        int left = 0;
+        for (int i = 0; i < keys.size() - 1; i++) {
+            left += getEntrySize(keys.get(i), recordLengths, bytesPerBlockIndex);
+            if (left * 2 >= total) {
+                return i + 1;
+            }
+        }
+        return keys.size() - 1;
+    }
+
+    /**
+     * Moves all the content of the node to the provided one, this node is left empty.
+     *
+     * @param target the node to receive the content
+     */
+    void moveContentTo(final KeyTreeNode target) {
+        target.leaf = leaf;
+        target.keys.addAll(keys);
+        target.records.addAll(records);
+        target.children.addAll(children);
+        keys.clear();
+        records.clear();
+        children.clear();
+    }
+
+    long getBlockIndex() {
+        return blockIndex;
+    }
+
+    boolean isLeaf() {
+        return leaf;
+    }
+
+    void setLeaf(final boolean leaf) {
+        this.leaf = leaf;
+    }
+
+    long getNext() {
+        return next;
+    }
+
+    void setNext(final long next) {
+        this.next = next;
+    }
+
+    long getPrevious() {
+        return previous;
+    }
+
+    void setPrevious(final long previous) {
+        this.previous = previous;
+    }
+
+    List<byte[]> getKeys() {
+        return keys;
+    }
+
+    List<Record> getRecords() {
+        return records;
+    }
+
+    List<Long> getChildren() {
+        return children;
+    }
+}
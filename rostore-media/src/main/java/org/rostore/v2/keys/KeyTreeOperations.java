@@ -0,0 +1,530 @@
+package org.rostore.v2.keys;
+
+import org.rostore.Utils;
+import org.rostore.entity.OptionMismatchException;
+import org.rostore.entity.Record;
+import org.rostore.entity.RoStoreException;
+import org.rostore.entity.VersionMismatchException;
+import org.rostore.entity.VersionMismatchInitException;
+import org.rostore.entity.media.RecordOption;
+import org.rostore.v2.catalog.CatalogBlockIndices;
+import org.rostore.v2.media.Committable;
+import org.rostore.v2.media.MediaProperties;
+import org.rostore.v2.media.block.Block;
+import org.rostore.v2.media.block.BlockProvider;
+import org.rostore.v2.media.block.BlockType;
+import org.rostore.v2.media.block.InternalBlockProvider;
+import org.rostore.v2.media.block.allocator.BlockAllocator;
+import org.rostore.v2.media.block.container.BlockContainer;
+import org.rostore.v2.media.block.container.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A variant of the key index organized as a paged B+tree.
+ * <p>In contrast to {@link KeyBlockOperations} that keeps all the key blocks in one
+ * {@link org.rostore.v2.seq.BlockSequence}, which has to be loaded and rebalanced as a whole,
+ * this index consists of internal node blocks and leaf blocks linked to their siblings.
+ * Every insert or delete only touches the blocks on the path from the root to the leaf
+ * and their direct siblings, so its cost is O(log n) block touches regardless of the number of keys.</p>
+ * <p>The root block never changes its index, so the index returned by {@link #getStartIndex()}
+ * can be stored once and be used in {@link #load(BlockAllocator, long, RecordLengths)}.</p>
+ * <p>Keys are stored inline in the nodes, so the key length is limited by {@link #getMaxKeyLength()}.</p>
+ * <p>The semantics of the records, options and versions are the same as of {@link KeyBlockOperations}.</p>
+ */
+public class KeyTreeOperations implements Committable {
+
+    private final BlockProvider blockProvider;
+    private final RecordLengths recordLengths;
+    private final long rootIndex;
+    private final int blockSize;
+    private final int bytesPerBlockIndex;
+    private final int maxKeyLength;
+
+    /**
+     * Creates a new empty tree
+     *
+     * @param blockAllocator the allocator to take the node blocks from
+     * @param recordLengths the lengths of the record elements
+     * @return the key tree operations
+     */
+    public static KeyTreeOperations create(final BlockAllocator blockAllocator,
+                                           final RecordLengths recordLengths) {
+        final BlockProvider blockProvider = InternalBlockProvider.create(blockAllocator);
+        final Block root = blockProvider.allocateBlock(BlockType.KEY);
+        final KeyTreeOperations keyTreeOperations = new KeyTreeOperations(blockProvider, root.getAbsoluteIndex(), recordLengths);
+        keyTreeOperations.write(new KeyTreeNode(root.getAbsoluteIndex(), true));
+        return keyTreeOperations;
+    }
+
+    /**
+     * Loads an existing tree
+     *
+     * @param blockAllocator the allocator to take the node blocks from
+     * @param startIndex the index of the root block as provided by {@link #getStartIndex()}
+     * @param recordLengths the lengths of the record elements
+     * @return the key tree operations
+     */
+    public static KeyTreeOperations load(final BlockAllocator blockAllocator,
+                                         final long startIndex,
+                                         final RecordLengths recordLengths) {
+        return new KeyTreeOperations(InternalBlockProvider.create(blockAllocator), startIndex, recordLengths);
+    }
+
+    private KeyTreeOperations(final BlockProvider blockProvider, final long rootIndex, final RecordLengths recordLengths) {
+        this.blockProvider = blockProvider;
+        this.rootIndex = rootIndex;
+        this.recordLengths = recordLengths;
+        this.blockSize = blockProvider.getMedia().getMediaProperties().getBlockSize();
+        this.bytesPerBlockIndex = blockProvider.getMedia().getMediaProperties().getMapperProperties().getBytesPerBlockIndex();
+        this.maxKeyLength = computeMaxKeyLength(blockProvider.getMedia().getMediaProperties(), recordLengths);
+        if (maxKeyLength < 1) {
+            throw new RoStoreException("The block size " + blockSize + " is too small to build a key tree");
+        }
+    }
+
+    /**
+     * Computes the maximum length of the key that can be stored in the tree on the given media
+     *
+     * @param mediaProperties the properties of the media
+     * @param recordLengths the lengths of the record elements
+     * @return the length in bytes, if less than 1 the tree can't be built
+     */
+    public static int computeMaxKeyLength(final MediaProperties mediaProperties, final RecordLengths recordLengths) {
+        final int bytesPerBlockIndex = mediaProperties.getMapperProperties().getBytesPerBlockIndex();
+        // every node must be able to keep at least 4 entries, so that any split or merge result fits to one block
+        final int maxEntrySize = (mediaProperties.getBlockSize() - KeyTreeNode.getHeaderSize(bytesPerBlockIndex) - bytesPerBlockIndex) / 4;
+        return maxEntrySize - KeyTreeNode.getLeafEntrySize(new byte[0], recordLengths) - bytesPerBlockIndex;
+    }
+
+    /**
+     * The index of the root block of the tree
+     *
+     * @return the block index
+     */
+    public long getStartIndex() {
+        return rootIndex;
+    }
+
+    /**
+     * The container of the tree's blocks, e.g. to change them in the copy-on-write mode,
+     * see {@link BlockContainer#beginCopyOnWrite()}
+     *
+     * @return the block container
+     */
+    public BlockContainer getBlockContainer() {
+        return blockProvider.getBlockContainer();
+    }
+
+    /**
+     * The maximum length of the key that can be stored in the tree
+     *
+     * @return the length in bytes
+     */
+    public int getMaxKeyLength() {
+        return maxKeyLength;
+    }
+
+    /**
+     * Store the record for specified key
+     *
+     * @param key the key to store
+     * @param record the record to store
+     * @return the previous id (if one exists) or {@link Utils#ID_UNDEFINED}
+     */
+    public long put(final byte[] key, final Record record) {
+        if (key.length > maxKeyLength) {
+            throw new RoStoreException("The key of " + key.length + " bytes exceeds the maximum of " + maxKeyLength + " bytes");
+        }
+        final List<KeyTreeNode> path = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        final KeyTreeNode leaf = descend(key, path, positions);
+        final int index = leaf.search(key);
+        if (index >= 0) {
+            final Record previousRecord = leaf.getRecords().get(index);
+            updateRecord(previousRecord, record);
+            leaf.getRecords().set(index, copy(record));
+            write(leaf);
+            return previousRecord.getId();
+        }
+        OptionMismatchException.checkInsertRecord(record);
+        VersionMismatchInitException.checkAndThrow(record);
+        if (!record.hasOption(RecordOption.OVERRIDE_VERSION)) {
+            record.incrementVersion(recordLengths.getVersionLength());
+        }
+        leaf.getKeys().add(-index - 1, key);
+        leaf.getRecords().add(-index - 1, copy(record));
+        storeAfterInsert(path, positions);
+        return Utils.ID_UNDEFINED;
+    }
+
+    /**
+     * Validates the update of the record and sets the version to the new one
+     *
+     * @param previousRecord the record currently stored
+     * @param record the new values to store
+     */
+    private void updateRecord(final Record previousRecord, final Record record) {
+        final boolean expired = Utils.isExpiredEOL(previousRecord.getEol());
+        if (expired) {
+            OptionMismatchException.checkInsertRecord(record);
+        } else {
+            OptionMismatchException.checkUpdateRecord(false, record);
+        }
+        if (!record.hasOption(RecordOption.OVERRIDE_VERSION)) {
+            if (expired) {
+                VersionMismatchInitException.checkAndThrow(record);
+            } else {
+                VersionMismatchException.checkAndThrow(previousRecord.getVersion(), record);
+                record.version(previousRecord.getVersion());
+            }
+            record.incrementVersion(recordLengths.getVersionLength());
+        }
+    }
+
+    /**
+     * Removes the key
+     * <p>throws {@link VersionMismatchException} if the version of the record does not fit the stored one.</p>
+     *
+     * @param key the key to remove
+     * @param record the record with the version to check, receives the id and eol of the removed entry
+     * @return {@code true} if a non-expired entry has been removed
+     */
+    public boolean remove(final byte[] key, final Record record) {
+        final List<KeyTreeNode> path = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        final KeyTreeNode leaf = descend(key, path, positions);
+        final int index = leaf.search(key);
+        if (index < 0) {
+            return false;
+        }
+        final Record recordToRemove = leaf.getRecords().get(index);
+        final boolean expired = Utils.isExpiredEOL(recordToRemove.getEol());
+        if (!expired) {
+            VersionMismatchException.checkAndThrow(recordToRemove.getVersion(), record.getVersion(), record.hasOption(RecordOption.OVERRIDE_VERSION));
+        }
+        leaf.getKeys().remove(index);
+        leaf.getRecords().remove(index);
+        storeAfterRemove(path, positions);
+        record.eol(recordToRemove.getEol());
+        record.id(recordToRemove.getId());
+        return !expired;
+    }
+
+    /**
+     * Searches for the provided key and return the {@link Record}
+     * associated with it.
+     *
+     * @param key a key to return
+     * @return the record if one has been found or {@code null}
+     */
+    public Record getRecord(final byte[] key) {
+        final KeyTreeNode leaf = descend(key, null, null);
+        final int index = leaf.search(key);
+        if (index < 0) {
+            return null;
+        }
+        final Record record = leaf.getRecords().get(index);
+        if (Utils.isExpiredEOL(record.getEol())) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Lists the keys in the ascending order following the leaf sibling links
+     *
+     * @param startWithKey the prefix of the keys to list or {@code null}
+     * @param continuationKey the key to start after or {@code null}
+     * @param maxNumber maximum number of keys to return
+     * @param maxSize maximum total size of the keys to return
+     * @return the list of keys
+     */
+    public KeyList list(final byte[] startWithKey, final byte[] continuationKey, final long maxNumber, final long maxSize) {
+        final KeyList keyList = new KeyList();
+        final byte[] from = continuationKey != null ? continuationKey :
+                (startWithKey != null && startWithKey.length != 0 ? startWithKey : null);
+        KeyTreeNode leaf = descend(from, null, null);
+        int index = 0;
+        if (from != null) {
+            index = leaf.search(from);
+            if (index >= 0) {
+                if (continuationKey != null) {
+                    index++;
+                }
+            } else {
+                index = -index - 1;
+            }
+        }
+        final long timeSec = System.currentTimeMillis() / 1000;
+        while (true) {
+            if (index >= leaf.getKeys().size()) {
+                if (leaf.getNext() == 0) {
+                    return keyList;
+                }
+                leaf = read(leaf.getNext());
+                index = 0;
+                continue;
+            }
+            if (keyList.getSize() >= maxSize || keyList.getKeys().size() >= maxNumber) {
+                keyList.setMore(true);
+                return keyList;
+            }
+            final byte[] key = leaf.getKeys().get(index);
+            if (startWithKey != null && !startsWith(key, startWithKey)) {
+                return keyList;
+            }
+            if (!Utils.isExpiredEOL(leaf.getRecords().get(index).getEol(), timeSec)) {
+                keyList.addKey(key);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Frees all the blocks of the tree
+     */
+    public void remove() {
+        final CatalogBlockIndices toFree = new CatalogBlockIndices();
+        collectBlocks(rootIndex, toFree);
+        commit();
+        blockProvider.getBlockAllocator().free(toFree);
+    }
+
+    private void collectBlocks(final long blockIndex, final CatalogBlockIndices toFree) {
+        final KeyTreeNode node = read(blockIndex);
+        toFree.add(blockIndex, blockIndex);
+        if (!node.isLeaf()) {
+            for (final long child : node.getChildren()) {
+                collectBlocks(child, toFree);
+            }
+        }
+    }
+
+    private static boolean startsWith(final byte[] key, final byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Goes from the root to the leaf that can contain the key
+     *
+     * @param key the key or {@code null} to find the first leaf
+     * @param path receives all the nodes from root to the leaf, can be {@code null}
+     * @param positions receives the child positions taken in every internal node, can be {@code null}
+     * @return the leaf
+     */
+    private KeyTreeNode descend(final byte[] key, final List<KeyTreeNode> path, final List<Integer> positions) {
+        KeyTreeNode node = read(rootIndex);
+        while (!node.isLeaf()) {
+            final int position = key == null ? 0 : node.getChildPosition(key);
+            if (path != null) {
+                path.add(node);
+                positions.add(position);
+            }
+            node = read(node.getChildren().get(position));
+        }
+        if (path != null) {
+            path.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * Writes the modified leaf and splits the nodes on the path that do not fit to the block anymore
+     */
+    private void storeAfterInsert(final List<KeyTreeNode> path, final List<Integer> positions) {
+        for (int level = path.size() - 1; level >= 0; level--) {
+            final KeyTreeNode node = path.get(level);
+            if (node.getSize(recordLengths, bytesPerBlockIndex) <= blockSize) {
+                write(node);
+                return;
+            }
+            if (level == 0) {
+                splitRoot(node);
+                return;
+            }
+            final KeyTreeNode right = new KeyTreeNode(allocate(), node.isLeaf());
+            final byte[] separator = split(node, right);
+            write(node);
+            write(right);
+            final KeyTreeNode parent = path.get(level - 1);
+            final int position = positions.get(level - 1);
+            parent.getKeys().add(position, separator);
+            parent.getChildren().add(position + 1, right.getBlockIndex());
+        }
+    }
+
+    /**
+     * The root keeps its block index, so its content is moved to two new children
+     */
+    private void splitRoot(final KeyTreeNode root) {
+        final KeyTreeNode left = new KeyTreeNode(allocate(), root.isLeaf());
+        root.moveContentTo(left);
+        final KeyTreeNode right = new KeyTreeNode(allocate(), left.isLeaf());
+        final byte[] separator = split(left, right);
+        root.setLeaf(false);
+        root.getKeys().add(separator);
+        root.getChildren().add(left.getBlockIndex());
+        root.getChildren().add(right.getBlockIndex());
+        write(left);
+        write(right);
+        write(root);
+    }
+
+    /**
+     * Moves the upper part of the left node to the right one
+     *
+     * @return the separator key to be put to the parent between both nodes
+     */
+    private byte[] split(final KeyTreeNode left, final KeyTreeNode right) {
+        int splitIndex = left.getSplitIndex(recordLengths, bytesPerBlockIndex);
+        final byte[] separator;
+        if (left.isLeaf()) {
+            moveTail(left.getKeys(), splitIndex, right.getKeys());
+            moveTail(left.getRecords(), splitIndex, right.getRecords());
+            separator = right.getKeys().get(0);
+            right.setNext(left.getNext());
+            right.setPrevious(left.getBlockIndex());
+            if (left.getNext() != 0) {
+                final KeyTreeNode next = read(left.getNext());
+                next.setPrevious(right.getBlockIndex());
+                write(next);
+            }
+            left.setNext(right.getBlockIndex());
+        } else {
+            // the separator goes up, so both nodes should keep at least one key
+            splitIndex = Math.min(splitIndex, left.getKeys().size() - 2);
+            separator = left.getKeys().get(splitIndex);
+            moveTail(left.getKeys(), splitIndex + 1, right.getKeys());
+            moveTail(left.getChildren(), splitIndex + 1, right.getChildren());
+            left.getKeys().remove(splitIndex);
+        }
+        return separator;
+    }
+
+    /**
+     * Writes the modified leaf and merges or redistributes the nodes on the path that became too small
+     */
+    private void storeAfterRemove(final List<KeyTreeNode> path, final List<Integer> positions) {
+        for (int level = path.size() - 1; level > 0; level--) {
+            final KeyTreeNode node = path.get(level);
+            if (!isUnderflow(node)) {
+                write(node);
+                return;
+            }
+            final KeyTreeNode parent = path.get(level - 1);
+            final int position = positions.get(level - 1);
+            final int separatorIndex = position == 0 ? 0 : position - 1;
+            final KeyTreeNode left = position == 0 ? node : read(parent.getChildren().get(position - 1));
+            final KeyTreeNode right = position == 0 ? read(parent.getChildren().get(1)) : node;
+            final byte[] separator = parent.getKeys().get(separatorIndex);
+            int mergedSize = left.getSize(recordLengths, bytesPerBlockIndex) +
+                    right.getSize(recordLengths, bytesPerBlockIndex) -
+                    KeyTreeNode.getHeaderSize(bytesPerBlockIndex);
+            if (!left.isLeaf()) {
+                mergedSize += KeyTreeNode.getInternalEntrySize(separator, bytesPerBlockIndex) - bytesPerBlockIndex;
+            }
+            moveAll(right, left, separator);
+            if (mergedSize <= blockSize) {
+                write(left);
+                free(right.getBlockIndex());
+                parent.getKeys().remove(separatorIndex);
+                parent.getChildren().remove(separatorIndex + 1);
+            } else {
+                // both nodes together are too big for one block, distribute the entries evenly
+                parent.getKeys().set(separatorIndex, split(left, right));
+                write(left);
+                write(right);
+                // the new separator can be longer than the previous one
+                storeAfterInsert(path.subList(0, level), positions.subList(0, level - 1));
+                return;
+            }
+        }
+        final KeyTreeNode root = path.get(0);
+        if (!root.isLeaf() && root.getKeys().isEmpty()) {
+            // the only child replaces the content of the root, so the tree becomes one level lower
+            final KeyTreeNode child = read(root.getChildren().get(0));
+            root.getChildren().clear();
+            child.moveContentTo(root);
+            free(child.getBlockIndex());
+        }
+        write(root);
+    }
+
+    private boolean isUnderflow(final KeyTreeNode node) {
+        return node.getKeys().isEmpty() || node.getSize(recordLengths, bytesPerBlockIndex) < blockSize / 4;
+    }
+
+    /**
+     * Moves all the entries of the right node to the left one in memory, the sibling links are taken over
+     */
+    private void moveAll(final KeyTreeNode right, final KeyTreeNode left, final byte[] separator) {
+        if (left.isLeaf()) {
+            left.setNext(right.getNext());
+            if (right.getNext() != 0) {
+                final KeyTreeNode next = read(right.getNext());
+                next.setPrevious(left.getBlockIndex());
+                write(next);
+            }
+        } else {
+            left.getKeys().add(separator);
+        }
+        moveTail(right.getKeys(), 0, left.getKeys());
+        moveTail(right.getRecords(), 0, left.getRecords());
+        moveTail(right.getChildren(), 0, left.getChildren());
+    }
+
+    private static <T> void moveTail(final List<T> from, final int fromIndex, final List<T> to) {
+        final List<T> tail = from.subList(fromIndex, from.size());
+        to.addAll(tail);
+        tail.clear();
+    }
+
+    private static Record copy(final Record record) {
+        return new Record().id(record.getId()).eol(record.getEol()).version(record.getVersion());
+    }
+
+    private Block getBlock(final long blockIndex) {
+        return blockProvider.getBlockContainer().getBlock(blockIndex, BlockType.KEY);
+    }
+
+    private KeyTreeNode read(final long blockIndex) {
+        return KeyTreeNode.read(getBlock(blockIndex), recordLengths);
+    }
+
+    private void write(final KeyTreeNode node) {
+        node.write(getBlock(node.getBlockIndex()), recordLengths);
+    }
+
+    private long allocate() {
+        return blockProvider.allocateBlock(BlockType.KEY).getAbsoluteIndex();
+    }
+
+    private void free(final long blockIndex) {
+        blockProvider.freeBlock(blockIndex);
+    }
+
+    @Override
+    public void close() {
+        blockProvider.getBlockContainer().close();
+    }
+
+    @Override
+    public Status getStatus() {
+        return blockProvider.getBlockContainer().getStatus();
+    }
+
+    @Override
+    public void commit() {
+        blockProvider.getBlockContainer().commit();
+    }
+}
@@ -26,9 +26,17 @@ import java.nio.ByteBuffer;
  * <p>That's why both {@link Block} and {@link BlockContainer} are inherently thread unsafe.</p>
  *
  * <p>When container closes - all the blocks are get closed.</p>
+ *
+ * <p>If the container is in the copy-on-write mode (see {@link BlockContainer#beginCopyOnWrite()}), the first
+ * modification of the block copies its content, and the block is modified in the copy until the container is published.</p>
  */
 public class Block implements Closeable {
-    private final ByteBuffer content;
+    private ByteBuffer content;
+
+    /**
+     * Set if the content is the copy of the container, see {@link BlockContainer#copyOnWrite(long, BlockType, ByteBuffer)}
+     */
+    private boolean copied;
 
     private final MappedPhysicalBlock mappedPhysicalBlock;
 
@@ -39,13 +47,28 @@ public class Block implements Closeable {
     protected Block(final ByteBuffer byteBuffer,
                     final MappedPhysicalBlock mappedPhysicalBlock,
                     final BlockContainer blockContainer) {
-        this.content = byteBuffer;
         this.mappedPhysicalBlock = mappedPhysicalBlock;
         this.blockContainer = blockContainer;
+        final ByteBuffer copy = blockContainer.getCopy(mappedPhysicalBlock.getIndex());
+        if (copy != null) {
+            copy.position(0);
+            this.content = copy;
+            this.copied = true;
+        } else {
+            this.content = byteBuffer;
+        }
         //this.elems = new Exception().getStackTrace();
     }
 
     protected void markDirty() {
+        if (copied) {
+            return;
+        }
+        if (blockContainer.isCopyOnWrite()) {
+            content = blockContainer.copyOnWrite(getAbsoluteIndex(), mappedPhysicalBlock.getBlockType(), content);
+            copied = true;
+            return;
+        }
         mappedPhysicalBlock.setDirty();
     }
 
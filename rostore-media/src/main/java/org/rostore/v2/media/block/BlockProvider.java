@@ -46,12 +46,14 @@ public interface BlockProvider {
 
     /**
      * Frees a block from the allocator and removes it from the container.
+     * <p>If the container is in the copy-on-write mode, the block is only freed once the container is published,
+     * see {@link BlockContainer#afterPublish(Runnable)}.</p>
      *
      * @param blockIndex the index of the block
      */
     default void freeBlock(final long blockIndex) {
         getBlockContainer().evictIfLoaded(blockIndex);
-        getBlockAllocator().free(blockIndex);
+        getBlockContainer().afterPublish(() -> getBlockAllocator().free(blockIndex));
     }
 
 }
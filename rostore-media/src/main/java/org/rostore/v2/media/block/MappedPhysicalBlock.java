@@ -24,7 +24,7 @@ public class MappedPhysicalBlock {
 
     private final long index;
 
-    private boolean dirty;
+    private volatile boolean dirty;
 
     // containerId => Block
     private Map<Integer, Block> blocks;
@@ -85,12 +85,13 @@ public class MappedPhysicalBlock {
     /**
      * Execute a flushing of the current state of the block
      * back to the storage.
-     * <p>The dirty flag will be reset.</p>
+     * <p>The dirty flag will be reset. It is reset before the block is forced, so the changes
+     * made by another container during the flush keep the block dirty.</p>
      */
     public void flush() {
         if (dirty) {
-            this.mappedByteBuffer.force();
             this.dirty = false;
+            this.mappedByteBuffer.force();
         }
     }
 
@@ -108,12 +108,26 @@ public class MappedPhysicalBlocks {
     }
 
     public void remove(final BlockContainer blockContainer, final long index) {
+        remove(blockContainer, index, true);
+    }
+
+    /**
+     * Removes the block from the container
+     *
+     * @param blockContainer the container the block is associated with
+     * @param index the index of the block
+     * @param flush {@code false} if the caller flushes the block later by itself
+     * @return the physical block that has been removed
+     */
+    public MappedPhysicalBlock remove(final BlockContainer blockContainer, final long index, final boolean flush) {
         MappedPhysicalBlock mappedPhysicalBlock;
         synchronized (this) {
             mappedPhysicalBlock = active.get(index);
         }
         if (mappedPhysicalBlock != null) {
-            mappedPhysicalBlock.flush();
+            if (flush) {
+                mappedPhysicalBlock.flush();
+            }
             synchronized (this) {
                 mappedPhysicalBlock.remove(blockContainer);
                 if (!mappedPhysicalBlock.inUse()) {
@@ -123,6 +137,7 @@ public class MappedPhysicalBlocks {
                     }
                 }
             }
+            return mappedPhysicalBlock;
         } else {
             throw new RoStoreException("Removing a non-active block " + index + " from container " + blockContainer.getContainerId());
         }
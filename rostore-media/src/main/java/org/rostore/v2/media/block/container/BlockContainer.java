@@ -4,12 +4,16 @@ import org.rostore.entity.RoStoreException;
 import org.rostore.v2.media.Committable;
 import org.rostore.v2.media.Media;
 import org.rostore.v2.media.block.Block;
+import org.rostore.v2.media.block.MappedPhysicalBlock;
 import org.rostore.v2.media.block.BlockType;
 import org.rostore.v2.media.block.allocator.BlockAllocator;
 
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -26,11 +30,41 @@ import java.util.Map;
  * so it is smart just to use the block indices if required,
  * the block objects should rather be requested by {@link #getBlock(long, BlockType)}</p>
  * <p>See also {@link org.rostore.v2.media.block.BlockProvider}</p>
+ * <p>In the copy-on-write mode (see {@link #beginCopyOnWrite()}) the modified blocks are kept in the
+ * heap copies, which survive the commits, so the other containers keep seeing the blocks as they were.
+ * The copies are written back to the media at once by {@link #publish()}, the published blocks
+ * are only flushed by the next {@link #commit()}, so the publishing itself stays short.</p>
  */
 public class BlockContainer implements Committable {
 
+    private static class BlockCopy {
+        private final ByteBuffer content;
+        private final BlockType blockType;
+
+        private BlockCopy(final ByteBuffer content, final BlockType blockType) {
+            this.content = content;
+            this.blockType = blockType;
+        }
+    }
+
     private final Map<Long, Block> blocks = new HashMap<>();
 
+    private Map<Long, BlockCopy> copies = new HashMap<>();
+
+    /**
+     * The actions that should only be executed once the copies are written back, see {@link #afterPublish(Runnable)}
+     */
+    private final List<Runnable> publishActions = new ArrayList<>();
+
+    private boolean copyOnWrite;
+
+    /**
+     * The published blocks that wait for the flush, see {@link #publish()}
+     */
+    private List<MappedPhysicalBlock> unflushed = new ArrayList<>();
+
+    private boolean flushDeferred;
+
     private final int containerId;
 
     private final Media media;
@@ -119,7 +153,7 @@ public class BlockContainer implements Committable {
             throw new RoStoreException("Can't evict unloaded block " + block.getAbsoluteIndex());
         }
         blocks.remove(block.getAbsoluteIndex());
-        media.getMappedPhysicalBlocks().remove(this, block.getAbsoluteIndex());
+        remove(block.getAbsoluteIndex());
     }
 
     /**
@@ -132,7 +166,14 @@ public class BlockContainer implements Committable {
         checkOpened();
         final Block block = blocks.remove(blockIndex);
         if (block != null) {
-            media.getMappedPhysicalBlocks().remove(this, block.getAbsoluteIndex());
+            remove(block.getAbsoluteIndex());
+        }
+    }
+
+    private void remove(final long blockIndex) {
+        final MappedPhysicalBlock mappedPhysicalBlock = media.getMappedPhysicalBlocks().remove(this, blockIndex, !flushDeferred);
+        if (flushDeferred) {
+            unflushed.add(mappedPhysicalBlock);
         }
     }
 
@@ -156,10 +197,120 @@ public class BlockContainer implements Committable {
         do {
             final Collection<Block> current = blocks.values();
             if (current.isEmpty()) {
-                return;
+                break;
             }
             current.iterator().next().close();
         } while (true);
+        if (!unflushed.isEmpty()) {
+            final List<MappedPhysicalBlock> published = unflushed;
+            unflushed = new ArrayList<>();
+            for (final MappedPhysicalBlock mappedPhysicalBlock : published) {
+                mappedPhysicalBlock.flush();
+            }
+        }
+    }
+
+    /**
+     * Switches the container to the copy-on-write mode until the next {@link #publish()}.
+     */
+    public void beginCopyOnWrite() {
+        checkOpened();
+        copyOnWrite = true;
+    }
+
+    /**
+     * Checks if the container is in the copy-on-write mode
+     *
+     * @return {@code true} if the blocks are modified in the copies
+     */
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
+    /**
+     * Provides the copy of the block modified in this container
+     *
+     * @param blockIndex the block index
+     * @return the copy or {@code null} if the block has not been modified in the copy-on-write mode
+     */
+    public ByteBuffer getCopy(final long blockIndex) {
+        final BlockCopy copy = copies.get(blockIndex);
+        return copy != null ? copy.content : null;
+    }
+
+    /**
+     * Copies the content of the block that is about to be modified.
+     *
+     * <p>Never use this function directly, it is called by the {@link Block} itself.</p>
+     *
+     * @param blockIndex the block index
+     * @param blockType the type of the block
+     * @param content the content of the block
+     * @return the copy, with the same position as the content
+     */
+    public ByteBuffer copyOnWrite(final long blockIndex, final BlockType blockType, final ByteBuffer content) {
+        final ByteBuffer copy = ByteBuffer.allocate(content.limit());
+        copy.put(0, content, 0, content.limit());
+        copy.position(content.position());
+        copies.put(blockIndex, new BlockCopy(copy, blockType));
+        return copy;
+    }
+
+    /**
+     * Executes the action once the copies are written back to the media, or at once if the container
+     * is not in the copy-on-write mode.
+     * <p>It is used for the changes that would be seen by the other containers, e.g. freeing the blocks.</p>
+     *
+     * @param action the action to execute
+     */
+    public void afterPublish(final Runnable action) {
+        if (copyOnWrite) {
+            publishActions.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Checks if there is anything to publish
+     *
+     * @return {@code true} if some blocks have been modified in the copies or some actions wait for the publishing
+     */
+    public boolean isPublishPending() {
+        return !copies.isEmpty() || !publishActions.isEmpty();
+    }
+
+    /**
+     * Writes the copies of the modified blocks back to the media, executes the
+     * actions registered with {@link #afterPublish(Runnable)}, and leaves the copy-on-write mode.
+     * <p>The caller should make sure that no other container reads the blocks meanwhile.</p>
+     * <p>The written back blocks are not flushed here, but by the next {@link #commit()},
+     * which can be executed when the other containers already use the blocks.</p>
+     */
+    public void publish() {
+        checkOpened();
+        copyOnWrite = false;
+        // the opened blocks still point to the copies
+        commit();
+        final Map<Long, BlockCopy> published = copies;
+        copies = new HashMap<>();
+        for (final Map.Entry<Long, BlockCopy> entry : published.entrySet()) {
+            final ByteBuffer content = entry.getValue().content;
+            final Block block = getBlock(entry.getKey(), entry.getValue().blockType);
+            block.position(0);
+            block.put(content.array(), 0, content.limit());
+        }
+        flushDeferred = true;
+        try {
+            commit();
+        } finally {
+            flushDeferred = false;
+        }
+        final List<Runnable> actions = new ArrayList<>(publishActions);
+        publishActions.clear();
+        for (final Runnable action : actions) {
+            action.run();
+        }
     }
 
     @Override
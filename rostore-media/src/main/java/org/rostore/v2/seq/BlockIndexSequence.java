@@ -36,19 +36,42 @@ public class BlockIndexSequence implements AutoCloseable {
         return catalogBlockIndices;
     }
 
-    public void markSequenceUsed() {
+    /**
+     * Creates a private copy of the sequence, that can be changed independently
+     *
+     * @return the copy with the same blocks and the first free index
+     */
+    public BlockIndexSequence copy() {
+        final BlockIndexSequence copy = new BlockIndexSequence();
+        copy.sequenceBlockIndices.addAll(sequenceBlockIndices);
+        copy.firstFreeIndex = firstFreeIndex;
+        return copy;
+    }
+
+    /**
+     * Replaces the blocks and the first free index of this sequence with the ones of the copy
+     *
+     * @param copy the copy created by {@link #copy()}
+     */
+    public void copyFrom(final BlockIndexSequence copy) {
+        sequenceBlockIndices.clear();
+        sequenceBlockIndices.addAll(copy.sequenceBlockIndices);
+        firstFreeIndex = copy.firstFreeIndex;
+    }
+
+    public synchronized void markSequenceUsed() {
         lastUsageTimestampMillis = System.currentTimeMillis();
         refs++;
     }
 
-    public void close() {
+    public synchronized void close() {
         if (refs == 0) {
             throw new RoStoreException("Number of block sequence ref is negative");
         }
         refs--;
     }
 
-    public boolean isSequenceInUse() {
+    public synchronized boolean isSequenceInUse() {
         return refs > 0;
     }
 
@@ -28,7 +28,16 @@ import java.util.function.Function;
  */
 public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
 
-    final private BlockIndexSequence blockIndexSequence;
+    /**
+     * The sequence shared by all the instances opened on the same blocks
+     */
+    final private BlockIndexSequence sharedBlockIndexSequence;
+
+    /**
+     * The shared sequence, or its private copy while the changes of the container are not published,
+     * see {@link #beforeChange()}
+     */
+    private BlockIndexSequence blockIndexSequence;
     private final T sequenceBlock;
 
     private final BlockProvider blockProvider;
@@ -60,16 +69,34 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
         int freeNumber = blockIndexSequence.length() - blockIndexSequence.getFirstFreeIndex();
         if (freeNumber < Properties.MIN_FREE_BLOCK_NUMBER) {
             int alloc = Properties.AVG_FREE_BLOCK_NUMBER - freeNumber;
+            beforeChange();
             addFreeBlocks(alloc);
             return;
         }
 
         if (freeNumber > Properties.MAX_FREE_BLOCK_NUMBER) {
             int free = freeNumber - Properties.AVG_FREE_BLOCK_NUMBER;
+            beforeChange();
             removeFreeBlocks(free);
         }
     }
 
+    /**
+     * Must be called before the block index sequence is changed.
+     * <p>If the container is in the copy-on-write mode, the changes are made in the private copy of the
+     * sequence, which replaces the shared one once the container is published, so the other instances
+     * keep seeing the sequence that matches the published blocks.</p>
+     */
+    private void beforeChange() {
+        if (blockIndexSequence == sharedBlockIndexSequence && blockProvider.getBlockContainer().isCopyOnWrite()) {
+            blockIndexSequence = sharedBlockIndexSequence.copy();
+            blockProvider.getBlockContainer().afterPublish(() -> {
+                sharedBlockIndexSequence.copyFrom(blockIndexSequence);
+                blockIndexSequence = sharedBlockIndexSequence;
+            });
+        }
+    }
+
     private void removeFreeBlocks(final int numberOfBlocks) {
         int freeStartIndex = blockIndexSequence.length() - numberOfBlocks;
         CatalogBlockIndices toFree = new CatalogBlockIndices();
@@ -81,7 +108,8 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
         Block block = getBlockByIndex(blockIndexSequence.length()-1);
         block.position(0);
         block.writeBlockIndex(0);
-        blockProvider.getBlockAllocator().getBlockAllocatorInternal().free(toFree, false);
+        blockProvider.getBlockContainer().afterPublish(() ->
+                blockProvider.getBlockAllocator().getBlockAllocatorInternal().free(toFree, false));
     }
 
     private void addFreeBlocks(final int numberOfBlocks) {
@@ -93,8 +121,8 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
             final long blockIndex = indices.get();
             blockIndexSequence.add(index, blockIndex);
             final Block block = blockProvider.getBlockContainer().getBlock(blockIndex, blockType);
+            block.clean();
             sequenceBlock.moveTo(index);
-            sequenceBlock.clean();
             if (prevBlock != null) {
                 prevBlock.position(0);
                 prevBlock.writeBlockIndex(blockIndex);
@@ -116,6 +144,7 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
      */
     public void addFreeBlock(final int afterIndex) {
         checkOpened();
+        beforeChange();
         if (afterIndex == blockIndexSequence.getFirstFreeIndex() - 1) {
             // this is the last index
             blockIndexSequence.setFirstFreeIndex(blockIndexSequence.getFirstFreeIndex()+1);
@@ -156,6 +185,7 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
         if (index == 0) {
             throw new RoStoreException("Can't free the first block");
         }
+        beforeChange();
         if (index == blockIndexSequence.getFirstFreeIndex() - 1) {
             // this is the last index
             blockIndexSequence.setFirstFreeIndex(blockIndexSequence.getFirstFreeIndex()-1);
@@ -196,6 +226,7 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
         this.blockType = blockType;
         this.blockProvider = blockProvider;
         blockIndexSequence = new BlockIndexSequence();
+        sharedBlockIndexSequence = blockIndexSequence;
         sequenceBlock = factory.apply(this);
         CatalogBlockIndicesIterator indices = catalogBlockIndices.iterator();
         int index = 0;
@@ -204,8 +235,9 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
             final long blockIndex = indices.get();
             blockIndexSequence.add(index, blockIndex);
             Block block = blockProvider.getBlockContainer().getBlock(blockIndex, blockType);
+            // the block may still hold the content of its previous use, which must not be interpreted
+            block.clean();
             sequenceBlock.moveTo(index);
-            sequenceBlock.clean();
             index++;
             if (prevBlock != null) {
                 prevBlock.position(0);
@@ -231,6 +263,7 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
         this.blockType = blockType;
         this.blockProvider = blockProvider;
         this.blockIndexSequence = blockIndexSequence;
+        this.sharedBlockIndexSequence = blockIndexSequence;
         this.blockIndexSequence.markSequenceUsed();
         this.sequenceBlock = factory.apply(this);
     }
@@ -243,6 +276,7 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
         this.blockType = blockType;
         this.blockProvider = blockProvider;
         blockIndexSequence = new BlockIndexSequence();
+        sharedBlockIndexSequence = blockIndexSequence;
         this.sequenceBlock = factory.apply(this);
         Block block = blockProvider.getBlockContainer().getBlock(startBlockIndex, blockType);
         int firstFreeIndex = -1;
@@ -295,7 +329,7 @@ public class BlockSequence<T extends SequenceBlock> extends RootClosableImpl {
     @Override
     public void close() {
         super.close();
-        blockIndexSequence.close();
+        sharedBlockIndexSequence.close();
     }
 
 }
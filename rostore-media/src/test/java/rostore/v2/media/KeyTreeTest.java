@@ -0,0 +1,167 @@
+package rostore.v2.media;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.rostore.Utils;
+import org.rostore.entity.Record;
+import org.rostore.entity.media.MediaPropertiesBuilder;
+import org.rostore.v2.catalog.CatalogBlockIndices;
+import org.rostore.v2.catalog.CatalogBlockIndicesIterator;
+import org.rostore.v2.keys.ExpiryIndexOperations;
+import org.rostore.v2.keys.KeyList;
+import org.rostore.v2.keys.KeyTreeOperations;
+import org.rostore.v2.keys.RecordLengths;
+import org.rostore.v2.media.Media;
+import org.rostore.v2.media.MediaProperties;
+import org.rostore.v2.media.block.BlockType;
+import org.rostore.v2.media.block.allocator.BlockAllocator;
+import org.rostore.v2.media.block.allocator.BlockAllocatorListener;
+import rostore.TestFile;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class KeyTreeTest {
+
+    @Test
+    public void testKeyTree() {
+        File file = TestFile.createNewFile("media-2-key-tree.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(128*10000);
+        mediaPropertiesBuilder.setBlockSize(128);
+        Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder));
+        final Set<Long> keyBlocks = new HashSet<>();
+        media.getBlockAllocatorListeners().addListener(new BlockAllocatorListener() {
+            @Override
+            public void blocksFreed(String name, CatalogBlockIndices catalogBlockIndices, boolean rebalance) {
+                final CatalogBlockIndicesIterator iterator = catalogBlockIndices.iterator();
+                while (iterator.isValid()) {
+                    keyBlocks.remove(iterator.get());
+                }
+            }
+
+            @Override
+            public void blocksAllocated(String name, BlockType blockType, CatalogBlockIndices catalogBlockIndices, boolean rebalance) {
+                if (blockType == BlockType.KEY) {
+                    final CatalogBlockIndicesIterator iterator = catalogBlockIndices.iterator();
+                    while (iterator.isValid()) {
+                        keyBlocks.add(iterator.get());
+                    }
+                }
+            }
+        });
+
+        BlockAllocator secondaryBlockAllocator = media.createSecondaryBlockAllocator("tree", 5000);
+        RecordLengths recordLengths = RecordLengths.standardRecordLengths(media.getMediaProperties());
+        KeyTreeOperations keyTreeOperations = KeyTreeOperations.create(secondaryBlockAllocator, recordLengths);
+        long startIndex = keyTreeOperations.getStartIndex();
+
+        final TreeMap<byte[], Long> expected = new TreeMap<>(Arrays::compare);
+        final Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            final byte[] key = ("k" + random.nextInt(3000) + "-" + "x".repeat(random.nextInt(8))).getBytes(StandardCharsets.UTF_8);
+            if (random.nextInt(3) == 0) {
+                final Long id = expected.remove(key);
+                Assertions.assertEquals(id != null, keyTreeOperations.remove(key, new Record()));
+            } else {
+                final Long previous = expected.put(key, (long) i);
+                final long previousId = keyTreeOperations.put(key, new Record().id(i));
+                Assertions.assertEquals(previous == null ? -1 : previous, previousId);
+            }
+            if (i % 100 == 0) {
+                keyTreeOperations.commit();
+            }
+        }
+        keyTreeOperations.close();
+
+        keyTreeOperations = KeyTreeOperations.load(secondaryBlockAllocator, startIndex, recordLengths);
+        for (final Map.Entry<byte[], Long> entry : expected.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), keyTreeOperations.getRecord(entry.getKey()).getId());
+        }
+        Assertions.assertNull(keyTreeOperations.getRecord("missing".getBytes(StandardCharsets.UTF_8)));
+
+        final List<byte[]> listed = new ArrayList<>();
+        byte[] continuationKey = null;
+        KeyList keyList;
+        do {
+            keyList = keyTreeOperations.list(null, continuationKey, 7, Long.MAX_VALUE);
+            listed.addAll(keyList.getKeys());
+            if (!keyList.getKeys().isEmpty()) {
+                continuationKey = keyList.getKeys().get(keyList.getKeys().size() - 1);
+            }
+        } while (keyList.isMore());
+        Assertions.assertEquals(expected.size(), listed.size());
+        int index = 0;
+        for (final byte[] key : expected.keySet()) {
+            Assertions.assertArrayEquals(key, listed.get(index++));
+        }
+
+        final byte[] prefix = "k12".getBytes(StandardCharsets.UTF_8);
+        keyList = keyTreeOperations.list(prefix, null, Long.MAX_VALUE, Long.MAX_VALUE);
+        Assertions.assertEquals(expected.subMap(prefix, "k13".getBytes(StandardCharsets.UTF_8)).size(), keyList.getKeys().size());
+
+        for (final byte[] key : new ArrayList<>(expected.keySet())) {
+            Assertions.assertTrue(keyTreeOperations.remove(key, new Record()));
+        }
+        Assertions.assertTrue(keyTreeOperations.list(null, null, Long.MAX_VALUE, Long.MAX_VALUE).getKeys().isEmpty());
+        keyTreeOperations.remove();
+        keyTreeOperations.close();
+        Assertions.assertTrue(keyBlocks.isEmpty());
+        secondaryBlockAllocator.remove();
+    }
+
+    @Test
+    public void testExpiryIndex() {
+        File file = TestFile.createNewFile("media-2-expiry-index.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(128*10000);
+        mediaPropertiesBuilder.setBlockSize(128);
+        Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder));
+        BlockAllocator secondaryBlockAllocator = media.createSecondaryBlockAllocator("expiry", 5000);
+        RecordLengths recordLengths = RecordLengths.standardRecordLengths(media.getMediaProperties());
+        ExpiryIndexOperations expiryIndexOperations = ExpiryIndexOperations.create(secondaryBlockAllocator, recordLengths);
+        final long currentTimeSecs = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < 500; i++) {
+            final byte[] key = ("k" + i).getBytes(StandardCharsets.UTF_8);
+            // odd keys are expired, the lower the key the later it has expired
+            final long eol = i % 2 == 1 ? 1000 - i : Utils.ttl2eol(1000 + i);
+            Assertions.assertTrue(expiryIndexOperations.add(key, eol));
+        }
+        Assertions.assertFalse(expiryIndexOperations.add("forever".getBytes(StandardCharsets.UTF_8), Utils.EOL_FOREVER));
+        // the entries of the updated keys are replaced
+        final byte[] updated = "updated".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(expiryIndexOperations.add(updated, 10 + i));
+            Assertions.assertFalse(expiryIndexOperations.remove(updated, 11 + i));
+            Assertions.assertTrue(expiryIndexOperations.remove(updated, 10 + i));
+        }
+        Assertions.assertFalse(expiryIndexOperations.remove(updated, 10));
+        expiryIndexOperations.commit();
+        Assertions.assertEquals(250, expiryIndexOperations.countExpired(currentTimeSecs, 1000));
+
+        final List<byte[]> expired = new ArrayList<>();
+        List<byte[]> polled;
+        do {
+            polled = expiryIndexOperations.pollExpired(currentTimeSecs, 30);
+            expired.addAll(polled);
+            expiryIndexOperations.commit();
+        } while (!polled.isEmpty());
+        Assertions.assertEquals(250, expired.size());
+        for (int i = 0; i < expired.size(); i++) {
+            Assertions.assertEquals("k" + (499 - 2 * i), new String(expired.get(i), StandardCharsets.UTF_8));
+        }
+        Assertions.assertTrue(expiryIndexOperations.pollExpired(currentTimeSecs + 2000, 1000).size() == 250);
+        expiryIndexOperations.remove();
+        expiryIndexOperations.close();
+        secondaryBlockAllocator.remove();
+    }
+
+}
@@ -5,7 +5,10 @@ import org.junit.jupiter.api.Test;
 import org.rostore.entity.media.MediaPropertiesBuilder;
 import rostore.TestFile;
 import org.rostore.entity.Record;
+import org.rostore.entity.media.RecordOption;
+import org.rostore.v2.keys.KeyBatchResult;
 import org.rostore.v2.keys.KeyBlockOperations;
+import org.rostore.v2.keys.KeyList;
 import org.rostore.v2.keys.RecordLengths;
 import org.rostore.v2.media.Media;
 import org.rostore.v2.media.MediaProperties;
@@ -14,6 +17,9 @@ import org.rostore.v2.media.block.container.BlockContainer;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class KeysTest {
 
@@ -52,6 +58,166 @@ public class KeysTest {
 
     }
 
+    @Test
+    public void testAppendKeys() {
+
+        File file = TestFile.createNewFile("media-2-keys-append.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(256*10000);
+        mediaPropertiesBuilder.setBlockSize(256);
+        Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder));
+
+        BlockAllocator secondaryBlockAllocator = media.createSecondaryBlockAllocator("append", 5000);
+        keyBlockOperations = KeyBlockOperations.create(secondaryBlockAllocator, RecordLengths.standardRecordLengths(media.getMediaProperties()));
+        Assertions.assertTrue(keyBlockOperations.isEmpty());
+        for (int i = 0; i < 2000; i += 2) {
+            Assertions.assertTrue(keyBlockOperations.append(key(i), new Record().id(i), 0.5));
+        }
+        Assertions.assertFalse(keyBlockOperations.append(key(10), new Record().id(10), 0.5));
+        Assertions.assertFalse(keyBlockOperations.isEmpty());
+        for (int i = 1; i < 2000; i += 2) {
+            Assertions.assertEquals(-1, keyBlockOperations.put(key(i), new Record().id(i)));
+        }
+        for (int i = 0; i < 2000; i++) {
+            Assertions.assertEquals(i, keyBlockOperations.getRecord(key(i)).getId());
+        }
+        Assertions.assertEquals(2000, keyBlockOperations.list(null, null, Long.MAX_VALUE, Long.MAX_VALUE).getKeys().size());
+        keyBlockOperations.commit();
+        keyBlockOperations.close();
+    }
+
+    @Test
+    public void testBatchKeys() {
+
+        File file = TestFile.createNewFile("media-2-keys-batch.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(256*10000);
+        mediaPropertiesBuilder.setBlockSize(256);
+        Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder));
+
+        BlockAllocator secondaryBlockAllocator = media.createSecondaryBlockAllocator("batch", 5000);
+        keyBlockOperations = KeyBlockOperations.create(secondaryBlockAllocator, RecordLengths.standardRecordLengths(media.getMediaProperties()));
+        for (int i = 0; i < 2000; i += 3) {
+            keyBlockOperations.put(key(i), new Record().id(i));
+        }
+        SortedMap<byte[], Record> batch = new TreeMap<>(Arrays::compare);
+        for (int i = 0; i < 2000; i += 2) {
+            batch.put(key(i), new Record().id(i + 10000));
+        }
+        batch.put(key(3), new Record().id(3).addOption(RecordOption.ONLY_INSERT));
+        KeyBatchResult<Long> putResult = keyBlockOperations.putAll(batch);
+        Assertions.assertEquals(1, putResult.getFailures().size());
+        Assertions.assertEquals(-1, putResult.getResults().get(key(2)));
+        Assertions.assertEquals(6, putResult.getResults().get(key(6)));
+        for (int i = 0; i < 2000; i++) {
+            long expected = i % 2 == 0 ? i + 10000 : (i % 3 == 0 ? i : -1);
+            Record record = keyBlockOperations.getRecord(key(i));
+            Assertions.assertEquals(expected, record == null ? -1 : record.getId());
+        }
+
+        batch = new TreeMap<>(Arrays::compare);
+        for (int i = 0; i < 2000; i += 4) {
+            batch.put(key(i), new Record());
+        }
+        KeyBatchResult<Boolean> removeResult = keyBlockOperations.removeAll(batch);
+        Assertions.assertTrue(removeResult.getFailures().isEmpty());
+        Assertions.assertEquals(10004, batch.get(key(4)).getId());
+        for (int i = 0; i < 2000; i += 2) {
+            Assertions.assertEquals(i % 4 != 0, keyBlockOperations.getRecord(key(i)) != null);
+        }
+
+        // the sparse batch skips over many blocks between its keys
+        batch = new TreeMap<>(Arrays::compare);
+        for (int i = 1; i < 2000; i += 97) {
+            batch.put(key(i), new Record().id(i + 20000).addOption(RecordOption.OVERRIDE_VERSION));
+        }
+        putResult = keyBlockOperations.putAll(batch);
+        Assertions.assertTrue(putResult.getFailures().isEmpty());
+        for (int i = 1; i < 2000; i += 97) {
+            Assertions.assertEquals(i + 20000, keyBlockOperations.getRecord(key(i)).getId());
+        }
+        keyBlockOperations.commit();
+        keyBlockOperations.close();
+    }
+
+    @Test
+    public void testRemoveRange() {
+
+        File file = TestFile.createNewFile("media-2-keys-range.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(256*10000);
+        mediaPropertiesBuilder.setBlockSize(256);
+        Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder));
+
+        BlockAllocator secondaryBlockAllocator = media.createSecondaryBlockAllocator("range", 5000);
+        keyBlockOperations = KeyBlockOperations.create(secondaryBlockAllocator, RecordLengths.standardRecordLengths(media.getMediaProperties()));
+        for (int i = 0; i < 2000; i++) {
+            // every 50th key is stored in its own blocks
+            final byte[] key = i % 50 == 0 ? String.format("key-%05d-%0200d", i, i).getBytes(StandardCharsets.UTF_8) : key(i);
+            keyBlockOperations.put(key, new Record().id(i));
+        }
+        SortedMap<byte[], Long> removed = new TreeMap<>(Arrays::compare);
+        Assertions.assertEquals(1000, keyBlockOperations.removeRange(key(500), key(1500), removed::put));
+        Assertions.assertEquals(1000, removed.size());
+        Assertions.assertEquals(500, removed.get(removed.firstKey()));
+        Assertions.assertEquals(1499, removed.get(removed.lastKey()));
+        Assertions.assertEquals(0, keyBlockOperations.removeRange(key(500), key(1500), removed::put));
+        Assertions.assertEquals(100, keyBlockOperations.removePrefix("key-019".getBytes(StandardCharsets.UTF_8), removed::put));
+        for (int i = 0; i < 2000; i++) {
+            Assertions.assertEquals(i < 500 || (i >= 1500 && i < 1900), keyBlockOperations.list(key(i), null, 1, Long.MAX_VALUE).getKeys().size() == 1);
+        }
+        Assertions.assertEquals(900, keyBlockOperations.list(null, null, Long.MAX_VALUE, Long.MAX_VALUE).getKeys().size());
+        Assertions.assertEquals(900, keyBlockOperations.removeRange(null, null, removed::put));
+        Assertions.assertTrue(keyBlockOperations.isEmpty());
+        keyBlockOperations.put(key(1), new Record().id(1));
+        Assertions.assertEquals(1, keyBlockOperations.getRecord(key(1)).getId());
+        keyBlockOperations.commit();
+        keyBlockOperations.close();
+    }
+
+    @Test
+    public void testListDescending() {
+
+        File file = TestFile.createNewFile("media-2-keys-descending.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(256*10000);
+        mediaPropertiesBuilder.setBlockSize(256);
+        Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder));
+
+        BlockAllocator secondaryBlockAllocator = media.createSecondaryBlockAllocator("descending", 5000);
+        keyBlockOperations = KeyBlockOperations.create(secondaryBlockAllocator, RecordLengths.standardRecordLengths(media.getMediaProperties()));
+        Assertions.assertTrue(keyBlockOperations.listDescending(null, null, 10, Long.MAX_VALUE).getKeys().isEmpty());
+        for (int i = 0; i < 2000; i++) {
+            keyBlockOperations.put(key(i), new Record().id(i));
+        }
+        byte[] continuationKey = null;
+        int expected = 1999;
+        KeyList keyList;
+        do {
+            keyList = keyBlockOperations.listDescending(null, continuationKey, 30, Long.MAX_VALUE);
+            for (final byte[] key : keyList.getKeys()) {
+                Assertions.assertArrayEquals(key(expected--), key);
+            }
+            continuationKey = keyList.getKeys().get(keyList.getKeys().size() - 1);
+        } while (keyList.isMore());
+        Assertions.assertEquals(-1, expected);
+        // the prefix starts the listing from its greatest key
+        keyList = keyBlockOperations.listDescending("key-012".getBytes(StandardCharsets.UTF_8), null, 1000, Long.MAX_VALUE);
+        Assertions.assertEquals(100, keyList.getKeys().size());
+        Assertions.assertArrayEquals(key(1299), keyList.getKeys().get(0));
+        Assertions.assertArrayEquals(key(1200), keyList.getKeys().get(99));
+        // the continuation key does not have to exist
+        keyList = keyBlockOperations.listDescending(null, "key-00100x".getBytes(StandardCharsets.UTF_8), 2, Long.MAX_VALUE);
+        Assertions.assertArrayEquals(key(100), keyList.getKeys().get(0));
+        Assertions.assertArrayEquals(key(99), keyList.getKeys().get(1));
+        keyBlockOperations.commit();
+        keyBlockOperations.close();
+    }
+
+    private static byte[] key(final int i) {
+        return String.format("key-%05d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
     private long put(final String key, final long id) {
         return keyBlockOperations.put(key.getBytes(StandardCharsets.UTF_8), new Record().id(id));
     }
@@ -2,11 +2,16 @@ package rostore.v2.media;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.rostore.Utils;
 import org.rostore.entity.Record;
 import org.rostore.entity.media.ContainerListProperties;
 import org.rostore.entity.media.ContainerMeta;
 import org.rostore.entity.media.MediaPropertiesBuilder;
+import org.rostore.entity.ContainerStatistics;
 import org.rostore.v2.container.Container;
+import org.rostore.v2.container.ContainerShard;
+import org.rostore.v2.keys.KeyBlockLatchException;
+import org.rostore.v2.keys.KeyList;
 import org.rostore.v2.container.ContainerListOperations;
 import rostore.TestFile;
 import org.rostore.entity.BlockAllocation;
@@ -18,6 +23,7 @@ import org.rostore.v2.media.MediaProperties;
 import org.rostore.v2.media.block.BlockType;
 import org.rostore.v2.media.block.allocator.BlockAllocator;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.nio.charset.StandardCharsets;
 
@@ -185,6 +191,163 @@ public class MediaTest {
 
     }
 
+    @Test
+    public void checkContainerStatistics() {
+        File file = TestFile.createNewFile("media-checkContainerStatistics.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(128*1000);
+        mediaPropertiesBuilder.setBlockSize(128);
+        try (Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder))) {
+            ContainerListProperties containerListProperties = new ContainerListProperties();
+            ContainerListOperations containerListOperations = new ContainerListOperations(media, containerListProperties);
+            ContainerMeta cm = new ContainerMeta();
+            cm.setShardNumber(2);
+            try (Container c = containerListOperations.create("STAT", cm)) {
+                for (int i = 0; i < 10; i++) {
+                    final ContainerShard shard = c.getShard(i % 2);
+                    final byte[] key = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+                    final long id = shard.putValue(new ByteArrayInputStream(new byte[i * 20]));
+                    shard.keyFunction((ko) -> ko.putKey(key, new Record().id(id)));
+                }
+                final ContainerShard shard = c.getShard(1);
+                final Record removed = new Record();
+                shard.keyFunction((ko) -> ko.removeKey("key-9".getBytes(StandardCharsets.UTF_8), removed));
+                shard.removeValue(removed.getId());
+            }
+            try (Container c = containerListOperations.get("STAT")) {
+                final ContainerStatistics statistics = c.getStatistics();
+                Assertions.assertEquals(9, statistics.getKeyNumber());
+                Assertions.assertEquals(9 * 5, statistics.getKeySize());
+                Assertions.assertEquals(9, statistics.getValueNumber());
+                Assertions.assertEquals(20 * (8 * 9 / 2), statistics.getValueSize());
+                final long[] histogram = statistics.getValueSizeHistogram();
+                // 0, 20, 40, 60 | 80, 100, 120 | 140, 160
+                Assertions.assertEquals(4, histogram[0]);
+                Assertions.assertEquals(3, histogram[1]);
+                Assertions.assertEquals(2, histogram[2]);
+            }
+        }
+    }
+
+    @Test
+    public void checkSnapshotReads() {
+        File file = TestFile.createNewFile("media-checkSnapshotReads.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(128*10000);
+        mediaPropertiesBuilder.setBlockSize(128);
+        try (Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder))) {
+            ContainerListProperties containerListProperties = new ContainerListProperties();
+            ContainerListOperations containerListOperations = new ContainerListOperations(media, containerListProperties);
+            ContainerMeta cm = new ContainerMeta();
+            cm.setShardNumber(1);
+            try (Container c = containerListOperations.create("SNAPSHOT", cm)) {
+                final ContainerShard shard = c.getShard(0);
+                shard.keyFunction((ko) -> ko.putKey("key-0".getBytes(StandardCharsets.UTF_8), new Record().id(1)));
+                // the keys are spread over many blocks while the reads keep seeing the published ones
+                shard.keyFunction((ko) -> {
+                    for (int i = 0; i < 300; i++) {
+                        ko.putKey(("key-" + i).getBytes(StandardCharsets.UTF_8), new Record().id(i + 100));
+                        if (i % 50 == 0) {
+                            final Record record = shard.readKeyFunction((ro) -> ro.getKey("key-0".getBytes(StandardCharsets.UTF_8)));
+                            Assertions.assertEquals(1, record.getId());
+                            Assertions.assertNull(shard.readKeyFunction((ro) ->
+                                    ro.getKey("key-1".getBytes(StandardCharsets.UTF_8))));
+                        }
+                    }
+                    return null;
+                });
+                for (int i = 0; i < 300; i++) {
+                    final byte[] key = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+                    final Record record = shard.readKeyFunction((ro) -> ro.getKey(key));
+                    Assertions.assertEquals(i + 100, record.getId());
+                }
+                shard.keyFunction((ko) -> {
+                    for (int i = 0; i < 300; i++) {
+                        ko.removeKey(("key-" + i).getBytes(StandardCharsets.UTF_8), new Record());
+                    }
+                    final KeyList keyList = shard.readKeyFunction((ro) -> ro.listKeys(null, null, 1000, 100000));
+                    Assertions.assertEquals(300, keyList.getKeys().size());
+                    return null;
+                });
+                final KeyList keyList = shard.readKeyFunction((ro) -> ro.listKeys(null, null, 1000, 100000));
+                Assertions.assertTrue(keyList.getKeys().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void checkLatchedWrites() {
+        File file = TestFile.createNewFile("media-checkLatchedWrites.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096*1000);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        try (Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder))) {
+            ContainerListProperties containerListProperties = new ContainerListProperties();
+            ContainerListOperations containerListOperations = new ContainerListOperations(media, containerListProperties);
+            ContainerMeta cm = new ContainerMeta();
+            cm.setShardNumber(1);
+            try (Container c = containerListOperations.create("LATCHED", cm)) {
+                final ContainerShard shard = c.getShard(0);
+                final byte[] key = "key-0".getBytes(StandardCharsets.UTF_8);
+                shard.keyFunction((ko) -> ko.putKey(key, new Record().id(1)));
+                // the existing key is updated in place
+                Assertions.assertEquals(1L, (long) shard.latchedKeyFunction((ko) -> ko.putKey(key, new Record().id(2))));
+                Assertions.assertEquals(2, shard.readKeyFunction((ro) -> ro.getKey(key)).getId());
+                // the insert and the change of the eol need the exclusive write
+                Assertions.assertThrows(KeyBlockLatchException.class, () -> shard.latchedKeyFunction((ko) ->
+                        ko.putKey("key-1".getBytes(StandardCharsets.UTF_8), new Record().id(3))));
+                Assertions.assertThrows(KeyBlockLatchException.class, () -> shard.latchedKeyFunction((ko) ->
+                        ko.putKey(key, new Record().id(3).ttl(100))));
+                Assertions.assertNull(shard.readKeyFunction((ro) -> ro.getKey("key-1".getBytes(StandardCharsets.UTF_8))));
+                // the block latched by the running write can't be latched by another one
+                shard.latchedKeyFunction((ko) -> {
+                    ko.putKey(key, new Record().id(4));
+                    Assertions.assertThrows(KeyBlockLatchException.class, () -> shard.latchedKeyFunction((other) ->
+                            other.putKey(key, new Record().id(5))));
+                    Assertions.assertEquals(2, shard.readKeyFunction((ro) -> ro.getKey(key)).getId());
+                    return null;
+                });
+                final Record record = shard.readKeyFunction((ro) -> ro.getKey(key));
+                Assertions.assertEquals(4, record.getId());
+                Assertions.assertEquals(Utils.EOL_FOREVER, record.getEol());
+                Assertions.assertEquals(1, shard.readKeyFunction((ro) -> ro.listKeys(null, null, 1000, 100000)).getKeys().size());
+            }
+        }
+    }
+
+    @Test
+    public void checkExpirySnapshotReads() {
+        File file = TestFile.createNewFile("media-checkExpirySnapshotReads.blck");
+        MediaPropertiesBuilder mediaPropertiesBuilder = new MediaPropertiesBuilder();
+        mediaPropertiesBuilder.setMaxTotalSize(4096*1000);
+        mediaPropertiesBuilder.setBlockSize(4096);
+        try (Media media = Media.create(file, MediaProperties.from(mediaPropertiesBuilder))) {
+            ContainerListProperties containerListProperties = new ContainerListProperties();
+            ContainerListOperations containerListOperations = new ContainerListOperations(media, containerListProperties);
+            ContainerMeta cm = new ContainerMeta();
+            cm.setShardNumber(1);
+            try (Container c = containerListOperations.create("EXPIRY-SNAPSHOT", cm)) {
+                final ContainerShard shard = c.getShard(0);
+                Assertions.assertEquals(0L, (long) shard.readKeyFunction((ro) -> ro.countExpiredKeys(100)));
+                // the expiry index is published together with the key blocks
+                shard.keyFunction((ko) -> {
+                    for (int i = 0; i < 100; i++) {
+                        ko.putKey(("key-" + i).getBytes(StandardCharsets.UTF_8), new Record().id(i + 100).eol(10 + i));
+                        Assertions.assertEquals(0L, (long) shard.readKeyFunction((ro) -> ro.countExpiredKeys(100)));
+                    }
+                    return null;
+                });
+                Assertions.assertEquals(100L, (long) shard.readKeyFunction((ro) -> ro.countExpiredKeys(1000)));
+                shard.keyFunction((ko) -> {
+                    ko.removeExpiredKeys(1000, (id) -> {});
+                    Assertions.assertEquals(100L, (long) shard.readKeyFunction((ro) -> ro.countExpiredKeys(1000)));
+                    return null;
+                });
+                Assertions.assertEquals(0L, (long) shard.readKeyFunction((ro) -> ro.countExpiredKeys(1000)));
+            }
+        }
+    }
+
     @Test
     public void checkAllocatorExhausting() {
         File file = TestFile.createNewFile("media-3.blck");
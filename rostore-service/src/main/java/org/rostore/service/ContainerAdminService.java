@@ -12,10 +12,13 @@ import org.eclipse.microprofile.openapi.annotations.security.SecurityScheme;
 import org.eclipse.microprofile.openapi.annotations.security.SecuritySchemes;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.eclipse.microprofile.openapi.annotations.tags.Tags;
-import org.rostore.entity.BlockAllocationState;
+import org.rostore.entity.ContainerSpaceState;
+import org.rostore.entity.ReadCacheStatistics;
+import org.rostore.v2.container.async.AsyncContainer;
 import org.rostore.service.apikey.ApiKeyManager;
 import org.rostore.entity.apikey.Permission;
 import org.rostore.entity.media.ContainerMeta;
+import org.rostore.entity.media.ShardRouting;
 
 import jakarta.enterprise.context.RequestScoped;
 import jakarta.inject.Inject;
@@ -172,12 +175,83 @@ public class ContainerAdminService {
                     ),
                     @APIResponse(
                             responseCode = "200",
-                            description = "Container space usage info is returned",
+                            description = "Container space usage info and key statistics are returned",
                             content = @Content(mediaType = MediaType.APPLICATION_JSON,
-                                    schema = @Schema(implementation = BlockAllocationState.class))) })
+                                    schema = @Schema(implementation = ContainerSpaceState.class))) })
     public Response getContainerSpace(@PathParam("container") final String containerName) {
         apiKeyManager.checkStorePermission(EnumSet.of(Permission.READ));
-        final BlockAllocationState memoryManagementState = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName).getContainer().getBlockAllocation();
-        return Response.ok().entity(memoryManagementState).build();
+        final AsyncContainer asyncContainer = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName);
+        final ContainerSpaceState containerSpaceState = new ContainerSpaceState(asyncContainer.getContainer().getBlockAllocation(),
+                asyncContainer.getStatistics(0));
+        return Response.ok().entity(containerSpaceState).build();
+    }
+
+    @GET
+    @Path("/{container}/read-cache")
+    @Operation(summary="Retrieves the counters of the read cache of a given container", description = "Operation requires a store-wide read permission")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            responseCode = "403",
+                            description = "No access",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "500",
+                            description = "Internal Error",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "200",
+                            description = "Read cache hits, misses and evictions are returned",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ReadCacheStatistics.class))) })
+    public Response getContainerReadCache(@PathParam("container") final String containerName) {
+        apiKeyManager.checkStorePermission(EnumSet.of(Permission.READ));
+        final AsyncContainer asyncContainer = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName);
+        return Response.ok().entity(asyncContainer.getReadCacheStatistics()).build();
+    }
+
+    @POST
+    @Path("/{container}/reshard")
+    @Operation(summary="Starts moving the keys of the container to a new number of shards",
+            description = "The keys are moved in the background while the container stays available, " +
+                    "the new shards replace the current ones when all the keys are moved. " +
+                    "Operation requires a store-wide create permission")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            responseCode = "403",
+                            description = "No access",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "507",
+                            description = "Quota exceeded",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))),
+                    @APIResponse(
+                            responseCode = "500",
+                            description = "Internal Error",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "202",
+                            description = "Resharding has been started.") })
+    public Response reshardContainer(@PathParam("container") final String containerName,
+                                     @QueryParam("shard-number") final int shardNumber,
+                                     @QueryParam("shard-routing") final ShardRouting shardRouting) {
+        apiKeyManager.checkStorePermission(EnumSet.of(Permission.CREATE));
+        final AsyncContainer asyncContainer = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName);
+        if (asyncContainer == null) {
+            throw new NotFoundException("Container \"" + containerName + "\" does not exist.");
+        }
+        asyncContainer.reshard(0, shardNumber, shardRouting != null ? shardRouting :
+                asyncContainer.getContainer().getDescriptor().getContainerMeta().getShardRouting());
+        return Response.accepted().build();
     }
 }
@@ -23,6 +23,10 @@ public class ErrorHandler implements ExceptionMapper<Exception> {
         } else {
             logger.log(restError.getLevel(), restError.getErrorRepresentation().getMessage(), ex);
         }
-        return Response.status(restError.getStatus()).header("Content-Type", MediaType.APPLICATION_JSON).entity(restError.getErrorRepresentation()).build();
+        final Response.ResponseBuilder responseBuilder = Response.status(restError.getStatus()).header("Content-Type", MediaType.APPLICATION_JSON);
+        if (restError.getRetryAfterSeconds() != null) {
+            responseBuilder.header("Retry-After", restError.getRetryAfterSeconds());
+        }
+        return responseBuilder.entity(restError.getErrorRepresentation()).build();
     }
 }
\ No newline at end of file
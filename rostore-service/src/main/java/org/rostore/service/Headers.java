@@ -14,6 +14,21 @@ public class Headers {
     public static final String VERSION_HEADER = "version";
     public static final String EOL_HEADER = "eol";
     public static final String TRACKING_ID_HEADER = "trackingId";
+    public static final String EXPECTED_HASH_HEADER = "expected-hash";
+    public static final String TIMEOUT_HEADER = "timeout";
+
+    /**
+     * Converts the timeout of the request to its deadline
+     *
+     * @param timeoutMillis the time in millis the client waits for the response, can be {@code null}
+     * @return the deadline in millis since epoch, or {@code 0} if there is no timeout
+     */
+    public static long toDeadline(final Long timeoutMillis) {
+        if (timeoutMillis == null || timeoutMillis <= 0) {
+            return 0;
+        }
+        return System.currentTimeMillis() + timeoutMillis;
+    }
 
     public final static void toHeaders(final HttpServletResponse servletResponse, final Record record) {
         servletResponse.addHeader(Headers.EOL_HEADER, String.valueOf(record.getUnixEol()));
@@ -24,6 +24,7 @@ import org.rostore.entity.apikey.Permission;
 import org.rostore.service.apikey.PermissionDeniedException;
 import org.rostore.v2.container.async.AsyncContainer;
 import org.rostore.v2.container.async.AsyncListener;
+import org.rostore.v2.container.async.OrderedKeyList;
 import org.rostore.v2.container.async.AsyncStatus;
 import org.rostore.v2.container.async.AsyncStream;
 import org.rostore.entity.StringKeyList;
@@ -101,6 +102,11 @@ public class KeyValueService {
                             description = "Quota exceeded",
                             content = @Content(mediaType = MediaType.APPLICATION_JSON,
                                     schema = @Schema(implementation = ErrorRepresentation.class))),
+                    @APIResponse(
+                            responseCode = "504",
+                            description = "The timeout of the request has passed",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))),
                     @APIResponse(
                             responseCode = "500",
                             description = "Internal Error",
@@ -117,6 +123,7 @@ public class KeyValueService {
                         @HeaderParam(Headers.TTL_HEADER) final Long ttl,
                         @HeaderParam(Headers.EOL_HEADER) final Long unixEol,
                         @HeaderParam(Headers.VERSION_HEADER) final Long versionHeader,
+                        @HeaderParam(Headers.TIMEOUT_HEADER) final Long timeoutMillis,
                         @Context HttpServletResponse servletResponse,
                         @Context HttpServletRequest servletRequest) throws IOException {
         if (ApiKeyManager.APIKEY_CONTAINER_NAME.equals(containerName)) {
@@ -157,6 +164,7 @@ public class KeyValueService {
             public void status(final AsyncStatus asyncStatus) {
             }
         });
+        asyncStream.deadline(Headers.toDeadline(timeoutMillis));
 
         asyncContainer.putAsync(0, key.getBytes(), asyncStream, record);
         asyncStream.get();
@@ -212,6 +220,164 @@ public class KeyValueService {
         return rb.build();
     }
 
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/container/{container}/key/{key}/increment")
+    @Operation(summary="Adds the delta to the number stored with the key",
+            description = "The number is stored as a decimal string, the missing key starts with 0. A negative delta decrements the number.")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            responseCode = "400",
+                            description = "The stored value is not a number",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "403",
+                            description = "No access",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "409",
+                            description = "Version conflict",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))),
+                    @APIResponse(
+                            responseCode = "500",
+                            description = "Internal Error",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "200",
+                            description = "The number has been stored, the new number is returned",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON))
+            })
+    public Response increment(@PathParam("container") final String containerName,
+                              @PathParam("key") final String key,
+                              @QueryParam("delta") @DefaultValue("1") final long delta,
+                              @HeaderParam(Headers.OPTIONS_HEADER) final String options,
+                              @HeaderParam(Headers.TTL_HEADER) final Long ttl,
+                              @HeaderParam(Headers.EOL_HEADER) final Long unixEol,
+                              @HeaderParam(Headers.VERSION_HEADER) final Long versionHeader) {
+        final AsyncContainer asyncContainer = getContainerForUpdate(containerName);
+        final Record record = toRecord(options, ttl, unixEol, versionHeader);
+        final long value = asyncContainer.increment(0, key.getBytes(), delta, record);
+        final Map<String, Object> ret = new HashMap<>();
+        ret.put("value", value);
+        final Response.ResponseBuilder rb = Response.ok(ret);
+        Headers.toHeaders(rb, record);
+        return rb.build();
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes("*/*")
+    @Path("/container/{container}/key/{key}/append")
+    @Operation(summary="Appends the data to the value stored with the key",
+            description = "The value is created if the key does not exist.")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            responseCode = "403",
+                            description = "No access",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "409",
+                            description = "Version conflict",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))),
+                    @APIResponse(
+                            responseCode = "500",
+                            description = "Internal Error",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "200",
+                            description = "The data has been appended successfully.") })
+    public Response append(@PathParam("container") final String containerName,
+                           @PathParam("key") final String key,
+                           @HeaderParam(Headers.OPTIONS_HEADER) final String options,
+                           @HeaderParam(Headers.TTL_HEADER) final Long ttl,
+                           @HeaderParam(Headers.EOL_HEADER) final Long unixEol,
+                           @HeaderParam(Headers.VERSION_HEADER) final Long versionHeader,
+                           final byte[] data) {
+        final AsyncContainer asyncContainer = getContainerForUpdate(containerName);
+        final Record record = asyncContainer.append(0, key.getBytes(), data == null ? new byte[0] : data,
+                toRecord(options, ttl, unixEol, versionHeader));
+        final Response.ResponseBuilder rb = Response.ok();
+        Headers.toHeaders(rb, record);
+        return rb.build();
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes("*/*")
+    @Path("/container/{container}/key/{key}/compare-and-set")
+    @Operation(summary="Replaces the value stored with the key if the current value has the expected hash",
+            description = "The hash is the hex representation of SHA-256 of the value. If the hash header is not provided, the key must not exist.")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            responseCode = "403",
+                            description = "No access",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "409",
+                            description = "The current value does not have the expected hash or version conflict",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))),
+                    @APIResponse(
+                            responseCode = "500",
+                            description = "Internal Error",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "200",
+                            description = "The value has been replaced successfully.") })
+    public Response compareAndSet(@PathParam("container") final String containerName,
+                                  @PathParam("key") final String key,
+                                  @HeaderParam(Headers.EXPECTED_HASH_HEADER) final String expectedHash,
+                                  @HeaderParam(Headers.OPTIONS_HEADER) final String options,
+                                  @HeaderParam(Headers.TTL_HEADER) final Long ttl,
+                                  @HeaderParam(Headers.EOL_HEADER) final Long unixEol,
+                                  @HeaderParam(Headers.VERSION_HEADER) final Long versionHeader,
+                                  final byte[] data) {
+        final AsyncContainer asyncContainer = getContainerForUpdate(containerName);
+        final Record record = toRecord(options, ttl, unixEol, versionHeader);
+        if (!asyncContainer.compareAndSet(0, key.getBytes(), expectedHash, data == null ? new byte[0] : data, record)) {
+            throw new RoStoreServiceException(Response.Status.CONFLICT, "The value of the key \"" + key + "\" in container \"" + containerName + "\" does not have the expected hash.");
+        }
+        final Response.ResponseBuilder rb = Response.ok();
+        Headers.toHeaders(rb, record);
+        return rb.build();
+    }
+
+    private AsyncContainer getContainerForUpdate(final String containerName) {
+        if (ApiKeyManager.APIKEY_CONTAINER_NAME.equals(containerName)) {
+            throw new PermissionDeniedException("Can't update container " + ApiKeyManager.APIKEY_CONTAINER_NAME + ". Use admin service for this operation.");
+        }
+        apiKeyManager.checkContainerPermission(containerName, EnumSet.of(Permission.WRITE));
+        final AsyncContainer asyncContainer = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName);
+        if (asyncContainer == null) {
+            throw new NotFoundException("No container \"" + containerName + "\" found.");
+        }
+        return asyncContainer;
+    }
+
+    private static Record toRecord(final String options, final Long ttl, final Long unixEol, final Long versionHeader) {
+        final long version = versionHeader == null ? Utils.VERSION_UNDEFINED : versionHeader;
+        return new Record().ttlOrUnitEol(ttl, unixEol).version(version).addOptions(RecordOption.parse(options));
+    }
+
     @GET
     @Produces({MediaType.APPLICATION_OCTET_STREAM})
     @Path("/container/{container}/key/{key}")
@@ -230,6 +396,11 @@ public class KeyValueService {
                             content = @Content(mediaType = MediaType.APPLICATION_JSON,
                                     schema = @Schema(implementation = ErrorRepresentation.class))
                     ),
+                    @APIResponse(
+                            responseCode = "504",
+                            description = "The timeout of the request has passed",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))),
                     @APIResponse(
                             responseCode = "500",
                             description = "Internal Error",
@@ -243,6 +414,7 @@ public class KeyValueService {
             })
     public void get(@PathParam("container") final String containerName,
                         @PathParam("key") final String key,
+                        @HeaderParam(Headers.TIMEOUT_HEADER) final Long timeoutMillis,
                         @Context HttpServletResponse servletResponse,
                         @Context HttpServletRequest servletRequest) throws IOException {
 
@@ -287,6 +459,7 @@ public class KeyValueService {
                 }
             }
         });
+        as.deadline(Headers.toDeadline(timeoutMillis));
 
         asyncContainer.getAsync(0, key.getBytes(StandardCharsets.UTF_8), as);
         as.get();
@@ -295,7 +468,9 @@ public class KeyValueService {
     @GET
     @Produces({MediaType.APPLICATION_JSON})
     @Path("/container/{container}/keys")
-    @Operation(summary="Lists keys from the container", description = "The keys are not processed in the alphabetic order. The order depends on the number of shards. Internally, each shard is processed independently.")
+    @Operation(summary="Lists keys from the container", description = "The keys are not processed in the alphabetic order. The order depends on the number of shards. Internally, each shard is processed independently. " +
+            "With ordered=true the shards are listed in parallel and merged in the order of the keys, the next page is requested with the returned continuationToken. " +
+            "With descending=true the keys are merged in the descending order, starting from the greatest key.")
     @APIResponses(
             value = {
                     @APIResponse(
@@ -316,13 +491,20 @@ public class KeyValueService {
                             description = "List of keys",
                             content = @Content(mediaType = MediaType.APPLICATION_JSON))
             })
-    public Response getKeys(@PathParam("container") final String containerName, @QueryParam("start-with-key") final String startWithKey, @QueryParam("continuation-key") final String continuationKey) {
+    public Response getKeys(@PathParam("container") final String containerName,
+                            @QueryParam("start-with-key") final String startWithKey,
+                            @QueryParam("continuation-key") final String continuationKey,
+                            @QueryParam("ordered") final boolean ordered,
+                            @QueryParam("continuation-token") final String continuationToken,
+                            @QueryParam("descending") final boolean descending) {
         apiKeyManager.checkContainerPermission(containerName, EnumSet.of(Permission.LIST));
         final AsyncContainer asyncSegmentPool = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName);
         if (asyncSegmentPool == null) {
             throw new NotFoundException("No container " + containerName + " found or expired.");
         }
-        final KeyList keyList = asyncSegmentPool.list(1, Utils.getBytes(startWithKey), Utils.getBytes(continuationKey), MAX_NUMBER_OF_KEYS, MAX_SIZE_OF_KEYS);
+        final KeyList keyList = ordered || descending ?
+                asyncSegmentPool.listOrdered(1, Utils.getBytes(startWithKey), continuationToken, MAX_NUMBER_OF_KEYS, MAX_SIZE_OF_KEYS, descending) :
+                asyncSegmentPool.list(1, Utils.getBytes(startWithKey), Utils.getBytes(continuationKey), MAX_NUMBER_OF_KEYS, MAX_SIZE_OF_KEYS);
         if (keyList.getSize() == 0) {
             StringBuilder sb = new StringBuilder("No keys are found in container \"").
                     append(containerName).append("\"");
@@ -345,10 +527,69 @@ public class KeyValueService {
             }
             throw new NotFoundException(sb.toString());
         }
-        final StringKeyList skl = new StringKeyList(keyList);
+        final StringKeyList skl = ordered || descending ? new StringKeyList((OrderedKeyList) keyList) : new StringKeyList(keyList);
         return Response.ok(skl).build();
     }
 
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/container/{container}/keys")
+    @Operation(summary="Deletes permanently all the key-value pairs with the keys that start with the prefix or lay in the range from-key (inclusive) to to-key (exclusive)",
+            description = "Either the prefix or the range should be provided. The versions of the keys are not validated.")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            responseCode = "400",
+                            description = "Neither prefix nor range is provided",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "403",
+                            description = "No access",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "500",
+                            description = "Internal Error",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                                    schema = @Schema(implementation = ErrorRepresentation.class))
+                    ),
+                    @APIResponse(
+                            responseCode = "200",
+                            description = "The keys have been deleted, the number of deleted keys is returned",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON))
+            })
+    public Response deleteKeys(@PathParam("container") final String containerName,
+                               @QueryParam("prefix") final String prefix,
+                               @QueryParam("from-key") final String fromKey,
+                               @QueryParam("to-key") final String toKey) {
+        if (ApiKeyManager.APIKEY_CONTAINER_NAME.equals(containerName)) {
+            throw new PermissionDeniedException("Can't delete api keys in container " + ApiKeyManager.APIKEY_CONTAINER_NAME + ". Use admin service for this operation.");
+        }
+        apiKeyManager.checkContainerPermission(containerName, EnumSet.of(Permission.DELETE));
+        final AsyncContainer asyncContainer = roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().get(containerName);
+        if (asyncContainer == null) {
+            throw new NotFoundException("No container \"" + containerName + "\" found.");
+        }
+        final long removed;
+        if (prefix != null && !prefix.isEmpty()) {
+            if (fromKey != null || toKey != null) {
+                throw new RoStoreServiceException(Response.Status.BAD_REQUEST, "Either prefix or from-key and to-key should be provided.");
+            }
+            removed = asyncContainer.removePrefix(0, Utils.getBytes(prefix));
+        } else {
+            if (fromKey == null && toKey == null) {
+                throw new RoStoreServiceException(Response.Status.BAD_REQUEST, "The prefix or the range from-key and to-key should be provided.");
+            }
+            removed = asyncContainer.removeRange(0, Utils.getBytes(fromKey), Utils.getBytes(toKey));
+        }
+        final Map<String, Object> ret = new HashMap<>();
+        ret.put("removed", removed);
+        return Response.ok(ret).build();
+    }
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/container/list")
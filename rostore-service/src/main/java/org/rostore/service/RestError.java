@@ -5,6 +5,8 @@ import org.rostore.entity.*;
 import org.rostore.v2.container.async.AsyncException;
 import org.rostore.v2.container.async.OperationExecutionException;
 import org.rostore.v2.container.async.OperationExecutionRuntimeException;
+import org.rostore.v2.container.async.OperationExpiredException;
+import org.rostore.v2.container.async.OperationRejectedException;
 
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
@@ -25,6 +27,8 @@ public class RestError {
 
     private final Level level;
 
+    private Long retryAfterSeconds;
+
     public Response.StatusType getStatus() {
         return status;
     }
@@ -41,6 +45,15 @@ public class RestError {
         return level;
     }
 
+    /**
+     * The time the client should wait before the request is retried
+     *
+     * @return the time in seconds or {@code null} if the request should not be retried
+     */
+    public Long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
     private RestError(final Response.StatusType status, final ErrorRepresentation errorRepresentation, final Exception exception, final Level level) {
         this.status = status;
         this.errorRepresentation = errorRepresentation;
@@ -54,6 +67,7 @@ public class RestError {
         final Object o = MDC.get(Headers.TRACKING_ID_HEADER);
         final String trackingId = o != null ? o.toString() : "-";
         boolean unexpectedError = true;
+        Long retryAfterSeconds = null;
         if (ex instanceof NotFoundException) {
             ep = new ErrorRepresentation(ex.getMessage(), trackingId);
             status = Response.Status.NOT_FOUND;
@@ -63,27 +77,34 @@ public class RestError {
             status = ((RoStoreServiceException) ex).getStatus();
             unexpectedError = false;
         } else if (ex instanceof OperationExecutionRuntimeException || ex instanceof OperationExecutionException || ex instanceof AsyncException) {
-            final Throwable thr;
-            if (ex instanceof OperationExecutionRuntimeException || ex instanceof AsyncException) {
-                thr = ex.getCause().getCause();
-            } else {
-                thr = ex.getCause();
-            }
+            final Throwable thr = unwrap(ex);
             ep = new ErrorRepresentation(thr.getMessage(), trackingId);
             if (thr instanceof RoStoreServiceException) {
                 status = ((RoStoreServiceException) thr).getStatus();
             }
-            if (thr instanceof QuotaExceededException) {
+            if (thr instanceof OperationRejectedException) {
+                status = Response.Status.SERVICE_UNAVAILABLE;
+                retryAfterSeconds = retryAfterSeconds((OperationRejectedException) thr);
+                unexpectedError = false;
+            } else if (thr instanceof OperationExpiredException) {
+                status = Response.Status.GATEWAY_TIMEOUT;
+                unexpectedError = false;
+            } else if (thr instanceof QuotaExceededException) {
                 status = quotaStatusCode;
             } else if (thr instanceof VersionMismatchInitException ||
                     thr instanceof VersionMismatchException ||
                     thr instanceof ContainerAlreadyExistsException) {
                 status = Response.Status.CONFLICT;
                 unexpectedError = false;
-            } else if (thr instanceof EOLIncorrectException) {
+            } else if (thr instanceof EOLIncorrectException || thr instanceof ValueFormatException) {
                 status = Response.Status.BAD_REQUEST;
             }
-        } else if (ex instanceof EOLIncorrectException) {
+        } else if (ex instanceof OperationRejectedException) {
+            ep = new ErrorRepresentation(ex.getMessage(), trackingId);
+            status = Response.Status.SERVICE_UNAVAILABLE;
+            retryAfterSeconds = retryAfterSeconds((OperationRejectedException) ex);
+            unexpectedError = false;
+        } else if (ex instanceof EOLIncorrectException || ex instanceof ValueFormatException) {
             ep = new ErrorRepresentation(ex.getMessage(), trackingId);
             status = Response.Status.BAD_REQUEST;
         }
@@ -98,7 +119,26 @@ public class RestError {
             level = Level.INFO;
             logger.log(Level.INFO, ep.getMessage());
         }
-        return new RestError(status, ep, ex, level);
+        final RestError restError = new RestError(status, ep, ex, level);
+        restError.retryAfterSeconds = retryAfterSeconds;
+        return restError;
+    }
+
+    /**
+     * Finds the exception that has failed the operation behind the wrappers of the asynchronous execution
+     */
+    private static Throwable unwrap(final Throwable ex) {
+        Throwable thr = ex;
+        while ((thr instanceof OperationExecutionRuntimeException ||
+                thr instanceof OperationExecutionException ||
+                thr instanceof AsyncException) && thr.getCause() != null) {
+            thr = thr.getCause();
+        }
+        return thr;
+    }
+
+    private static long retryAfterSeconds(final OperationRejectedException ex) {
+        return Math.max(1, (ex.getRetryAfterMillis() + 999) / 1000);
     }
 
     private static Response.StatusType quotaStatusCode() {
@@ -11,6 +11,8 @@ import org.jboss.logging.Logger;
 import org.rostore.entity.RoStoreException;
 import org.rostore.v2.container.async.AsyncContainerMedia;
 import org.rostore.v2.container.async.AsyncContainerMediaProperties;
+import org.rostore.v2.container.async.AsyncContainersProperties;
+import org.rostore.v2.container.async.ExecutionMode;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
@@ -38,6 +40,33 @@ public class RoStoreAccessor {
     @Inject @ConfigProperty(name="closeContainersOlderThan")
     private Duration closeContainersOlderThan;
 
+    /**
+     * If set, the store executes the operations in its own threads of this mode instead of the managed executor
+     */
+    @Inject @ConfigProperty(name="executionMode")
+    private Optional<ExecutionMode> executionMode;
+
+    /**
+     * The limits of the operation queues, the new requests are rejected when they are reached
+     */
+    @Inject @ConfigProperty(name="maxQueuedKeyOperationsPerShard", defaultValue = "" + AsyncContainersProperties.MAX_QUEUED_KEY_OPERATIONS_PER_SHARD_DEFAULT)
+    private int maxQueuedKeyOperationsPerShard;
+
+    @Inject @ConfigProperty(name="maxQueuedOperations", defaultValue = "" + AsyncContainersProperties.MAX_QUEUED_OPERATIONS_DEFAULT)
+    private int maxQueuedOperations;
+
+    @Inject @ConfigProperty(name="queueTargetDelayMillis", defaultValue = "" + AsyncContainersProperties.QUEUE_TARGET_DELAY_MILLIS_DEFAULT)
+    private long queueTargetDelayMillis;
+
+    @Inject @ConfigProperty(name="queueIntervalMillis", defaultValue = "" + AsyncContainersProperties.QUEUE_INTERVAL_MILLIS_DEFAULT)
+    private long queueIntervalMillis;
+
+    /**
+     * The size of the read cache of every opened container in bytes, 0 disables the cache
+     */
+    @Inject @ConfigProperty(name="readCacheSize", defaultValue = "" + AsyncContainersProperties.READ_CACHE_SIZE_DEFAULT)
+    private long readCacheSize;
+
     @Inject
     EventBus bus;
 
@@ -68,7 +97,11 @@ public class RoStoreAccessor {
             if (!storeFile.exists()) {
                 throw new RoStoreException("The store file " + storeFileName + " does not exist.");
             }
-            asyncContainerMedia = AsyncContainerMedia.load(storeFile, executorService);
+            if (executionMode.isPresent()) {
+                asyncContainerMedia = AsyncContainerMedia.load(storeFile, executionMode.get(), asyncContainersProperties());
+            } else {
+                asyncContainerMedia = AsyncContainerMedia.load(storeFile, executorService, asyncContainersProperties());
+            }
             setState(RoStoreState.OPENED);
         } catch(final Exception e) {
             logger.error("Can't open a store file", e);
@@ -76,6 +109,16 @@ public class RoStoreAccessor {
         }
     }
 
+    private AsyncContainersProperties asyncContainersProperties() {
+        final AsyncContainersProperties properties = new AsyncContainersProperties();
+        properties.setMaxQueuedKeyOperationsPerShard(maxQueuedKeyOperationsPerShard);
+        properties.setMaxQueuedOperations(maxQueuedOperations);
+        properties.setQueueTargetDelayMillis(queueTargetDelayMillis);
+        properties.setQueueIntervalMillis(queueIntervalMillis);
+        properties.setReadCacheSize(readCacheSize);
+        return properties;
+    }
+
     private void setState(final RoStoreState state) {
         if (state != this.state) {
             this.state = state;
@@ -104,7 +147,12 @@ public class RoStoreAccessor {
             throw new RoStoreException("The file " + storeFileName + " already exists.");
         }
         logger.debugf("Creating a store at the location '%s'", storeFileName);
-        asyncContainerMedia = AsyncContainerMedia.create(storeFile, executorService, mediaProperties);
+        mediaProperties.setAsyncContainersProperties(asyncContainersProperties());
+        if (executionMode.isPresent()) {
+            asyncContainerMedia = AsyncContainerMedia.create(storeFile, mediaProperties, executionMode.get());
+        } else {
+            asyncContainerMedia = AsyncContainerMedia.create(storeFile, executorService, mediaProperties);
+        }
         logger.infof("A new store at the location '%s' gas just been created.", storeFileName);
         setState(RoStoreState.OPENED);
     }
@@ -107,6 +107,14 @@ public class StoreAdminService {
         return Response.ok(ret).build();
     }
 
+    @GET
+    @Path("/metrics")
+    @Operation(summary="Provides the queue depths and the operation latencies of the shards of the opened containers", description = "Operation requires a store-wide read permission")
+    public Response metrics() {
+        apiKeyManager.checkStorePermission(EnumSet.of(Permission.READ));
+        return Response.ok(roStoreAccessor.getAsyncContainerMedia().getAsyncContainers().getMetrics()).build();
+    }
+
     @GET
     @Path("/mapper-properties")
     @Operation(summary="Provides information on store space usage", description = "Operation requires a store-wide read permission")
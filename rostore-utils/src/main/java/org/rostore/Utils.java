@@ -1,6 +1,8 @@
 package org.rostore;
 
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * General functions and constants used in rostore modules.
@@ -108,4 +110,24 @@ public class Utils {
     public static long unixEol2eol(long unixEol) {
         return unixEol / 1000 - TTL_START;
     }
+
+    /**
+     * Calculates the hash of the value, used to compare-and-set the values.
+     *
+     * @param value the value data
+     * @return the hex representation of the SHA-256 of the value
+     */
+    public static String valueHash(final byte[] value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(value);
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
 }
@@ -4,13 +4,15 @@ package org.rostore.entity.media;
  * Specifies the major container properties, such as the maximum size and maximum TTL of the keys
  * the container will allow to store, as well as the number of container's shard.
  *
- * <p>These values can only be set at the time of container creation.</p>
+ * <p>These values can only be set at the time of container creation, except for the shard number and routing
+ * that are changed by the resharding of the container.</p>
  */
 public class ContainerMeta {
     private long creationTime;
     private long maxSize;
     private int shardNumber;
     private long maxTTL;
+    private ShardRouting shardRouting;
 
     public long getCreationTime() {
         return creationTime;
@@ -71,4 +73,22 @@ public class ContainerMeta {
     public void setMaxTTL(long maxTTL) {
         this.maxTTL = maxTTL;
     }
+
+    /**
+     * The way the keys are mapped to the shards of the container.
+     * <p>The containers that have been created without it use {@link ShardRouting#LEGACY}.</p>
+     *
+     * @return the shard routing
+     */
+    public ShardRouting getShardRouting() {
+        return shardRouting == null ? ShardRouting.LEGACY : shardRouting;
+    }
+
+    /**
+     * Sets the way the keys are mapped to the shards of the container.
+     * @param shardRouting the shard routing
+     */
+    public void setShardRouting(ShardRouting shardRouting) {
+        this.shardRouting = shardRouting;
+    }
 }
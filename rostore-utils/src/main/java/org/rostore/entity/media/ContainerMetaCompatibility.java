@@ -6,6 +6,7 @@ public class ContainerMetaCompatibility {
     private int segmentNumber;
     private int shardNumber;
     private long maxTTL;
+    private ShardRouting shardRouting;
 
     public long getCreationTime() {
         return creationTime;
@@ -46,4 +47,12 @@ public class ContainerMetaCompatibility {
     public void setMaxTTL(long maxTTL) {
         this.maxTTL = maxTTL;
     }
+
+    public ShardRouting getShardRouting() {
+        return shardRouting;
+    }
+
+    public void setShardRouting(ShardRouting shardRouting) {
+        this.shardRouting = shardRouting;
+    }
 }
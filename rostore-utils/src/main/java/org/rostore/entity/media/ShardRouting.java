@@ -0,0 +1,98 @@
+package org.rostore.entity.media;
+
+/**
+ * Specifies how the key is mapped to the shard of the container.
+ *
+ * <p>The routing is stored with the {@link ContainerMeta}. It can only be changed together with
+ * the shards by the resharding of the container, as the keys would not be found in their shards anymore.</p>
+ */
+public enum ShardRouting {
+
+    /**
+     * The original routing: sums up to ten bytes of the key into an 8-bit hash.
+     * <p>Keys that only differ in the bytes that are skipped, e.g. with a common prefix and
+     * a numeric suffix, land in the same shard, so the shards can be loaded very unevenly.</p>
+     */
+    LEGACY {
+        @Override
+        public int getShardIndex(final byte[] key, final int shardNumber) {
+            int every = key.length / 10;
+            if (every < 1) {
+                every = 1;
+            }
+            int sum = 0;
+            for(int i=0; i<key.length; i+=every) {
+                sum += key[i];
+            }
+            return ((sum & 0xff) * shardNumber) >> 8;
+        }
+    },
+
+    /**
+     * A 32-bit MurmurHash3 of the full key, mapped to the shard by the multiply-shift range reduction,
+     * which keeps the shards evenly loaded for any number of shards.
+     */
+    MURMUR3 {
+        @Override
+        public int getShardIndex(final byte[] key, final int shardNumber) {
+            return (int) (((murmur3(key) & 0xffffffffL) * shardNumber) >>> 32);
+        }
+    };
+
+    /**
+     * Computes the index of the shard the key belongs to
+     *
+     * @param key the key
+     * @param shardNumber the number of shards in the container
+     * @return the shard index in the range [0, shardNumber)
+     */
+    public abstract int getShardIndex(final byte[] key, final int shardNumber);
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    /**
+     * MurmurHash3 (x86, 32-bit) of the data with the seed 0
+     *
+     * @param data the data to hash
+     * @return the hash
+     */
+    static int murmur3(final byte[] data) {
+        int hash = 0;
+        final int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            final int offset = i * 4;
+            int k = (data[offset] & 0xff) |
+                    ((data[offset + 1] & 0xff) << 8) |
+                    ((data[offset + 2] & 0xff) << 16) |
+                    ((data[offset + 3] & 0xff) << 24);
+            k *= C1;
+            k = Integer.rotateLeft(k, 15);
+            k *= C2;
+            hash ^= k;
+            hash = Integer.rotateLeft(hash, 13);
+            hash = hash * 5 + 0xe6546b64;
+        }
+        final int tail = blocks * 4;
+        int k = 0;
+        switch (data.length & 3) {
+            case 3:
+                k ^= (data[tail + 2] & 0xff) << 16;
+            case 2:
+                k ^= (data[tail + 1] & 0xff) << 8;
+            case 1:
+                k ^= data[tail] & 0xff;
+                k *= C1;
+                k = Integer.rotateLeft(k, 15);
+                k *= C2;
+                hash ^= k;
+        }
+        hash ^= data.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
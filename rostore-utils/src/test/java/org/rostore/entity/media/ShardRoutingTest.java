@@ -0,0 +1,88 @@
+package org.rostore.entity.media;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Checks the load of the shards produced by the {@link ShardRouting} on typical key sets
+ */
+public class ShardRoutingTest {
+
+    private static final int KEY_NUMBER = 100000;
+
+    @Test
+    public void testMurmur3() {
+        // reference values of MurmurHash3_x86_32 with seed 0
+        Assertions.assertEquals(0, ShardRouting.murmur3(new byte[0]));
+        Assertions.assertEquals(0xba6bd213, ShardRouting.murmur3("test".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(0x2e4ff723, ShardRouting.murmur3("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testStableShardIndex() {
+        // the routing is persisted with the container, the shard of a key must never change
+        Assertions.assertEquals(10, ShardRouting.LEGACY.getShardIndex("key-0".getBytes(StandardCharsets.UTF_8), 16));
+        Assertions.assertEquals(1, ShardRouting.LEGACY.getShardIndex("key-199".getBytes(StandardCharsets.UTF_8), 16));
+        Assertions.assertEquals(11, ShardRouting.LEGACY.getShardIndex("/tenant-3/documents/2023/5/1234.json".getBytes(StandardCharsets.UTF_8), 16));
+        Assertions.assertEquals(14, ShardRouting.MURMUR3.getShardIndex("key-0".getBytes(StandardCharsets.UTF_8), 16));
+        Assertions.assertEquals(0, ShardRouting.MURMUR3.getShardIndex("key-199".getBytes(StandardCharsets.UTF_8), 16));
+        Assertions.assertEquals(9, ShardRouting.MURMUR3.getShardIndex("/tenant-3/documents/2023/5/1234.json".getBytes(StandardCharsets.UTF_8), 16));
+    }
+
+    @Test
+    public void testShardSkew() {
+        final Random random = new Random(1);
+        checkSkew("sequential", (i) -> "key-" + i);
+        checkSkew("user sessions", (i) -> "user:" + (i / 10) + ":session:" + (i % 10));
+        checkSkew("uuids", (i) -> new UUID(random.nextLong(), random.nextLong()).toString());
+        checkSkew("paths", (i) -> "/tenant-" + (i % 7) + "/documents/2023/" + (i % 12 + 1) + "/" + i + ".json");
+    }
+
+    private void checkSkew(final String keySet, final IntFunction<String> keyGenerator) {
+        for (final int shardNumber : new int[] {5, 16, 100}) {
+            final int[][] loads = new int[ShardRouting.values().length][shardNumber];
+            for (int i = 0; i < KEY_NUMBER; i++) {
+                final byte[] key = keyGenerator.apply(i).getBytes(StandardCharsets.UTF_8);
+                for (final ShardRouting shardRouting : ShardRouting.values()) {
+                    final int shardIndex = shardRouting.getShardIndex(key, shardNumber);
+                    Assertions.assertTrue(shardIndex >= 0 && shardIndex < shardNumber);
+                    loads[shardRouting.ordinal()][shardIndex]++;
+                }
+            }
+            final int[] murmur3 = loads[ShardRouting.MURMUR3.ordinal()];
+            final String message = keySet + ", shards=" + shardNumber;
+            // every shard gets close to the average share of the keys
+            Assertions.assertTrue(getMaxLoad(murmur3) < 1.2, message);
+            Assertions.assertTrue(getMinLoad(murmur3) > 0.8, message);
+            // the legacy routing overloads some shards on all of these key sets
+            Assertions.assertTrue(getMaxLoad(loads[ShardRouting.LEGACY.ordinal()]) > getMaxLoad(murmur3), message);
+        }
+    }
+
+    /**
+     * The load of the most loaded shard relative to the average
+     */
+    private static double getMaxLoad(final int[] load) {
+        int max = 0;
+        for (final int l : load) {
+            max = Math.max(max, l);
+        }
+        return max * (double) load.length / KEY_NUMBER;
+    }
+
+    /**
+     * The load of the least loaded shard relative to the average
+     */
+    private static double getMinLoad(final int[] load) {
+        int min = Integer.MAX_VALUE;
+        for (final int l : load) {
+            min = Math.min(min, l);
+        }
+        return min * (double) load.length / KEY_NUMBER;
+    }
+}